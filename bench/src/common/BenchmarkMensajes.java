@@ -0,0 +1,79 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - CODIFICACION Y DECODIFICACION DE Mensaje
+ *
+ * Mide el formato binario de CodificadorMensaje (el del diario) y, como
+ * referencia, la serializacion estandar de Java que reemplazo.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkMensajes {
+
+    private Mensaje mensaje;
+    private byte[] codificado;
+    private byte[] serializado;
+
+    @Setup
+    public void preparar() throws IOException {
+        mensaje = new Mensaje("hola a todos, este es un mensaje de chat de largo habitual",
+                "127.0.0.1:50412:1700000000000", "sala-general", Protocolo.MENSAJE_TEXTO, Protocolo.MULTICAST);
+        mensaje.setSecuencia(123_456);
+        codificado = CodificadorMensaje.codificar(mensaje);
+        serializado = serializar(mensaje);
+    }
+
+    private static byte[] serializar(Mensaje mensaje) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream salida = new ObjectOutputStream(bytes)) {
+            salida.writeObject(mensaje);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] codificar() {
+        return CodificadorMensaje.codificar(mensaje);
+    }
+
+    @Benchmark
+    public Mensaje decodificar() {
+        return CodificadorMensaje.decodificar(ByteBuffer.wrap(codificado));
+    }
+
+    @Benchmark
+    public byte[] serializarJava() throws IOException {
+        return serializar(mensaje);
+    }
+
+    @Benchmark
+    public Object deserializarJava() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream entrada = new ObjectInputStream(new ByteArrayInputStream(serializado))) {
+            return entrada.readObject();
+        }
+    }
+}
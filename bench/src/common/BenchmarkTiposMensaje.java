@@ -0,0 +1,55 @@
+package common;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - FORMATO NUMERICO EN TiposMensaje.procesarMensaje
+ *
+ * System.out se cambia por un flujo que descarta, para medir el analisis
+ * y el armado del texto y no la consola.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkTiposMensaje {
+
+    @Param({"201|hola a todos", "200|ana|hola", "203|hola", "100|ana", "999|desconocido"})
+    public String linea;
+
+    private PrintStream original;
+
+    @Setup
+    public void preparar() {
+        original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void restaurar() {
+        System.setOut(original);
+    }
+
+    @Benchmark
+    public void procesarMensaje() {
+        TiposMensaje.procesarMensaje(linea);
+    }
+}
@@ -0,0 +1,65 @@
+package servidor;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - INTERPRETACION DE COMANDOS EN ManejadorClientes
+ *
+ * Mide procesarMensaje para cada tipo de linea que llega de un cliente,
+ * incluido el enrutado hasta la cola de salida del destinatario.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkComandos {
+
+    @Param({
+        "BROADCAST:hola a todos",
+        "UNICAST:bench-destino:hola",
+        "UNICAST:nadie:hola",
+        "ANYCAST:hola",
+        "MULTICAST:bench:hola",
+        "PROBE off",
+        "texto sin comando"
+    })
+    public String comando;
+
+    private ClientesEnMemoria clientes;
+    private ManejadorClientes emisor;
+
+    @Setup
+    public void preparar() {
+        clientes = new ClientesEnMemoria();
+        emisor = clientes.crear("bench-emisor");
+        clientes.crear("bench-destino-id");
+        ServidorMixto.registrarApodo("bench-destino", "bench-destino-id", false);
+        ServidorMixto.unirseASala("bench", "bench-destino-id");
+    }
+
+    @TearDown
+    public void cerrar() {
+        clientes.cerrarTodos();
+    }
+
+    @Benchmark
+    public void procesarMensaje() {
+        emisor.procesarMensaje(comando, System.nanoTime());
+    }
+}
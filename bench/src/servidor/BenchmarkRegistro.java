@@ -0,0 +1,84 @@
+package servidor;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - BUSQUEDA EN EL REGISTRO DE CLIENTES DE ServidorMixto
+ *
+ * Mide buscarManejador por ID, por apodo y para un destino inexistente
+ * (el camino de cada UNICAST). Todas las entradas comparten un solo
+ * manejador: se mide el registro, no la creacion de clientes.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkRegistro {
+
+    @Param({"100", "10000"})
+    public int clientes;
+
+    private ClientesEnMemoria memoria;
+    private String[] ids;
+    private String[] apodos;
+    private int siguiente;
+
+    @Setup
+    public void preparar() {
+        memoria = new ClientesEnMemoria();
+        ManejadorClientes compartido = memoria.crear("bench-registro");
+        ids = new String[clientes];
+        apodos = new String[clientes];
+        for (int i = 0; i < clientes; i++) {
+            ids[i] = "127.0.0.1:" + (20000 + i) + ":" + (1_700_000_000_000L + i);
+            apodos[i] = "usuario" + i;
+            ServidorMixto.agregarManejador(ids[i], compartido);
+            ServidorMixto.registrarApodo(apodos[i], ids[i], false);
+        }
+    }
+
+    @TearDown
+    public void cerrar() {
+        for (String id : ids) {
+            ServidorMixto.removerManejador(id);
+        }
+        memoria.cerrarTodos();
+    }
+
+    private int proximo() {
+        int i = siguiente;
+        siguiente = i + 1 == clientes ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public ManejadorClientes porId() {
+        return ServidorMixto.buscarManejador(ids[proximo()]);
+    }
+
+    @Benchmark
+    public ManejadorClientes porApodo() {
+        return ServidorMixto.buscarManejador(apodos[proximo()]);
+    }
+
+    @Benchmark
+    public ManejadorClientes inexistente() {
+        return ServidorMixto.buscarManejador("nadie" + proximo());
+    }
+}
@@ -0,0 +1,56 @@
+package servidor;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - REPARTO DE UN BROADCAST A N CLIENTES EN MEMORIA
+ *
+ * Mide broadcastMensaje completo (registro, historial y una escritura
+ * encolada por destinatario). Los hilos escritores de cada ColaSalida
+ * siguen corriendo y descartan lo que escriben.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchmarkReparto {
+
+    @Param({"1", "10", "100", "1000"})
+    public int destinatarios;
+
+    private ClientesEnMemoria clientes;
+
+    @Setup
+    public void preparar() {
+        clientes = new ClientesEnMemoria();
+        for (int i = 0; i < destinatarios; i++) {
+            clientes.crear("bench-sumidero-" + i);
+        }
+    }
+
+    @TearDown
+    public void cerrar() {
+        clientes.cerrarTodos();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        ServidorMixto.broadcastMensaje("hola a todos desde el benchmark", "bench-emisor");
+    }
+}
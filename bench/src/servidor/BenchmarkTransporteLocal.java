@@ -0,0 +1,140 @@
+package servidor;
+
+import common.FlujosCanal;
+import common.Protocolo;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BENCHMARK - SOCKET UNIX FRENTE A TCP DE LOOPBACK
+ *
+ * Un cliente manda lineas sin comando y espera el "Echo: " del servidor:
+ * cada ida y vuelta pasa por ManejadorClientes y su ColaSalida, asi que la
+ * diferencia entre las dos variantes es el transporte.
+ *
+ * - idaYVuelta: latencia de una linea (un mensaje en vuelo)
+ * - rafaga: 64 lineas seguidas y sus 64 respuestas (throughput)
+ *
+ * @version 1.0
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkTransporteLocal {
+
+    private static final int RAFAGA = 64;
+
+    @Param({"TCP", "UNIX"})
+    public String transporte;
+
+    private ServerSocket servidorTcp;
+    private ServidorUnix servidorUnix;
+    private Path directorio;
+    private AutoCloseable conexion;
+    private BufferedReader entrada;
+    private Writer salida;
+
+    @Setup
+    public void preparar() throws Exception {
+        if ("UNIX".equals(transporte)) {
+            directorio = Files.createTempDirectory("chat-bench");
+            Path ruta = directorio.resolve("chat.sock");
+            servidorUnix = new ServidorUnix(ruta);
+            servidorUnix.iniciar();
+            SocketChannel canal = SocketChannel.open(StandardProtocolFamily.UNIX);
+            canal.connect(UnixDomainSocketAddress.of(ruta));
+            conexion = canal;
+            entrada = new BufferedReader(new InputStreamReader(FlujosCanal.entrada(canal)));
+            salida = new BufferedWriter(new OutputStreamWriter(FlujosCanal.salida(canal)));
+        } else {
+            // Mismo camino que el servidor TCP, en un puerto libre
+            servidorTcp = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread aceptador = new Thread(() -> {
+                try {
+                    Socket aceptado = servidorTcp.accept();
+                    String id = Protocolo.generarIdCliente("127.0.0.1", aceptado.getPort());
+                    ServidorMixto.atenderConexion(aceptado, id, Protocolo.TCP);
+                } catch (IOException ignored) {
+                }
+            }, "bench-aceptador");
+            aceptador.start();
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), servidorTcp.getLocalPort());
+            socket.setTcpNoDelay(true);
+            conexion = socket;
+            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            salida = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        }
+
+        // Saltar bienvenida, ayuda e historial hasta la respuesta del registro
+        salida.write("CONEXION|bench-" + transporte.toLowerCase() + "\n");
+        salida.flush();
+        String linea;
+        while ((linea = entrada.readLine()) != null && !linea.startsWith("Apodo registrado")) {
+            // descartada
+        }
+    }
+
+    @TearDown
+    public void cerrar() throws Exception {
+        conexion.close();
+        if (servidorTcp != null) {
+            servidorTcp.close();
+        }
+        if (servidorUnix != null) {
+            servidorUnix.detener();
+            Files.deleteIfExists(directorio);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String idaYVuelta() throws IOException {
+        salida.write("ping\n");
+        salida.flush();
+        return entrada.readLine();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(RAFAGA)
+    public String rafaga() throws IOException {
+        for (int i = 0; i < RAFAGA; i++) {
+            salida.write("ping\n");
+        }
+        salida.flush();
+        String ultima = null;
+        for (int i = 0; i < RAFAGA; i++) {
+            ultima = entrada.readLine();
+        }
+        return ultima;
+    }
+}
@@ -0,0 +1,60 @@
+package servidor;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CLIENTES EN MEMORIA - MANEJADORES SIN RED PARA LOS BENCHMARKS
+ *
+ * Crea ManejadorClientes sobre un socket falso: la entrada esta vacia y la
+ * salida descarta todo, asi que un reparto recorre el mismo camino que en
+ * produccion (ColaSalida con su hilo escritor) sin tocar la red.
+ *
+ * Caracteristicas:
+ * - Los manejadores se agregan a la lista de activos de ServidorMixto
+ * - cerrarTodos() los quita con removerManejador, como una desconexion
+ *
+ * @version 1.0
+ */
+final class ClientesEnMemoria {
+
+    private final List<String> ids = new ArrayList<>();
+
+    /**
+     * Socket que no se conecta a nada
+     */
+    private static final class SocketEnMemoria extends Socket {
+        @Override
+        public InputStream getInputStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+    }
+
+    /**
+     * Crea un manejador activo y lo registra en el servidor
+     *
+     * @param idCliente ID del cliente simulado
+     * @return Manejador registrado
+     */
+    ManejadorClientes crear(String idCliente) {
+        ManejadorClientes manejador = new ManejadorClientes(new SocketEnMemoria(), idCliente, common.Protocolo.TCP);
+        ServidorMixto.agregarManejador(idCliente, manejador);
+        ids.add(idCliente);
+        return manejador;
+    }
+
+    void cerrarTodos() {
+        for (String id : ids) {
+            ServidorMixto.removerManejador(id);
+        }
+        ids.clear();
+    }
+}
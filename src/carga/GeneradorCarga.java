@@ -0,0 +1,735 @@
+package carga;
+
+import common.HistogramaLatencia;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GENERADOR DE CARGA - MILES DE CLIENTES SIMULADOS CON NIO
+ *
+ * Abre miles de sesiones TCP y UDP contra un ServidorMixto y les hace
+ * enviar una mezcla de BROADCAST, UNICAST, ANYCAST y MULTICAST a una tasa
+ * fija. Mide el throughput y la latencia de extremo a extremo.
+ *
+ * Caracteristicas:
+ * - Pocos hilos con un Selector cada uno (no un hilo por sesion): decenas
+ *   de miles de sesiones caben en un solo proceso
+ * - Selectores en lugar de hilos virtuales: el hilo que lleva el ritmo
+ *   escribe directamente en el canal no bloqueante y, si el socket esta
+ *   lleno, encola y sigue con el siguiente envio. Con un hilo por sesion
+ *   cada envio pasaria por una cola y un desaparcado antes de escribirse, y
+ *   esa espera del planificador se sumaria a la latencia que se mide
+ * - Tasa constante: el envio k de cada hilo esta programado para
+ *   inicio + k * intervalo y se manda aunque vaya atrasado, nunca se salta
+ * - Latencia corregida por omision coordinada: cada mensaje lleva su
+ *   instante programado y el receptor mide desde ahi, asi que un servidor
+ *   lento que frena al generador no esconde la espera. Tambien se mide desde
+ *   el envio real (sin corregir) para comparar
+ * - Percentiles con common.HistogramaLatencia, por tipo de envio
+ * - Las sesiones TCP se registran como c0..cN-1 en las salas carga-0..carga-M-1;
+ *   los UNICAST van a una sesion al azar y los MULTICAST a la sala propia
+ * - UDP solo mide lo enviado: el servidor no responde datagramas
+ *
+ * Configuracion (propiedades del sistema):
+ * - chat.carga.host                  Servidor (localhost)
+ * - chat.carga.puerto.tcp / .udp     Puertos (12345 / 12346)
+ * - chat.carga.tcp / chat.carga.udp  Sesiones de cada protocolo (1000 / 0)
+ * - chat.carga.tasa                  Mensajes por segundo entre todas las sesiones TCP (1000)
+ * - chat.carga.tasa.udp              Datagramas por segundo entre todas las sesiones UDP (1000)
+ * - chat.carga.mezcla                Pesos por tipo (BROADCAST=5,UNICAST=70,ANYCAST=10,MULTICAST=15)
+ * - chat.carga.salas                 Salas para MULTICAST (16)
+ * - chat.carga.duracion              Segundos de medicion (30)
+ * - chat.carga.calentamiento         Segundos iniciales que no se miden (5)
+ * - chat.carga.hilos                 Hilos con Selector (nucleos disponibles)
+ *
+ * Uso: java -Dchat.carga.tcp=10000 -Dchat.carga.tasa=20000 -cp build/classes carga.GeneradorCarga
+ * (con decenas de miles de sesiones hace falta subir ulimit -n en ambos lados)
+ *
+ * @version 1.0
+ */
+public final class GeneradorCarga {
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    private static final String HOST = System.getProperty("chat.carga.host", "localhost");
+    private static final int PUERTO_TCP = Integer.getInteger("chat.carga.puerto.tcp", 12345);
+    private static final int PUERTO_UDP = Integer.getInteger("chat.carga.puerto.udp", 12346);
+    private static final int SESIONES_TCP = Integer.getInteger("chat.carga.tcp", 1000);
+    private static final int SESIONES_UDP = Integer.getInteger("chat.carga.udp", 0);
+    private static final double TASA_TCP = Double.parseDouble(System.getProperty("chat.carga.tasa", "1000"));
+    private static final double TASA_UDP = Double.parseDouble(System.getProperty("chat.carga.tasa.udp", "1000"));
+    private static final int SALAS = Math.max(1, Integer.getInteger("chat.carga.salas", 16));
+    private static final int DURACION_S = Integer.getInteger("chat.carga.duracion", 30);
+    private static final int CALENTAMIENTO_S = Integer.getInteger("chat.carga.calentamiento", 5);
+    private static final int HILOS = Math.max(1, Integer.getInteger("chat.carga.hilos",
+            Runtime.getRuntime().availableProcessors()));
+
+    /** Conexiones TCP en curso por hilo (para no desbordar la cola de accept) */
+    private static final int CONEXIONES_EN_CURSO = 64;
+
+    /** Tiempo maximo para abrir y registrar todas las sesiones */
+    private static final long ESPERA_CONEXION_MS = 120_000;
+
+    /** Tiempo para recibir lo que quedo en vuelo al terminar */
+    private static final long DRENAJE_MS = 2_000;
+
+    private static final String MARCA = "carga ";
+
+    // =============================================
+    // TIPOS DE ENVIO
+    // =============================================
+
+    private static final int BROADCAST = 0;
+    private static final int UNICAST = 1;
+    private static final int ANYCAST = 2;
+    private static final int MULTICAST = 3;
+    private static final String[] NOMBRES = {"BROADCAST", "UNICAST", "ANYCAST", "MULTICAST"};
+
+    /** Pesos acumulados de la mezcla (el ultimo es el total) */
+    private static final int[] MEZCLA = leerMezcla(System.getProperty("chat.carga.mezcla",
+            "BROADCAST=5,UNICAST=70,ANYCAST=10,MULTICAST=15"));
+
+    // =============================================
+    // ESTADO COMPARTIDO
+    // =============================================
+
+    private static final AtomicInteger registradas = new AtomicInteger();
+    private static final AtomicInteger fallidas = new AtomicInteger();
+
+    /** Estadisticas en curso; se reemplazan al terminar el calentamiento */
+    private static volatile Estadisticas estadisticas = new Estadisticas();
+
+    /** Instante programado del primer envio (0 mientras se conecta) */
+    private static volatile long inicioEnvio;
+
+    /** Instante a partir del cual ya no se envia */
+    private static volatile long finEnvio = Long.MAX_VALUE;
+
+    private static volatile boolean corriendo = true;
+
+    private GeneradorCarga() {
+    }
+
+    // =============================================
+    // PROGRAMA PRINCIPAL
+    // =============================================
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf(Locale.ROOT, "Generador de carga contra %s (tcp %d, udp %d)%n", HOST, PUERTO_TCP, PUERTO_UDP);
+        System.out.printf(Locale.ROOT, "Sesiones: %d TCP a %.0f msg/s, %d UDP a %.0f msg/s, %d hilos, %d salas%n",
+                SESIONES_TCP, TASA_TCP, SESIONES_UDP, TASA_UDP, HILOS, SALAS);
+        System.out.println("Mezcla: " + describirMezcla());
+
+        // Repartir las sesiones entre los hilos
+        InetSocketAddress tcp = new InetSocketAddress(HOST, PUERTO_TCP);
+        InetSocketAddress udp = new InetSocketAddress(HOST, PUERTO_UDP);
+        List<Reactor> reactores = new ArrayList<>(HILOS);
+        for (int i = 0; i < HILOS; i++) {
+            reactores.add(new Reactor(i, tcp, udp));
+        }
+        for (int i = 0; i < SESIONES_TCP; i++) {
+            reactores.get(i % HILOS).sesiones.add(new SesionTcp(i));
+        }
+        for (int i = 0; i < SESIONES_UDP; i++) {
+            reactores.get(i % HILOS).sesionesUdp++;
+        }
+        List<Thread> hilos = new ArrayList<>(HILOS);
+        for (Reactor reactor : reactores) {
+            Thread hilo = new Thread(reactor, "carga-" + reactor.numero);
+            hilo.setDaemon(true);
+            hilo.start();
+            hilos.add(hilo);
+        }
+
+        // Esperar a que todas las sesiones TCP esten registradas
+        long limite = System.currentTimeMillis() + ESPERA_CONEXION_MS;
+        long inicioConexion = System.nanoTime();
+        while (registradas.get() + fallidas.get() < SESIONES_TCP && System.currentTimeMillis() < limite) {
+            Thread.sleep(100);
+        }
+        System.out.printf(Locale.ROOT, "Sesiones TCP registradas: %d, fallidas: %d (%d ms)%n",
+                registradas.get(), fallidas.get(), (System.nanoTime() - inicioConexion) / 1_000_000);
+        if (SESIONES_TCP > 0 && registradas.get() == 0) {
+            System.out.println("Ninguna sesion TCP se pudo registrar: ¿esta corriendo el servidor?");
+            System.exit(1);
+        }
+
+        // Fase de envio: calentamiento, medicion y drenaje
+        long inicio = System.nanoTime() + 100_000_000L;
+        long finCalentamiento = inicio + CALENTAMIENTO_S * 1_000_000_000L;
+        finEnvio = finCalentamiento + DURACION_S * 1_000_000_000L;
+        inicioEnvio = inicio;
+        reactores.forEach(Reactor::despertar);
+
+        boolean midiendo = CALENTAMIENTO_S == 0;
+        if (midiendo) {
+            estadisticas = new Estadisticas();
+        }
+        long anteriorEnviados = 0;
+        long anteriorEntregas = 0;
+        for (long segundo = 1; System.nanoTime() < finEnvio; segundo++) {
+            LockSupport.parkNanos(inicio + segundo * 1_000_000_000L - System.nanoTime());
+            Estadisticas actuales = estadisticas;
+            long enviados = actuales.totalEnviados();
+            long entregas = actuales.totalEntregas();
+            System.out.printf(Locale.ROOT, "t=%3ds enviados %7d/s  entregas %8d/s  p99 %8.2f ms  pendientes %d%n",
+                    segundo, enviados - anteriorEnviados, entregas - anteriorEntregas,
+                    actuales.todas.instantanea().percentil(99) / 1e6, pendientes(reactores));
+            anteriorEnviados = enviados;
+            anteriorEntregas = entregas;
+            if (!midiendo && System.nanoTime() >= finCalentamiento) {
+                midiendo = true;
+                estadisticas = new Estadisticas();
+                anteriorEnviados = 0;
+                anteriorEntregas = 0;
+                System.out.println("-- fin del calentamiento, empieza la medicion --");
+            }
+        }
+
+        Thread.sleep(DRENAJE_MS);
+        corriendo = false;
+        reactores.forEach(Reactor::despertar);
+        for (Thread hilo : hilos) {
+            hilo.join(5_000);
+        }
+        imprimirResumen(estadisticas, midiendo ? DURACION_S : 0);
+        System.exit(0);
+    }
+
+    private static long pendientes(List<Reactor> reactores) {
+        long total = 0;
+        for (Reactor reactor : reactores) {
+            total += reactor.pendientes;
+        }
+        return total;
+    }
+
+    private static void imprimirResumen(Estadisticas e, int segundos) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "RESUMEN (%d s medidos, latencias en ms)%n", segundos);
+        System.out.printf(Locale.ROOT, "%-10s %10s %10s %12s %9s %9s %9s %9s %9s %9s | %9s%n",
+                "tipo", "enviados", "msg/s", "entregas/s", "p50", "p90", "p99", "p99.9", "p99.99", "max",
+                "p99 sin CO");
+        for (int tipo = 0; tipo < NOMBRES.length; tipo++) {
+            imprimirFila(NOMBRES[tipo], e.enviados[tipo].sum(), e.entregas[tipo].sum(),
+                    e.corregida[tipo].instantanea(), e.sinCorregir[tipo].instantanea(), segundos);
+        }
+        imprimirFila("TOTAL", e.totalEnviados(), e.totalEntregas(), e.todas.instantanea(),
+                e.todasSinCorregir.instantanea(), segundos);
+        if (SESIONES_UDP > 0) {
+            System.out.printf(Locale.ROOT, "UDP: %d datagramas enviados (%.0f/s), %d errores%n",
+                    e.udpEnviados.sum(), e.udpEnviados.sum() / (double) Math.max(1, segundos), e.udpErrores.sum());
+        }
+        System.out.printf(Locale.ROOT, "Errores del servidor: %d, sesiones TCP cerradas: %d%n",
+                e.errores.sum(), e.cerradas.sum());
+    }
+
+    private static void imprimirFila(String nombre, long enviados, long entregas,
+                                     HistogramaLatencia.Instantanea corregida,
+                                     HistogramaLatencia.Instantanea sinCorregir, int segundos) {
+        double s = Math.max(1, segundos);
+        System.out.printf(Locale.ROOT, "%-10s %10d %10.0f %12.0f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f | %9.2f%n",
+                nombre, enviados, enviados / s, entregas / s,
+                corregida.percentil(50) / 1e6, corregida.percentil(90) / 1e6, corregida.percentil(99) / 1e6,
+                corregida.percentil(99.9) / 1e6, corregida.percentil(99.99) / 1e6, corregida.getMaximo() / 1e6,
+                sinCorregir.percentil(99) / 1e6);
+    }
+
+    // =============================================
+    // MEZCLA DE TIPOS
+    // =============================================
+
+    private static int[] leerMezcla(String texto) {
+        int[] pesos = new int[NOMBRES.length];
+        for (String parte : texto.split(",")) {
+            String[] par = parte.trim().split("=");
+            if (par.length != 2) {
+                throw new IllegalArgumentException("chat.carga.mezcla: se esperaba TIPO=peso, no " + parte);
+            }
+            int tipo = List.of(NOMBRES).indexOf(par[0].trim().toUpperCase(Locale.ROOT));
+            if (tipo < 0) {
+                throw new IllegalArgumentException("chat.carga.mezcla: tipo desconocido " + par[0]);
+            }
+            pesos[tipo] = Integer.parseInt(par[1].trim());
+        }
+        int[] acumulados = new int[NOMBRES.length];
+        int total = 0;
+        for (int i = 0; i < pesos.length; i++) {
+            total += Math.max(0, pesos[i]);
+            acumulados[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("chat.carga.mezcla: todos los pesos son 0");
+        }
+        return acumulados;
+    }
+
+    private static int elegirTipo(ThreadLocalRandom azar) {
+        int valor = azar.nextInt(MEZCLA[MEZCLA.length - 1]);
+        int tipo = 0;
+        while (valor >= MEZCLA[tipo]) {
+            tipo++;
+        }
+        return tipo;
+    }
+
+    private static String describirMezcla() {
+        StringBuilder texto = new StringBuilder();
+        int anterior = 0;
+        for (int i = 0; i < NOMBRES.length; i++) {
+            texto.append(i > 0 ? ", " : "").append(NOMBRES[i]).append('=').append(MEZCLA[i] - anterior);
+            anterior = MEZCLA[i];
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Linea de protocolo de un envio; el texto lleva el instante programado y el real
+     */
+    private static String armarLinea(int tipo, int origen, long programado, long enviado) {
+        String texto = MARCA + programado + " " + enviado;
+        switch (tipo) {
+            case UNICAST:
+                int destino = SESIONES_TCP > 1
+                        ? (origen + 1 + ThreadLocalRandom.current().nextInt(SESIONES_TCP - 1)) % SESIONES_TCP
+                        : origen;
+                return "UNICAST:c" + destino + ":" + texto;
+            case ANYCAST:
+                return "ANYCAST:" + texto;
+            case MULTICAST:
+                return "MULTICAST:carga-" + (origen % SALAS) + ":" + texto;
+            default:
+                return "BROADCAST:" + texto;
+        }
+    }
+
+    // =============================================
+    // ESTADISTICAS
+    // =============================================
+
+    /**
+     * Contadores e histogramas de una fase (calentamiento o medicion)
+     */
+    private static final class Estadisticas {
+        final LongAdder[] enviados = adders();
+        final LongAdder[] entregas = adders();
+        final HistogramaLatencia[] corregida = histogramas();
+        final HistogramaLatencia[] sinCorregir = histogramas();
+        final HistogramaLatencia todas = new HistogramaLatencia();
+        final HistogramaLatencia todasSinCorregir = new HistogramaLatencia();
+        final LongAdder udpEnviados = new LongAdder();
+        final LongAdder udpErrores = new LongAdder();
+        final LongAdder errores = new LongAdder();
+        final LongAdder cerradas = new LongAdder();
+
+        private static LongAdder[] adders() {
+            LongAdder[] adders = new LongAdder[NOMBRES.length];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+
+        private static HistogramaLatencia[] histogramas() {
+            HistogramaLatencia[] histogramas = new HistogramaLatencia[NOMBRES.length];
+            for (int i = 0; i < histogramas.length; i++) {
+                histogramas[i] = new HistogramaLatencia();
+            }
+            return histogramas;
+        }
+
+        long totalEnviados() {
+            long total = 0;
+            for (LongAdder adder : enviados) {
+                total += adder.sum();
+            }
+            return total;
+        }
+
+        long totalEntregas() {
+            long total = 0;
+            for (LongAdder adder : entregas) {
+                total += adder.sum();
+            }
+            return total;
+        }
+
+        void registrarEntrega(int tipo, long programado, long enviado, long ahora) {
+            entregas[tipo].increment();
+            corregida[tipo].registrar(ahora - programado);
+            sinCorregir[tipo].registrar(ahora - enviado);
+            todas.registrar(ahora - programado);
+            todasSinCorregir.registrar(ahora - enviado);
+        }
+    }
+
+    // =============================================
+    // SESION TCP
+    // =============================================
+
+    /**
+     * Estado de una conexion TCP simulada (solo la toca su reactor)
+     */
+    private static final class SesionTcp {
+        final int indice;
+        SocketChannel canal;
+        SelectionKey clave;
+        boolean conectando;
+        boolean registrada;
+        final ByteBuffer lectura = ByteBuffer.allocate(2048);
+        final StringBuilder parcial = new StringBuilder();
+        final ArrayDeque<ByteBuffer> salida = new ArrayDeque<>();
+
+        SesionTcp(int indice) {
+            this.indice = indice;
+        }
+    }
+
+    // =============================================
+    // REACTOR: UN HILO, UN SELECTOR, MUCHAS SESIONES
+    // =============================================
+
+    private static final class Reactor implements Runnable {
+        final int numero;
+        final InetSocketAddress direccionTcp;
+        final InetSocketAddress direccionUdp;
+        final List<SesionTcp> sesiones = new ArrayList<>();
+        final List<SesionTcp> activas = new ArrayList<>();
+        int sesionesUdp;
+        final List<DatagramChannel> canalesUdp = new ArrayList<>();
+        Selector selector;
+
+        int siguienteConexion;
+        int conexionesEnCurso;
+
+        // Ritmo de envio: el envio k esta programado para inicio + k * intervalo
+        long enviosTcp;
+        long enviosUdp;
+        int cursorTcp;
+        int cursorUdp;
+
+        /** Mensajes escritos a medias o encolados (solo lectura aproximada desde main) */
+        volatile long pendientes;
+
+        Reactor(int numero, InetSocketAddress direccionTcp, InetSocketAddress direccionUdp) {
+            this.numero = numero;
+            this.direccionTcp = direccionTcp;
+            this.direccionUdp = direccionUdp;
+        }
+
+        void despertar() {
+            Selector actual = selector;
+            if (actual != null) {
+                actual.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                selector = Selector.open();
+                abrirUdp();
+                while (corriendo) {
+                    abrirConexiones();
+                    long espera = emitir(System.nanoTime());
+                    if (espera >= 1_000_000L) {
+                        selector.select(espera / 1_000_000L);
+                    } else if (selector.selectNow() == 0 && espera > 0) {
+                        LockSupport.parkNanos(espera);
+                    }
+                    atender();
+                }
+            } catch (IOException e) {
+                System.err.println("Reactor " + numero + " detenido: " + e.getMessage());
+            } finally {
+                cerrarTodo();
+            }
+        }
+
+        // -------------------------------------------------------------
+        // Conexiones
+        // -------------------------------------------------------------
+
+        private void abrirUdp() throws IOException {
+            for (int i = 0; i < sesionesUdp; i++) {
+                DatagramChannel canal = DatagramChannel.open();
+                canal.configureBlocking(false);
+                canal.connect(direccionUdp);
+                canalesUdp.add(canal);
+            }
+        }
+
+        private void abrirConexiones() {
+            while (conexionesEnCurso < CONEXIONES_EN_CURSO && siguienteConexion < sesiones.size()) {
+                SesionTcp sesion = sesiones.get(siguienteConexion++);
+                try {
+                    sesion.canal = SocketChannel.open();
+                    sesion.canal.configureBlocking(false);
+                    sesion.canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    sesion.clave = sesion.canal.register(selector, SelectionKey.OP_CONNECT, sesion);
+                    sesion.conectando = true;
+                    conexionesEnCurso++;
+                    if (sesion.canal.connect(direccionTcp)) {
+                        conectada(sesion);
+                    }
+                } catch (IOException e) {
+                    fallida(sesion);
+                }
+            }
+        }
+
+        private void conectada(SesionTcp sesion) throws IOException {
+            sesion.conectando = false;
+            conexionesEnCurso--;
+            sesion.clave.interestOps(SelectionKey.OP_READ);
+            escribir(sesion, "CONEXION|c" + sesion.indice + "|carga-" + (sesion.indice % SALAS));
+        }
+
+        private void fallida(SesionTcp sesion) {
+            if (sesion.conectando) {
+                sesion.conectando = false;
+                conexionesEnCurso--;
+            }
+            cerrar(sesion);
+            fallidas.incrementAndGet();
+        }
+
+        private void cerrar(SesionTcp sesion) {
+            if (sesion.registrada) {
+                sesion.registrada = false;
+                activas.remove(sesion);
+                estadisticas.cerradas.increment();
+            }
+            try {
+                if (sesion.canal != null) {
+                    sesion.canal.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void cerrarTodo() {
+            for (SesionTcp sesion : sesiones) {
+                try {
+                    if (sesion.canal != null) {
+                        sesion.canal.close();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+            for (DatagramChannel canal : canalesUdp) {
+                try {
+                    canal.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        // -------------------------------------------------------------
+        // Envio a tasa constante
+        // -------------------------------------------------------------
+
+        /**
+         * Manda todos los envios cuyo instante programado ya paso
+         *
+         * @return Nanosegundos hasta el proximo envio programado
+         */
+        private long emitir(long ahora) {
+            long inicio = inicioEnvio;
+            if (inicio == 0 || ahora < inicio) {
+                return inicio == 0 ? 100_000_000L : inicio - ahora;
+            }
+            long espera = 100_000_000L;
+            ThreadLocalRandom azar = ThreadLocalRandom.current();
+
+            // Cada reactor envia la parte de la tasa que corresponde a sus sesiones
+            if (!activas.isEmpty() && TASA_TCP > 0) {
+                double intervalo = 1e9 * SESIONES_TCP / (TASA_TCP * sesiones.size());
+                long programado = inicio + (long) (enviosTcp * intervalo);
+                while (programado <= ahora && programado < finEnvio) {
+                    SesionTcp sesion = activas.get(cursorTcp++ % activas.size());
+                    int tipo = elegirTipo(azar);
+                    escribirSeguro(sesion, armarLinea(tipo, sesion.indice, programado, System.nanoTime()));
+                    estadisticas.enviados[tipo].increment();
+                    programado = inicio + (long) (++enviosTcp * intervalo);
+                    if (activas.isEmpty()) {
+                        break;
+                    }
+                }
+                espera = Math.min(espera, programado - ahora);
+            }
+            if (!canalesUdp.isEmpty() && TASA_UDP > 0) {
+                double intervalo = 1e9 * SESIONES_UDP / (TASA_UDP * canalesUdp.size());
+                long programado = inicio + (long) (enviosUdp * intervalo);
+                while (programado <= ahora && programado < finEnvio) {
+                    DatagramChannel canal = canalesUdp.get(cursorUdp++ % canalesUdp.size());
+                    byte[] datos = armarLinea(elegirTipo(azar), 0, programado, System.nanoTime())
+                            .getBytes(StandardCharsets.UTF_8);
+                    try {
+                        canal.write(ByteBuffer.wrap(datos));
+                        estadisticas.udpEnviados.increment();
+                    } catch (IOException e) {
+                        estadisticas.udpErrores.increment();
+                    }
+                    programado = inicio + (long) (++enviosUdp * intervalo);
+                }
+                espera = Math.min(espera, programado - ahora);
+            }
+            return Math.max(0, espera);
+        }
+
+        private void escribirSeguro(SesionTcp sesion, String linea) {
+            try {
+                escribir(sesion, linea);
+            } catch (IOException e) {
+                cerrar(sesion);
+            }
+        }
+
+        private void escribir(SesionTcp sesion, String linea) throws IOException {
+            ByteBuffer datos = ByteBuffer.wrap((linea + "\n").getBytes(StandardCharsets.UTF_8));
+            if (sesion.salida.isEmpty()) {
+                sesion.canal.write(datos);
+                if (!datos.hasRemaining()) {
+                    return;
+                }
+                sesion.clave.interestOps(sesion.clave.interestOps() | SelectionKey.OP_WRITE);
+            }
+            sesion.salida.add(datos);
+            pendientes++;
+        }
+
+        private void vaciar(SesionTcp sesion) throws IOException {
+            while (!sesion.salida.isEmpty()) {
+                ByteBuffer datos = sesion.salida.peek();
+                sesion.canal.write(datos);
+                if (datos.hasRemaining()) {
+                    return;
+                }
+                sesion.salida.poll();
+                pendientes--;
+            }
+            sesion.clave.interestOps(sesion.clave.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+
+        // -------------------------------------------------------------
+        // Eventos del selector
+        // -------------------------------------------------------------
+
+        private void atender() {
+            Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+            while (claves.hasNext()) {
+                SelectionKey clave = claves.next();
+                claves.remove();
+                SesionTcp sesion = (SesionTcp) clave.attachment();
+                try {
+                    if (!clave.isValid()) {
+                        continue;
+                    }
+                    if (clave.isConnectable()) {
+                        if (sesion.canal.finishConnect()) {
+                            conectada(sesion);
+                        }
+                        continue;
+                    }
+                    if (clave.isWritable()) {
+                        vaciar(sesion);
+                    }
+                    if (clave.isReadable()) {
+                        leer(sesion);
+                    }
+                } catch (IOException e) {
+                    if (sesion.conectando) {
+                        fallida(sesion);
+                    } else {
+                        cerrar(sesion);
+                    }
+                }
+            }
+        }
+
+        private void leer(SesionTcp sesion) throws IOException {
+            int leidos = sesion.canal.read(sesion.lectura);
+            if (leidos < 0) {
+                cerrar(sesion);
+                return;
+            }
+            long ahora = System.nanoTime();
+            ByteBuffer buffer = sesion.lectura;
+            buffer.flip();
+            int inicioLinea = 0;
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                String linea = new String(buffer.array(), inicioLinea, i - inicioLinea, StandardCharsets.UTF_8);
+                if (sesion.parcial.length() > 0) {
+                    linea = sesion.parcial.append(linea).toString();
+                    sesion.parcial.setLength(0);
+                }
+                procesarLinea(sesion, linea.trim(), ahora);
+                inicioLinea = i + 1;
+            }
+            if (inicioLinea < buffer.limit()) {
+                sesion.parcial.append(new String(buffer.array(), inicioLinea, buffer.limit() - inicioLinea,
+                        StandardCharsets.UTF_8));
+            }
+            buffer.clear();
+        }
+
+        private void procesarLinea(SesionTcp sesion, String linea, long ahora) {
+            int marca = linea.indexOf("] " + MARCA);
+            if (marca < 0) {
+                if (sesion.registrada) {
+                    if (linea.startsWith("ERROR")) {
+                        estadisticas.errores.increment();
+                    }
+                } else if (linea.startsWith("Sala: ")) {
+                    // Ultima respuesta de CONEXION|apodo|sala: ya puede enviar y recibir
+                    sesion.registrada = true;
+                    activas.add(sesion);
+                    registradas.incrementAndGet();
+                } else if (linea.startsWith("ERROR") || linea.startsWith("REDIRECT|")) {
+                    cerrar(sesion);
+                    fallidas.incrementAndGet();
+                }
+                return;
+            }
+            int tipo;
+            if (linea.startsWith("[BROADCAST")) {
+                tipo = BROADCAST;
+            } else if (linea.startsWith("[PRIVADO")) {
+                tipo = UNICAST;
+            } else if (linea.startsWith("[ANYCAST")) {
+                tipo = ANYCAST;
+            } else if (linea.startsWith("[MULTICAST")) {
+                tipo = MULTICAST;
+            } else {
+                return;
+            }
+            String[] marcas = linea.substring(marca + 2 + MARCA.length()).split(" ", 3);
+            try {
+                estadisticas.registrarEntrega(tipo, Long.parseLong(marcas[0]), Long.parseLong(marcas[1]), ahora);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ignored) {
+            }
+        }
+    }
+}
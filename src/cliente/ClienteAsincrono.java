@@ -0,0 +1,646 @@
+package cliente;
+
+import common.Protocolo;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Cliente de chat sin bloqueos, comun a la GUI, ConexionCliente y los bots.
+ *
+ * - enviar() solo encola y devuelve un CompletableFuture que se completa
+ *   cuando la linea ya se escribio en el transporte
+ * - Un hilo de envio por cliente junta lo pendiente en lotes (un flush por lote)
+ * - Lo recibido llega clasificado a los OyenteChat (EventoChat, presencia)
+ * - REDIRECT se sigue solo: el registro (CONEXION|...) y PRESENCIA se repiten
+ *   en el nodo nuevo, y lo encolado despues de la redireccion va al nodo nuevo.
+ *   El registro va marcado REDIRIGIDO para que el nodo nuevo no rebote al
+ *   cliente, y mas de chat.cliente.redirecciones seguidas cierran el cliente
+ * - Si se pierde la conexion reintenta con espera exponencial con jitter
+ *   (todos los clientes de un servidor reiniciado no vuelven a la vez) y
+ *   reanuda la sesion con su token: el servidor repite lo que se perdio
+ *   desde la ultima secuencia recibida (ver servidor.ReanudacionSesiones)
+ * - Lo que se encola durante el corte sale al reconectar; lo que ya estaba
+ *   escrito en la conexion caida falla
+ * - Cada conexion empieza con PROTOCOLO|version|capacidades: el servidor
+ *   activa la sesion y la presencia sin mas comandos; con un servidor
+ *   anterior se piden con SESION on / PRESENCIA on
+ */
+public class ClienteAsincrono {
+
+    private static final int CAPACIDAD_COLA = Integer.getInteger("chat.cliente.cola", 4096);
+    private static final int MAXIMO_LOTE = 256;
+    private static final long ESPERA_BASE_MS = Long.getLong("chat.cliente.reconexion.base", 500L);
+    private static final long ESPERA_MAXIMA_MS = Long.getLong("chat.cliente.reconexion.maximo", 30_000L);
+    private static final int MAXIMO_REDIRECCIONES = Integer.getInteger("chat.cliente.redirecciones", 3);
+
+    private final Transporte transporte;
+    private final List<OyenteChat> oyentes = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<Envio> pendientes = new LinkedBlockingQueue<>(CAPACIDAD_COLA);
+    private volatile Executor ejecutorOyentes = Runnable::run;
+
+    private volatile boolean abierto;
+    private Thread hiloEnvio;
+    private volatile String direccion;
+
+    // Estado que se repite al cambiar de nodo
+    private volatile String ultimoRegistro;
+    private volatile boolean presencia;
+    // Credencial del apodo (CLAVE|apodo|credencial): sin ella el buzon no se entrega
+    private volatile String credencial;
+
+    // Reconexion y sesion reanudable
+    private volatile boolean reconectar = Boolean.parseBoolean(System.getProperty("chat.cliente.reconectar", "true"));
+    private volatile boolean expulsado;
+    private volatile String token;
+    private volatile long ultimaSecuencia;
+    // Entre REANUDAR y REANUDADO llega la bienvenida repetida, que no se muestra
+    private volatile boolean reanudando;
+    // Conexiones abiertas; una orden de otra conexion ya no aplica
+    private volatile int conexion;
+    // Redireccion o reconexion en curso: el cierre de la conexion anterior no es una desconexion
+    private volatile boolean cambiando;
+    // REDIRECT seguidos sin llegar a entrar en una sala
+    private volatile int redirecciones;
+
+    // Negociacion con el nodo actual (UDP no la usa)
+    private final boolean negociar;
+    private volatile List<String> capacidadesPedidas = Collections.emptyList();
+    private volatile int versionProtocolo;   // 0 = sin respuesta, 1 = servidor sin negociacion
+    private volatile Set<String> capacidades = Collections.emptySet();
+    private volatile String idCliente;
+
+    // Una linea a escribir, o una orden de cambiar de conexion
+    private static final class Envio {
+        final String linea;
+        final String nuevaDireccion;   // redireccion
+        final boolean reconexion;       // reconectar al mismo nodo
+        final int conexion;
+        final CompletableFuture<Void> resultado = new CompletableFuture<>();
+
+        Envio(String linea) {
+            this(linea, null, false, 0);
+        }
+
+        Envio(String linea, String nuevaDireccion, boolean reconexion, int conexion) {
+            this.linea = linea;
+            this.nuevaDireccion = nuevaDireccion;
+            this.reconexion = reconexion;
+            this.conexion = conexion;
+        }
+    }
+
+    public ClienteAsincrono(Transporte transporte) {
+        this.transporte = transporte;
+        // UDP no tiene conexion que perder ni saludo que negociar
+        this.negociar = !(transporte instanceof TransporteUDP);
+        if (!negociar) {
+            reconectar = false;
+        }
+    }
+
+    public void agregarOyente(OyenteChat oyente) {
+        oyentes.add(oyente);
+    }
+
+    public void quitarOyente(OyenteChat oyente) {
+        oyentes.remove(oyente);
+    }
+
+    // Por defecto los oyentes corren en el hilo lector; la GUI puede pasar SwingUtilities::invokeLater
+    public void setEjecutorOyentes(Executor ejecutor) {
+        this.ejecutorOyentes = ejecutor;
+    }
+
+    public boolean estaAbierto() {
+        return abierto;
+    }
+
+    // host:puerto del nodo actual
+    public String getDireccion() {
+        return direccion;
+    }
+
+    public Transporte getTransporte() {
+        return transporte;
+    }
+
+    // Reconexion automatica (chat.cliente.reconectar, activa por defecto)
+    public void setReconexion(boolean activa) {
+        this.reconectar = activa;
+    }
+
+    // Ultima secuencia recibida del servidor (0 sin sesion)
+    public long getUltimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    // Version acordada con el nodo actual (0 mientras no responde, 1 si no negocia)
+    public int getVersionProtocolo() {
+        return versionProtocolo;
+    }
+
+    // Capacidades acordadas con el nodo actual
+    public Set<String> getCapacidades() {
+        return capacidades;
+    }
+
+    // Credencial del apodo registrado; guardarla permite recuperar el apodo en otra ejecucion
+    public String getCredencial() {
+        return credencial;
+    }
+
+    // Credencial guardada de una ejecucion anterior (llamar antes de conectar)
+    public void setCredencial(String credencial) {
+        this.credencial = credencial;
+    }
+
+    // ID que asigno el servidor (null si no negocio)
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    // -------------------
+    // CONEXION
+    // -------------------
+
+    // Conecta en el hilo de envio; lo que se envie antes de que termine queda encolado
+    public synchronized CompletableFuture<Void> conectar(String host, int puerto) {
+        CompletableFuture<Void> conectado = new CompletableFuture<>();
+        if (hiloEnvio != null) {
+            conectado.completeExceptionally(new IllegalStateException("El cliente ya esta conectado"));
+            return conectado;
+        }
+        abierto = true;
+        hiloEnvio = new Thread(() -> ejecutar(host, puerto, conectado),
+                "cliente-envio-" + transporte.getNombre().toLowerCase());
+        hiloEnvio.setDaemon(true);
+        hiloEnvio.start();
+        return conectado;
+    }
+
+    // Cierre ordenado: lo pendiente se da por fallido
+    public void cerrar() {
+        if (terminar(new IOException("Cliente cerrado"))) {
+            avisarDesconexion(null);
+        }
+    }
+
+    private synchronized boolean terminar(IOException causa) {
+        if (!abierto) {
+            return false;
+        }
+        abierto = false;
+        transporte.cerrar();
+        if (hiloEnvio != null) {
+            hiloEnvio.interrupt();
+        }
+        fallarPendientes(causa);
+        return true;
+    }
+
+    // -------------------
+    // ENVIO
+    // -------------------
+
+    public CompletableFuture<Void> enviar(String linea) {
+        recordar(linea);
+        return encolar(new Envio(linea));
+    }
+
+    public CompletableFuture<Void> registrar(String apodo) {
+        return enviar("CONEXION|" + apodo);
+    }
+
+    public CompletableFuture<Void> registrar(String apodo, String sala) {
+        return enviar("CONEXION|" + apodo + "|" + sala);
+    }
+
+    public CompletableFuture<Void> broadcast(String texto) {
+        return enviar("BROADCAST:" + texto);
+    }
+
+    public CompletableFuture<Void> unicast(String destino, String texto) {
+        return enviar("UNICAST:" + destino + ":" + texto);
+    }
+
+    public CompletableFuture<Void> anycast(String texto) {
+        return enviar("ANYCAST:" + texto);
+    }
+
+    public CompletableFuture<Void> multicast(String sala, String texto) {
+        return enviar("MULTICAST:" + sala + ":" + texto);
+    }
+
+    public CompletableFuture<Void> suscribirPresencia(boolean activa) {
+        return enviar("PRESENCIA " + (activa ? "on" : "off"));
+    }
+
+    private void recordar(String linea) {
+        String mayusculas = linea.toUpperCase();
+        if (mayusculas.startsWith("CONEXION|")) {
+            ultimoRegistro = linea;
+        } else if (mayusculas.startsWith("PRESENCIA ")) {
+            presencia = mayusculas.endsWith(" ON");
+        }
+    }
+
+    private CompletableFuture<Void> encolar(Envio envio) {
+        if (!abierto) {
+            envio.resultado.completeExceptionally(new IOException("Cliente no conectado"));
+        } else if (!pendientes.offer(envio)) {
+            envio.resultado.completeExceptionally(new IOException("Cola de envio llena"));
+        } else if (!abierto) {
+            // Se cerro mientras se encolaba
+            fallarPendientes(new IOException("Cliente cerrado"));
+        }
+        return envio.resultado;
+    }
+
+    private void fallarPendientes(IOException causa) {
+        Envio envio;
+        while ((envio = pendientes.poll()) != null) {
+            envio.resultado.completeExceptionally(causa);
+        }
+    }
+
+    // -------------------
+    // HILO DE ENVIO
+    // -------------------
+    private void ejecutar(String host, int puerto, CompletableFuture<Void> conectado) {
+        try {
+            abrir(host, puerto);
+            List<String> primeras = new ArrayList<>(2);
+            if (negociar) {
+                primeras.add(lineaProtocolo(reconectar, false));
+            }
+            if (credencial != null) {
+                primeras.add("CLAVE|" + credencial);
+            }
+            if (!primeras.isEmpty()) {
+                transporte.escribir(primeras);
+            }
+            conectado.complete(null);
+        } catch (IOException e) {
+            terminar(e);
+            conectado.completeExceptionally(e);
+            return;
+        }
+
+        List<Envio> lote = new ArrayList<>(MAXIMO_LOTE);
+        try {
+            while (abierto) {
+                lote.add(pendientes.take());
+                pendientes.drainTo(lote, MAXIMO_LOTE - 1);
+                escribirLote(lote);
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            for (Envio envio : lote) {
+                envio.resultado.completeExceptionally(e);
+            }
+            if (terminar(e)) {
+                avisarDesconexion(e);
+            }
+        }
+    }
+
+    private void abrir(String host, int puerto) throws IOException {
+        // Antes de abrir: un cierre inmediato ya pertenece a la conexion nueva
+        conexion++;
+        transporte.abrir(host, puerto, this::recibir, this::perdida);
+        direccion = host + ":" + puerto;
+        String conectadoA = direccion;
+        avisar(oyente -> oyente.alConectar(conectadoA));
+    }
+
+    // Escribe las lineas del lote en orden; una orden de cambio de conexion parte el lote
+    private void escribirLote(List<Envio> lote) throws IOException, InterruptedException {
+        List<String> lineas = new ArrayList<>(lote.size());
+        int desde = 0;
+        for (int i = 0; i < lote.size(); i++) {
+            Envio envio = lote.get(i);
+            if (envio.linea != null) {
+                lineas.add(envio.linea);
+                continue;
+            }
+            volcar(lote, desde, i, lineas);
+            desde = i + 1;
+            // Una orden de una conexion que ya se reemplazo no aplica
+            if (envio.conexion == conexion) {
+                if (envio.reconexion) {
+                    reconectarConEspera();
+                } else {
+                    cambiarNodo(envio.nuevaDireccion);
+                }
+            }
+            envio.resultado.complete(null);
+        }
+        volcar(lote, desde, lote.size(), lineas);
+    }
+
+    private void volcar(List<Envio> lote, int desde, int hasta, List<String> lineas)
+            throws IOException, InterruptedException {
+        if (lineas.isEmpty()) {
+            return;
+        }
+        try {
+            transporte.escribir(lineas);
+        } catch (IOException e) {
+            if (!cambiando && !puedeReconectar()) {
+                throw e;
+            }
+            // La conexion cayo: estas lineas se pierden y lo que sigue va a la conexion nueva
+            for (int i = desde; i < hasta; i++) {
+                lote.get(i).resultado.completeExceptionally(e);
+            }
+            lineas.clear();
+            if (!cambiando) {
+                reconectarConEspera();
+            }
+            return;
+        }
+        lineas.clear();
+        for (int i = desde; i < hasta; i++) {
+            lote.get(i).resultado.complete(null);
+        }
+    }
+
+    // Conecta al nodo indicado con una sesion nueva (las secuencias son de cada nodo)
+    private void cambiarNodo(String nuevaDireccion) throws IOException {
+        int separador = nuevaDireccion.lastIndexOf(':');
+        transporte.cerrar();
+        token = null;
+        ultimaSecuencia = 0;
+        abrir(nuevaDireccion.substring(0, separador), Integer.parseInt(nuevaDireccion.substring(separador + 1)));
+        transporte.escribir(lineasDeRegreso(true));
+        cambiando = false;
+    }
+
+    // Reintenta el mismo nodo hasta que vuelva o se cierre el cliente
+    private void reconectarConEspera() throws InterruptedException {
+        cambiando = true;
+        transporte.cerrar();
+        int separador = direccion.lastIndexOf(':');
+        String host = direccion.substring(0, separador);
+        int puerto = Integer.parseInt(direccion.substring(separador + 1));
+        for (int intento = 1; abierto; intento++) {
+            long espera = esperaReconexion(intento);
+            int numero = intento;
+            avisar(oyente -> oyente.alReconectando(numero, espera));
+            Thread.sleep(espera);
+            try {
+                abrir(host, puerto);
+                transporte.escribir(lineasDeRegreso(false));
+                cambiando = false;
+                return;
+            } catch (IOException e) {
+                transporte.cerrar();
+            }
+        }
+    }
+
+    // "Full jitter": al azar entre 0 y base * 2^(intento-1), con tope
+    static long esperaReconexion(int intento) {
+        long techo = Math.min(ESPERA_MAXIMA_MS, ESPERA_BASE_MS << Math.min(intento - 1, 20));
+        return ThreadLocalRandom.current().nextLong(techo + 1);
+    }
+
+    // Lo primero que se escribe en una conexion nueva: reanudar, o registrarse otra vez
+    // (tras un REDIRECT el registro en sala va marcado para que no se repita)
+    private List<String> lineasDeRegreso(boolean redirigido) {
+        List<String> lineas = new ArrayList<>(3);
+        String actual = token;
+        // Con token la sesion vuelve con REANUDAR; sin token se pide una nueva
+        boolean sesion = actual == null && reconectar;
+        if (negociar) {
+            lineas.add(lineaProtocolo(sesion, presencia));
+        }
+        if (credencial != null) {
+            lineas.add("CLAVE|" + credencial);
+        }
+        if (actual != null) {
+            reanudando = true;
+            lineas.add("REANUDAR|" + actual + "|" + ultimaSecuencia);
+        } else if (ultimoRegistro != null) {
+            boolean conSala = ultimoRegistro.split("\\|", -1).length == 3;
+            lineas.add(redirigido && conSala ? ultimoRegistro + "|" + Protocolo.MARCA_REDIRIGIDO : ultimoRegistro);
+        }
+        if (!negociar) {
+            lineas.addAll(comandosDe(sesion, presencia));
+        }
+        return lineas;
+    }
+
+    // Primera linea de cada conexion: version y capacidades que se piden al nodo
+    private String lineaProtocolo(boolean sesion, boolean conPresencia) {
+        List<String> pedidas = new ArrayList<>(2);
+        if (sesion) {
+            pedidas.add(Protocolo.CAPACIDAD_SESION);
+        }
+        if (conPresencia) {
+            pedidas.add(Protocolo.CAPACIDAD_PRESENCIA);
+        }
+        capacidadesPedidas = pedidas;
+        versionProtocolo = 0;
+        capacidades = Collections.emptySet();
+        return "PROTOCOLO|" + Protocolo.VERSION_PROTOCOLO + "|" + String.join(",", pedidas);
+    }
+
+    // Los comandos de la version 1 que equivalen a las capacidades
+    private static List<String> comandosDe(boolean sesion, boolean conPresencia) {
+        List<String> comandos = new ArrayList<>(2);
+        if (sesion) {
+            comandos.add("SESION on");
+        }
+        if (conPresencia) {
+            comandos.add("PRESENCIA on");
+        }
+        return comandos;
+    }
+
+    private boolean puedeReconectar() {
+        return reconectar && !expulsado && abierto;
+    }
+
+    // -------------------
+    // RECEPCION (hilo lector del transporte)
+    // -------------------
+    private void recibir(String linea) {
+        // Con sesion, los mensajes enrutados llegan como "#secuencia linea"
+        long secuencia = 0;
+        if (linea.startsWith("#")) {
+            int espacio = linea.indexOf(' ');
+            if (espacio > 1) {
+                try {
+                    secuencia = Long.parseLong(linea.substring(1, espacio));
+                    linea = linea.substring(espacio + 1);
+                    if (secuencia > ultimaSecuencia) {
+                        ultimaSecuencia = secuencia;
+                    }
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        if (linea.startsWith("PROTOCOLO|")) {
+            String[] partes = linea.split("\\|", 4);
+            try {
+                int version = Integer.parseInt(partes[1]);
+                Set<String> acordadas = partes.length < 3 || partes[2].isEmpty()
+                        ? Collections.emptySet()
+                        : Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(partes[2].split(","))));
+                versionProtocolo = version;
+                capacidades = acordadas;
+                idCliente = partes.length > 3 ? partes[3] : null;
+                avisar(oyente -> oyente.alNegociar(version, acordadas));
+                return;
+            } catch (NumberFormatException ignored) {}
+        }
+        if (linea.startsWith("Echo: PROTOCOLO|")) {
+            // Servidor anterior a la negociacion: lo pedido se activa con sus comandos
+            versionProtocolo = 1;
+            List<String> pedidas = capacidadesPedidas;
+            for (String comando : comandosDe(pedidas.contains(Protocolo.CAPACIDAD_SESION),
+                    pedidas.contains(Protocolo.CAPACIDAD_PRESENCIA))) {
+                encolar(new Envio(comando));
+            }
+            avisar(oyente -> oyente.alNegociar(1, Collections.emptySet()));
+            return;
+        }
+        if (linea.startsWith("CLAVE|")) {
+            String[] partes = linea.split("\\|", 3);
+            if (partes.length == 3) {
+                credencial = partes[2];
+            }
+            return;
+        }
+        if (linea.startsWith("SESION|")) {
+            String[] partes = linea.split("\\|", 3);
+            token = partes[1];
+            if (partes.length > 2) {
+                ultimaSecuencia = Long.parseLong(partes[2]);
+            }
+            return;
+        }
+        if (linea.startsWith("REANUDADO|")) {
+            String[] partes = linea.split("\\|", 3);
+            reanudando = false;
+            if ("RECHAZADO".equals(partes[2])) {
+                // Sesion desconocida para este servidor: registrarse otra vez
+                token = null;
+                if (ultimoRegistro != null) {
+                    encolar(new Envio(ultimoRegistro));
+                }
+            }
+            int repetidos = Integer.parseInt(partes[1]);
+            boolean completo = "COMPLETO".equals(partes[2]);
+            avisar(oyente -> oyente.alReanudar(repetidos, completo));
+            return;
+        }
+        if (linea.startsWith("ERROR: Reanudacion")) {
+            // Servidor sin diario: sigue sin sesion
+            return;
+        }
+        if (linea.startsWith("PRESENCIA|")) {
+            String[] partes = linea.split("\\|", 3);
+            if (partes.length == 3) {
+                List<String> nombres = partes[1].equals("LISTA") || partes[2].isEmpty()
+                        ? Collections.emptyList() : Arrays.asList(partes[2].split(","));
+                avisar(oyente -> oyente.alCambiarPresencia(partes[1], nombres));
+            }
+            return;
+        }
+        if (linea.startsWith("Sala: ")) {
+            redirecciones = 0;
+        }
+        EventoChat evento = EventoChat.desdeLinea(linea, secuencia);
+        if (reanudando && (evento.getTipo() == EventoChat.Tipo.SISTEMA
+                || evento.getTipo() == EventoChat.Tipo.HISTORIAL)) {
+            return;
+        }
+        if (evento.getTipo() == EventoChat.Tipo.EXPULSION) {
+            expulsado = true;
+        }
+        avisar(oyente -> oyente.alRecibir(evento));
+        if (evento.getTipo() == EventoChat.Tipo.REDIRECCION) {
+            seguirRedireccion(evento.getDestino());
+        }
+    }
+
+    // Un REDIRECT con direccion invalida o uno de mas cierra el cliente en vez de rebotar
+    private void seguirRedireccion(String destino) {
+        IOException causa = null;
+        if (!esDireccionValida(destino)) {
+            causa = new IOException("REDIRECT con direccion invalida: " + destino);
+        } else if (++redirecciones > MAXIMO_REDIRECCIONES) {
+            causa = new IOException("Demasiados REDIRECT seguidos (el ultimo a " + destino + ")");
+        }
+        if (causa == null) {
+            // La orden va por la cola para que quede en orden con lo ya encolado
+            cambiar(new Envio(null, destino, false, conexion));
+        } else if (terminar(causa)) {
+            avisarDesconexion(causa);
+        }
+    }
+
+    // host:puerto con un puerto TCP valido
+    static boolean esDireccionValida(String direccion) {
+        int separador = direccion != null ? direccion.lastIndexOf(':') : -1;
+        if (separador <= 0) {
+            return false;
+        }
+        try {
+            int puerto = Integer.parseInt(direccion.substring(separador + 1));
+            return puerto > 0 && puerto <= 65535;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Conexion cortada desde el otro lado (hilo lector)
+    private void perdida(IOException causa) {
+        if (cambiando) {
+            return;
+        }
+        if (puedeReconectar()) {
+            cambiar(new Envio(null, null, true, conexion));
+        } else if (terminar(causa != null ? causa : new IOException("Conexion cerrada por el servidor"))) {
+            avisarDesconexion(causa);
+        }
+    }
+
+    private void cambiar(Envio orden) {
+        cambiando = true;
+        if (encolar(orden).isCompletedExceptionally() && abierto) {
+            // Cola llena: sin la orden no hay forma de seguir
+            cambiando = false;
+            IOException causa = new IOException("Cola de envio llena durante un cambio de conexion");
+            if (terminar(causa)) {
+                avisarDesconexion(causa);
+            }
+        }
+    }
+
+    private void avisarDesconexion(Throwable causa) {
+        avisar(oyente -> oyente.alDesconectar(causa));
+    }
+
+    private void avisar(Consumer<OyenteChat> aviso) {
+        ejecutorOyentes.execute(() -> {
+            for (OyenteChat oyente : oyentes) {
+                aviso.accept(oyente);
+            }
+        });
+    }
+}
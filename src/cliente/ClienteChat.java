@@ -1,56 +1,87 @@
 package cliente;
-import java.io.*;
-import java.net.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-public class ClienteChat {
-    private Socket socket;
-    private BufferedReader entrada;
-    private PrintWriter salida;
-    private GUIcliente gui;
+// Adaptador entre GUIcliente y ClienteAsincrono (TCP)
+public class ClienteChat implements OyenteChat {
+    private final GUIcliente gui;
+    private final ClienteAsincrono cliente = new ClienteAsincrono(new TransporteTCP());
 
     public ClienteChat(GUIcliente gui) {
         this.gui = gui;
+        cliente.agregarOyente(this);
     }
 
-    // 🔌 Conectar al servidor TCP
-    public boolean conectar(String host, int puerto) {
-        try {
-            socket = new Socket(host, puerto);
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            salida = new PrintWriter(socket.getOutputStream(), true);
-
-            gui.agregarMensaje(" Conectado al servidor TCP en " + host + ":" + puerto);
-
-            // Hilo para escuchar mensajes del servidor
-            new Thread(() -> {
-                try {
-                    String mensaje;
-                    while ((mensaje = entrada.readLine()) != null) {
-                        gui.agregarMensaje("Servidor: " + mensaje);
-                    }
-                } catch (IOException e) {
-                    gui.agregarMensaje("❌ Conexión cerrada.");
-                }
-            }).start();
-
-            return true;
-        } catch (IOException e) {
-            gui.agregarMensaje("❌ Error al conectar: " + e.getMessage());
-            return false;
-        }
+    // 🔌 Conectar al servidor TCP (no bloquea: la GUI espera el resultado)
+    public CompletableFuture<Void> conectar(String host, int puerto) {
+        CompletableFuture<Void> conexion = cliente.conectar(host, puerto);
+        // 👥 Lista de usuarios empujada por el servidor (en vez de pedir LISTA)
+        cliente.suscribirPresencia(true);
+        return conexion.whenComplete((ok, error) -> {
+            if (error != null) {
+                gui.agregarMensaje("❌ Error al conectar: " + error.getMessage());
+            }
+        });
     }
 
-    // ✉️ Enviar mensaje al servidor
-    public void enviarMensaje(String mensaje) {
-        if (salida != null) {
-            salida.println(mensaje);
-        }
+    // ✉️ Enviar mensaje al servidor (se encola, no bloquea)
+    public CompletableFuture<Void> enviarMensaje(String mensaje) {
+        return cliente.enviar(mensaje);
     }
 
     // 🔒 Cerrar conexión
     public void cerrar() {
-        try {
-            if (socket != null) socket.close();
-        } catch (IOException ignored) {}
+        cliente.cerrar();
+    }
+
+    // -------------------
+    // AVISOS DEL CLIENTE
+    // -------------------
+    @Override
+    public void alConectar(String direccion) {
+        gui.agregarMensaje(" Conectado al servidor TCP en " + direccion);
+    }
+
+    @Override
+    public void alNegociar(int version, Set<String> capacidades) {
+        // 🤝 La bienvenida de texto ya trae el ID; aqui solo lo acordado
+        if (version >= 2) {
+            gui.agregarMensaje("Protocolo v" + version
+                    + (capacidades.isEmpty() ? "" : " acordado: " + String.join(", ", capacidades)));
+        }
+    }
+
+    @Override
+    public void alRecibir(EventoChat evento) {
+        if (evento.getTipo() == EventoChat.Tipo.REDIRECCION) {
+            // 🔀 La sala vive en otro nodo
+            gui.agregarMensaje("Sala " + evento.getTexto() + " en otro nodo, conectando a " + evento.getDestino());
+            return;
+        }
+        gui.agregarMensaje("Servidor: " + evento.getLinea());
+    }
+
+    @Override
+    public void alCambiarPresencia(String operacion, List<String> nombres) {
+        gui.aplicarPresencia(operacion, nombres);
+    }
+
+    @Override
+    public void alReconectando(int intento, long esperaMs) {
+        gui.agregarMensaje("🔄 Conexión perdida, reintento " + intento + " en " + esperaMs + " ms");
+    }
+
+    @Override
+    public void alReanudar(int repetidos, boolean completo) {
+        gui.agregarMensaje("Sesión reanudada: " + repetidos + " mensajes recuperados"
+                + (completo ? "" : " (⚠️ los más antiguos ya no estaban en el servidor)"));
+    }
+
+    @Override
+    public void alDesconectar(Throwable causa) {
+        if (causa != null) {
+            gui.agregarMensaje("❌ Conexión cerrada.");
+        }
     }
 }
@@ -1,115 +1,81 @@
 package cliente;
 
 import common.Protocolo;
-import java.net.*;
-import java.io.*;
-import common.TiposMensaje;
+import java.util.concurrent.CompletableFuture;
 
 public class ConexionCliente {
 
     private String nombreCliente;
-    private int protocolo; // Protocolo.TCP o Protocolo.UDP
+    private int protocolo; // Protocolo.TCP, Protocolo.UDP o Protocolo.UNIX
+    private ClienteAsincrono cliente;
 
-    // Variables para UDP
-    private DatagramSocket socketUDP;
-    private InetAddress direccionServidor;
     private int puertoUDP = 12346;
-
-    // Variables para TCP
-    private Socket socketTCP;
-    private BufferedReader entradaTCP;
-    private PrintWriter salidaTCP;
     private int puertoTCP = 12345;
 
     // Constructor
     public ConexionCliente(String nombreCliente, int protocolo, String ipServidor) {
-        try {
-            this.nombreCliente = nombreCliente;
-            this.protocolo = protocolo;
-
-            if (protocolo == Protocolo.UDP) {
-                iniciarUDP(ipServidor);
-            } else if (protocolo == Protocolo.TCP) {
-                iniciarTCP(ipServidor);
-            } else {
-                System.out.println("Protocolo no soportado");
-            }
+        this(nombreCliente, protocolo, ipServidor, null);
+    }
 
-        } catch (Exception e) {
-            System.out.println("Error al iniciar cliente: " + e.getMessage());
+    // El oyente se registra antes de conectar para no perder los primeros avisos
+    // Con Protocolo.UNIX, ipServidor es la ruta del socket del servidor (chat.unix.ruta)
+    public ConexionCliente(String nombreCliente, int protocolo, String ipServidor, OyenteChat oyente) {
+        this.nombreCliente = nombreCliente;
+        this.protocolo = protocolo;
+
+        Transporte transporte;
+        int puerto;
+        if (protocolo == Protocolo.UDP) {
+            transporte = new TransporteUDP();
+            puerto = puertoUDP;
+        } else if (protocolo == Protocolo.TCP) {
+            transporte = new TransporteTCP();
+            puerto = puertoTCP;
+        } else if (protocolo == Protocolo.UNIX) {
+            transporte = new TransporteUnix();
+            puerto = 0;
+        } else {
+            System.out.println("Protocolo no soportado");
+            return;
         }
-    }
 
-    // -------------------
-    // MÉTODOS UDP
-    // -------------------
-    private void iniciarUDP(String ipServidor) throws Exception {
-        socketUDP = new DatagramSocket();
-        direccionServidor = InetAddress.getByName(ipServidor);
+        cliente = new ClienteAsincrono(transporte);
+        if (oyente != null) {
+            cliente.agregarOyente(oyente);
+        }
+        cliente.conectar(ipServidor, puerto).whenComplete((ok, error) -> {
+            if (error == null) {
+                System.out.println("Cliente " + transporte.getNombre() + " conectado como: " + nombreCliente);
+            } else {
+                System.out.println("Error al iniciar cliente: " + error.getMessage());
+            }
+        });
 
-        // Enviar mensaje de conexión
+        // Mensaje de conexión (queda encolado hasta que termine de conectar)
         enviarMensaje(Protocolo.CONEXION + "|" + nombreCliente);
-
-        // Hilo para escuchar mensajes UDP
-        new Thread(this::escucharUDP).start();
-        System.out.println("Cliente UDP conectado como: " + nombreCliente);
-    }
-
-    private void escucharUDP() {
-        try {
-            byte[] buffer = new byte[1024];
-            while (true) {
-                DatagramPacket paquete = new DatagramPacket(buffer, buffer.length);
-                socketUDP.receive(paquete);
-                String mensaje = new String(paquete.getData(), 0, paquete.getLength());
-                TiposMensaje.procesarMensaje(mensaje);
-            }
-        } catch (IOException e) {
-            System.out.println("Error UDP: " + e.getMessage());
-        }
     }
 
     // -------------------
-    // MÉTODOS TCP
+    // ENVÍO DE MENSAJES
     // -------------------
-    private void iniciarTCP(String ipServidor) throws Exception {
-        socketTCP = new Socket(ipServidor, puertoTCP);
-        entradaTCP = new BufferedReader(new InputStreamReader(socketTCP.getInputStream()));
-        salidaTCP = new PrintWriter(socketTCP.getOutputStream(), true);
-
-        // Enviar mensaje de conexión
-        enviarMensaje(Protocolo.CONEXION + "|" + nombreCliente);
 
-        // Hilo para escuchar mensajes TCP
-        new Thread(this::escucharTCP).start();
-        System.out.println("Cliente TCP conectado como: " + nombreCliente);
+    // No bloquea: el resultado se completa cuando el mensaje ya salio
+    public CompletableFuture<Void> enviarMensaje(String mensaje) {
+        if (cliente == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Protocolo no soportado"));
+        }
+        return cliente.enviar(mensaje);
     }
 
-    private void escucharTCP() {
-        try {
-            String mensaje;
-            while ((mensaje = entradaTCP.readLine()) != null) {
-                TiposMensaje.procesarMensaje(mensaje);
-            }
-        } catch (IOException e) {
-            System.out.println("Error TCP: " + e.getMessage());
+    public void agregarOyente(OyenteChat oyente) {
+        if (cliente != null) {
+            cliente.agregarOyente(oyente);
         }
     }
 
-    // -------------------
-    // ENVÍO DE MENSAJES
-    // -------------------
-    public void enviarMensaje(String mensaje) {
-        try {
-            if (protocolo == Protocolo.UDP) {
-                byte[] datos = mensaje.getBytes();
-                DatagramPacket paquete = new DatagramPacket(datos, datos.length, direccionServidor, puertoUDP);
-                socketUDP.send(paquete);
-            } else if (protocolo == Protocolo.TCP) {
-                salidaTCP.println(mensaje);
-            }
-        } catch (IOException e) {
-            System.out.println("Error al enviar mensaje: " + e.getMessage());
+    public void cerrar() {
+        if (cliente != null) {
+            cliente.cerrar();
         }
     }
 
@@ -119,10 +85,22 @@ public class ConexionCliente {
     public static void main(String[] args) {
         String ip = args.length > 0 ? args[0] : "localhost";
 
-        ConexionCliente clienteUDP = new ConexionCliente("MarioUDP", Protocolo.UDP, ip);
-        ConexionCliente clienteTCP = new ConexionCliente("MarioTCP", Protocolo.TCP, ip);
+        OyenteChat consola = new OyenteChat() {
+            @Override
+            public void alRecibir(EventoChat evento) {
+                System.out.println(evento);
+            }
+
+            @Override
+            public void alDesconectar(Throwable causa) {
+                System.out.println("Conexion cerrada" + (causa != null ? ": " + causa.getMessage() : ""));
+            }
+        };
+
+        ConexionCliente clienteUDP = new ConexionCliente("MarioUDP", Protocolo.UDP, ip, consola);
+        ConexionCliente clienteTCP = new ConexionCliente("MarioTCP", Protocolo.TCP, ip, consola);
 
         clienteUDP.enviarMensaje(Protocolo.BROADCAST + "|Hola a todos desde UDP!");
-        clienteTCP.enviarMensaje(Protocolo.UNICAST + "|MarioUDP|Hola desde TCP a UDP!");
+        clienteTCP.enviarMensaje(Protocolo.UNICAST + "|MarioUDP|Hola desde TCP a UDP!").join();
     }
 }
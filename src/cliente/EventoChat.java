@@ -0,0 +1,142 @@
+package cliente;
+
+import common.Protocolo;
+
+/**
+ * Linea recibida del servidor, clasificada por tipo.
+ *
+ * Entiende el formato de texto del servidor ("[BROADCAST de x] hola",
+ * "REDIRECT|host:puerto|sala", ...) y el formato numerico heredado
+ * ("201|hola", "200|remitente|hola") que antes imprimia TiposMensaje.
+ */
+public final class EventoChat {
+
+    public enum Tipo {
+        BROADCAST, PRIVADO, ANYCAST, MULTICAST, HISTORIAL, REDIRECCION, EXPULSION, ERROR, SISTEMA
+    }
+
+    private final Tipo tipo;
+    private final String remitente;
+    private final String destino;
+    private final String texto;
+    private final String linea;
+    private final long secuencia;
+
+    EventoChat(Tipo tipo, String remitente, String destino, String texto, String linea) {
+        this(tipo, remitente, destino, texto, linea, 0);
+    }
+
+    EventoChat(Tipo tipo, String remitente, String destino, String texto, String linea, long secuencia) {
+        this.tipo = tipo;
+        this.remitente = remitente;
+        this.destino = destino;
+        this.texto = texto;
+        this.linea = linea;
+        this.secuencia = secuencia;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    // Quien lo envio (null en mensajes del sistema)
+    public String getRemitente() {
+        return remitente;
+    }
+
+    // Sala de un MULTICAST, o host:puerto de una REDIRECCION
+    public String getDestino() {
+        return destino;
+    }
+
+    public String getTexto() {
+        return texto;
+    }
+
+    // Linea tal como llego (sin el "#secuencia " de la sesion)
+    public String getLinea() {
+        return linea;
+    }
+
+    // Secuencia del mensaje en el servidor (0 si no tiene o no hay sesion)
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + tipo + (remitente != null ? " de " + remitente : "") + "] " + texto;
+    }
+
+    // -------------------
+    // CLASIFICACION
+    // -------------------
+    static EventoChat desdeLinea(String linea, long secuencia) {
+        EventoChat evento = desdeLinea(linea);
+        return secuencia <= 0 ? evento : new EventoChat(evento.tipo, evento.remitente, evento.destino,
+                evento.texto, evento.linea, secuencia);
+    }
+
+    static EventoChat desdeLinea(String linea) {
+        if (linea.startsWith("[")) {
+            int cierre = linea.indexOf("] ");
+            if (cierre > 0) {
+                EventoChat evento = desdeEtiqueta(linea.substring(1, cierre), linea.substring(cierre + 2), linea);
+                if (evento != null) {
+                    return evento;
+                }
+            }
+        }
+        if (linea.startsWith("REDIRECT|")) {
+            String[] partes = linea.split("\\|", 3);
+            return new EventoChat(Tipo.REDIRECCION, null, partes.length > 1 ? partes[1] : null,
+                    partes.length > 2 ? partes[2] : "", linea);
+        }
+        if (linea.startsWith("EXPULSADO|")) {
+            return new EventoChat(Tipo.EXPULSION, null, null, linea.substring(10), linea);
+        }
+        if (linea.startsWith("ERROR")) {
+            return new EventoChat(Tipo.ERROR, null, null, linea, linea);
+        }
+        EventoChat heredado = desdeNumerico(linea);
+        return heredado != null ? heredado : new EventoChat(Tipo.SISTEMA, null, null, linea, linea);
+    }
+
+    // "BROADCAST de x", "PRIVADO de x", "ANYCAST de x", "MULTICAST sala de x", "HISTORIAL #n ...", "#n ..."
+    private static EventoChat desdeEtiqueta(String etiqueta, String texto, String linea) {
+        if (etiqueta.startsWith("HISTORIAL ") || etiqueta.startsWith("#")) {
+            return new EventoChat(Tipo.HISTORIAL, null, null, texto, linea);
+        }
+        int de = etiqueta.lastIndexOf(" de ");
+        if (de < 0) {
+            return null;
+        }
+        String remitente = etiqueta.substring(de + 4);
+        String cabecera = etiqueta.substring(0, de);
+        switch (cabecera) {
+            case "BROADCAST": return new EventoChat(Tipo.BROADCAST, remitente, null, texto, linea);
+            case "PRIVADO": return new EventoChat(Tipo.PRIVADO, remitente, null, texto, linea);
+            case "ANYCAST": return new EventoChat(Tipo.ANYCAST, remitente, null, texto, linea);
+            default:
+                if (cabecera.startsWith("MULTICAST ")) {
+                    return new EventoChat(Tipo.MULTICAST, remitente, cabecera.substring(10), texto, linea);
+                }
+                return null;
+        }
+    }
+
+    // Formato numerico: codigo|campos (ver Protocolo)
+    private static EventoChat desdeNumerico(String linea) {
+        String[] partes = linea.split("\\|");
+        if (partes.length < 2 || !partes[0].matches("\\d{1,3}")) {
+            return null;
+        }
+        switch (Integer.parseInt(partes[0])) {
+            case Protocolo.BROADCAST: return new EventoChat(Tipo.BROADCAST, null, null, partes[1], linea);
+            case Protocolo.ANYCAST: return new EventoChat(Tipo.ANYCAST, null, null, partes[1], linea);
+            case Protocolo.UNICAST:
+                return partes.length > 2 ? new EventoChat(Tipo.PRIVADO, partes[1], null, partes[2], linea) : null;
+            default: return new EventoChat(Tipo.SISTEMA, null, null, partes[partes.length - 1], linea);
+        }
+    }
+}
@@ -3,14 +3,17 @@ package cliente;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class GUIcliente extends JFrame {
     private JTextField txtServidor;
     private JTextField txtPuerto;
     private JButton btnConectar;
-    private JTextArea areaMensajes;
-    private DefaultListModel<String> modeloUsuarios;
+    private PanelMensajes panelMensajes;
+    private ModeloUsuarios modeloUsuarios;
     private JList<String> listaUsuarios;
     private JButton btnBroadcast, btnUnicast, btnAnycast, btnMulticast, btnEnviar;
     private JTextField txtMensaje;
@@ -43,19 +46,17 @@ public class GUIcliente extends JFrame {
         JSplitPane panelCentral = new JSplitPane();
         panelCentral.setResizeWeight(0.75);
 
-        // Izquierda: área de mensajes
-        areaMensajes = new JTextArea();
-        areaMensajes.setEditable(false);
-        JScrollPane scrollMensajes = new JScrollPane(areaMensajes);
-        scrollMensajes.setBorder(BorderFactory.createTitledBorder("Mensajes"));
+        // Izquierda: mensajes (lista virtualizada con scrollback acotado)
+        panelMensajes = new PanelMensajes();
+        panelMensajes.setBorder(BorderFactory.createTitledBorder("Mensajes"));
 
         // Derecha: lista de usuarios conectados
-        modeloUsuarios = new DefaultListModel<>();
+        modeloUsuarios = new ModeloUsuarios();
         listaUsuarios = new JList<>(modeloUsuarios);
         JScrollPane scrollUsuarios = new JScrollPane(listaUsuarios);
         scrollUsuarios.setBorder(BorderFactory.createTitledBorder("Usuarios conectados"));
 
-        panelCentral.setLeftComponent(scrollMensajes);
+        panelCentral.setLeftComponent(panelMensajes);
         panelCentral.setRightComponent(scrollUsuarios);
         add(panelCentral, BorderLayout.CENTER);
 
@@ -91,14 +92,19 @@ public class GUIcliente extends JFrame {
                 String host = txtServidor.getText().trim();
                 int puerto = Integer.parseInt(txtPuerto.getText().trim());
                 clienteTCP = new ClienteChat(this);
-                if (clienteTCP.conectar(host, puerto)) {
-                    conectado = true;
-                    btnConectar.setText("Desconectar");
-                }
+                btnConectar.setEnabled(false);
+                clienteTCP.conectar(host, puerto).whenComplete((ok, error) -> SwingUtilities.invokeLater(() -> {
+                    btnConectar.setEnabled(true);
+                    if (error == null) {
+                        conectado = true;
+                        btnConectar.setText("Desconectar");
+                    }
+                }));
             } else {
                 clienteTCP.cerrar();
                 conectado = false;
                 btnConectar.setText("Conectar");
+                modeloUsuarios.vaciar();
                 agregarMensaje("🔌 Desconectado del servidor.");
             }
         });
@@ -183,16 +189,84 @@ public class GUIcliente extends JFrame {
         dialogo.setVisible(true);
     }
 
-    // Mostrar mensajes en el área de texto
+    // Mostrar mensajes: seguro desde cualquier hilo, se pintan en el siguiente cuadro
     public void agregarMensaje(String mensaje) {
-        areaMensajes.append(mensaje + "\n");
+        panelMensajes.publicar(mensaje);
     }
 
     // Actualizar lista de usuarios conectados
     public void actualizarUsuarios(java.util.List<String> usuarios) {
-        modeloUsuarios.clear();
-        for (String u : usuarios) {
-            modeloUsuarios.addElement(u);
+        SwingUtilities.invokeLater(() -> {
+            modeloUsuarios.vaciar();
+            modeloUsuarios.agregar(usuarios);
+        });
+    }
+
+    // 👥 Aplica un cambio de presencia: LISTA (vaciar), ALTA o BAJA (desde cualquier hilo)
+    public void aplicarPresencia(String operacion, List<String> nombres) {
+        SwingUtilities.invokeLater(() -> {
+            switch (operacion) {
+                case "LISTA": modeloUsuarios.vaciar(); break;
+                case "ALTA": modeloUsuarios.agregar(nombres); break;
+                case "BAJA": modeloUsuarios.quitar(nombres); break;
+                default: break;
+            }
+        });
+    }
+
+    // Lista de usuarios con indice nombre -> fila: altas y bajas sin recorrer la lista
+    private static final class ModeloUsuarios extends AbstractListModel<String> {
+        private final List<String> nombres = new ArrayList<>();
+        private final Map<String, Integer> filas = new HashMap<>();
+
+        @Override
+        public int getSize() {
+            return nombres.size();
+        }
+
+        @Override
+        public String getElementAt(int indice) {
+            return nombres.get(indice);
+        }
+
+        void agregar(List<String> nuevos) {
+            int antes = nombres.size();
+            for (String nombre : nuevos) {
+                if (!filas.containsKey(nombre)) {
+                    filas.put(nombre, nombres.size());
+                    nombres.add(nombre);
+                }
+            }
+            if (nombres.size() > antes) {
+                fireIntervalAdded(this, antes, nombres.size() - 1);
+            }
+        }
+
+        // La ultima fila ocupa el lugar de la quitada
+        void quitar(List<String> salientes) {
+            for (String nombre : salientes) {
+                Integer fila = filas.remove(nombre);
+                if (fila == null) {
+                    continue;
+                }
+                int ultima = nombres.size() - 1;
+                String movido = nombres.remove(ultima);
+                if (fila != ultima) {
+                    nombres.set(fila, movido);
+                    filas.put(movido, fila);
+                    fireContentsChanged(this, fila, fila);
+                }
+                fireIntervalRemoved(this, ultima, ultima);
+            }
+        }
+
+        void vaciar() {
+            int antes = nombres.size();
+            nombres.clear();
+            filas.clear();
+            if (antes > 0) {
+                fireIntervalRemoved(this, 0, antes - 1);
+            }
         }
     }
 
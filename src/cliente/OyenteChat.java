@@ -0,0 +1,41 @@
+package cliente;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Avisos de ClienteAsincrono. Todos los metodos son opcionales.
+ *
+ * Se llaman desde el hilo lector del transporte, o con el ejecutor que se
+ * indique en setEjecutorOyentes (por ejemplo SwingUtilities::invokeLater).
+ */
+public interface OyenteChat {
+
+    // Conexion abierta (tambien tras una redireccion); direccion = host:puerto
+    default void alConectar(String direccion) {
+    }
+
+    // Version y capacidades acordadas con el nodo (version 1 = servidor sin negociacion)
+    default void alNegociar(int version, Set<String> capacidades) {
+    }
+
+    // Cada linea recibida, ya clasificada (excepto PRESENCIA)
+    default void alRecibir(EventoChat evento) {
+    }
+
+    // PRESENCIA|LISTA (vaciar), ALTA o BAJA con los nombres afectados
+    default void alCambiarPresencia(String operacion, List<String> nombres) {
+    }
+
+    // Conexion perdida: se reintenta tras esperaMs (intento 1, 2, ...)
+    default void alReconectando(int intento, long esperaMs) {
+    }
+
+    // Sesion reanudada tras reconectar; completo = no se perdio nada por antiguedad
+    default void alReanudar(int repetidos, boolean completo) {
+    }
+
+    // Conexion perdida o cerrada sin reintento; causa es null si el cierre fue ordenado
+    default void alDesconectar(Throwable causa) {
+    }
+}
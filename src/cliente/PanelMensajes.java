@@ -0,0 +1,293 @@
+package cliente;
+
+import common.ColaAnillo;
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vista de mensajes del cliente: una JList virtualizada con scrollback acotado.
+ *
+ * - Cualquier hilo llama a publicar(); las lineas se pasan al EDT en lotes,
+ *   como mucho una vez por cuadro (CUADRO_MS)
+ * - En memoria solo viven chat.cliente.lineas lineas (1000); todo lo recibido
+ *   se guarda tambien en un archivo temporal y, al llegar arriba o abajo de lo
+ *   cargado, se traen paginas de PAGINA lineas desde el disco
+ * - Solo sigue el final si el usuario estaba viendo la ultima linea; si
+ *   subio a leer, lo nuevo va al disco y aparece al bajar
+ * - Si el archivo no se puede crear, lo que sale de la ventana se pierde
+ */
+public class PanelMensajes extends JScrollPane {
+
+    private static final int CUADRO_MS = 33;
+    private static final int LINEAS = Math.max(200, Integer.getInteger("chat.cliente.lineas", 1000));
+    private static final int PAGINA = Math.min(LINEAS / 2, 250);
+    private static final int MAXIMO_POR_CUADRO = 5000;
+
+    private final ColaAnillo<String> pendientes = new ColaAnillo<>(1 << 16);
+    private long omitidosVistos;
+
+    private final Ventana ventana = new Ventana();
+    private final JList<String> lista;
+    private final Archivo archivo = Archivo.crear();
+    private boolean ajustando;
+
+    public PanelMensajes() {
+        lista = new JList<String>(ventana) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+        };
+        // Alto y ancho fijos: la lista no mide cada fila al cambiar
+        lista.setFixedCellHeight(lista.getFontMetrics(lista.getFont()).getHeight() + 2);
+        lista.setFixedCellWidth(1);
+        setViewportView(lista);
+
+        getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!ajustando && !e.getValueIsAdjusting()) {
+                alDesplazar();
+            }
+        });
+        new Timer(CUADRO_MS, e -> aplicarCuadro()).start();
+    }
+
+    // ✉️ Se puede llamar desde cualquier hilo (lector del socket incluido)
+    public void publicar(String linea) {
+        pendientes.ofrecer(linea.replace('\n', ' '));
+    }
+
+    // 🧹 Olvida lo mostrado y el archivo
+    public void limpiar() {
+        archivo.vaciar();
+        ventana.reiniciar();
+    }
+
+    // Lineas recibidas en total (en memoria y en disco)
+    public long getTotal() {
+        return archivo.disponible() ? archivo.total : ventana.fin;
+    }
+
+    // -------------------
+    // LOTE POR CUADRO (EDT)
+    // -------------------
+    void aplicarCuadro() {
+        long omitidos = pendientes.getDescartados();
+        if (pendientes.estaVacia() && omitidos == omitidosVistos) {
+            return;
+        }
+        List<String> lote = new ArrayList<>();
+        if (omitidos != omitidosVistos) {
+            lote.add("[" + (omitidos - omitidosVistos) + " mensajes omitidos: la vista no daba abasto]");
+            omitidosVistos = omitidos;
+        }
+        pendientes.drenar(lote::add, MAXIMO_POR_CUADRO);
+        // Se sigue el final solo si se estaba viendo la ultima linea recibida
+        boolean siguiendo = estaAlFinal() && ventana.fin == getTotal();
+        archivo.agregar(lote);
+        if (siguiendo || !archivo.disponible()) {
+            ventana.agregarAlFinal(lote);
+        }
+        if (siguiendo) {
+            ajustando = true;
+            lista.ensureIndexIsVisible(ventana.getSize() - 1);
+            ajustando = false;
+        }
+    }
+
+    private boolean estaAlFinal() {
+        Rectangle visible = getViewport().getViewRect();
+        return visible.y + visible.height >= lista.getHeight() - lista.getFixedCellHeight();
+    }
+
+    // -------------------
+    // PAGINADO AL DESPLAZAR
+    // -------------------
+    private void alDesplazar() {
+        if (!archivo.disponible()) {
+            return;
+        }
+        JScrollBar barra = getVerticalScrollBar();
+        long total = getTotal();
+        if (barra.getValue() == barra.getMinimum() && ventana.inicio > 0) {
+            long desde = Math.max(0, ventana.inicio - PAGINA);
+            List<String> pagina = archivo.leer(desde, ventana.inicio);
+            ajustando = true;
+            ventana.agregarAlPrincipio(pagina);
+            validate();
+            barra.setValue(barra.getValue() + pagina.size() * lista.getFixedCellHeight());
+            ajustando = false;
+        } else if (estaAlFinal() && ventana.fin < total) {
+            long hasta = Math.min(total, ventana.fin + PAGINA);
+            List<String> pagina = archivo.leer(ventana.fin, hasta);
+            ajustando = true;
+            int quitadas = ventana.agregarAlFinal(pagina);
+            validate();
+            barra.setValue(barra.getValue() - quitadas * lista.getFixedCellHeight());
+            ajustando = false;
+        }
+    }
+
+    // -------------------
+    // VENTANA EN MEMORIA
+    // -------------------
+
+    // Lineas [inicio, fin) de todo lo recibido, en un anillo de LINEAS posiciones
+    private static final class Ventana extends AbstractListModel<String> {
+        private final String[] lineas = new String[LINEAS];
+        long inicio;
+        long fin;
+
+        @Override
+        public int getSize() {
+            return (int) (fin - inicio);
+        }
+
+        @Override
+        public String getElementAt(int indice) {
+            return lineas[(int) ((inicio + indice) % LINEAS)];
+        }
+
+        // Agrega al final y quita del principio lo que no entra; devuelve las quitadas
+        int agregarAlFinal(List<String> nuevas) {
+            if (nuevas.isEmpty()) {
+                return 0;
+            }
+            int antes = getSize();
+            for (String linea : nuevas) {
+                lineas[(int) (fin++ % LINEAS)] = linea;
+            }
+            int quitadas = Math.max(0, getSize() - LINEAS);
+            inicio += quitadas;
+            int quedan = antes - Math.min(antes, quitadas);
+            if (antes - quedan > 0) {
+                fireIntervalRemoved(this, 0, antes - quedan - 1);
+            }
+            fireIntervalAdded(this, quedan, getSize() - 1);
+            return quitadas;
+        }
+
+        // Agrega lineas anteriores a inicio y quita del final lo que no entra
+        void agregarAlPrincipio(List<String> anteriores) {
+            if (anteriores.isEmpty()) {
+                return;
+            }
+            int sobran = Math.max(0, getSize() + anteriores.size() - LINEAS);
+            if (sobran > 0) {
+                int antes = getSize();
+                fin -= sobran;
+                fireIntervalRemoved(this, antes - sobran, antes - 1);
+            }
+            for (int i = anteriores.size() - 1; i >= 0; i--) {
+                lineas[(int) (--inicio % LINEAS)] = anteriores.get(i);
+            }
+            fireIntervalAdded(this, 0, anteriores.size() - 1);
+        }
+
+        void reiniciar() {
+            int antes = getSize();
+            Arrays.fill(lineas, null);
+            inicio = 0;
+            fin = 0;
+            if (antes > 0) {
+                fireIntervalRemoved(this, 0, antes - 1);
+            }
+        }
+    }
+
+    // -------------------
+    // HISTORIAL EN DISCO
+    // -------------------
+
+    // Todas las lineas en un archivo temporal, con la posicion de cada una en memoria
+    private static final class Archivo {
+        private final RandomAccessFile datos;
+        private long[] posiciones = new long[1024];
+        long total;
+
+        private Archivo(RandomAccessFile datos) {
+            this.datos = datos;
+        }
+
+        static Archivo crear() {
+            try {
+                File temporal = File.createTempFile("chat-mensajes", ".txt");
+                temporal.deleteOnExit();
+                return new Archivo(new RandomAccessFile(temporal, "rw"));
+            } catch (IOException | SecurityException e) {
+                System.out.println("Historial en disco desactivado: " + e.getMessage());
+                return new Archivo(null);
+            }
+        }
+
+        boolean disponible() {
+            return datos != null;
+        }
+
+        // Un solo write por lote
+        void agregar(List<String> lote) {
+            if (datos == null || lote.isEmpty()) {
+                return;
+            }
+            StringBuilder texto = new StringBuilder(lote.size() * 64);
+            for (String linea : lote) {
+                texto.append(linea).append('\n');
+            }
+            byte[] bytes = texto.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                long posicion = posiciones[(int) total];
+                datos.seek(posicion);
+                datos.write(bytes);
+                for (String linea : lote) {
+                    posicion += linea.getBytes(StandardCharsets.UTF_8).length + 1;
+                    if (total + 1 >= posiciones.length) {
+                        posiciones = Arrays.copyOf(posiciones, posiciones.length * 2);
+                    }
+                    posiciones[(int) ++total] = posicion;
+                }
+            } catch (IOException e) {
+                System.out.println("Error escribiendo el historial: " + e.getMessage());
+            }
+        }
+
+        List<String> leer(long desde, long hasta) {
+            List<String> lineas = new ArrayList<>();
+            if (datos == null || desde >= hasta) {
+                return lineas;
+            }
+            try {
+                byte[] bytes = new byte[(int) (posiciones[(int) hasta] - posiciones[(int) desde])];
+                datos.seek(posiciones[(int) desde]);
+                datos.readFully(bytes);
+                String texto = new String(bytes, StandardCharsets.UTF_8);
+                int inicio = 0;
+                int salto;
+                while ((salto = texto.indexOf('\n', inicio)) >= 0) {
+                    lineas.add(texto.substring(inicio, salto));
+                    inicio = salto + 1;
+                }
+            } catch (IOException e) {
+                System.out.println("Error leyendo el historial: " + e.getMessage());
+            }
+            return lineas;
+        }
+
+        void vaciar() {
+            if (datos == null) {
+                return;
+            }
+            try {
+                datos.setLength(0);
+            } catch (IOException e) {
+                System.out.println("Error vaciando el historial: " + e.getMessage());
+            }
+            total = 0;
+        }
+    }
+}
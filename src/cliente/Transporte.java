@@ -0,0 +1,28 @@
+package cliente;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transporte de lineas entre ClienteAsincrono y el servidor (TCP, UDP, ...).
+ *
+ * - abrir() se puede volver a llamar despues de cerrar() (redireccion, reconexion)
+ * - Las lineas recibidas se entregan desde un hilo propio del transporte
+ * - alCerrar solo se avisa si la conexion la corto el otro lado, no si se
+ *   llamo a cerrar() o se abrio otra conexion
+ */
+public interface Transporte {
+
+    // Abre la conexion y empieza a entregar las lineas recibidas
+    void abrir(String host, int puerto, Consumer<String> alRecibir, Consumer<IOException> alCerrar)
+            throws IOException;
+
+    // Escribe un lote completo; lo llama un solo hilo (el de envio del cliente)
+    void escribir(List<String> lineas) throws IOException;
+
+    void cerrar();
+
+    // "TCP", "UDP"...
+    String getNombre();
+}
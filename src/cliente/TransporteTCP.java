@@ -0,0 +1,85 @@
+package cliente;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transporte TCP: una linea por mensaje y un flush por lote.
+ */
+public class TransporteTCP implements Transporte {
+
+    private static final int TIEMPO_CONEXION_MS = 5000;
+
+    private volatile Socket socket;
+    private Writer salida;
+
+    @Override
+    public void abrir(String host, int puerto, Consumer<String> alRecibir, Consumer<IOException> alCerrar)
+            throws IOException {
+        Socket nuevo = new Socket();
+        try {
+            nuevo.connect(new InetSocketAddress(host, puerto), TIEMPO_CONEXION_MS);
+            nuevo.setTcpNoDelay(true);
+        } catch (IOException e) {
+            nuevo.close();
+            throw e;
+        }
+        BufferedReader entrada = new BufferedReader(new InputStreamReader(nuevo.getInputStream()));
+        salida = new BufferedWriter(new OutputStreamWriter(nuevo.getOutputStream()));
+        socket = nuevo;
+
+        Thread lector = new Thread(() -> {
+            IOException causa = null;
+            try {
+                String linea;
+                while ((linea = entrada.readLine()) != null) {
+                    alRecibir.accept(linea);
+                }
+            } catch (IOException e) {
+                causa = e;
+            }
+            // Si se cerro desde aqui o ya hay otra conexion, no hay nada que avisar
+            if (socket == nuevo) {
+                alCerrar.accept(causa);
+            }
+        }, "cliente-lector-tcp");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    @Override
+    public void escribir(List<String> lineas) throws IOException {
+        if (socket == null) {
+            throw new IOException("Transporte TCP cerrado");
+        }
+        for (String linea : lineas) {
+            salida.write(linea);
+            salida.write('\n');
+        }
+        salida.flush();
+    }
+
+    @Override
+    public void cerrar() {
+        Socket actual = socket;
+        socket = null;
+        if (actual != null) {
+            try {
+                actual.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    @Override
+    public String getNombre() {
+        return "TCP";
+    }
+}
@@ -0,0 +1,71 @@
+package cliente;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transporte UDP: un datagrama por linea, sin garantia de entrega ni de orden.
+ */
+public class TransporteUDP implements Transporte {
+
+    private static final int TAMANO_DATAGRAMA = 1024;
+
+    private volatile DatagramSocket socket;
+
+    @Override
+    public void abrir(String host, int puerto, Consumer<String> alRecibir, Consumer<IOException> alCerrar)
+            throws IOException {
+        DatagramSocket nuevo = new DatagramSocket();
+        nuevo.connect(new InetSocketAddress(host, puerto));
+        socket = nuevo;
+
+        Thread lector = new Thread(() -> {
+            IOException causa = null;
+            byte[] buffer = new byte[TAMANO_DATAGRAMA];
+            try {
+                while (true) {
+                    DatagramPacket paquete = new DatagramPacket(buffer, buffer.length);
+                    nuevo.receive(paquete);
+                    alRecibir.accept(new String(paquete.getData(), 0, paquete.getLength()));
+                }
+            } catch (IOException e) {
+                causa = e;
+            }
+            if (socket == nuevo) {
+                alCerrar.accept(causa);
+            }
+        }, "cliente-lector-udp");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    @Override
+    public void escribir(List<String> lineas) throws IOException {
+        DatagramSocket actual = socket;
+        if (actual == null) {
+            throw new IOException("Transporte UDP cerrado");
+        }
+        for (String linea : lineas) {
+            byte[] datos = linea.getBytes();
+            actual.send(new DatagramPacket(datos, datos.length));
+        }
+    }
+
+    @Override
+    public void cerrar() {
+        DatagramSocket actual = socket;
+        socket = null;
+        if (actual != null) {
+            actual.close();
+        }
+    }
+
+    @Override
+    public String getNombre() {
+        return "UDP";
+    }
+}
@@ -0,0 +1,87 @@
+package cliente;
+
+import common.FlujosCanal;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transporte por socket de dominio UNIX, para clientes en el mismo equipo
+ * que el servidor (chat.unix.ruta). Mismo formato de lineas que TCP.
+ *
+ * El "host" es la ruta del archivo de socket; el puerto no se usa.
+ */
+public class TransporteUnix implements Transporte {
+
+    private volatile SocketChannel canal;
+    private Writer salida;
+
+    @Override
+    public void abrir(String ruta, int puerto, Consumer<String> alRecibir, Consumer<IOException> alCerrar)
+            throws IOException {
+        SocketChannel nuevo = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            nuevo.connect(UnixDomainSocketAddress.of(ruta));
+        } catch (IOException e) {
+            nuevo.close();
+            throw e;
+        }
+        BufferedReader entrada = new BufferedReader(new InputStreamReader(FlujosCanal.entrada(nuevo)));
+        salida = new BufferedWriter(new OutputStreamWriter(FlujosCanal.salida(nuevo)));
+        canal = nuevo;
+
+        Thread lector = new Thread(() -> {
+            IOException causa = null;
+            try {
+                String linea;
+                while ((linea = entrada.readLine()) != null) {
+                    alRecibir.accept(linea);
+                }
+            } catch (IOException e) {
+                causa = e;
+            }
+            // Si se cerro desde aqui o ya hay otra conexion, no hay nada que avisar
+            if (canal == nuevo) {
+                alCerrar.accept(causa);
+            }
+        }, "cliente-lector-unix");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    @Override
+    public void escribir(List<String> lineas) throws IOException {
+        if (canal == null) {
+            throw new IOException("Transporte UNIX cerrado");
+        }
+        for (String linea : lineas) {
+            salida.write(linea);
+            salida.write('\n');
+        }
+        salida.flush();
+    }
+
+    @Override
+    public void cerrar() {
+        SocketChannel actual = canal;
+        canal = null;
+        if (actual != null) {
+            try {
+                actual.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    @Override
+    public String getNombre() {
+        return "UNIX";
+    }
+}
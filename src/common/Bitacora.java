@@ -0,0 +1,322 @@
+package common;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * BITACORA - REGISTRO ASINCRONO POR NIVELES
+ *
+ * Sustituye a System.out.println en la ruta caliente. System.out esta
+ * sincronizado: con un println por mensaje todos los hilos de clientes
+ * terminan esperando el mismo candado de la consola.
+ *
+ * Caracteristicas:
+ * - Los hilos solo encolan el registro en una ColaAnillo (varios
+ *   productores, un consumidor) y un unico hilo escritor lo imprime
+ * - Niveles TRAZA, DEPURACION, INFO, AVISO y ERROR; comprobar un nivel
+ *   desactivado es una lectura de campo y una comparacion
+ * - Mensajes con parametros "{}": el texto se arma en el hilo escritor y
+ *   solo si el nivel esta activo (las sobrecargas de 1 a 3 argumentos
+ *   no crean arreglos)
+ * - Si la cola se llena el registro se descarta y se cuenta; un cliente
+ *   nunca espera a la consola
+ * - El nivel se elige con chat.log.nivel (INFO por defecto) y la capacidad
+ *   de la cola con chat.log.cola (8192 registros)
+ * - Un oyente opcional (el panel del servidor) recibe cada linea desde el
+ *   hilo escritor, nunca desde el hilo que registra
+ *
+ * @version 1.0
+ */
+public final class Bitacora {
+
+    /**
+     * Niveles de registro en orden de severidad
+     */
+    public enum Nivel {
+        TRAZA, DEPURACION, INFO, AVISO, ERROR
+    }
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    private static final int CAPACIDAD = Integer.getInteger("chat.log.cola", 8192);
+
+    /** Registros escritos antes de hacer flush aunque queden pendientes */
+    private static final int MAXIMO_LOTE = 512;
+
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static volatile int umbral = nivelInicial().ordinal();
+
+    // =============================================
+    // ESTADO
+    // =============================================
+
+    private static final ColaAnillo<Registro> COLA = new ColaAnillo<>(CAPACIDAD);
+    private static final Thread ESCRITOR;
+    private static volatile boolean durmiendo;
+    private static volatile BiConsumer<Nivel, String> oyente;
+
+    static {
+        ESCRITOR = new Thread(Bitacora::escribir, "bitacora");
+        ESCRITOR.setDaemon(true);
+        ESCRITOR.start();
+    }
+
+    /**
+     * Registro pendiente de imprimir (el formato se aplica al escribirlo)
+     */
+    private static final class Registro {
+        final Nivel nivel;
+        final long instante;
+        final String hilo;
+        final String plantilla;
+        final Object a;
+        final Object b;
+        final Object c;
+        final Object[] resto;
+        final Throwable error;
+
+        Registro(Nivel nivel, String plantilla, Object a, Object b, Object c, Object[] resto, Throwable error) {
+            this.nivel = nivel;
+            this.instante = System.currentTimeMillis();
+            this.hilo = Thread.currentThread().getName();
+            this.plantilla = plantilla;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.resto = resto;
+            this.error = error;
+        }
+    }
+
+    private Bitacora() {
+    }
+
+    private static Nivel nivelInicial() {
+        try {
+            return Nivel.valueOf(System.getProperty("chat.log.nivel", "INFO").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Nivel de bitacora invalido, se usa INFO: " + System.getProperty("chat.log.nivel"));
+            return Nivel.INFO;
+        }
+    }
+
+    // =============================================
+    // NIVEL
+    // =============================================
+
+    /**
+     * Indica si un nivel se imprime (para evitar calculos caros de argumentos)
+     */
+    public static boolean estaActivo(Nivel nivel) {
+        return nivel.ordinal() >= umbral;
+    }
+
+    public static void setNivel(Nivel nivel) {
+        umbral = nivel.ordinal();
+    }
+
+    public static Nivel getNivel() {
+        return Nivel.values()[umbral];
+    }
+
+    // =============================================
+    // REGISTRO (RUTA CALIENTE)
+    // =============================================
+
+    public static void depuracion(String plantilla) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, plantilla, null, null, null, null, null);
+    }
+
+    public static void depuracion(String plantilla, Object a) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, plantilla, a, null, null, null, null);
+    }
+
+    public static void depuracion(String plantilla, Object a, Object b) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, plantilla, a, b, null, null, null);
+    }
+
+    public static void depuracion(String plantilla, Object a, Object b, Object c) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, plantilla, a, b, c, null, null);
+    }
+
+    public static void info(String plantilla) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, plantilla, null, null, null, null, null);
+    }
+
+    public static void info(String plantilla, Object a) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, plantilla, a, null, null, null, null);
+    }
+
+    public static void info(String plantilla, Object a, Object b) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, plantilla, a, b, null, null, null);
+    }
+
+    public static void info(String plantilla, Object a, Object b, Object c) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, plantilla, a, b, c, null, null);
+    }
+
+    public static void aviso(String plantilla, Object a) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, plantilla, a, null, null, null, null);
+    }
+
+    public static void aviso(String plantilla, Object a, Object b) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, plantilla, a, b, null, null, null);
+    }
+
+    public static void error(String plantilla, Object a, Object b) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, plantilla, a, b, null, null, null);
+    }
+
+    public static void error(String plantilla, Object a, Throwable error) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, plantilla, a, null, null, null, error);
+    }
+
+    /**
+     * Registro con cualquier numero de argumentos (crea el arreglo de varargs)
+     *
+     * @param nivel Nivel del registro
+     * @param plantilla Texto con un "{}" por argumento
+     * @param argumentos Argumentos en orden
+     */
+    public static void registrar(Nivel nivel, String plantilla, Object... argumentos) {
+        if (nivel.ordinal() >= umbral) {
+            encolar(nivel, plantilla, null, null, null, argumentos, null);
+        }
+    }
+
+    private static void encolar(Nivel nivel, String plantilla, Object a, Object b, Object c,
+                                Object[] resto, Throwable error) {
+        if (!COLA.ofrecer(new Registro(nivel, plantilla, a, b, c, resto, error))) {
+            return; // descartado y contado por la cola
+        }
+        if (durmiendo) {
+            LockSupport.unpark(ESCRITOR);
+        }
+    }
+
+    // =============================================
+    // HILO ESCRITOR
+    // =============================================
+
+    private static void escribir() {
+        StringBuilder linea = new StringBuilder(256);
+        int enLote = 0;
+        while (true) {
+            Registro registro = COLA.sondear();
+            if (registro != null) {
+                PrintStream destino = registro.nivel.ordinal() >= Nivel.AVISO.ordinal() ? System.err : System.out;
+                linea.setLength(0);
+                int inicioTexto = formatear(registro, linea);
+                destino.println(linea);
+                BiConsumer<Nivel, String> actual = oyente;
+                if (actual != null) {
+                    actual.accept(registro.nivel, linea.substring(inicioTexto));
+                }
+                if (registro.error != null) {
+                    registro.error.printStackTrace(destino);
+                }
+                if (++enLote < MAXIMO_LOTE) {
+                    continue;
+                }
+            }
+            if (enLote > 0) {
+                System.out.flush();
+                System.err.flush();
+                enLote = 0;
+            }
+            if (registro != null) {
+                continue;
+            }
+            // Publicar que se va a dormir y volver a mirar la cola evita
+            // perder el aviso de un productor que encolo justo ahora
+            durmiendo = true;
+            if (COLA.estaVacia()) {
+                LockSupport.park(Bitacora.class);
+            }
+            durmiendo = false;
+        }
+    }
+
+    /**
+     * Arma la linea: hora, nivel, hilo y plantilla con sus argumentos
+     *
+     * @return Posicion donde empieza el texto (despues de la cabecera)
+     */
+    private static int formatear(Registro registro, StringBuilder linea) {
+        linea.append(LocalTime.ofInstant(Instant.ofEpochMilli(registro.instante), ZONA).format(HORA))
+             .append(' ').append(registro.nivel)
+             .append(" [").append(registro.hilo).append("] ");
+        int inicioTexto = linea.length();
+        String plantilla = registro.plantilla;
+        int argumento = 0;
+        int desde = 0;
+        int marca;
+        while ((marca = plantilla.indexOf("{}", desde)) >= 0) {
+            linea.append(plantilla, desde, marca);
+            linea.append(argumento(registro, argumento++));
+            desde = marca + 2;
+        }
+        linea.append(plantilla, desde, plantilla.length());
+        return inicioTexto;
+    }
+
+    private static Object argumento(Registro registro, int posicion) {
+        if (registro.resto != null) {
+            return posicion < registro.resto.length ? registro.resto[posicion] : "{}";
+        }
+        switch (posicion) {
+            case 0: return registro.a;
+            case 1: return registro.b;
+            case 2: return registro.c;
+            default: return "{}";
+        }
+    }
+
+    // =============================================
+    // CONSULTA Y CIERRE
+    // =============================================
+
+    /**
+     * Registra quien recibe cada linea escrita, ademas de la consola
+     * Se llama desde el hilo escritor: no debe bloquear
+     *
+     * @param nuevo Oyente con el nivel y el texto sin cabecera (null lo quita)
+     */
+    public static void setOyente(BiConsumer<Nivel, String> nuevo) {
+        oyente = nuevo;
+    }
+
+    /**
+     * Registros descartados porque la cola estaba llena
+     */
+    public static long getDescartados() {
+        return COLA.getDescartados();
+    }
+
+    public static int getPendientes() {
+        return COLA.tamano();
+    }
+
+    /**
+     * Espera a que se impriman los registros pendientes (al cerrar el servidor)
+     *
+     * @param esperaMaximaMs Tiempo maximo de espera
+     */
+    public static void vaciar(long esperaMaximaMs) {
+        long limite = System.currentTimeMillis() + esperaMaximaMs;
+        LockSupport.unpark(ESCRITOR);
+        while (!COLA.estaVacia() && System.currentTimeMillis() < limite) {
+            LockSupport.parkNanos(1_000_000L);
+        }
+        System.out.flush();
+    }
+}
@@ -0,0 +1,133 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * CODIFICADOR BINARIO DE MENSAJES
+ *
+ * Convierte objetos Mensaje a un formato binario compacto y viceversa.
+ * Se usa para persistir mensajes en disco sin pasar por la serializacion
+ * estandar de Java, que es lenta y ocupa mucho espacio.
+ *
+ * Formato del cuerpo codificado (big endian):
+ * - long  secuencia
+ * - long  timestamp en milisegundos
+ * - short tipoMensaje
+ * - short tipoEnvio
+ * - short longitud del remitente (-1 si es null) + bytes UTF-8
+ * - short longitud del destino   (-1 si es null) + bytes UTF-8
+ * - int   longitud del contenido (-1 si es null) + bytes UTF-8
+ *
+ * @version 1.0
+ */
+public class CodificadorMensaje {
+
+    // =============================================
+    // CONSTANTES DEL FORMATO
+    // =============================================
+
+    /**
+     * Bytes fijos del cuerpo: secuencia, timestamp, tipos y las tres longitudes
+     */
+    public static final int TAMANO_FIJO = 8 + 8 + 2 + 2 + 2 + 2 + 4;
+
+    /**
+     * Longitud maxima para remitente y destino (cabe en un short)
+     */
+    private static final int MAX_CAMPO_CORTO = Short.MAX_VALUE;
+
+    private CodificadorMensaje() {
+    }
+
+    // =============================================
+    // CODIFICACION
+    // =============================================
+
+    /**
+     * Codifica un mensaje en un arreglo de bytes con el formato binario
+     *
+     * @param mensaje Mensaje a codificar
+     * @return Cuerpo binario del mensaje
+     */
+    public static byte[] codificar(Mensaje mensaje) {
+        byte[] remitente = bytes(mensaje.getRemitente());
+        byte[] destino = bytes(mensaje.getDestino());
+        byte[] contenido = bytes(mensaje.getContenido());
+
+        if (longitud(remitente) > MAX_CAMPO_CORTO || longitud(destino) > MAX_CAMPO_CORTO) {
+            throw new IllegalArgumentException("Remitente o destino demasiado largo");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANO_FIJO + longitud(remitente)
+                + longitud(destino) + longitud(contenido));
+        buffer.putLong(mensaje.getSecuencia());
+        buffer.putLong(mensaje.getTimestamp() != null ? mensaje.getTimestamp().getTime() : 0L);
+        buffer.putShort((short) mensaje.getTipoMensaje());
+        buffer.putShort((short) mensaje.getTipoEnvio());
+        escribirCorto(buffer, remitente);
+        escribirCorto(buffer, destino);
+        if (contenido == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(contenido.length);
+            buffer.put(contenido);
+        }
+        return buffer.array();
+    }
+
+    // =============================================
+    // DECODIFICACION
+    // =============================================
+
+    /**
+     * Decodifica un mensaje desde la posicion actual del buffer
+     * Al terminar, la posicion del buffer queda justo despues del mensaje
+     *
+     * @param buffer Buffer posicionado al inicio de un cuerpo codificado
+     * @return Mensaje reconstruido
+     */
+    public static Mensaje decodificar(ByteBuffer buffer) {
+        long secuencia = buffer.getLong();
+        long timestamp = buffer.getLong();
+        int tipoMensaje = buffer.getShort();
+        int tipoEnvio = buffer.getShort();
+        String remitente = leerCadena(buffer, buffer.getShort());
+        String destino = leerCadena(buffer, buffer.getShort());
+        String contenido = leerCadena(buffer, buffer.getInt());
+        return new Mensaje(contenido, remitente, destino, tipoMensaje, tipoEnvio,
+                new Date(timestamp), secuencia);
+    }
+
+    // =============================================
+    // METODOS AUXILIARES
+    // =============================================
+
+    private static byte[] bytes(String texto) {
+        return texto == null ? null : texto.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int longitud(byte[] datos) {
+        return datos == null ? 0 : datos.length;
+    }
+
+    private static void escribirCorto(ByteBuffer buffer, byte[] datos) {
+        if (datos == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) datos.length);
+            buffer.put(datos);
+        }
+    }
+
+    private static String leerCadena(ByteBuffer buffer, int longitud) {
+        if (longitud < 0) {
+            return null;
+        }
+        // Funciona tanto con buffers en heap como con buffers mapeados a disco
+        byte[] datos = new byte[longitud];
+        buffer.get(datos);
+        return new String(datos, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,207 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * COLA ANILLO - BUFFER CIRCULAR ACOTADO SIN BLOQUEOS
+ *
+ * Cola de capacidad fija para muchos productores y un unico consumidor.
+ * Los productores nunca se bloquean: si la cola esta llena el elemento
+ * se descarta y se incrementa un contador de descartes.
+ *
+ * Funcionamiento:
+ * - Cada celda guarda un numero de secuencia que indica si esta libre
+ *   para el productor de la vuelta actual o lista para el consumidor
+ * - Los productores reservan posiciones con un compareAndSet sobre la cola
+ * - El consumidor avanza la cabeza sin operaciones atomicas costosas
+ *
+ * @param <E> Tipo de los elementos almacenados
+ * @version 1.0
+ */
+public class ColaAnillo<E> {
+
+    // =============================================
+    // ESTRUCTURA INTERNA
+    // =============================================
+
+    private final int capacidad;
+    private final int mascara;
+    private final AtomicReferenceArray<E> elementos;
+    private final AtomicLongArray secuencias;
+
+    /**
+     * Siguiente posicion a reservar por los productores
+     */
+    private final AtomicLong cola = new AtomicLong();
+
+    /**
+     * Siguiente posicion a leer (solo la modifica el consumidor)
+     */
+    private volatile long cabeza;
+
+    /**
+     * Elementos rechazados porque la cola estaba llena
+     */
+    private final LongAdder descartados = new LongAdder();
+
+    // =============================================
+    // CONSTRUCTOR
+    // =============================================
+
+    /**
+     * Crea una cola con la capacidad indicada redondeada a potencia de 2
+     *
+     * @param capacidadMinima Numero minimo de elementos que debe admitir
+     */
+    public ColaAnillo(int capacidadMinima) {
+        if (capacidadMinima < 2) {
+            capacidadMinima = 2;
+        }
+        this.capacidad = Integer.highestOneBit(capacidadMinima - 1) << 1;
+        this.mascara = capacidad - 1;
+        this.elementos = new AtomicReferenceArray<>(capacidad);
+        this.secuencias = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            secuencias.set(i, i);
+        }
+    }
+
+    // =============================================
+    // OPERACIONES DE PRODUCTOR
+    // =============================================
+
+    /**
+     * Intenta agregar un elemento sin bloquear
+     *
+     * @param elemento Elemento a encolar (no null)
+     * @return true si se encolo, false si la cola estaba llena
+     */
+    public boolean ofrecer(E elemento) {
+        long posicion = reservar();
+        if (posicion < 0) {
+            return false;
+        }
+        publicar(posicion, elemento);
+        return true;
+    }
+
+    /**
+     * Intenta agregar un elemento sin bloquear, entregandole antes de
+     * publicarlo la posicion reservada. Las posiciones crecen de una en una
+     * sin huecos y el consumidor las recibe en ese orden
+     *
+     * @param elemento Elemento a encolar (no null)
+     * @param alReservar Recibe el elemento y su posicion antes de que el consumidor lo vea
+     * @return Posicion reservada, o -1 si la cola estaba llena
+     */
+    public long ofrecer(E elemento, ObjLongConsumer<? super E> alReservar) {
+        long posicion = reservar();
+        if (posicion < 0) {
+            return -1;
+        }
+        alReservar.accept(elemento, posicion);
+        publicar(posicion, elemento);
+        return posicion;
+    }
+
+    /**
+     * Reserva la siguiente posicion con un compareAndSet sobre la cola
+     *
+     * @return Posicion reservada, o -1 si la cola esta llena
+     */
+    private long reservar() {
+        while (true) {
+            long posicion = cola.get();
+            long diferencia = secuencias.get((int) (posicion & mascara)) - posicion;
+            if (diferencia == 0) {
+                if (cola.compareAndSet(posicion, posicion + 1)) {
+                    return posicion;
+                }
+            } else if (diferencia < 0) {
+                descartados.increment();
+                return -1;
+            }
+        }
+    }
+
+    private void publicar(long posicion, E elemento) {
+        int indice = (int) (posicion & mascara);
+        elementos.lazySet(indice, elemento);
+        secuencias.set(indice, posicion + 1);
+    }
+
+    // =============================================
+    // OPERACIONES DE CONSUMIDOR (UN SOLO HILO)
+    // =============================================
+
+    /**
+     * Extrae el siguiente elemento si existe
+     *
+     * @return Elemento extraido, o null si la cola esta vacia
+     */
+    public E sondear() {
+        long actual = cabeza;
+        int indice = (int) (actual & mascara);
+        if (secuencias.get(indice) != actual + 1) {
+            return null;
+        }
+        E elemento = elementos.get(indice);
+        elementos.lazySet(indice, null);
+        secuencias.set(indice, actual + capacidad);
+        cabeza = actual + 1;
+        return elemento;
+    }
+
+    /**
+     * Extrae hasta un maximo de elementos entregandolos al consumidor
+     *
+     * @param consumidor Accion a ejecutar por cada elemento
+     * @param maximo Numero maximo de elementos a extraer
+     * @return Numero de elementos extraidos
+     */
+    public int drenar(Consumer<? super E> consumidor, int maximo) {
+        int extraidos = 0;
+        E elemento;
+        while (extraidos < maximo && (elemento = sondear()) != null) {
+            consumidor.accept(elemento);
+            extraidos++;
+        }
+        return extraidos;
+    }
+
+    // =============================================
+    // METODOS DE CONSULTA
+    // =============================================
+
+    /**
+     * Numero aproximado de elementos pendientes
+     *
+     * @return Elementos en cola en este instante
+     */
+    public int tamano() {
+        long pendientes = cola.get() - cabeza;
+        return (int) Math.max(0, Math.min(pendientes, capacidad));
+    }
+
+    public boolean estaVacia() {
+        return tamano() == 0;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    /**
+     * Total de elementos rechazados por cola llena
+     *
+     * @return Contador de descartes
+     */
+    public long getDescartados() {
+        return descartados.sum();
+    }
+}
@@ -0,0 +1,88 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+/**
+ * FLUJOS SOBRE UN CANAL - InputStream Y OutputStream SIN CANDADO COMUN
+ *
+ * Channels.newInputStream y Channels.newOutputStream toman el mismo candado
+ * del canal al leer y al escribir: con un hilo bloqueado leyendo, el que
+ * escribe espera a que llegue algo. Un chat lee y escribe a la vez en la
+ * misma conexion, asi que estos flujos llaman al canal directamente.
+ *
+ * Caracteristicas:
+ * - Un hilo lector y un hilo escritor pueden usar el canal a la vez
+ *   (SocketChannel lo permite en modo bloqueante)
+ * - Sin buffer propio: se envuelven en BufferedReader / BufferedWriter
+ * - Cerrar cualquiera de los dos cierra el canal
+ *
+ * @version 1.0
+ */
+public final class FlujosCanal {
+
+    private FlujosCanal() {
+    }
+
+    /**
+     * Flujo de lectura de un canal bloqueante
+     *
+     * @param canal Canal en modo bloqueante
+     * @return InputStream que lee del canal
+     */
+    public static InputStream entrada(ByteChannel canal) {
+        return new InputStream() {
+            private final byte[] uno = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                int leidos = read(uno, 0, 1);
+                return leidos < 0 ? -1 : uno[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] datos, int desde, int longitud) throws IOException {
+                if (longitud == 0) {
+                    return 0;
+                }
+                return canal.read(ByteBuffer.wrap(datos, desde, longitud));
+            }
+
+            @Override
+            public void close() throws IOException {
+                canal.close();
+            }
+        };
+    }
+
+    /**
+     * Flujo de escritura de un canal bloqueante
+     *
+     * @param canal Canal en modo bloqueante
+     * @return OutputStream que escribe todo lo recibido en el canal
+     */
+    public static OutputStream salida(ByteChannel canal) {
+        return new OutputStream() {
+            @Override
+            public void write(int dato) throws IOException {
+                write(new byte[] {(byte) dato}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] datos, int desde, int longitud) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(datos, desde, longitud);
+                while (buffer.hasRemaining()) {
+                    canal.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                canal.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,215 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HISTOGRAMA DE LATENCIA - CUBETAS LOG-LINEALES DE MEMORIA FIJA
+ *
+ * Registra duraciones (en nanosegundos) en cubetas de tamano fijo para
+ * calcular percentiles sin guardar cada muestra.
+ *
+ * Caracteristicas:
+ * - Cada potencia de 2 se divide en 16 cubetas lineales: el error relativo
+ *   de cualquier percentil es menor al 6.25%
+ * - Rango de 0 a 2^40 ns (unos 18 minutos); los valores mayores caen en la
+ *   ultima cubeta y el maximo exacto se guarda aparte
+ * - Memoria fija: 608 contadores por franja, sin reservas al registrar
+ * - Los hilos escriben en franjas distintas segun su ID para no competir
+ *   por la misma linea de cache; la lectura suma todas las franjas
+ *
+ * @version 1.0
+ */
+public class HistogramaLatencia {
+
+    // =============================================
+    // GEOMETRIA DE LAS CUBETAS
+    // =============================================
+
+    /** Bits de subdivision lineal de cada potencia de 2 (16 cubetas) */
+    private static final int BITS_SUB = 4;
+    private static final int SUB_CUBETAS = 1 << BITS_SUB;
+
+    /** Mayor exponente representable */
+    private static final int EXPONENTE_MAXIMO = 40;
+
+    /** Total de cubetas */
+    public static final int CUBETAS = (EXPONENTE_MAXIMO - BITS_SUB + 2) * SUB_CUBETAS;
+
+    private static final int FRANJAS = Math.min(8,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    // =============================================
+    // ESTADO
+    // =============================================
+
+    private final AtomicLongArray[] franjas = new AtomicLongArray[FRANJAS];
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public HistogramaLatencia() {
+        for (int i = 0; i < FRANJAS; i++) {
+            franjas[i] = new AtomicLongArray(CUBETAS);
+        }
+    }
+
+    // =============================================
+    // REGISTRO
+    // =============================================
+
+    /**
+     * Registra una muestra
+     *
+     * @param valor Duracion en nanosegundos (los negativos cuentan como 0)
+     */
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        int franja = (int) Thread.currentThread().threadId() & (FRANJAS - 1);
+        franjas[franja].getAndIncrement(indice(valor));
+        suma.add(valor);
+        if (valor > maximo.get()) {
+            maximo.accumulateAndGet(valor, Math::max);
+        }
+    }
+
+    /**
+     * Registra el tiempo transcurrido desde un instante de System.nanoTime()
+     *
+     * @param inicioNanos Instante inicial
+     */
+    public void registrarDesde(long inicioNanos) {
+        registrar(System.nanoTime() - inicioNanos);
+    }
+
+    /**
+     * Cubeta que corresponde a un valor
+     */
+    static int indice(long valor) {
+        if (valor < SUB_CUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        if (exponente > EXPONENTE_MAXIMO) {
+            return CUBETAS - 1;
+        }
+        int sub = (int) (valor >>> (exponente - BITS_SUB)) & (SUB_CUBETAS - 1);
+        return (exponente - BITS_SUB + 1) * SUB_CUBETAS + sub;
+    }
+
+    /**
+     * Mayor valor que cae en una cubeta
+     */
+    static long limiteSuperior(int indice) {
+        if (indice < SUB_CUBETAS) {
+            return indice;
+        }
+        int exponente = indice / SUB_CUBETAS + BITS_SUB - 1;
+        long sub = indice % SUB_CUBETAS;
+        long inicio = (1L << exponente) + (sub << (exponente - BITS_SUB));
+        return inicio + (1L << (exponente - BITS_SUB)) - 1;
+    }
+
+    // =============================================
+    // LECTURA
+    // =============================================
+
+    /**
+     * Copia consistente por cubeta de los contadores actuales
+     * (las muestras que llegan durante la copia pueden quedar fuera)
+     *
+     * @return Instantanea del histograma
+     */
+    public Instantanea instantanea() {
+        long[] cuentas = new long[CUBETAS];
+        long total = 0;
+        for (AtomicLongArray franja : franjas) {
+            for (int i = 0; i < CUBETAS; i++) {
+                long c = franja.get(i);
+                cuentas[i] += c;
+                total += c;
+            }
+        }
+        return new Instantanea(cuentas, total, suma.sum(), maximo.get());
+    }
+
+    /**
+     * Vista inmutable de un histograma en un momento dado
+     */
+    public static final class Instantanea {
+        private final long[] cuentas;
+        private final long total;
+        private final long suma;
+        private final long maximo;
+
+        Instantanea(long[] cuentas, long total, long suma, long maximo) {
+            this.cuentas = cuentas;
+            this.total = total;
+            this.suma = suma;
+            this.maximo = maximo;
+        }
+
+        /**
+         * Valor por debajo del cual queda la fraccion indicada de muestras
+         *
+         * @param percentil Percentil entre 0 y 100
+         * @return Limite superior de la cubeta (nunca mayor que el maximo)
+         */
+        public long percentil(double percentil) {
+            if (total == 0) {
+                return 0;
+            }
+            long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+            long acumulado = 0;
+            for (int i = 0; i < cuentas.length; i++) {
+                acumulado += cuentas[i];
+                if (acumulado >= objetivo) {
+                    return Math.min(limiteSuperior(i), maximo);
+                }
+            }
+            return maximo;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getSuma() {
+            return suma;
+        }
+
+        public long getMaximo() {
+            return maximo;
+        }
+
+        public double getMedia() {
+            return total == 0 ? 0 : (double) suma / total;
+        }
+
+        /**
+         * Muestras acumuladas con valor menor o igual al limite
+         * (para exportar cubetas acumulativas)
+         *
+         * @param limite Valor limite en nanosegundos
+         * @return Numero de muestras
+         */
+        public long contarHasta(long limite) {
+            long acumulado = 0;
+            for (int i = 0; i < cuentas.length && limiteSuperior(i) <= limite; i++) {
+                acumulado += cuentas[i];
+            }
+            return acumulado;
+        }
+
+        /**
+         * Resumen legible en microsegundos
+         */
+        public String resumen() {
+            return String.format("n=%d media=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    total, getMedia() / 1000.0, percentil(50) / 1000.0, percentil(99) / 1000.0,
+                    percentil(99.9) / 1000.0, maximo / 1000.0);
+        }
+    }
+}
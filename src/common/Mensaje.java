@@ -64,6 +64,12 @@ public class Mensaje implements Serializable {
      */
     private Date timestamp;
     
+    /**
+     * Numero de secuencia asignado por el servidor al registrar el mensaje
+     * Vale 0 mientras el mensaje no ha pasado por el diario
+     */
+    private long secuencia;
+    
     // =============================================
     // CONSTRUCTORES
     // =============================================
@@ -98,6 +104,29 @@ public class Mensaje implements Serializable {
         this(contenido, remitente, null, Protocolo.MENSAJE_TEXTO, tipoEnvio);
     }
     
+    /**
+     * Constructor para reconstruir un mensaje ya existente (por ejemplo,
+     * al leerlo del diario en disco) conservando su timestamp original
+     * 
+     * @param contenido Texto del mensaje
+     * @param remitente ID del cliente que envia el mensaje
+     * @param destino ID del cliente destino (null para broadcast)
+     * @param tipoMensaje Tipo de mensaje (de Protocolo.java)
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param timestamp Fecha y hora original del mensaje
+     * @param secuencia Numero de secuencia asignado por el servidor
+     */
+    public Mensaje(String contenido, String remitente, String destino,
+                  int tipoMensaje, int tipoEnvio, Date timestamp, long secuencia) {
+        this.contenido = contenido;
+        this.remitente = remitente;
+        this.destino = destino;
+        this.tipoMensaje = tipoMensaje;
+        this.tipoEnvio = tipoEnvio;
+        this.timestamp = timestamp;
+        this.secuencia = secuencia;
+    }
+    
     // =============================================
     // METODOS DE ACCESO (GETTERS)
     // =============================================
@@ -156,6 +185,15 @@ public class Mensaje implements Serializable {
         return timestamp;
     }
     
+    /**
+     * Obtiene el numero de secuencia asignado por el servidor
+     * 
+     * @return Secuencia del mensaje, o 0 si aun no fue registrado
+     */
+    public long getSecuencia() {
+        return secuencia;
+    }
+    
     // =============================================
     // METODOS DE MODIFICACION (SETTERS)
     // =============================================
@@ -205,6 +243,15 @@ public class Mensaje implements Serializable {
         this.tipoEnvio = tipoEnvio;
     }
     
+    /**
+     * Establece el numero de secuencia del mensaje
+     * 
+     * @param secuencia Secuencia asignada por el servidor
+     */
+    public void setSecuencia(long secuencia) {
+        this.secuencia = secuencia;
+    }
+    
     // =============================================
     // METODOS DE UTILIDAD
     // =============================================
@@ -255,6 +302,21 @@ public class Mensaje implements Serializable {
         return tipoEnvio == Protocolo.ANYCAST;
     }
     
+    /**
+     * Obtiene el canal al que pertenece el mensaje segun su tipo de envio
+     * Se usa para agrupar historial y politicas de retencion
+     * 
+     * @return Canal global, privado o anycast (de Protocolo.java)
+     */
+    public String getCanal() {
+        switch (tipoEnvio) {
+            case Protocolo.BROADCAST: return Protocolo.CANAL_GLOBAL;
+            case Protocolo.UNICAST: return Protocolo.CANAL_PRIVADO;
+            case Protocolo.ANYCAST: return Protocolo.CANAL_ANYCAST;
+            default: return Protocolo.getDescripcionTipoEnvio(tipoEnvio).toLowerCase();
+        }
+    }
+    
     /**
      * Obtiene una descripcion legible del tipo de envio
      * 
@@ -1,5 +1,10 @@
 package common;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * PROTOCOLO DE COMUNICACION - SISTEMA DE CHAT CON SOCKETS
  * 
@@ -7,10 +12,11 @@ package common;
  * Contiene los tipos de protocolo, mensajes y metodos de envio requeridos en la Actividad 9.
  * 
  * Funcionalidades:
- * - Definir protocolos de transporte (TCP/UDP)
+ * - Definir protocolos de transporte (TCP/UDP/UNIX)
  * - Tipos de mensajes del sistema
  * - Modos de envio (Unicast, Broadcast, Multicast, Anycast)
  * - Validaciones y utilidades para la comunicacion
+ * - Negociacion de version y capacidades (PROTOCOLO|...)
  * 
  * @author Angel
  * @version 1.0
@@ -33,6 +39,12 @@ public class Protocolo {
      */
     public static final int UDP = 2;
     
+    /**
+     * Socket de dominio UNIX - Orientado a conexion, solo en el mismo equipo
+     * Caracteristicas: Como TCP pero sin pasar por la pila de red
+     */
+    public static final int UNIX = 3;
+    
     // =============================================
     // TIPOS DE MENSAJES DEL SISTEMA
     // =============================================
@@ -97,6 +109,53 @@ public class Protocolo {
     public static final int CONECTADO = 300;
     public static final int DESCONECTADO = 301;
     
+    /**
+     * Marca de un CONEXION|apodo|sala|REDIRIGIDO enviado tras seguir un
+     * REDIRECT: el nodo que lo recibe no vuelve a redirigir la conexion
+     */
+    public static final String MARCA_REDIRIGIDO = "REDIRIGIDO";
+    
+    // =============================================
+    // CANALES DE MENSAJES
+    // =============================================
+    
+    /**
+     * Canal de los mensajes publicos (BROADCAST)
+     */
+    public static final String CANAL_GLOBAL = "global";
+    
+    /**
+     * Canal de los mensajes privados (UNICAST)
+     */
+    public static final String CANAL_PRIVADO = "privado";
+    
+    /**
+     * Canal de los mensajes ANYCAST
+     */
+    public static final String CANAL_ANYCAST = "anycast";
+    
+    // =============================================
+    // NEGOCIACION DE VERSION Y CAPACIDADES
+    // =============================================
+    
+    /**
+     * Version del protocolo de texto con negociacion
+     * La version 1 es el texto plano original: bienvenida, ayuda y comandos
+     * Formato: PROTOCOLO|version|cap1,cap2,... (el cliente, como primera linea)
+     * Respuesta: PROTOCOLO|version acordada|capacidades comunes|id del cliente
+     */
+    public static final int VERSION_PROTOCOLO = 2;
+    
+    /**
+     * Sesion reanudable desde el saludo (equivale a SESION on)
+     */
+    public static final String CAPACIDAD_SESION = "SESION";
+    
+    /**
+     * Lista de usuarios y sus altas y bajas desde el saludo (equivale a PRESENCIA on)
+     */
+    public static final String CAPACIDAD_PRESENCIA = "PRESENCIA";
+    
     // =============================================
     // METODOS DE VALIDACION
     // =============================================
@@ -147,6 +206,7 @@ public class Protocolo {
         switch(protocolo) {
             case TCP: return "TCP";
             case UDP: return "UDP";
+            case UNIX: return "UNIX";
             default: return "DESCONOCIDO";
         }
     }
@@ -172,4 +232,28 @@ public class Protocolo {
     public static String[] parsearIdCliente(String idCliente) {
         return idCliente.split(":");
     }
+    
+    /**
+     * Elige las capacidades comunes de una negociacion
+     * Se respeta el orden de preferencia de quien responde; las que no
+     * conoce se ignoran, asi un cliente puede ofrecer capacidades nuevas
+     * sin romper con servidores anteriores
+     * 
+     * @param ofrecidas Capacidades ofrecidas separadas por comas (mayusculas o minusculas)
+     * @param soportadas Capacidades propias en orden de preferencia
+     * @return Capacidades soportadas que tambien se ofrecieron
+     */
+    public static List<String> capacidadesComunes(String ofrecidas, List<String> soportadas) {
+        Set<String> pedidas = new HashSet<>();
+        for (String capacidad : ofrecidas.split(",")) {
+            pedidas.add(capacidad.trim().toUpperCase());
+        }
+        List<String> comunes = new ArrayList<>(soportadas.size());
+        for (String capacidad : soportadas) {
+            if (pedidas.contains(capacidad)) {
+                comunes.add(capacidad);
+            }
+        }
+        return comunes;
+    }
 }
\ No newline at end of file
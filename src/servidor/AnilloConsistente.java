@@ -0,0 +1,142 @@
+package servidor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * ANILLO CONSISTENTE - ASIGNACION DE SALAS A NODOS
+ *
+ * Reparte las salas (y grupos multicast) entre los nodos de la federacion
+ * con hashing consistente, para que todos los miembros de una sala queden
+ * en el mismo nodo y el reparto de sus mensajes no cruce la red.
+ *
+ * Caracteristicas:
+ * - Cada nodo ocupa varias posiciones (nodos virtuales) en un anillo de 64 bits;
+ *   una sala pertenece al primer nodo virtual que sigue a su hash
+ * - Al entrar o salir un nodo solo cambian de dueno las salas de los tramos
+ *   que ocupa ese nodo (aproximadamente 1/N del total)
+ * - El anillo es inmutable por dentro: las consultas leen una copia sin
+ *   bloqueos y los cambios de miembros publican una copia nueva
+ * - Todos los nodos calculan el mismo dueno a partir del mismo conjunto de
+ *   miembros, sin coordinacion adicional
+ *
+ * @version 1.0
+ */
+public class AnilloConsistente {
+
+    private final int virtualesPorNodo;
+
+    /**
+     * Posicion en el anillo -> ID de nodo (copia inmutable)
+     */
+    private volatile NavigableMap<Long, String> anillo = Collections.emptyNavigableMap();
+
+    private volatile Set<String> miembros = Collections.emptySet();
+
+    /**
+     * Crea un anillo vacio
+     *
+     * @param virtualesPorNodo Posiciones que ocupa cada nodo en el anillo
+     */
+    public AnilloConsistente(int virtualesPorNodo) {
+        this.virtualesPorNodo = virtualesPorNodo;
+    }
+
+    // =============================================
+    // MIEMBROS
+    // =============================================
+
+    /**
+     * Agrega un nodo al anillo
+     *
+     * @param nodo ID del nodo
+     * @return true si el nodo no estaba
+     */
+    public synchronized boolean agregarNodo(String nodo) {
+        if (miembros.contains(nodo)) {
+            return false;
+        }
+        Set<String> nuevos = new TreeSet<>(miembros);
+        nuevos.add(nodo);
+        publicar(nuevos);
+        return true;
+    }
+
+    /**
+     * Quita un nodo del anillo
+     *
+     * @param nodo ID del nodo
+     * @return true si el nodo estaba
+     */
+    public synchronized boolean quitarNodo(String nodo) {
+        if (!miembros.contains(nodo)) {
+            return false;
+        }
+        Set<String> nuevos = new TreeSet<>(miembros);
+        nuevos.remove(nodo);
+        publicar(nuevos);
+        return true;
+    }
+
+    private void publicar(Set<String> nuevos) {
+        TreeMap<Long, String> posiciones = new TreeMap<>();
+        for (String nodo : nuevos) {
+            for (int i = 0; i < virtualesPorNodo; i++) {
+                // Ante una colision (muy improbable) gana el ID menor, igual en todos los nodos
+                posiciones.merge(hash(nodo + "#" + i), nodo, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        anillo = Collections.unmodifiableNavigableMap(posiciones);
+        miembros = Collections.unmodifiableSet(nuevos);
+    }
+
+    // =============================================
+    // CONSULTAS
+    // =============================================
+
+    /**
+     * Nodo dueno de una clave (sala o grupo)
+     *
+     * @param clave Nombre de la sala
+     * @return ID del nodo, o null si el anillo esta vacio
+     */
+    public String nodoPara(String clave) {
+        NavigableMap<Long, String> actual = anillo;
+        if (actual.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entrada = actual.ceilingEntry(hash(clave));
+        return entrada != null ? entrada.getValue() : actual.firstEntry().getValue();
+    }
+
+    public Set<String> getMiembros() {
+        return miembros;
+    }
+
+    /**
+     * Hash de 64 bits estable entre procesos: FNV-1a sobre los bytes UTF-8
+     * seguido del mezclado final de MurmurHash3 para repartir bien claves
+     * parecidas ("nodo#1", "nodo#2", ...)
+     *
+     * @param clave Texto a ubicar en el anillo
+     * @return Posicion en el anillo
+     */
+    static long hash(String clave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : clave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,388 @@
+package servidor;
+
+import common.CodificadorMensaje;
+import common.Mensaje;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BUZONES OFFLINE - ALMACENAMIENTO Y REENVIO DE MENSAJES UNICAST
+ *
+ * Guarda los mensajes privados dirigidos a un apodo que no esta conectado
+ * y los entrega en orden, en un solo lote, cuando el destinatario vuelve.
+ *
+ * Caracteristicas:
+ * - Un buzon por apodo
+ * - Los mensajes se guardan en memoria hasta un presupuesto global de bytes
+ * - Al superar el presupuesto se derraman a un archivo por apodo en disco;
+ *   desde ese momento los mensajes nuevos del apodo van tambien a disco
+ *   para conservar el orden de llegada
+ * - Cada mensaje caduca pasado un tiempo de vida (TTL)
+ *
+ * Configuracion por propiedades del sistema:
+ * - chat.buzon.dir        Directorio de los archivos derramados (datos/buzones)
+ * - chat.buzon.memoria.mb Presupuesto total en memoria (16)
+ * - chat.buzon.ttl.horas  Tiempo de vida de cada mensaje (72)
+ *
+ * @version 1.0
+ */
+public class BuzonesOffline {
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    private static final String EXTENSION_BUZON = ".buzon";
+
+    /**
+     * Estimacion de memoria ocupada por un mensaje ademas de su contenido
+     */
+    private static final int SOBRECARGA_MENSAJE = 96;
+
+    private final File directorio;
+    private final long presupuestoBytes;
+    private final long ttlMs;
+
+    // =============================================
+    // ESTADO
+    // =============================================
+
+    private final Map<String, Buzon> buzones = new ConcurrentHashMap<>();
+    private final AtomicLong bytesEnMemoria = new AtomicLong();
+    private final AtomicLong expirados = new AtomicLong();
+    private ScheduledExecutorService limpieza;
+
+    // =============================================
+    // CONSTRUCTORES
+    // =============================================
+
+    /**
+     * Crea los buzones con la configuracion indicada
+     *
+     * @param directorio Directorio para los archivos derramados
+     * @param presupuestoBytes Bytes maximos entre todos los buzones en memoria
+     * @param ttlMs Tiempo de vida de cada mensaje en milisegundos
+     */
+    public BuzonesOffline(File directorio, long presupuestoBytes, long ttlMs) {
+        this.directorio = directorio;
+        this.presupuestoBytes = presupuestoBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Crea los buzones leyendo la configuracion de las propiedades del sistema
+     *
+     * @return Buzones configurados (sin iniciar)
+     */
+    public static BuzonesOffline desdePropiedades() {
+        return new BuzonesOffline(
+            new File(System.getProperty("chat.buzon.dir", "datos/buzones")),
+            Long.getLong("chat.buzon.memoria.mb", 16L) * 1024 * 1024,
+            TimeUnit.HOURS.toMillis(Long.getLong("chat.buzon.ttl.horas", 72L)));
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    /**
+     * Recupera los buzones derramados en disco e inicia la limpieza periodica
+     *
+     * @throws IOException Si no se puede crear el directorio
+     */
+    public void iniciar() throws IOException {
+        if (!directorio.isDirectory() && !directorio.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio " + directorio);
+        }
+
+        File[] archivos = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION_BUZON));
+        if (archivos != null) {
+            for (File archivo : archivos) {
+                String apodo = archivo.getName().substring(0,
+                        archivo.getName().length() - EXTENSION_BUZON.length());
+                Buzon buzon = new Buzon(archivo);
+                buzon.recuperarDisco();
+                buzones.put(apodo, buzon);
+            }
+        }
+
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "buzones-limpieza");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        limpieza.scheduleWithFixedDelay(this::purgarExpirados, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void detener() {
+        if (limpieza != null) {
+            limpieza.shutdownNow();
+        }
+    }
+
+    // =============================================
+    // OPERACIONES PRINCIPALES
+    // =============================================
+
+    /**
+     * Guarda un mensaje para un apodo desconectado
+     *
+     * @param apodo Apodo del destinatario
+     * @param mensaje Mensaje a guardar
+     * @return true si se guardo, false si hubo un error de disco
+     */
+    public boolean guardar(String apodo, Mensaje mensaje) {
+        boolean[] guardado = new boolean[1];
+        long expira = System.currentTimeMillis() + ttlMs;
+
+        // compute mantiene el buzon bloqueado frente a la purga concurrente
+        buzones.compute(apodo, (a, buzon) -> {
+            if (buzon == null) {
+                buzon = new Buzon(new File(directorio, a + EXTENSION_BUZON));
+            }
+            guardado[0] = buzon.guardar(mensaje, expira);
+            return buzon;
+        });
+        return guardado[0];
+    }
+
+    /**
+     * Retira todos los mensajes vigentes de un apodo, en orden de llegada
+     * El buzon queda vacio y su archivo en disco se elimina
+     *
+     * @param apodo Apodo del destinatario que se acaba de conectar
+     * @return Mensajes pendientes (vacio si no habia)
+     */
+    public List<Mensaje> retirar(String apodo) {
+        Buzon buzon = buzones.remove(apodo);
+        if (buzon == null) {
+            return new ArrayList<>();
+        }
+        return buzon.retirarTodo();
+    }
+
+    /**
+     * Apodos que tienen buzon (tras iniciar: los recuperados de disco)
+     *
+     * @return Copia de los apodos con buzon
+     */
+    public Set<String> getApodos() {
+        return new HashSet<>(buzones.keySet());
+    }
+
+    /**
+     * Indica si existe un buzon con mensajes para el apodo
+     *
+     * @param apodo Apodo a consultar
+     * @return true si hay un buzon para ese apodo
+     */
+    public boolean tieneBuzon(String apodo) {
+        return buzones.containsKey(apodo);
+    }
+
+    /**
+     * Elimina de todos los buzones los mensajes cuyo TTL ya vencio
+     */
+    private void purgarExpirados() {
+        long ahora = System.currentTimeMillis();
+        for (String apodo : buzones.keySet()) {
+            buzones.computeIfPresent(apodo, (a, buzon) -> buzon.purgar(ahora) ? null : buzon);
+        }
+    }
+
+    // =============================================
+    // METODOS DE ACCESO (GETTERS)
+    // =============================================
+
+    public int getTotalBuzones() {
+        return buzones.size();
+    }
+
+    public long getBytesEnMemoria() {
+        return bytesEnMemoria.get();
+    }
+
+    public long getExpirados() {
+        return expirados.get();
+    }
+
+    // =============================================
+    // BUZON DE UN APODO
+    // =============================================
+
+    /**
+     * Mensaje guardado junto a su instante de caducidad
+     */
+    private static final class Entrada {
+        final Mensaje mensaje;
+        final long expira;
+        final int bytes;
+
+        Entrada(Mensaje mensaje, long expira) {
+            this.mensaje = mensaje;
+            this.expira = expira;
+            String contenido = mensaje.getContenido();
+            this.bytes = SOBRECARGA_MENSAJE + (contenido != null ? contenido.length() * 2 : 0);
+        }
+    }
+
+    /**
+     * Buzon de un apodo: parte en memoria y parte derramada a disco
+     * Todos los metodos se sincronizan sobre el propio buzon
+     */
+    private final class Buzon {
+        private final File archivo;
+        private final ArrayDeque<Entrada> enMemoria = new ArrayDeque<>();
+        private long bytesPropios;
+
+        /**
+         * true si hay mensajes en disco (posteriores a los de memoria)
+         */
+        private boolean derramado;
+
+        /**
+         * Caducidad del mensaje mas reciente guardado en disco
+         */
+        private long expiraUltimoEnDisco;
+
+        Buzon(File archivo) {
+            this.archivo = archivo;
+        }
+
+        synchronized boolean guardar(Mensaje mensaje, long expira) {
+            Entrada entrada = new Entrada(mensaje, expira);
+
+            if (!derramado && bytesEnMemoria.get() + entrada.bytes <= presupuestoBytes) {
+                enMemoria.addLast(entrada);
+                bytesPropios += entrada.bytes;
+                bytesEnMemoria.addAndGet(entrada.bytes);
+                return true;
+            }
+
+            // Presupuesto agotado: este mensaje y los siguientes van a disco
+            try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(archivo, true)))) {
+                byte[] cuerpo = CodificadorMensaje.codificar(mensaje);
+                salida.writeLong(expira);
+                salida.writeInt(cuerpo.length);
+                salida.write(cuerpo);
+                derramado = true;
+                expiraUltimoEnDisco = Math.max(expiraUltimoEnDisco, expira);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error guardando buzon en disco: " + e.getMessage());
+                return false;
+            }
+        }
+
+        synchronized List<Mensaje> retirarTodo() {
+            long ahora = System.currentTimeMillis();
+            List<Mensaje> resultado = new ArrayList<>(enMemoria.size());
+
+            // Primero los de memoria: siempre son anteriores a los de disco
+            for (Entrada entrada : enMemoria) {
+                if (entrada.expira > ahora) {
+                    resultado.add(entrada.mensaje);
+                } else {
+                    expirados.incrementAndGet();
+                }
+            }
+            liberarMemoria();
+
+            if (derramado) {
+                for (Entrada entrada : leerDisco()) {
+                    if (entrada.expira > ahora) {
+                        resultado.add(entrada.mensaje);
+                    } else {
+                        expirados.incrementAndGet();
+                    }
+                }
+                borrarDisco();
+            }
+            return resultado;
+        }
+
+        /**
+         * Elimina los mensajes vencidos
+         *
+         * @param ahora Instante actual en milisegundos
+         * @return true si el buzon quedo vacio
+         */
+        synchronized boolean purgar(long ahora) {
+            while (!enMemoria.isEmpty() && enMemoria.peekFirst().expira <= ahora) {
+                Entrada entrada = enMemoria.pollFirst();
+                bytesPropios -= entrada.bytes;
+                bytesEnMemoria.addAndGet(-entrada.bytes);
+                expirados.incrementAndGet();
+            }
+            // El archivo solo se borra cuando vencio su mensaje mas reciente
+            if (derramado && expiraUltimoEnDisco <= ahora) {
+                expirados.addAndGet(leerDisco().size());
+                borrarDisco();
+            }
+            return enMemoria.isEmpty() && !derramado;
+        }
+
+        synchronized void recuperarDisco() {
+            List<Entrada> entradas = leerDisco();
+            derramado = !entradas.isEmpty();
+            for (Entrada entrada : entradas) {
+                expiraUltimoEnDisco = Math.max(expiraUltimoEnDisco, entrada.expira);
+            }
+        }
+
+        private void liberarMemoria() {
+            bytesEnMemoria.addAndGet(-bytesPropios);
+            bytesPropios = 0;
+            enMemoria.clear();
+        }
+
+        private List<Entrada> leerDisco() {
+            List<Entrada> entradas = new ArrayList<>();
+            if (!archivo.isFile()) {
+                return entradas;
+            }
+            try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(archivo)))) {
+                while (true) {
+                    long expira = entrada.readLong();
+                    byte[] cuerpo = new byte[entrada.readInt()];
+                    entrada.readFully(cuerpo);
+                    entradas.add(new Entrada(CodificadorMensaje.decodificar(ByteBuffer.wrap(cuerpo)), expira));
+                }
+            } catch (EOFException fin) {
+                // Fin del archivo (o ultimo registro incompleto)
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error leyendo buzon " + archivo.getName() + ": " + e.getMessage());
+            }
+            return entradas;
+        }
+
+        private void borrarDisco() {
+            if (archivo.exists() && !archivo.delete()) {
+                System.err.println("No se pudo borrar el buzon " + archivo.getName());
+            }
+            derramado = false;
+            expiraUltimoEnDisco = 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package servidor;
+
+import common.ColaAnillo;
+import common.Protocolo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * CAMBIOS DE SESIONES - FLUJO DE ALTAS, BAJAS Y CAMBIOS DE CLIENTES
+ *
+ * Publica un delta cada vez que un cliente se conecta, se desconecta o
+ * cambia de apodo o sala, para que el panel de monitoreo no tenga que
+ * copiar todas las listas de clientes periodicamente.
+ *
+ * Caracteristicas:
+ * - Los hilos de clientes solo encolan el delta en una ColaAnillo; el
+ *   consumidor (el panel) los recoge una vez por cuadro
+ * - Sin consumidor suscrito publicar cuesta una lectura volatil
+ * - Si la cola se llena se descartan deltas: el consumidor lo detecta y
+ *   vuelve a cargar una instantanea completa
+ * - Los deltas solo llevan el ID; los datos de la fila se leen al aplicar
+ *   el cuadro, asi varios cambios del mismo cliente se resuelven en uno
+ *
+ * @version 1.0
+ */
+public final class CambiosSesiones {
+
+    public static final int CONECTADO = 1;
+    public static final int DESCONECTADO = 2;
+    public static final int ACTUALIZADO = 3;
+
+    private static final ColaAnillo<Cambio> COLA =
+            new ColaAnillo<>(Integer.getInteger("chat.sesiones.cola", 16384));
+
+    private static volatile boolean suscrito;
+    private static long descartadosVistos;
+
+    private CambiosSesiones() {
+    }
+
+    /**
+     * Delta de una sesion
+     */
+    public static final class Cambio {
+        public final int tipo;
+        public final String idCliente;
+        public final int protocolo;
+
+        Cambio(int tipo, String idCliente, int protocolo) {
+            this.tipo = tipo;
+            this.idCliente = idCliente;
+            this.protocolo = protocolo;
+        }
+    }
+
+    /**
+     * Datos de una sesion para mostrar en una fila
+     */
+    public static final class Sesion {
+        public final String idCliente;
+        public final int protocolo;
+        public final String apodo;
+        public final String sala;
+        public final long conectadoDesde;
+
+        Sesion(String idCliente, int protocolo, String apodo, String sala, long conectadoDesde) {
+            this.idCliente = idCliente;
+            this.protocolo = protocolo;
+            this.apodo = apodo;
+            this.sala = sala;
+            this.conectadoDesde = conectadoDesde;
+        }
+    }
+
+    // =============================================
+    // PUBLICACION (HILOS DE CLIENTES)
+    // =============================================
+
+    static void conectado(String idCliente, int protocolo) {
+        if (suscrito) {
+            COLA.ofrecer(new Cambio(CONECTADO, idCliente, protocolo));
+        }
+    }
+
+    static void desconectado(String idCliente) {
+        if (suscrito) {
+            COLA.ofrecer(new Cambio(DESCONECTADO, idCliente, Protocolo.TCP));
+        }
+    }
+
+    static void actualizado(String idCliente) {
+        if (suscrito) {
+            COLA.ofrecer(new Cambio(ACTUALIZADO, idCliente, Protocolo.TCP));
+        }
+    }
+
+    // =============================================
+    // CONSUMO (UN SOLO HILO)
+    // =============================================
+
+    /**
+     * Empieza a publicar deltas (llamar antes de cargar la instantanea:
+     * un delta repetido es inofensivo, uno perdido no)
+     */
+    public static void suscribir() {
+        suscrito = true;
+    }
+
+    /**
+     * Entrega los deltas pendientes
+     *
+     * @param consumidor Accion por cada delta, en orden de llegada
+     * @param maximo Deltas maximos por llamada
+     * @return false si se descartaron deltas desde la llamada anterior
+     *         (el consumidor debe recargar la instantanea)
+     */
+    public static boolean drenar(Consumer<Cambio> consumidor, int maximo) {
+        long descartados = COLA.getDescartados();
+        boolean completo = descartados == descartadosVistos;
+        descartadosVistos = descartados;
+        COLA.drenar(consumidor, maximo);
+        return completo;
+    }
+
+    /**
+     * Datos actuales de una sesion
+     *
+     * @param idCliente ID del cliente
+     * @param protocolo Protocolo con el que se publico el delta
+     * @return Sesion, o null si el cliente TCP ya no esta
+     */
+    public static Sesion sesion(String idCliente, int protocolo) {
+        if (protocolo == Protocolo.UDP) {
+            return new Sesion(idCliente, Protocolo.UDP, null, null, 0);
+        }
+        ManejadorClientes manejador = ServidorMixto.getManejadoresActivos().get(idCliente);
+        if (manejador == null) {
+            return null;
+        }
+        return new Sesion(idCliente, Protocolo.TCP, manejador.getApodo(), manejador.getSala(),
+                manejador.getConectadoDesde());
+    }
+
+    /**
+     * Instantanea completa de las sesiones (TCP y UDP)
+     */
+    public static List<Sesion> instantanea() {
+        List<Sesion> sesiones = new ArrayList<>();
+        Map<String, ManejadorClientes> activos = ServidorMixto.getManejadoresActivos();
+        synchronized (activos) {
+            for (ManejadorClientes manejador : activos.values()) {
+                sesiones.add(new Sesion(manejador.getIdCliente(), Protocolo.TCP, manejador.getApodo(),
+                        manejador.getSala(), manejador.getConectadoDesde()));
+            }
+        }
+        for (String idCliente : ServidorMixto.getClientesUDP()) {
+            sesiones.add(new Sesion(idCliente, Protocolo.UDP, null, null, 0));
+        }
+        return sesiones;
+    }
+}
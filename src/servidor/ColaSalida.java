@@ -0,0 +1,244 @@
+package servidor;
+
+import common.ColaAnillo;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * COLA DE SALIDA - ESCRITURA ASINCRONA HACIA UN CLIENTE
+ *
+ * Desacopla el reparto de mensajes de la escritura en el socket: los hilos
+ * que enrutan solo encolan el texto y un hilo propio del cliente lo escribe.
+ * Un cliente lento ya no frena un BROADCAST a todos los demas.
+ *
+ * Caracteristicas:
+ * - Cola anillo acotada (chat.cola.salida, 4096 escrituras por cliente); si
+ *   se llena, las escrituras nuevas se descartan y se cuentan en Metricas
+ * - El escritor vacia la cola completa antes de hacer un solo flush
+ * - El escritor duerme sin consumir CPU cuando no hay nada pendiente y el
+ *   productor lo despierta solo si estaba dormido
+ * - Los descartes por cola llena tambien se graban como evento JFR
+ *   chat.ConsumidorLento (ver EventosJFR)
+ * - Cuenta los bytes escritos en el socket y mide, para cada mensaje
+ *   enrutado, las etapas enrutado, cola y escritura (ver Metricas)
+ * - Anota en la traza del mensaje, si se muestreo, el encolado, el
+ *   descarte y la escritura para cada destinatario (ver RegistroTrazas)
+ * - En modo sonda antepone a cada mensaje enrutado sus marcas de tiempo:
+ *   SONDA|recibido|encolado|escritura|linea (nanoTime del servidor)
+ *
+ * @version 1.0
+ */
+class ColaSalida {
+
+    private static final int CAPACIDAD = Integer.getInteger("chat.cola.salida", 4096);
+
+    /** Escrituras medidas que se acumulan antes de forzar un flush */
+    private static final int MAXIMO_LOTE = 256;
+
+    /**
+     * Texto pendiente junto con sus marcas de tiempo
+     */
+    private static final class Pendiente {
+        final String texto;
+        final long recibido;
+        final long encolado;
+        final boolean sonda;
+        final RegistroTrazas.Traza traza;
+        long inicioEscritura;
+
+        Pendiente(String texto, long recibido, long encolado, boolean sonda, RegistroTrazas.Traza traza) {
+            this.texto = texto;
+            this.recibido = recibido;
+            this.encolado = encolado;
+            this.sonda = sonda;
+            this.traza = traza;
+        }
+    }
+
+    private final ColaAnillo<Pendiente> cola = new ColaAnillo<>(CAPACIDAD);
+    private final Writer escritor;
+    private final Thread hilo;
+    private final String idCliente;
+
+    /** Descartes de este cliente (para el evento JFR de consumidor lento) */
+    private final AtomicLong descartados = new AtomicLong();
+
+    private volatile boolean durmiendo;
+    private volatile boolean cerrada;
+    private volatile boolean fallida;
+
+    /**
+     * Crea la cola e inicia su hilo escritor
+     *
+     * @param destino Flujo de salida del socket del cliente
+     * @param idCliente ID del cliente (para el nombre del hilo)
+     */
+    ColaSalida(OutputStream destino, String idCliente) {
+        this.idCliente = idCliente;
+        this.escritor = new BufferedWriter(new OutputStreamWriter(new FlujoContado(destino)));
+        this.hilo = new Thread(this::escribir, "salida-" + idCliente);
+        this.hilo.setDaemon(true);
+        this.hilo.start();
+    }
+
+    /**
+     * Encola texto para el cliente sin bloquear
+     *
+     * @param texto Texto a escribir (con sus saltos de linea)
+     * @return false si la cola estaba llena o cerrada
+     */
+    boolean encolar(String texto) {
+        return encolar(texto, 0, false, null);
+    }
+
+    /**
+     * Encola un mensaje enrutado conservando su instante de recepcion
+     *
+     * @param texto Texto a escribir (con sus saltos de linea)
+     * @param recibidoNanos System.nanoTime() al leer el mensaje original (0 = sin medir)
+     * @param sonda true para enviar tambien las marcas de tiempo al cliente
+     * @param traza Traza del mensaje, o null si no se muestreo
+     * @return false si la cola estaba llena o cerrada
+     */
+    boolean encolar(String texto, long recibidoNanos, boolean sonda, RegistroTrazas.Traza traza) {
+        if (cerrada || fallida) {
+            if (traza != null) {
+                traza.anotar("DESCARTADO", idCliente + " (conexion cerrada)");
+            }
+            return false;
+        }
+        if (!cola.ofrecer(new Pendiente(texto, recibidoNanos, System.nanoTime(), sonda, traza))) {
+            Metricas.SALIENTES_DESCARTADOS.increment();
+            EventosJFR.consumidorLento(idCliente, descartados.incrementAndGet(), cola.getCapacidad());
+            if (traza != null) {
+                traza.anotar("DESCARTADO", idCliente + " (cola de salida llena)");
+            }
+            return false;
+        }
+        if (traza != null) {
+            traza.anotar("ENCOLADO", idCliente);
+        }
+        if (durmiendo) {
+            LockSupport.unpark(hilo);
+        }
+        return true;
+    }
+
+    /**
+     * Bucle del hilo escritor
+     */
+    private void escribir() {
+        boolean pendienteFlush = false;
+        List<Pendiente> medidos = new ArrayList<>();
+        try {
+            while (true) {
+                Pendiente pendiente = cola.sondear();
+                if (pendiente != null) {
+                    pendiente.inicioEscritura = System.nanoTime();
+                    Metricas.ESPERA_COLA_SALIDA.registrar(pendiente.inicioEscritura - pendiente.encolado);
+                    if (pendiente.recibido != 0) {
+                        if (pendiente.sonda) {
+                            escritor.write("SONDA|" + pendiente.recibido + "|" + pendiente.encolado
+                                    + "|" + pendiente.inicioEscritura + "|");
+                        }
+                        medidos.add(pendiente);
+                    }
+                    escritor.write(pendiente.texto);
+                    pendienteFlush = true;
+                    if (medidos.size() < MAXIMO_LOTE) {
+                        continue;
+                    }
+                }
+                if (pendienteFlush) {
+                    escritor.flush();
+                    pendienteFlush = false;
+                    registrarEtapas(medidos, System.nanoTime());
+                }
+                if (pendiente != null) {
+                    continue;
+                }
+                if (cerrada) {
+                    break;
+                }
+                // Publicar que se va a dormir y volver a mirar la cola evita
+                // perder el aviso de un productor que encolo justo ahora
+                durmiendo = true;
+                if (cola.estaVacia() && !cerrada) {
+                    LockSupport.park(this);
+                }
+                durmiendo = false;
+            }
+        } catch (IOException e) {
+            fallida = true;
+        }
+    }
+
+    /**
+     * Registra las etapas de los mensajes enrutados escritos en el ultimo flush
+     *
+     * @param medidos Mensajes enrutados del lote (se vacia)
+     * @param fin Instante en que termino el flush
+     */
+    private void registrarEtapas(List<Pendiente> medidos, long fin) {
+        for (Pendiente p : medidos) {
+            Metricas.LATENCIA_ENRUTADO.registrar(p.encolado - p.recibido);
+            Metricas.LATENCIA_ESCRITURA.registrar(fin - p.inicioEscritura);
+            Metricas.LATENCIA_TOTAL.registrar(fin - p.recibido);
+            if (p.traza != null) {
+                p.traza.anotar("ESCRITO", idCliente);
+            }
+        }
+        medidos.clear();
+    }
+
+    /**
+     * Deja de aceptar escrituras y espera a que se envie lo pendiente
+     *
+     * @param esperaMaximaMs Tiempo maximo de espera
+     */
+    void cerrar(long esperaMaximaMs) {
+        cerrada = true;
+        LockSupport.unpark(hilo);
+        try {
+            hilo.join(esperaMaximaMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Escrituras pendientes en la cola
+     */
+    int getPendientes() {
+        return cola.tamano();
+    }
+
+    /**
+     * Flujo que cuenta los bytes enviados al cliente
+     */
+    private static final class FlujoContado extends FilterOutputStream {
+        FlujoContado(OutputStream destino) {
+            super(destino);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            Metricas.BYTES_SALIENTES.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int inicio, int longitud) throws IOException {
+            out.write(b, inicio, longitud);
+            Metricas.BYTES_SALIENTES.add(longitud);
+        }
+    }
+}
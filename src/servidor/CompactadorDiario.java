@@ -0,0 +1,380 @@
+package servidor;
+
+import common.CodificadorMensaje;
+import common.Mensaje;
+import common.Protocolo;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * COMPACTADOR DEL DIARIO - RETENCION Y COMPACTACION EN SEGUNDO PLANO
+ *
+ * Evita que el diario crezca sin limite aplicando politicas de retencion
+ * sobre los segmentos sellados (nunca sobre el segmento activo).
+ *
+ * Politicas (propiedades del sistema, 0 = desactivada):
+ * - chat.retencion.horas              Edad maxima de un segmento completo
+ * - chat.retencion.mb                 Tamano maximo total del diario
+ * - chat.retencion.canal.NOMBRE.horas Edad maxima de los mensajes de un canal
+ *                                     (global, privado, anycast, multicast)
+ * - chat.retencion.sala.NOMBRE.horas  Edad maxima de los mensajes de una sala;
+ *                                     sin ella se usa la del canal multicast
+ * - chat.compactacion.minutos         Intervalo entre ejecuciones (10)
+ * - chat.compactacion.umbral          Fraccion de registros vivos por debajo
+ *                                     de la cual se reescribe un segmento (0.5)
+ *
+ * Funcionamiento:
+ * - Los segmentos vencidos por edad o que exceden el tamano se borran
+ *   completos usando solo los metadatos del indice
+ * - Con retencion por canal se recorren los segmentos candidatos; si ya no
+ *   tienen registros vivos se borran y si quedan dispersos se reescriben
+ * - Tras cada ejecucion avisa de los mensajes borrados o vencidos para que
+ *   los almacenes derivados (indice de busqueda, historial, anillo de
+ *   reanudacion) los descarten tambien
+ *
+ * @version 1.0
+ */
+public class CompactadorDiario {
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    private static final String PREFIJO_CANAL = "chat.retencion.canal.";
+    private static final String PREFIJO_SALA = "chat.retencion.sala.";
+    private static final String SUFIJO_CANAL = ".horas";
+
+    private final long edadMaximaMs;
+    private final long tamanoMaximoBytes;
+    private final Map<String, Long> edadPorCanalMs;
+    private final Map<String, Long> edadPorSalaMs;
+    private final double umbralReescritura;
+    private final long intervaloMinutos;
+
+    private final DiarioMensajes diario;
+    private ScheduledExecutorService planificador;
+    private volatile Consumer<Predicate<Mensaje>> alDescartar;
+
+    // =============================================
+    // CONSTRUCTORES
+    // =============================================
+
+    /**
+     * Crea un compactador para el diario indicado
+     *
+     * @param diario Diario sobre el que se aplican las politicas
+     * @param edadMaximaMs Edad maxima de un segmento (0 = sin limite)
+     * @param tamanoMaximoBytes Tamano maximo del diario (0 = sin limite)
+     * @param edadPorCanalMs Edad maxima de los mensajes de cada canal
+     * @param edadPorSalaMs Edad maxima de los mensajes de cada sala
+     * @param umbralReescritura Fraccion minima de registros vivos
+     * @param intervaloMinutos Intervalo entre ejecuciones
+     */
+    public CompactadorDiario(DiarioMensajes diario, long edadMaximaMs, long tamanoMaximoBytes,
+                             Map<String, Long> edadPorCanalMs, Map<String, Long> edadPorSalaMs,
+                             double umbralReescritura, long intervaloMinutos) {
+        this.diario = diario;
+        this.edadMaximaMs = edadMaximaMs;
+        this.tamanoMaximoBytes = tamanoMaximoBytes;
+        this.edadPorCanalMs = edadPorCanalMs;
+        this.edadPorSalaMs = edadPorSalaMs;
+        this.umbralReescritura = umbralReescritura;
+        this.intervaloMinutos = intervaloMinutos;
+    }
+
+    /**
+     * Crea un compactador leyendo las politicas de las propiedades del sistema
+     *
+     * @param diario Diario sobre el que se aplican las politicas
+     * @return Compactador configurado (sin iniciar)
+     */
+    public static CompactadorDiario desdePropiedades(DiarioMensajes diario) {
+        Map<String, Long> porCanal = new HashMap<>();
+        Map<String, Long> porSala = new HashMap<>();
+        for (String clave : System.getProperties().stringPropertyNames()) {
+            if (!clave.endsWith(SUFIJO_CANAL)) {
+                continue;
+            }
+            if (clave.startsWith(PREFIJO_CANAL)) {
+                String canal = clave.substring(PREFIJO_CANAL.length(), clave.length() - SUFIJO_CANAL.length());
+                porCanal.put(canal, TimeUnit.HOURS.toMillis(Long.getLong(clave, 0L)));
+            } else if (clave.startsWith(PREFIJO_SALA)) {
+                String sala = clave.substring(PREFIJO_SALA.length(), clave.length() - SUFIJO_CANAL.length());
+                porSala.put(sala, TimeUnit.HOURS.toMillis(Long.getLong(clave, 0L)));
+            }
+        }
+        return new CompactadorDiario(diario,
+            TimeUnit.HOURS.toMillis(Long.getLong("chat.retencion.horas", 0L)),
+            Long.getLong("chat.retencion.mb", 0L) * 1024 * 1024,
+            porCanal,
+            porSala,
+            Double.parseDouble(System.getProperty("chat.compactacion.umbral", "0.5")),
+            Long.getLong("chat.compactacion.minutos", 10L));
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    /**
+     * Programa la ejecucion periodica en un hilo de baja prioridad
+     */
+    public void iniciar() {
+        planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "diario-compactador");
+            hilo.setDaemon(true);
+            hilo.setPriority(Thread.MIN_PRIORITY);
+            return hilo;
+        });
+        planificador.scheduleWithFixedDelay(this::ejecutar, intervaloMinutos, intervaloMinutos, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Solicita una ejecucion inmediata en el hilo del compactador
+     */
+    public void ejecutarAhora() {
+        if (planificador != null) {
+            planificador.execute(this::ejecutar);
+        }
+    }
+
+    public void detener() {
+        if (planificador != null) {
+            planificador.shutdownNow();
+        }
+    }
+
+    /**
+     * Registra quien debe enterarse de los mensajes que borra la retencion
+     *
+     * @param alDescartar Recibe la condicion que cumplen los mensajes borrados
+     */
+    public void setAlDescartar(Consumer<Predicate<Mensaje>> alDescartar) {
+        this.alDescartar = alDescartar;
+    }
+
+    // =============================================
+    // EJECUCION DE LAS POLITICAS
+    // =============================================
+
+    /**
+     * Aplica en orden las politicas de edad, tamano y retencion por canal
+     */
+    void ejecutar() {
+        try {
+            long ahora = System.currentTimeMillis();
+            int borrados = 0;
+            int reescritos = 0;
+            List<long[]> rangosBorrados = new ArrayList<>();
+
+            // 1. Edad: borrar segmentos cuyo ultimo mensaje ya vencio
+            if (edadMaximaMs > 0) {
+                for (SegmentoDiario segmento : diario.getSegmentosSellados()) {
+                    if (segmento.ultimoTimestamp < ahora - edadMaximaMs && eliminar(segmento, rangosBorrados)) {
+                        borrados++;
+                    }
+                }
+            }
+
+            // 2. Tamano: borrar los segmentos mas antiguos hasta entrar en el limite
+            if (tamanoMaximoBytes > 0) {
+                List<SegmentoDiario> sellados = diario.getSegmentosSellados();
+                for (int i = 0; i < sellados.size() && diario.getTamanoTotal() > tamanoMaximoBytes; i++) {
+                    if (eliminar(sellados.get(i), rangosBorrados)) {
+                        borrados++;
+                    }
+                }
+            }
+
+            // 3. Retencion por canal o sala: borrar o reescribir segmentos dispersos
+            if (hayRetencionPorCanal()) {
+                for (SegmentoDiario segmento : diario.getSegmentosSellados()) {
+                    if (segmento.proximaRevision > ahora) {
+                        continue;
+                    }
+                    int resultado = compactarSegmento(segmento, ahora, rangosBorrados);
+                    if (resultado < 0) {
+                        borrados++;
+                    } else if (resultado > 0) {
+                        reescritos++;
+                    }
+                }
+            }
+
+            if (borrados > 0 || reescritos > 0) {
+                System.out.println("Compactacion del diario: " + borrados + " segmentos borrados, "
+                        + reescritos + " reescritos, " + diario.getTamanoTotal() + " bytes en uso");
+                avisarDescartados(rangosBorrados, ahora);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error en la compactacion del diario: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Borra un segmento anotando el rango de secuencias que contenia
+     */
+    private boolean eliminar(SegmentoDiario segmento, List<long[]> rangosBorrados) {
+        long primera = segmento.primeraSecuencia;
+        long ultima = segmento.ultimaSecuencia;
+        if (!diario.eliminarSegmento(segmento)) {
+            return false;
+        }
+        rangosBorrados.add(new long[] {primera, ultima});
+        return true;
+    }
+
+    /**
+     * Entrega al oyente la condicion de los mensajes que ya no deben
+     * servirse: los de los segmentos borrados y los vencidos por la
+     * retencion de su canal o sala
+     */
+    private void avisarDescartados(List<long[]> rangosBorrados, long ahora) {
+        Consumer<Predicate<Mensaje>> oyente = alDescartar;
+        if (oyente == null) {
+            return;
+        }
+        oyente.accept(mensaje -> {
+            long secuencia = mensaje.getSecuencia();
+            for (long[] rango : rangosBorrados) {
+                if (secuencia >= rango[0] && secuencia <= rango[1]) {
+                    return true;
+                }
+            }
+            long edad = edadDe(mensaje);
+            return edad > 0 && mensaje.getTimestamp().getTime() + edad <= ahora;
+        });
+    }
+
+    private boolean hayRetencionPorCanal() {
+        return !edadPorCanalMs.isEmpty() || !edadPorSalaMs.isEmpty();
+    }
+
+    /**
+     * Edad maxima de un mensaje segun su canal; los MULTICAST usan la de su
+     * sala y, si no tiene, la del canal multicast
+     *
+     * @return Edad en milisegundos (0 = sin limite)
+     */
+    private long edadDe(Mensaje mensaje) {
+        Long edad = null;
+        if (mensaje.getTipoEnvio() == Protocolo.MULTICAST && mensaje.getDestino() != null) {
+            edad = edadPorSalaMs.get(mensaje.getDestino());
+        }
+        if (edad == null) {
+            edad = edadPorCanalMs.get(mensaje.getCanal());
+        }
+        return edad != null ? edad : 0;
+    }
+
+    /**
+     * Revisa un segmento aplicando la retencion por canal
+     *
+     * @param segmento Segmento sellado a revisar
+     * @param ahora Instante actual en milisegundos
+     * @param rangosBorrados Rangos de secuencias borradas (se agrega si se borra)
+     * @return -1 si se borro, 1 si se reescribio, 0 si no cambio
+     */
+    private int compactarSegmento(SegmentoDiario segmento, long ahora, List<long[]> rangosBorrados) {
+        List<byte[]> vivos = new ArrayList<>();
+        int total = 0;
+        long proximaRevision = Long.MAX_VALUE;
+        CRC32 crc = new CRC32();
+
+        try (FileChannel lectura = FileChannel.open(segmento.archivo.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer datos = lectura.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(lectura.size(), segmento.bytesValidos));
+            byte[] cuerpo;
+            while ((cuerpo = SegmentoDiario.leerRegistro(datos, crc)) != null) {
+                total++;
+                Mensaje mensaje = CodificadorMensaje.decodificar(ByteBuffer.wrap(cuerpo));
+                long edad = edadDe(mensaje);
+                if (edad <= 0) {
+                    vivos.add(cuerpo);
+                    continue;
+                }
+                long vence = mensaje.getTimestamp().getTime() + edad;
+                if (vence > ahora) {
+                    vivos.add(cuerpo);
+                    proximaRevision = Math.min(proximaRevision, vence);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error leyendo segmento " + segmento.archivo.getName() + ": " + e.getMessage());
+            return 0;
+        }
+
+        if (vivos.isEmpty()) {
+            return eliminar(segmento, rangosBorrados) ? -1 : 0;
+        }
+        if (vivos.size() >= total * umbralReescritura) {
+            segmento.proximaRevision = proximaRevision;
+            return 0;
+        }
+
+        try {
+            SegmentoDiario nuevo = reescribir(segmento, vivos);
+            nuevo.proximaRevision = proximaRevision;
+            diario.reemplazarSegmento(segmento, nuevo);
+            return 1;
+        } catch (IOException e) {
+            System.err.println("Error reescribiendo segmento " + segmento.archivo.getName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Reescribe un segmento conservando solo los registros vivos
+     * El indice se borra antes de reemplazar los datos: si el proceso se
+     * interrumpe, el siguiente arranque lo regenera a partir del segmento
+     *
+     * @param segmento Segmento original
+     * @param vivos Cuerpos de los registros a conservar, en orden
+     * @return Metadatos del segmento reescrito
+     * @throws IOException Si falla la escritura
+     */
+    private SegmentoDiario reescribir(SegmentoDiario segmento, List<byte[]> vivos) throws IOException {
+        File temporal = new File(segmento.archivo.getParentFile(), segmento.archivo.getName() + ".tmp");
+        int tamano = 4;
+        for (byte[] cuerpo : vivos) {
+            tamano += DiarioMensajes.TAMANO_CABECERA + cuerpo.length;
+        }
+
+        ByteBuffer datos = ByteBuffer.allocate(tamano);
+        CRC32 crc = new CRC32();
+        for (byte[] cuerpo : vivos) {
+            crc.reset();
+            crc.update(cuerpo, 0, cuerpo.length);
+            datos.putInt(cuerpo.length).putInt((int) crc.getValue()).put(cuerpo);
+        }
+        datos.putInt(0).flip();
+
+        try (FileChannel escritura = FileChannel.open(temporal.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (datos.hasRemaining()) {
+                escritura.write(datos);
+            }
+            escritura.force(true);
+        }
+
+        Files.deleteIfExists(segmento.archivoIndice.toPath());
+        Files.move(temporal.toPath(), segmento.archivo.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return SegmentoDiario.cargarSellado(segmento.archivo);
+    }
+}
@@ -0,0 +1,266 @@
+package servidor;
+
+import common.ColaAnillo;
+import javax.swing.*;
+import javax.swing.border.TitledBorder;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * CONSOLA DE LOG - VISTA ACOTADA DEL LOG DEL SERVIDOR
+ *
+ * Reemplaza el JTextArea del log, que crecia sin limite y se volvia mas
+ * lento con cada linea agregada.
+ *
+ * Caracteristicas:
+ * - Guarda las ultimas chat.gui.log.capacidad entradas (5000) en un anillo
+ *   de tamano fijo; las mas viejas se descartan
+ * - Cualquier hilo publica sin bloquear en una ColaAnillo; el EDT recoge
+ *   lo pendiente una vez por cuadro y avisa a la lista con dos rangos
+ *   (lo que salio por el principio y lo que entro al final)
+ * - La JList solo pinta las filas visibles y formatea cada entrada una
+ *   sola vez, cuando se muestra por primera vez
+ * - Filtro por tipo o nivel: las posiciones que coinciden se mantienen al
+ *   agregar, asi cambiar de filtro no recorre ni repinta todo el historial
+ * - El desplazamiento automatico solo sigue el final si el usuario no
+ *   subio a leer lineas anteriores
+ *
+ * @version 1.0
+ */
+class ConsolaLog extends JPanel {
+
+    private static final int CAPACIDAD = Math.max(100, Integer.getInteger("chat.gui.log.capacidad", 5000));
+
+    /** Entradas maximas que se pasan al EDT por cuadro (el resto en los siguientes) */
+    private static final int MAXIMO_POR_CUADRO = 2000;
+
+    private static final String TODOS = "TODOS";
+
+    /**
+     * Linea del log; el texto visible se arma al pintarla por primera vez
+     */
+    private static final class Entrada {
+        final long instante = System.currentTimeMillis();
+        final String tipo;
+        final String mensaje;
+        String texto;
+
+        Entrada(String tipo, String mensaje) {
+            this.tipo = tipo;
+            this.mensaje = mensaje;
+        }
+    }
+
+    private final ColaAnillo<Entrada> pendientes = new ColaAnillo<>(CAPACIDAD * 2);
+    private final ModeloLog modelo = new ModeloLog();
+    private final JList<Entrada> lista = new JList<>(modelo);
+    private final JScrollPane desplazamiento = new JScrollPane(lista);
+    private final DefaultComboBoxModel<String> tipos = new DefaultComboBoxModel<>(new String[] {TODOS});
+    private final SimpleDateFormat formatoHora = new SimpleDateFormat("HH:mm:ss");
+
+    ConsolaLog(String titulo) {
+        super(new BorderLayout());
+        lista.setFont(new Font("Consolas", Font.PLAIN, 12));
+        lista.setBackground(new Color(240, 240, 240));
+        // Alto fijo: la lista no mide cada entrada
+        lista.setFixedCellHeight(16);
+        lista.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object valor, int indice,
+                                                          boolean seleccionado, boolean foco) {
+                return super.getListCellRendererComponent(l, textoDe((Entrada) valor), indice, seleccionado, foco);
+            }
+        });
+
+        JComboBox<String> filtro = new JComboBox<>(tipos);
+        filtro.addActionListener(e -> {
+            String elegido = (String) filtro.getSelectedItem();
+            modelo.filtrar(TODOS.equals(elegido) ? null : elegido);
+            seguirFinal();
+        });
+        JPanel barra = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        barra.add(new JLabel("Filtro:"));
+        barra.add(filtro);
+
+        desplazamiento.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createLineBorder(Color.GRAY), titulo, TitledBorder.LEFT, TitledBorder.TOP));
+        add(barra, BorderLayout.NORTH);
+        add(desplazamiento, BorderLayout.CENTER);
+    }
+
+    private String textoDe(Entrada entrada) {
+        if (entrada.texto == null) {
+            entrada.texto = "[" + formatoHora.format(new Date(entrada.instante)) + "] ["
+                    + entrada.tipo + "] " + entrada.mensaje;
+        }
+        return entrada.texto;
+    }
+
+    // =============================================
+    // PUBLICACION (CUALQUIER HILO)
+    // =============================================
+
+    /**
+     * Agrega una linea al log sin bloquear
+     * Si la cola esta llena (el EDT no da abasto) la linea se descarta
+     *
+     * @param tipo Tipo o nivel de la linea
+     * @param mensaje Texto de la linea
+     */
+    void publicar(String tipo, String mensaje) {
+        pendientes.ofrecer(new Entrada(tipo, mensaje));
+    }
+
+    // =============================================
+    // APLICACION POR CUADRO (EDT)
+    // =============================================
+
+    /**
+     * Pasa al anillo lo publicado desde el cuadro anterior
+     */
+    void aplicarCuadro() {
+        if (pendientes.estaVacia()) {
+            return;
+        }
+        boolean alFinal = estaAlFinal();
+        modelo.iniciarLote();
+        pendientes.drenar(entrada -> {
+            if (tipos.getIndexOf(entrada.tipo) < 0) {
+                tipos.addElement(entrada.tipo);
+            }
+            modelo.agregar(entrada);
+        }, MAXIMO_POR_CUADRO);
+        modelo.terminarLote();
+        if (alFinal) {
+            seguirFinal();
+        }
+    }
+
+    void limpiar() {
+        modelo.limpiar();
+    }
+
+    /**
+     * Lineas descartadas porque el EDT no alcanzo a recogerlas
+     */
+    long getDescartadas() {
+        return pendientes.getDescartados();
+    }
+
+    private boolean estaAlFinal() {
+        JScrollBar barra = desplazamiento.getVerticalScrollBar();
+        return barra.getValue() + barra.getVisibleAmount() >= barra.getMaximum() - lista.getFixedCellHeight();
+    }
+
+    private void seguirFinal() {
+        if (modelo.getSize() > 0) {
+            lista.ensureIndexIsVisible(modelo.getSize() - 1);
+        }
+    }
+
+    // =============================================
+    // MODELO EN ANILLO CON FILTRO
+    // =============================================
+
+    /**
+     * Anillo de entradas con las posiciones que pasan el filtro
+     * Las posiciones son numeros de secuencia: la entrada n vive en n % CAPACIDAD
+     */
+    private static final class ModeloLog extends AbstractListModel<Entrada> {
+        private final Entrada[] anillo = new Entrada[CAPACIDAD];
+        private long siguiente;
+
+        /** Secuencias que pasan el filtro, en un anillo propio */
+        private final long[] coincidencias = new long[CAPACIDAD];
+        private int primeraCoincidencia;
+        private int totalCoincidencias;
+
+        private String filtro;
+
+        // Cambios del lote en curso
+        private int salidasLote;
+        private int tamanoInicioLote;
+
+        @Override
+        public int getSize() {
+            return filtro == null ? (int) Math.min(siguiente, CAPACIDAD) : totalCoincidencias;
+        }
+
+        @Override
+        public Entrada getElementAt(int indice) {
+            long secuencia = filtro == null
+                    ? Math.max(0, siguiente - CAPACIDAD) + indice
+                    : coincidencias[(primeraCoincidencia + indice) % CAPACIDAD];
+            return anillo[(int) (secuencia % CAPACIDAD)];
+        }
+
+        void iniciarLote() {
+            salidasLote = 0;
+            tamanoInicioLote = getSize();
+        }
+
+        void agregar(Entrada entrada) {
+            long secuencia = siguiente++;
+            boolean lleno = secuencia >= CAPACIDAD;
+            if (lleno) {
+                // Sale la entrada mas vieja del anillo
+                long saliente = secuencia - CAPACIDAD;
+                if (filtro == null) {
+                    salidasLote++;
+                } else if (totalCoincidencias > 0 && coincidencias[primeraCoincidencia] == saliente) {
+                    primeraCoincidencia = (primeraCoincidencia + 1) % CAPACIDAD;
+                    totalCoincidencias--;
+                    salidasLote++;
+                }
+            }
+            anillo[(int) (secuencia % CAPACIDAD)] = entrada;
+            if (filtro != null && filtro.equals(entrada.tipo)) {
+                coincidencias[(primeraCoincidencia + totalCoincidencias) % CAPACIDAD] = secuencia;
+                totalCoincidencias++;
+            }
+        }
+
+        /**
+         * Avisa el lote como dos rangos: salidas por el principio y entradas al final
+         */
+        void terminarLote() {
+            int restantes = Math.max(0, tamanoInicioLote - salidasLote);
+            int removidas = tamanoInicioLote - restantes;
+            if (removidas > 0) {
+                fireIntervalRemoved(this, 0, removidas - 1);
+            }
+            if (getSize() > restantes) {
+                fireIntervalAdded(this, restantes, getSize() - 1);
+            }
+        }
+
+        /**
+         * Cambia el filtro recorriendo solo el anillo (nunca mas de CAPACIDAD entradas)
+         */
+        void filtrar(String nuevo) {
+            filtro = nuevo;
+            primeraCoincidencia = 0;
+            totalCoincidencias = 0;
+            if (nuevo != null) {
+                for (long s = Math.max(0, siguiente - CAPACIDAD); s < siguiente; s++) {
+                    if (nuevo.equals(anillo[(int) (s % CAPACIDAD)].tipo)) {
+                        coincidencias[totalCoincidencias++] = s;
+                    }
+                }
+            }
+            fireContentsChanged(this, 0, Math.max(0, getSize() - 1));
+        }
+
+        void limpiar() {
+            int tamano = getSize();
+            java.util.Arrays.fill(anillo, null);
+            siguiente = 0;
+            primeraCoincidencia = 0;
+            totalCoincidencias = 0;
+            if (tamano > 0) {
+                fireIntervalRemoved(this, 0, tamano - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package servidor;
+
+import common.CodificadorMensaje;
+import common.ColaAnillo;
+import common.Mensaje;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * DIARIO DE MENSAJES - REGISTRO PERSISTENTE DE SOLO AGREGADO
+ *
+ * Guarda en disco cada mensaje enrutado por el servidor para conservar el
+ * historial entre reinicios y tener un registro de auditoria.
+ *
+ * Caracteristicas:
+ * - Archivos segmentados de tamano fijo escritos con MappedByteBuffer
+ * - Formato binario compacto: [int longitud][int crc32][cuerpo]
+ * - Los hilos de enrutamiento solo encolan en un anillo sin bloqueos;
+ *   un unico hilo escritor vacia el anillo hacia disco
+ * - La secuencia de un mensaje es su posicion en el anillo: reservar la
+ *   celda la asigna, sin candados, y el escritor las recibe en orden
+ * - Escritura por lotes (group commit): un solo fsync por lote
+ * - Politica de sincronizacion configurable (SIEMPRE, INTERVALO, NUNCA)
+ * - Cada segmento tiene un indice disperso (ver SegmentoDiario) para que
+ *   el arranque no dependa del tamano del historial
+ *
+ * Configuracion por propiedades del sistema:
+ * - chat.diario.dir          Directorio de los segmentos (datos/diario)
+ * - chat.diario.fsync        SIEMPRE, INTERVALO o NUNCA (INTERVALO)
+ * - chat.diario.fsync.ms     Intervalo para la politica INTERVALO (200)
+ * - chat.diario.segmento.mb  Tamano de cada segmento en MB (64)
+ * - chat.diario.lote         Registros maximos por lote (512)
+ * - chat.diario.anillo       Capacidad del anillo de entrada (65536)
+ *
+ * @version 1.0
+ */
+public class DiarioMensajes {
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    /**
+     * Politicas de sincronizacion a disco (fsync)
+     */
+    public enum PoliticaSincronizacion {
+        /** fsync despues de cada lote escrito */
+        SIEMPRE,
+        /** fsync como maximo una vez por intervalo */
+        INTERVALO,
+        /** nunca se fuerza; el sistema operativo decide */
+        NUNCA
+    }
+
+    /**
+     * Extension de los archivos de segmento
+     */
+    static final String EXTENSION_SEGMENTO = ".diario";
+
+    /**
+     * Cabecera de cada registro: longitud del cuerpo y crc32
+     */
+    static final int TAMANO_CABECERA = 8;
+
+    private final File directorio;
+    private final int tamanoSegmento;
+    private final PoliticaSincronizacion politica;
+    private final long intervaloSincronizacionMs;
+    private final int loteMaximo;
+
+    // =============================================
+    // ESTADO COMPARTIDO
+    // =============================================
+
+    /**
+     * Anillo de entrada: muchos productores (hilos de clientes), un escritor
+     */
+    private final ColaAnillo<Mensaje> anillo;
+
+    /**
+     * Secuencia de la posicion 0 del anillo (la siguiente a la ultima recuperada)
+     */
+    private volatile long primeraSecuencia = 1;
+
+    /**
+     * Pone en el mensaje la secuencia de la celda recien reservada
+     */
+    private final ObjLongConsumer<Mensaje> asignarSecuencia =
+            (mensaje, posicion) -> mensaje.setSecuencia(primeraSecuencia + posicion);
+
+    /**
+     * Ultima secuencia escrita en el segmento (visible para otros hilos)
+     */
+    private volatile long ultimaSecuenciaEscrita;
+
+    /**
+     * Ultima secuencia garantizada en disco por un fsync
+     */
+    private volatile long ultimaSecuenciaSincronizada;
+
+    private volatile boolean activo;
+    private volatile Thread hiloEscritor;
+
+    /**
+     * El escritor esta dormido esperando registros (ver agregar)
+     */
+    private volatile boolean durmiendo;
+
+    /**
+     * Metadatos de todos los segmentos, por la secuencia de su nombre
+     * El ultimo es el segmento activo; el compactador solo toca los sellados
+     */
+    private final ConcurrentSkipListMap<Long, SegmentoDiario> segmentos = new ConcurrentSkipListMap<>();
+
+    /**
+     * Segmento que recibe las escrituras
+     */
+    private volatile SegmentoDiario actual;
+
+    // =============================================
+    // ESTADO DEL ESCRITOR (SOLO LO USA SU HILO)
+    // =============================================
+
+    private FileChannel canal;
+    private MappedByteBuffer mapa;
+    private final CRC32 crc = new CRC32();
+    private long ultimaSincronizacion;
+    private boolean pendienteSincronizar;
+
+    // =============================================
+    // CONSTRUCTORES
+    // =============================================
+
+    /**
+     * Crea un diario con la configuracion indicada
+     *
+     * @param directorio Directorio donde se guardan los segmentos
+     * @param tamanoSegmento Tamano en bytes de cada segmento
+     * @param politica Politica de sincronizacion a disco
+     * @param intervaloSincronizacionMs Intervalo para la politica INTERVALO
+     * @param loteMaximo Registros maximos escritos por lote
+     * @param capacidadAnillo Capacidad del anillo de entrada
+     */
+    public DiarioMensajes(File directorio, int tamanoSegmento, PoliticaSincronizacion politica,
+                          long intervaloSincronizacionMs, int loteMaximo, int capacidadAnillo) {
+        this.directorio = directorio;
+        this.tamanoSegmento = tamanoSegmento;
+        this.politica = politica;
+        this.intervaloSincronizacionMs = intervaloSincronizacionMs;
+        this.loteMaximo = loteMaximo;
+        this.anillo = new ColaAnillo<>(capacidadAnillo);
+    }
+
+    /**
+     * Crea un diario leyendo la configuracion de las propiedades del sistema
+     *
+     * @return Diario configurado (sin abrir)
+     */
+    public static DiarioMensajes desdePropiedades() {
+        return new DiarioMensajes(
+            new File(System.getProperty("chat.diario.dir", "datos/diario")),
+            Integer.getInteger("chat.diario.segmento.mb", 64) * 1024 * 1024,
+            PoliticaSincronizacion.valueOf(
+                System.getProperty("chat.diario.fsync", "INTERVALO").toUpperCase()),
+            Long.getLong("chat.diario.fsync.ms", 200L),
+            Integer.getInteger("chat.diario.lote", 512),
+            Integer.getInteger("chat.diario.anillo", 65536));
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    /**
+     * Abre el diario: recupera el ultimo segmento y arranca el hilo escritor
+     *
+     * @throws IOException Si no se puede crear o abrir el directorio de segmentos
+     */
+    public void iniciar() throws IOException {
+        if (!directorio.isDirectory() && !directorio.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio " + directorio);
+        }
+        recuperar();
+
+        activo = true;
+        hiloEscritor = new Thread(this::bucleEscritor, "diario-escritor");
+        hiloEscritor.setDaemon(true);
+        hiloEscritor.start();
+    }
+
+    /**
+     * Detiene el escritor despues de vaciar el anillo y sincroniza a disco
+     */
+    public void cerrar() {
+        activo = false;
+        if (hiloEscritor != null) {
+            LockSupport.unpark(hiloEscritor);
+            try {
+                hiloEscritor.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // =============================================
+    // API PARA LOS HILOS DE ENRUTAMIENTO
+    // =============================================
+
+    /**
+     * Asigna una secuencia al mensaje y lo encola para escritura
+     * Nunca espera al escritor ni a otros hilos: la secuencia sale de la
+     * posicion reservada en el anillo. Si el anillo esta lleno el registro
+     * se descarta y el mensaje se queda sin secuencia (no deja hueco)
+     *
+     * @param mensaje Mensaje enrutado por el servidor
+     * @return Secuencia asignada al mensaje, o 0 si se descarto
+     */
+    public long agregar(Mensaje mensaje) {
+        if (anillo.ofrecer(mensaje, asignarSecuencia) < 0) {
+            return 0;
+        }
+        if (durmiendo) {
+            LockSupport.unpark(hiloEscritor);
+        }
+        return mensaje.getSecuencia();
+    }
+
+    // =============================================
+    // HILO ESCRITOR
+    // =============================================
+
+    /**
+     * Bucle del unico escritor: drena lotes del anillo, los escribe en el
+     * segmento actual y aplica la politica de sincronizacion una vez por lote
+     */
+    private void bucleEscritor() {
+        ultimaSincronizacion = System.currentTimeMillis();
+
+        while (activo || !anillo.estaVacia()) {
+            int escritos = anillo.drenar(this::escribirRegistro, loteMaximo);
+            aplicarPoliticaSincronizacion(escritos > 0);
+            if (escritos == 0) {
+                esperarRegistros();
+            }
+        }
+
+        if (politica != PoliticaSincronizacion.NUNCA || pendienteSincronizar) {
+            sincronizar();
+        }
+    }
+
+    /**
+     * Duerme hasta que llegue un registro; con escrituras sin sincronizar
+     * y politica INTERVALO, como maximo hasta que toque el fsync
+     */
+    private void esperarRegistros() {
+        // Publicar que se va a dormir y volver a mirar el anillo evita
+        // perder el aviso de un productor que encolo justo ahora
+        durmiendo = true;
+        if (anillo.estaVacia() && activo) {
+            if (pendienteSincronizar && politica == PoliticaSincronizacion.INTERVALO) {
+                long restanteMs = intervaloSincronizacionMs - (System.currentTimeMillis() - ultimaSincronizacion);
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, restanteMs)));
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        durmiendo = false;
+    }
+
+    /**
+     * Escribe un registro en el segmento actual, rotando si no cabe
+     *
+     * @param mensaje Mensaje a persistir
+     */
+    private void escribirRegistro(Mensaje mensaje) {
+        try {
+            byte[] cuerpo = CodificadorMensaje.codificar(mensaje);
+            int tamanoRegistro = TAMANO_CABECERA + cuerpo.length;
+
+            // Se reservan 4 bytes al final para la marca de fin de segmento
+            if (tamanoRegistro + 4 > tamanoSegmento) {
+                System.err.println("Registro demasiado grande para el diario: " + mensaje.getSecuencia());
+                return;
+            }
+            if (mapa == null || mapa.remaining() < tamanoRegistro + 4) {
+                rotarSegmento(mensaje.getSecuencia());
+            }
+
+            int inicio = mapa.position();
+            crc.reset();
+            crc.update(cuerpo, 0, cuerpo.length);
+            mapa.putInt(cuerpo.length);
+            mapa.putInt((int) crc.getValue());
+            mapa.put(cuerpo);
+            actual.registrar(mensaje.getSecuencia(), inicio,
+                    mensaje.getTimestamp() != null ? mensaje.getTimestamp().getTime() : 0L, mapa.position());
+
+            ultimaSecuenciaEscrita = mensaje.getSecuencia();
+            pendienteSincronizar = true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error escribiendo en el diario: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sincroniza a disco segun la politica configurada
+     *
+     * @param huboEscrituras true si el ultimo lote escribio registros
+     */
+    private void aplicarPoliticaSincronizacion(boolean huboEscrituras) {
+        if (!pendienteSincronizar) {
+            return;
+        }
+        switch (politica) {
+            case SIEMPRE:
+                if (huboEscrituras) {
+                    sincronizar();
+                }
+                break;
+            case INTERVALO:
+                if (System.currentTimeMillis() - ultimaSincronizacion >= intervaloSincronizacionMs) {
+                    sincronizar();
+                }
+                break;
+            case NUNCA:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Fuerza el contenido del segmento actual a disco
+     */
+    private void sincronizar() {
+        if (mapa != null) {
+            mapa.force();
+            actual.sincronizarIndice();
+        }
+        ultimaSincronizacion = System.currentTimeMillis();
+        ultimaSecuenciaSincronizada = ultimaSecuenciaEscrita;
+        pendienteSincronizar = false;
+    }
+
+    // =============================================
+    // GESTION DE SEGMENTOS
+    // =============================================
+
+    /**
+     * Cierra el segmento actual y abre uno nuevo
+     *
+     * @param primeraSecuencia Secuencia del primer registro del nuevo segmento
+     * @throws IOException Si no se puede crear el archivo
+     */
+    private void rotarSegmento(long primeraSecuencia) throws IOException {
+        if (mapa != null) {
+            sincronizar();
+            actual.sellar();
+            canal.close();
+        }
+        File archivo = new File(directorio, nombreSegmento(primeraSecuencia));
+        abrirSegmento(archivo, 0);
+
+        SegmentoDiario nuevo = new SegmentoDiario(archivo);
+        nuevo.abrirIndiceEscritura(0);
+        segmentos.put(primeraSecuencia, nuevo);
+        actual = nuevo;
+    }
+
+    /**
+     * Mapea un archivo de segmento en memoria a partir de una posicion
+     *
+     * @param archivo Archivo del segmento
+     * @param posicion Posicion de escritura dentro del segmento
+     * @throws IOException Si no se puede abrir o mapear
+     */
+    private void abrirSegmento(File archivo, int posicion) throws IOException {
+        canal = FileChannel.open(archivo.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanoSegmento);
+        mapa.position(posicion);
+    }
+
+    /**
+     * Carga los metadatos de los segmentos leyendo solo sus indices y se
+     * posiciona al final de los registros validos del ultimo segmento
+     * para continuar escribiendo despues de un reinicio
+     *
+     * @throws IOException Si falla la lectura de un segmento o indice
+     */
+    private void recuperar() throws IOException {
+        long inicio = System.nanoTime();
+        File[] archivos = listarSegmentos(directorio);
+        if (archivos.length == 0) {
+            return;
+        }
+
+        for (int i = 0; i < archivos.length - 1; i++) {
+            segmentos.put(primeraSecuenciaDe(archivos[i]), SegmentoDiario.cargarSellado(archivos[i]));
+        }
+
+        File ultimo = archivos[archivos.length - 1];
+        abrirSegmento(ultimo, 0);
+        actual = SegmentoDiario.cargarActivo(ultimo, mapa);
+        segmentos.put(primeraSecuenciaDe(ultimo), actual);
+
+        // Borrar restos de una escritura incompleta
+        int posicionValida = actual.bytesValidos;
+        mapa.position(posicionValida);
+        if (mapa.remaining() >= 4) {
+            mapa.putInt(0);
+            mapa.position(posicionValida);
+        }
+
+        // La mayor secuencia de cualquier segmento: un diario escrito fuera de
+        // orden no puede hacer que se repitan secuencias al reiniciar
+        long ultimaSecuencia = 0;
+        for (SegmentoDiario segmento : segmentos.values()) {
+            ultimaSecuencia = Math.max(ultimaSecuencia, segmento.ultimaSecuencia);
+        }
+        primeraSecuencia = ultimaSecuencia + 1;
+        ultimaSecuenciaEscrita = ultimaSecuencia;
+        ultimaSecuenciaSincronizada = ultimaSecuencia;
+        System.out.println("Diario recuperado: " + archivos.length + " segmentos, ultima secuencia "
+                + ultimaSecuencia + " (" + (System.nanoTime() - inicio) / 1_000_000 + " ms)");
+    }
+
+    // =============================================
+    // OPERACIONES PARA EL COMPACTADOR
+    // =============================================
+
+    /**
+     * Obtiene los segmentos sellados (todos menos el activo) en orden
+     *
+     * @return Copia de la lista de segmentos sellados
+     */
+    List<SegmentoDiario> getSegmentosSellados() {
+        List<SegmentoDiario> sellados = new ArrayList<>();
+        SegmentoDiario activoActual = actual;
+        for (SegmentoDiario segmento : segmentos.values()) {
+            if (segmento != activoActual && segmento.sellado) {
+                sellados.add(segmento);
+            }
+        }
+        return sellados;
+    }
+
+    /**
+     * Elimina un segmento sellado del diario y del disco
+     *
+     * @param segmento Segmento a eliminar
+     * @return true si se elimino
+     */
+    boolean eliminarSegmento(SegmentoDiario segmento) {
+        if (segmento == actual || !segmento.sellado) {
+            return false;
+        }
+        segmentos.remove(primeraSecuenciaDe(segmento.archivo), segmento);
+        return segmento.borrar();
+    }
+
+    /**
+     * Sustituye los metadatos de un segmento reescrito por el compactador
+     *
+     * @param anterior Segmento original
+     * @param nuevo Segmento ya reescrito en disco
+     */
+    void reemplazarSegmento(SegmentoDiario anterior, SegmentoDiario nuevo) {
+        segmentos.replace(primeraSecuenciaDe(anterior.archivo), anterior, nuevo);
+    }
+
+    /**
+     * Bytes ocupados por registros validos en todos los segmentos
+     *
+     * @return Tamano total del diario
+     */
+    public long getTamanoTotal() {
+        long total = 0;
+        for (SegmentoDiario segmento : segmentos.values()) {
+            total += segmento.bytesValidos;
+        }
+        return total;
+    }
+
+    public int getTotalSegmentos() {
+        return segmentos.size();
+    }
+
+    // =============================================
+    // LECTURA DEL DIARIO
+    // =============================================
+
+    /**
+     * Recorre en orden los mensajes persistidos hasta una secuencia maxima
+     * Se puede llamar desde cualquier hilo: lee los segmentos con un mapeo
+     * propio de solo lectura y se detiene en el primer registro incompleto
+     *
+     * @param hastaSecuencia Ultima secuencia a entregar (inclusive)
+     * @param consumidor Accion a ejecutar por cada mensaje
+     * @return Numero de mensajes entregados
+     */
+    public long recorrer(long hastaSecuencia, Consumer<Mensaje> consumidor) {
+        long entregados = 0;
+        CRC32 crcLectura = new CRC32();
+
+        for (File segmento : listarSegmentos(directorio)) {
+            if (primeraSecuenciaDe(segmento) > hastaSecuencia) {
+                break;
+            }
+            try (FileChannel lectura = FileChannel.open(segmento.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer datos = lectura.map(FileChannel.MapMode.READ_ONLY, 0, lectura.size());
+                byte[] cuerpo;
+                while ((cuerpo = SegmentoDiario.leerRegistro(datos, crcLectura)) != null) {
+                    Mensaje mensaje = CodificadorMensaje.decodificar(ByteBuffer.wrap(cuerpo));
+                    if (mensaje.getSecuencia() > hastaSecuencia) {
+                        return entregados;
+                    }
+                    consumidor.accept(mensaje);
+                    entregados++;
+                }
+            } catch (IOException e) {
+                System.err.println("Error leyendo segmento " + segmento.getName() + ": " + e.getMessage());
+            }
+        }
+        return entregados;
+    }
+
+    /**
+     * Recorre en orden los mensajes persistidos a partir de una secuencia
+     * Usa el indice disperso para saltar directamente al segmento y la
+     * posicion de esa secuencia, sin leer los segmentos anteriores
+     *
+     * @param desdeSecuencia Primera secuencia a entregar (inclusive)
+     * @param consumidor Accion a ejecutar por cada mensaje
+     * @return Numero de mensajes entregados
+     */
+    public long recorrerDesde(long desdeSecuencia, Consumer<Mensaje> consumidor) {
+        long entregados = 0;
+        CRC32 crcLectura = new CRC32();
+        Long primerSegmento = segmentos.floorKey(desdeSecuencia);
+
+        for (SegmentoDiario segmento : (primerSegmento != null
+                ? segmentos.tailMap(primerSegmento) : segmentos).values()) {
+            try (FileChannel lectura = FileChannel.open(segmento.archivo.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer datos = lectura.map(FileChannel.MapMode.READ_ONLY, 0, lectura.size());
+                if (segmento.primeraSecuencia <= desdeSecuencia) {
+                    datos.position(Math.min(segmento.desplazamientoHasta(desdeSecuencia), datos.limit()));
+                }
+                byte[] cuerpo;
+                while ((cuerpo = SegmentoDiario.leerRegistro(datos, crcLectura)) != null) {
+                    Mensaje mensaje = CodificadorMensaje.decodificar(ByteBuffer.wrap(cuerpo));
+                    if (mensaje.getSecuencia() >= desdeSecuencia) {
+                        consumidor.accept(mensaje);
+                        entregados++;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error leyendo segmento " + segmento.archivo.getName() + ": " + e.getMessage());
+            }
+        }
+        return entregados;
+    }
+
+    // =============================================
+    // UTILIDADES DE SEGMENTOS
+    // =============================================
+
+    /**
+     * Nombre del archivo de un segmento segun su primera secuencia
+     *
+     * @param primeraSecuencia Secuencia del primer registro
+     * @return Nombre con ceros a la izquierda para ordenar alfabeticamente
+     */
+    static String nombreSegmento(long primeraSecuencia) {
+        return String.format("%020d%s", primeraSecuencia, EXTENSION_SEGMENTO);
+    }
+
+    /**
+     * Obtiene la primera secuencia de un segmento a partir de su nombre
+     *
+     * @param segmento Archivo del segmento
+     * @return Primera secuencia del segmento
+     */
+    static long primeraSecuenciaDe(File segmento) {
+        String nombre = segmento.getName();
+        return Long.parseLong(nombre.substring(0, nombre.length() - EXTENSION_SEGMENTO.length()));
+    }
+
+    /**
+     * Lista los segmentos de un directorio ordenados por secuencia
+     *
+     * @param directorio Directorio del diario
+     * @return Segmentos ordenados (vacio si no hay)
+     */
+    static File[] listarSegmentos(File directorio) {
+        File[] segmentos = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION_SEGMENTO));
+        if (segmentos == null) {
+            return new File[0];
+        }
+        Arrays.sort(segmentos);
+        return segmentos;
+    }
+
+    // =============================================
+    // METODOS DE ACCESO (GETTERS)
+    // =============================================
+
+    public File getDirectorio() {
+        return directorio;
+    }
+
+    public PoliticaSincronizacion getPolitica() {
+        return politica;
+    }
+
+    /**
+     * Registros descartados porque el anillo estaba lleno
+     *
+     * @return Contador de descartes
+     */
+    public long getDescartados() {
+        return anillo.getDescartados();
+    }
+
+    /**
+     * Registros encolados que aun no se escriben
+     *
+     * @return Tamano aproximado del anillo
+     */
+    public int getPendientes() {
+        return anillo.tamano();
+    }
+
+    public long getUltimaSecuenciaEscrita() {
+        return ultimaSecuenciaEscrita;
+    }
+
+    public long getUltimaSecuenciaSincronizada() {
+        return ultimaSecuenciaSincronizada;
+    }
+}
@@ -0,0 +1,276 @@
+package servidor;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DIRECTORIO DE PRESENCIA - APODO A NODO REPLICADO EN LA FEDERACION
+ *
+ * Cada nodo guarda una copia completa del directorio, de modo que buscar en
+ * que nodo esta conectado un apodo es una consulta local sin red.
+ *
+ * Caracteristicas:
+ * - Registro "ultimo escritor gana" por apodo (CRDT LWW): cada entrada lleva
+ *   una version y el nodo que la escribio; al fusionar gana la version mayor
+ *   y, a igual version, el ID de nodo mayor
+ * - Las versiones son un reloj hibrido (max(reloj, ultima vista + 1)), asi
+ *   que un nodo reiniciado no queda por detras de sus propias entradas
+ * - Las desconexiones se guardan como entradas "ausente", no se borran: una
+ *   fusion tardia no puede resucitar a un cliente que ya se fue
+ * - Cada nodo es la autoridad sobre sus propias entradas: si recibe una que
+ *   contradice a sus clientes conectados (por ejemplo, las "conectado" que
+ *   le devuelven tras reiniciarse) la corrige con una version nueva
+ * - Al perder el enlace con un nodo sus apodos se marcan ausentes; al
+ *   volver, el nodo reafirma sus entradas con versiones nuevas
+ * - Los cambios locales y los recibidos que modifican algo se acumulan como
+ *   deltas que la federacion envia por lotes; fusionar es idempotente y
+ *   conmutativo, por lo que las copias convergen tras una particion
+ *
+ * @version 1.0
+ */
+public class DirectorioPresencia {
+
+    /**
+     * Entrada inmutable del directorio
+     */
+    static final class Entrada {
+        final String apodo;
+        final String nodo;
+        final long version;
+        final boolean conectado;
+
+        Entrada(String apodo, String nodo, long version, boolean conectado) {
+            this.apodo = apodo;
+            this.nodo = nodo;
+            this.version = version;
+            this.conectado = conectado;
+        }
+
+        /**
+         * Indica si esta entrada reemplaza a otra al fusionar
+         */
+        boolean gana(Entrada otra) {
+            if (otra == null || version != otra.version) {
+                return otra == null || version > otra.version;
+            }
+            return nodo.compareTo(otra.nodo) > 0;
+        }
+    }
+
+    private final String idNodo;
+    private final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+
+    /**
+     * Deltas pendientes de enviar a los demas nodos (la ultima por apodo)
+     */
+    private final Map<String, Entrada> pendientes = new ConcurrentHashMap<>();
+
+    private final AtomicLong reloj = new AtomicLong();
+
+    /**
+     * Apodos conectados ahora mismo a este nodo
+     */
+    private final Set<String> locales = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Crea el directorio de un nodo
+     *
+     * @param idNodo ID del nodo local
+     */
+    public DirectorioPresencia(String idNodo) {
+        this.idNodo = idNodo;
+    }
+
+    // =============================================
+    // CAMBIOS LOCALES
+    // =============================================
+
+    /**
+     * Registra que un apodo se conecto a este nodo
+     *
+     * @param apodo Apodo del cliente
+     */
+    public void conectar(String apodo) {
+        locales.add(apodo);
+        aplicarLocal(apodo, true);
+    }
+
+    /**
+     * Registra que un apodo se desconecto de este nodo
+     * Solo tiene efecto si la entrada vigente apunta a este nodo
+     *
+     * @param apodo Apodo del cliente
+     */
+    public void desconectar(String apodo) {
+        locales.remove(apodo);
+        Entrada actual = entradas.get(apodo);
+        if (actual != null && actual.conectado && actual.nodo.equals(idNodo)) {
+            aplicarLocal(apodo, false);
+        }
+    }
+
+    private void aplicarLocal(String apodo, boolean conectado) {
+        Entrada nueva = new Entrada(apodo, idNodo, siguienteVersion(), conectado);
+        entradas.merge(apodo, nueva, (vieja, candidata) -> candidata.gana(vieja) ? candidata : vieja);
+        pendientes.put(apodo, entradas.get(apodo));
+    }
+
+    private long siguienteVersion() {
+        return reloj.updateAndGet(v -> Math.max(v + 1, System.currentTimeMillis()));
+    }
+
+    /**
+     * Vuelve a escribir con versiones nuevas las entradas de los apodos
+     * conectados a este nodo; se llama al establecer un enlace para ganar a
+     * las ausencias que el otro nodo anoto mientras no hubo enlace
+     */
+    void reafirmarLocales() {
+        for (String apodo : locales) {
+            aplicarLocal(apodo, true);
+        }
+    }
+
+    /**
+     * Marca ausentes los apodos conectados a un nodo con el que se perdio
+     * el enlace. La ausencia conserva la version de la entrada y no se
+     * propaga: es una vista local que el nodo corrige al volver
+     *
+     * @param nodo ID del nodo perdido
+     * @return Apodos marcados
+     */
+    int marcarNodoAusente(String nodo) {
+        int marcados = 0;
+        for (Entrada entrada : entradas.values()) {
+            if (entrada.conectado && entrada.nodo.equals(nodo)
+                    && entradas.replace(entrada.apodo, entrada,
+                            new Entrada(entrada.apodo, nodo, entrada.version, false))) {
+                marcados++;
+            }
+        }
+        return marcados;
+    }
+
+    // =============================================
+    // FUSION DE DELTAS REMOTOS
+    // =============================================
+
+    /**
+     * Fusiona una entrada recibida de otro nodo
+     *
+     * @param recibida Entrada remota
+     * @return true si cambio la copia local (y debe propagarse)
+     */
+    boolean fusionar(Entrada recibida) {
+        reloj.accumulateAndGet(recibida.version, Math::max);
+        if (recibida.nodo.equals(idNodo) && recibida.conectado != locales.contains(recibida.apodo)) {
+            // Entrada propia que ya no es cierta: se corrige con una version mayor
+            if (!recibida.gana(entradas.get(recibida.apodo))) {
+                return false;
+            }
+            aplicarLocal(recibida.apodo, !recibida.conectado);
+            return true;
+        }
+        boolean[] cambio = new boolean[1];
+        entradas.compute(recibida.apodo, (apodo, vieja) -> {
+            if (recibida.gana(vieja)) {
+                cambio[0] = true;
+                return recibida;
+            }
+            return vieja;
+        });
+        if (cambio[0]) {
+            pendientes.put(recibida.apodo, recibida);
+        }
+        return cambio[0];
+    }
+
+    // =============================================
+    // CONSULTAS
+    // =============================================
+
+    /**
+     * Nodo donde esta conectado un apodo
+     *
+     * @param apodo Apodo buscado
+     * @return ID del nodo, o null si no esta conectado en ningun nodo
+     */
+    public String nodoDe(String apodo) {
+        Entrada entrada = entradas.get(apodo);
+        return entrada != null && entrada.conectado ? entrada.nodo : null;
+    }
+
+    /**
+     * Apodos conectados en todo el cluster
+     *
+     * @return Mapa apodo -> nodo
+     */
+    public Map<String, String> getConectados() {
+        Map<String, String> conectados = new TreeMap<>();
+        for (Entrada entrada : entradas.values()) {
+            if (entrada.conectado) {
+                conectados.put(entrada.apodo, entrada.nodo);
+            }
+        }
+        return conectados;
+    }
+
+    public int getTotalEntradas() {
+        return entradas.size();
+    }
+
+    // =============================================
+    // SERIALIZACION PARA LA FEDERACION
+    // =============================================
+
+    /**
+     * Extrae los deltas acumulados desde la ultima llamada
+     *
+     * @return Entradas modificadas (vacia si no hubo cambios)
+     */
+    List<Entrada> extraerPendientes() {
+        List<Entrada> lote = new ArrayList<>();
+        for (String apodo : pendientes.keySet()) {
+            Entrada entrada = pendientes.remove(apodo);
+            if (entrada != null) {
+                lote.add(entrada);
+            }
+        }
+        return lote;
+    }
+
+    /**
+     * Copia completa del directorio (para un enlace recien establecido)
+     *
+     * @return Todas las entradas
+     */
+    List<Entrada> instantanea() {
+        return new ArrayList<>(entradas.values());
+    }
+
+    static void escribirEntradas(DataOutputStream datos, List<Entrada> lote) throws IOException {
+        datos.writeInt(lote.size());
+        for (Entrada entrada : lote) {
+            datos.writeUTF(entrada.apodo);
+            datos.writeUTF(entrada.nodo);
+            datos.writeLong(entrada.version);
+            datos.writeBoolean(entrada.conectado);
+        }
+    }
+
+    static List<Entrada> leerEntradas(DataInputStream datos) throws IOException {
+        int total = datos.readInt();
+        List<Entrada> lote = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            lote.add(new Entrada(datos.readUTF(), datos.readUTF(), datos.readLong(), datos.readBoolean()));
+        }
+        return lote;
+    }
+}
@@ -0,0 +1,226 @@
+package servidor;
+
+import common.Protocolo;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * EVENTOS JFR - EVENTOS DEL CHAT PARA JDK FLIGHT RECORDER
+ *
+ * Eventos propios del servidor que aparecen junto a los de la JVM en una
+ * grabacion de Flight Recorder (categoria "Chat" en JMC o en "jfr print
+ * --events chat.*").
+ *
+ * Caracteristicas:
+ * - Conexion y desconexion de clientes (con la duracion de la sesion)
+ * - Mensaje recibido y decision de ruta: uno por mensaje, desactivados por
+ *   defecto; se activan en el .jfc o desde JMC para una sesion de diagnostico
+ * - Reparto completado: evento con duracion y umbral de 1 ms, solo se
+ *   graban los repartos lentos
+ * - Consumidor lento: se graba en el 1.o, 2.o, 4.o, 8.o... descarte de
+ *   cada cliente, para que una cola llena no inunde la grabacion
+ * - Ningun evento guarda la pila de llamadas; con la configuracion por
+ *   defecto una grabacion continua no graba nada por mensaje normal
+ *
+ * Un evento desactivado cuesta una comprobacion de isEnabled(): el JIT
+ * elimina la creacion del objeto cuando no se graba.
+ *
+ * @version 1.0
+ */
+final class EventosJFR {
+
+    private EventosJFR() {
+    }
+
+    // =============================================
+    // CONEXIONES
+    // =============================================
+
+    @Name("chat.ClienteConectado")
+    @Label("Cliente conectado")
+    @Category({"Chat", "Conexiones"})
+    @StackTrace(false)
+    static final class ClienteConectado extends Event {
+        @Label("Cliente")
+        String cliente;
+
+        @Label("Protocolo")
+        String protocolo;
+    }
+
+    @Name("chat.ClienteDesconectado")
+    @Label("Cliente desconectado")
+    @Category({"Chat", "Conexiones"})
+    @StackTrace(false)
+    static final class ClienteDesconectado extends Event {
+        @Label("Cliente")
+        String cliente;
+
+        @Label("Apodo")
+        String apodo;
+
+        @Label("Duracion de la sesion")
+        @Timespan(Timespan.MILLISECONDS)
+        long sesion;
+    }
+
+    // =============================================
+    // MENSAJES (UNO POR MENSAJE, DESACTIVADOS POR DEFECTO)
+    // =============================================
+
+    @Name("chat.MensajeRecibido")
+    @Label("Mensaje recibido")
+    @Category({"Chat", "Mensajes"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class MensajeRecibido extends Event {
+        @Label("Cliente")
+        String cliente;
+
+        @Label("Tipo de envio")
+        String tipoEnvio;
+
+        @Label("Tamano")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("chat.DecisionRuta")
+    @Label("Decision de ruta")
+    @Description("Destino elegido para un mensaje y numero de destinatarios")
+    @Category({"Chat", "Mensajes"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DecisionRuta extends Event {
+        @Label("Tipo de envio")
+        String tipoEnvio;
+
+        @Label("Remitente")
+        String remitente;
+
+        @Label("Destino")
+        @Description("Apodo, sala o nodo remoto segun el tipo de envio")
+        String destino;
+
+        @Label("Destinatarios")
+        int destinatarios;
+    }
+
+    // =============================================
+    // REPARTO Y CONSUMIDORES LENTOS
+    // =============================================
+
+    @Name("chat.RepartoCompletado")
+    @Label("Reparto completado")
+    @Description("Fan-out de un mensaje a sus destinatarios locales")
+    @Category({"Chat", "Mensajes"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class RepartoCompletado extends Event {
+        @Label("Tipo de envio")
+        String tipoEnvio;
+
+        @Label("Destinatarios")
+        int destinatarios;
+
+        /**
+         * Cierra el evento y lo graba si supera el umbral
+         */
+        void terminar(int tipo, int entregados) {
+            end();
+            if (shouldCommit()) {
+                tipoEnvio = Protocolo.getDescripcionTipoEnvio(tipo);
+                destinatarios = entregados;
+                commit();
+            }
+        }
+    }
+
+    @Name("chat.ConsumidorLento")
+    @Label("Consumidor lento")
+    @Description("Mensajes descartados porque la cola de salida del cliente estaba llena")
+    @Category({"Chat", "Conexiones"})
+    @StackTrace(false)
+    static final class ConsumidorLento extends Event {
+        @Label("Cliente")
+        String cliente;
+
+        @Label("Descartados")
+        long descartados;
+
+        @Label("Capacidad de la cola")
+        int capacidad;
+    }
+
+    // =============================================
+    // AYUDANTES PARA LA RUTA CALIENTE
+    // =============================================
+
+    static void clienteConectado(String cliente, int protocolo) {
+        ClienteConectado evento = new ClienteConectado();
+        if (evento.isEnabled()) {
+            evento.cliente = cliente;
+            evento.protocolo = Protocolo.getDescripcionProtocolo(protocolo);
+            evento.commit();
+        }
+    }
+
+    static void clienteDesconectado(String cliente, String apodo, long conectadoDesdeMs) {
+        ClienteDesconectado evento = new ClienteDesconectado();
+        if (evento.isEnabled()) {
+            evento.cliente = cliente;
+            evento.apodo = apodo;
+            evento.sesion = System.currentTimeMillis() - conectadoDesdeMs;
+            evento.commit();
+        }
+    }
+
+    static void mensajeRecibido(String cliente, int tipoEnvio, int longitud) {
+        MensajeRecibido evento = new MensajeRecibido();
+        if (evento.isEnabled()) {
+            evento.cliente = cliente;
+            evento.tipoEnvio = tipoEnvio < 0 ? "COMANDO" : Protocolo.getDescripcionTipoEnvio(tipoEnvio);
+            evento.bytes = longitud;
+            evento.commit();
+        }
+    }
+
+    static void decisionRuta(int tipoEnvio, String remitente, String destino, int destinatarios) {
+        DecisionRuta evento = new DecisionRuta();
+        if (evento.isEnabled()) {
+            evento.tipoEnvio = Protocolo.getDescripcionTipoEnvio(tipoEnvio);
+            evento.remitente = remitente;
+            evento.destino = destino;
+            evento.destinatarios = destinatarios;
+            evento.commit();
+        }
+    }
+
+    /**
+     * Graba un descarte por cola llena si el total del cliente es potencia de 2
+     *
+     * @param cliente ID del cliente
+     * @param descartados Descartes acumulados del cliente, incluido este
+     * @param capacidad Capacidad de la cola de salida
+     */
+    static void consumidorLento(String cliente, long descartados, int capacidad) {
+        if (Long.bitCount(descartados) != 1) {
+            return;
+        }
+        ConsumidorLento evento = new ConsumidorLento();
+        if (evento.isEnabled()) {
+            evento.cliente = cliente;
+            evento.descartados = descartados;
+            evento.capacidad = capacidad;
+            evento.commit();
+        }
+    }
+}
@@ -0,0 +1,866 @@
+package servidor;
+
+import common.Bitacora;
+import common.ColaAnillo;
+import common.Protocolo;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * FEDERACION DE SERVIDORES - ENLACES PERSISTENTES ENTRE NODOS
+ *
+ * Permite ejecutar varias instancias de ServidorMixto (por ejemplo, varios
+ * procesos en la misma maquina) que se retransmiten el trafico entre si,
+ * de modo que la capacidad de clientes escala horizontalmente.
+ *
+ * Caracteristicas:
+ * - Cada nodo tiene un ID y escucha enlaces de otros nodos en un puerto propio
+ * - Presentacion con reto y respuesta: cada nodo prueba que conoce el secreto
+ *   compartido (HMAC-SHA256 sobre el reto del otro) antes de enviar nada
+ * - Los enlaces salientes se reconectan automaticamente si se caen
+ * - Un BROADCAST se envia una sola vez por enlace, no una vez por cliente remoto
+ * - Cada nodo anuncia sus enlaces; un BROADCAST recibido solo se reenvia a
+ *   los pares que no tienen enlace con el origen, asi en malla completa
+ *   cada nodo recibe una sola copia y en malla parcial llega igual a todos
+ * - Cada mensaje lleva el ID del nodo de origen y un ID de mensaje (con una
+ *   epoca aleatoria por proceso); los mensajes ya vistos se descartan, lo
+ *   que evita bucles en topologias que no son malla completa
+ * - Cada enlace tiene su propia cola y su hilo escritor: un nodo lento no
+ *   bloquea a los hilos de enrutamiento
+ * - Replica un directorio de presencia (apodo -> nodo) con deltas por lotes;
+ *   un UNICAST a un cliente de otro nodo viaja en un solo salto directo
+ * - Mantiene un anillo consistente con los nodos enlazados que decide que
+ *   nodo es dueno de cada sala (requiere malla completa entre los nodos)
+ *
+ * Configuracion por propiedades del sistema:
+ * - chat.nodo.id            ID de este nodo (nodo-PUERTO_TCP)
+ * - chat.federacion.puerto  Puerto para enlaces entre nodos (0 = desactivada)
+ * - chat.federacion.pares   Nodos a los que conectarse: host:puerto,host:puerto
+ * - chat.presencia.lote.ms  Intervalo de envio de deltas de presencia (100)
+ * - chat.nodo.host          Host que se anuncia a los clientes redirigidos (localhost)
+ * - chat.hash.virtuales     Nodos virtuales por nodo en el anillo (128)
+ * - chat.federacion.secreto Secreto compartido por los nodos; sin el, el
+ *                           puerto de federacion solo escucha en 127.0.0.1
+ *
+ * Cada proceso debe usar sus propios directorios de datos
+ * (chat.diario.dir, chat.buzon.dir) si comparten maquina.
+ *
+ * @version 1.0
+ */
+public class FederacionServidores {
+
+    // =============================================
+    // TIPOS DE TRAMA ENTRE NODOS
+    // =============================================
+
+    /** Presentacion: ID del nodo y direccion para clientes */
+    static final byte TRAMA_HOLA = 1;
+
+    /** Mensaje de chat retransmitido entre nodos */
+    static final byte TRAMA_MENSAJE = 2;
+
+    /** Lote de entradas del directorio de presencia */
+    static final byte TRAMA_PRESENCIA = 3;
+
+    /** Nodos con los que el emisor tiene enlace (para decidir reenvios) */
+    static final byte TRAMA_ENLACES = 4;
+
+    /** Prueba de la presentacion: HMAC del secreto compartido sobre el reto del otro nodo */
+    static final byte TRAMA_PRUEBA = 5;
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    private static final int CAPACIDAD_COLA_ENLACE = 16384;
+    private static final int MENSAJES_VISTOS = 65536;
+    private static final long ESPERA_RECONEXION_MS = 2000;
+    private static final int BYTES_RETO = 16;
+    private static final int ESPERA_PRESENTACION_MS = 5000;
+
+    /**
+     * Clave del HMAC si no se configura chat.federacion.secreto
+     * (en ese caso el puerto solo escucha en loopback)
+     */
+    private static final String SECRETO_LOCAL = "chat-federacion-local";
+
+    /**
+     * Fuente de los retos de autenticacion: deben ser impredecibles
+     */
+    private static final SecureRandom ALEATORIO_SEGURO = new SecureRandom();
+
+    private final String idNodo;
+    private final int puerto;
+    private final List<String> pares;
+    private final long intervaloPresenciaMs;
+    private final String direccionClientes;
+    private final SecretKeySpec secreto;
+    private final boolean soloLocal;
+
+    // =============================================
+    // ESTADO
+    // =============================================
+
+    /**
+     * Enlaces activos por ID del nodo remoto
+     */
+    private final Map<String, EnlacePar> enlaces = new ConcurrentHashMap<>();
+
+    /**
+     * Siguiente ID de mensaje originado en este nodo
+     * 20 bits aleatorios por proceso + 44 de contador (como RegistroTrazas):
+     * tras un reinicio los pares no confunden los mensajes nuevos con los
+     * que ya vieron del proceso anterior, aunque el ID del nodo sea el mismo
+     */
+    private final AtomicLong siguienteIdMensaje =
+            new AtomicLong(((long) ThreadLocalRandom.current().nextInt(1, 1 << 20) << 44) + 1);
+
+    /**
+     * Mensajes ya procesados (origen:id), acotado a los mas recientes
+     */
+    private final Map<String, Boolean> vistos = new LinkedHashMap<String, Boolean>(1024, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> mayor) {
+            return size() > MENSAJES_VISTOS;
+        }
+    };
+
+    /**
+     * Copia local del directorio de presencia del cluster
+     */
+    private final DirectorioPresencia directorio;
+
+    /**
+     * Anillo consistente con este nodo y los nodos enlazados
+     */
+    private final AnilloConsistente anillo;
+
+    /**
+     * Se ejecuta cuando cambian los miembros del anillo
+     */
+    private volatile Runnable alCambiarMiembros = () -> { };
+
+    private final AtomicLong duplicadosDescartados = new AtomicLong();
+    private volatile boolean activa;
+    private volatile ServerSocket servidorEnlaces;
+
+    // =============================================
+    // CONSTRUCTORES
+    // =============================================
+
+    /**
+     * Crea la federacion de este nodo
+     *
+     * @param idNodo ID unico de este nodo
+     * @param puerto Puerto donde se aceptan enlaces de otros nodos
+     * @param pares Direcciones host:puerto de los nodos a los que conectarse
+     * @param intervaloPresenciaMs Intervalo de envio de deltas de presencia
+     * @param direccionClientes host:puerto donde este nodo atiende clientes
+     * @param virtualesPorNodo Nodos virtuales por nodo en el anillo
+     * @param secreto Secreto compartido por los nodos (null = solo enlaces por loopback)
+     */
+    public FederacionServidores(String idNodo, int puerto, List<String> pares, long intervaloPresenciaMs,
+                                String direccionClientes, int virtualesPorNodo, String secreto) {
+        this.idNodo = idNodo;
+        this.puerto = puerto;
+        this.pares = pares;
+        this.intervaloPresenciaMs = intervaloPresenciaMs;
+        this.direccionClientes = direccionClientes;
+        this.soloLocal = secreto == null || secreto.isEmpty();
+        this.secreto = new SecretKeySpec((soloLocal ? SECRETO_LOCAL : secreto).getBytes(StandardCharsets.UTF_8),
+                "HmacSHA256");
+        this.directorio = new DirectorioPresencia(idNodo);
+        this.anillo = new AnilloConsistente(virtualesPorNodo);
+        this.anillo.agregarNodo(idNodo);
+    }
+
+    /**
+     * Crea la federacion a partir de las propiedades del sistema
+     *
+     * @param puertoTCP Puerto TCP de clientes (para el ID por defecto)
+     * @return Federacion configurada, o null si esta desactivada
+     */
+    public static FederacionServidores desdePropiedades(int puertoTCP) {
+        int puerto = Integer.getInteger("chat.federacion.puerto", 0);
+        if (puerto <= 0) {
+            return null;
+        }
+        List<String> pares = new ArrayList<>();
+        for (String par : System.getProperty("chat.federacion.pares", "").split(",")) {
+            if (!par.trim().isEmpty()) {
+                pares.add(par.trim());
+            }
+        }
+        return new FederacionServidores(System.getProperty("chat.nodo.id", "nodo-" + puertoTCP), puerto, pares,
+                Long.getLong("chat.presencia.lote.ms", 100L),
+                System.getProperty("chat.nodo.host", "localhost") + ":" + puertoTCP,
+                Integer.getInteger("chat.hash.virtuales", 128),
+                System.getProperty("chat.federacion.secreto"));
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    /**
+     * Empieza a aceptar enlaces entrantes y a conectar con los pares
+     */
+    public void iniciar() {
+        activa = true;
+
+        Thread aceptador = new Thread(this::aceptarEnlaces, "federacion-aceptador");
+        aceptador.setDaemon(true);
+        aceptador.start();
+
+        Thread presencia = new Thread(this::difundirPresencia, "federacion-presencia");
+        presencia.setDaemon(true);
+        presencia.start();
+
+        for (String par : pares) {
+            Thread conector = new Thread(() -> mantenerEnlace(par), "federacion-conector-" + par);
+            conector.setDaemon(true);
+            conector.start();
+        }
+        System.out.println("Federacion iniciada: nodo " + idNodo + ", puerto " + puerto + ", pares " + pares);
+        if (soloLocal) {
+            Bitacora.aviso("Federacion sin chat.federacion.secreto: el puerto {} solo acepta enlaces por loopback",
+                    puerto);
+        }
+    }
+
+    public void detener() {
+        activa = false;
+        ServerSocket servidor = servidorEnlaces;
+        if (servidor != null) {
+            try {
+                servidor.close();
+            } catch (IOException ignorada) {
+                // ya cerrado
+            }
+        }
+        for (EnlacePar enlace : enlaces.values()) {
+            enlace.cerrar();
+        }
+    }
+
+    /**
+     * Acepta enlaces entrantes de otros nodos
+     */
+    private void aceptarEnlaces() {
+        try (ServerSocket servidor = new ServerSocket()) {
+            servidor.bind(soloLocal ? new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto)
+                    : new InetSocketAddress(puerto));
+            servidorEnlaces = servidor;
+            while (activa) {
+                Socket socket = servidor.accept();
+                Thread hilo = new Thread(() -> atenderEnlace(socket, false), "federacion-entrante");
+                hilo.setDaemon(true);
+                hilo.start();
+            }
+        } catch (IOException e) {
+            if (activa) {
+                System.err.println("Error en el puerto de federacion " + puerto + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Mantiene un enlace saliente con un par, reconectando si se cae
+     *
+     * @param direccion Direccion host:puerto del par
+     */
+    private void mantenerEnlace(String direccion) {
+        int separador = direccion.lastIndexOf(':');
+        int puertoPar;
+        try {
+            puertoPar = Integer.parseInt(direccion.substring(separador + 1));
+        } catch (RuntimeException e) {
+            Bitacora.aviso("Par de federacion invalido (se espera host:puerto): {}", direccion);
+            return;
+        }
+        String host = direccion.substring(0, Math.max(0, separador));
+        // Se avisa del primer fallo de cada racha; los reintentos solo en depuracion
+        boolean avisado = false;
+        while (activa) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(host, puertoPar), 3000);
+                avisado = false;
+                atenderEnlace(socket, true);
+            } catch (IOException | RuntimeException e) {
+                if (!avisado) {
+                    Bitacora.aviso("No se pudo conectar con el par {} (se reintentara): {}",
+                            direccion, e.getMessage());
+                    avisado = true;
+                } else {
+                    Bitacora.depuracion("Reintento fallido con el par {}: {}", direccion, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(ESPERA_RECONEXION_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Intercambia presentaciones y lee tramas hasta que el enlace se cierra
+     *
+     * @param socket Socket conectado con el otro nodo
+     * @param saliente true si este nodo inicio la conexion
+     */
+    private void atenderEnlace(Socket socket, boolean saliente) {
+        EnlacePar enlace = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // Presentacion: cada lado envia su ID y un reto, y responde al
+            // reto del otro con el HMAC del secreto compartido
+            socket.setSoTimeout(ESPERA_PRESENTACION_MS);
+            byte[] reto = new byte[BYTES_RETO];
+            ALEATORIO_SEGURO.nextBytes(reto);
+            escribirTrama(salida, tramaHola(reto));
+            salida.flush();
+            byte[] hola = leerTrama(entrada);
+            DataInputStream datosHola = new DataInputStream(new ByteArrayInputStream(hola));
+            if (datosHola.readByte() != TRAMA_HOLA) {
+                throw new IOException("Presentacion invalida");
+            }
+            String idRemoto = datosHola.readUTF();
+            String direccionRemota = datosHola.readUTF();
+            byte[] retoRemoto = new byte[BYTES_RETO];
+            datosHola.readFully(retoRemoto);
+            if (idRemoto.equals(idNodo)) {
+                throw new IOException("Enlace con el propio nodo");
+            }
+            escribirTrama(salida, tramaPrueba(retoRemoto, idNodo));
+            salida.flush();
+            byte[] prueba = leerTrama(entrada);
+            if (prueba.length != 1 + 32 || prueba[0] != TRAMA_PRUEBA
+                    || !MessageDigest.isEqual(Arrays.copyOfRange(prueba, 1, prueba.length), firmar(reto, idRemoto))) {
+                throw new IOException("Autenticacion fallida de " + idRemoto + " (secreto distinto)");
+            }
+            socket.setSoTimeout(0);
+
+            enlace = new EnlacePar(idRemoto, direccionRemota, socket, salida, saliente ? idNodo : idRemoto);
+            if (!registrarEnlace(enlace)) {
+                return;
+            }
+            Bitacora.info("Enlace de federacion establecido con {}", idRemoto);
+            // Intercambio completo del directorio: repara lo perdido durante una
+            // particion; las entradas propias van con version nueva para ganar a
+            // las ausencias que el otro nodo anoto al perder el enlace
+            directorio.reafirmarLocales();
+            enlace.encolar(tramaPresencia(directorio.instantanea()));
+            enlace.iniciarEscritor();
+            anunciarEnlaces();
+            if (anillo.agregarNodo(idRemoto)) {
+                alCambiarMiembros.run();
+            }
+
+            while (activa) {
+                procesarTrama(enlace, leerTrama(entrada));
+            }
+        } catch (IOException e) {
+            if (enlace != null) {
+                Bitacora.aviso("Enlace de federacion cerrado con {}: {}", enlace.idRemoto, e.getMessage());
+            } else if (activa) {
+                Bitacora.aviso("Presentacion de federacion rechazada con {}: {}",
+                        socket.getRemoteSocketAddress(), e.getMessage());
+            }
+        } finally {
+            if (enlace != null) {
+                enlace.cerrar();
+                if (enlaces.remove(enlace.idRemoto, enlace)) {
+                    int ausentes = directorio.marcarNodoAusente(enlace.idRemoto);
+                    if (ausentes > 0) {
+                        Bitacora.info("{} apodos de {} marcados ausentes", ausentes, enlace.idRemoto);
+                    }
+                    anunciarEnlaces();
+                    if (anillo.quitarNodo(enlace.idRemoto)) {
+                        alCambiarMiembros.run();
+                    }
+                }
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException ignorada) {
+                    // ya cerrado
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra un enlace evitando duplicados cuando ambos nodos se conectan
+     * entre si: se conserva el enlace iniciado por el nodo de menor ID
+     *
+     * @param nuevo Enlace recien establecido
+     * @return true si el enlace queda registrado
+     */
+    private synchronized boolean registrarEnlace(EnlacePar nuevo) {
+        EnlacePar existente = enlaces.get(nuevo.idRemoto);
+        if (existente != null && existente.estaActivo()) {
+            String preferido = idNodo.compareTo(nuevo.idRemoto) < 0 ? idNodo : nuevo.idRemoto;
+            if (!nuevo.iniciador.equals(preferido) || existente.iniciador.equals(preferido)) {
+                nuevo.cerrar();
+                return false;
+            }
+            existente.cerrar();
+        }
+        enlaces.put(nuevo.idRemoto, nuevo);
+        return true;
+    }
+
+    // =============================================
+    // ENVIO Y RECEPCION DE MENSAJES
+    // =============================================
+
+    /**
+     * Retransmite a todos los nodos un mensaje originado en este nodo
+     *
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param remitente ID del cliente remitente
+     * @param destino Destino del mensaje (null si no aplica)
+     * @param contenido Texto del mensaje
+     */
+    public void difundir(int tipoEnvio, String remitente, String destino, String contenido) {
+        long idMensaje = siguienteIdMensaje.getAndIncrement();
+        marcarVisto(idNodo, idMensaje);
+        byte[] trama = tramaMensaje(idNodo, idMensaje, tipoEnvio, remitente, destino, contenido);
+        for (EnlacePar enlace : enlaces.values()) {
+            enlace.encolar(trama);
+        }
+    }
+
+    /**
+     * Envia un mensaje directamente al nodo indicado (un solo salto)
+     *
+     * @param nodo ID del nodo destino
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param remitente ID del cliente remitente
+     * @param destino Destino del mensaje
+     * @param contenido Texto del mensaje
+     * @return true si habia un enlace activo con ese nodo
+     */
+    public boolean enviarA(String nodo, int tipoEnvio, String remitente, String destino, String contenido) {
+        EnlacePar enlace = enlaces.get(nodo);
+        if (enlace == null || !enlace.estaActivo()) {
+            return false;
+        }
+        long idMensaje = siguienteIdMensaje.getAndIncrement();
+        marcarVisto(idNodo, idMensaje);
+        enlace.encolar(tramaMensaje(idNodo, idMensaje, tipoEnvio, remitente, destino, contenido));
+        return true;
+    }
+
+    /**
+     * Envia periodicamente a todos los enlaces los deltas de presencia
+     * acumulados, en una sola trama por intervalo
+     */
+    private void difundirPresencia() {
+        while (activa) {
+            try {
+                Thread.sleep(intervaloPresenciaMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<DirectorioPresencia.Entrada> lote = directorio.extraerPendientes();
+            if (lote.isEmpty()) {
+                continue;
+            }
+            byte[] trama = tramaPresencia(lote);
+            for (EnlacePar enlace : enlaces.values()) {
+                enlace.encolar(trama);
+            }
+        }
+    }
+
+    /**
+     * Procesa una trama recibida de otro nodo
+     *
+     * @param enlace Enlace por el que llego
+     * @param trama Contenido de la trama
+     * @throws IOException Si la trama esta mal formada
+     */
+    private void procesarTrama(EnlacePar enlace, byte[] trama) throws IOException {
+        long recibidoNanos = System.nanoTime();
+        DataInputStream datos = new DataInputStream(new ByteArrayInputStream(trama));
+        byte tipo = datos.readByte();
+        if (tipo == TRAMA_PRESENCIA) {
+            // Los cambios efectivos quedan pendientes y se propagan al resto
+            for (DirectorioPresencia.Entrada entrada : DirectorioPresencia.leerEntradas(datos)) {
+                directorio.fusionar(entrada);
+            }
+            return;
+        }
+        if (tipo == TRAMA_ENLACES) {
+            int total = datos.readInt();
+            Set<String> nodos = new HashSet<>(total * 2);
+            for (int i = 0; i < total; i++) {
+                nodos.add(datos.readUTF());
+            }
+            enlace.enlacesRemotos = nodos;
+            return;
+        }
+        if (tipo != TRAMA_MENSAJE) {
+            return;
+        }
+
+        String origen = datos.readUTF();
+        long idMensaje = datos.readLong();
+        if (!marcarVisto(origen, idMensaje)) {
+            duplicadosDescartados.incrementAndGet();
+            return;
+        }
+        int tipoEnvio = datos.readInt();
+        String remitente = datos.readUTF();
+        String destino = datos.readBoolean() ? datos.readUTF() : null;
+        String contenido = leerTexto(datos);
+
+        // Reenviar los BROADCAST solo a los nodos sin enlace con el origen
+        // (malla parcial); el resto de envios llegan en un solo salto
+        if (tipoEnvio == Protocolo.BROADCAST) {
+            for (EnlacePar otro : enlaces.values()) {
+                if (otro != enlace && !otro.idRemoto.equals(origen) && otro.necesitaReenvio(origen)) {
+                    otro.encolar(trama);
+                }
+            }
+        }
+
+        ServidorMixto.recibirMensajeRemoto(tipoEnvio, remitente, destino, contenido, origen, recibidoNanos);
+    }
+
+    /**
+     * Anuncia a todos los pares los nodos con los que este tiene enlace
+     */
+    private void anunciarEnlaces() {
+        List<String> nodos = new ArrayList<>(enlaces.keySet());
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + nodos.size() * 16);
+            DataOutputStream datos = new DataOutputStream(bytes);
+            datos.writeByte(TRAMA_ENLACES);
+            datos.writeInt(nodos.size());
+            for (String nodo : nodos) {
+                datos.writeUTF(nodo);
+            }
+            byte[] trama = bytes.toByteArray();
+            for (EnlacePar enlace : enlaces.values()) {
+                enlace.encolar(trama);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Marca un mensaje como visto
+     *
+     * @return true si es la primera vez que se ve
+     */
+    private boolean marcarVisto(String origen, long idMensaje) {
+        synchronized (vistos) {
+            return vistos.put(origen + ":" + idMensaje, Boolean.TRUE) == null;
+        }
+    }
+
+    // =============================================
+    // CODIFICACION DE TRAMAS
+    // =============================================
+
+    private byte[] tramaHola(byte[] reto) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream datos = new DataOutputStream(bytes);
+        datos.writeByte(TRAMA_HOLA);
+        datos.writeUTF(idNodo);
+        datos.writeUTF(direccionClientes);
+        datos.write(reto);
+        return bytes.toByteArray();
+    }
+
+    private byte[] tramaPrueba(byte[] retoRemoto, String idPropio) {
+        byte[] firma = firmar(retoRemoto, idPropio);
+        byte[] trama = new byte[1 + firma.length];
+        trama[0] = TRAMA_PRUEBA;
+        System.arraycopy(firma, 0, trama, 1, firma.length);
+        return trama;
+    }
+
+    /**
+     * HMAC-SHA256 del secreto sobre el reto y el ID de quien responde
+     * (el ID evita que un nodo devuelva al otro su propia prueba)
+     */
+    private byte[] firmar(byte[] reto, String idQueResponde) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secreto);
+            mac.update(reto);
+            return mac.doFinal(idQueResponde.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 no disponible", e);
+        }
+    }
+
+    private static byte[] tramaPresencia(List<DirectorioPresencia.Entrada> lote) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + lote.size() * 32);
+            DataOutputStream datos = new DataOutputStream(bytes);
+            datos.writeByte(TRAMA_PRESENCIA);
+            DirectorioPresencia.escribirEntradas(datos, lote);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] tramaMensaje(String origen, long idMensaje, int tipoEnvio,
+                                       String remitente, String destino, String contenido) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + contenido.length());
+            DataOutputStream datos = new DataOutputStream(bytes);
+            datos.writeByte(TRAMA_MENSAJE);
+            datos.writeUTF(origen);
+            datos.writeLong(idMensaje);
+            datos.writeInt(tipoEnvio);
+            datos.writeUTF(remitente);
+            datos.writeBoolean(destino != null);
+            if (destino != null) {
+                datos.writeUTF(destino);
+            }
+            escribirTexto(datos, contenido);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void escribirTexto(DataOutputStream datos, String texto) throws IOException {
+        byte[] utf8 = texto.getBytes(StandardCharsets.UTF_8);
+        datos.writeInt(utf8.length);
+        datos.write(utf8);
+    }
+
+    static String leerTexto(DataInputStream datos) throws IOException {
+        byte[] utf8 = new byte[datos.readInt()];
+        datos.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static void escribirTrama(DataOutputStream salida, byte[] trama) throws IOException {
+        salida.writeInt(trama.length);
+        salida.write(trama);
+    }
+
+    static byte[] leerTrama(DataInputStream entrada) throws IOException {
+        int longitud = entrada.readInt();
+        if (longitud <= 0 || longitud > 16 * 1024 * 1024) {
+            throw new IOException("Trama de longitud invalida: " + longitud);
+        }
+        byte[] trama = new byte[longitud];
+        entrada.readFully(trama);
+        return trama;
+    }
+
+    // =============================================
+    // METODOS DE ACCESO (GETTERS)
+    // =============================================
+
+    public String getIdNodo() {
+        return idNodo;
+    }
+
+    public DirectorioPresencia getDirectorio() {
+        return directorio;
+    }
+
+    /**
+     * Nodo dueno de una sala segun el anillo consistente
+     *
+     * @param sala Nombre de la sala
+     * @return ID del nodo dueno (puede ser este nodo)
+     */
+    public String nodoDueno(String sala) {
+        return anillo.nodoPara(sala);
+    }
+
+    /**
+     * Direccion host:puerto donde un nodo atiende clientes
+     *
+     * @param nodo ID del nodo
+     * @return Direccion, o null si no hay enlace con ese nodo
+     */
+    public String getDireccionClientes(String nodo) {
+        if (nodo.equals(idNodo)) {
+            return direccionClientes;
+        }
+        EnlacePar enlace = enlaces.get(nodo);
+        return enlace != null ? enlace.direccionClientes : null;
+    }
+
+    /**
+     * Registra la accion a ejecutar cuando un nodo entra o sale del anillo
+     *
+     * @param accion Accion (se ejecuta en el hilo del enlace)
+     */
+    public void setAlCambiarMiembros(Runnable accion) {
+        this.alCambiarMiembros = accion;
+    }
+
+    /**
+     * Obtiene los IDs de los nodos con enlace activo
+     *
+     * @return Lista de IDs de nodos remotos
+     */
+    public List<String> getNodosConectados() {
+        return new ArrayList<>(enlaces.keySet());
+    }
+
+    public long getDuplicadosDescartados() {
+        return duplicadosDescartados.get();
+    }
+
+    /**
+     * Describe el estado de cada enlace para la consola de administracion
+     *
+     * @return Una linea por enlace
+     */
+    public List<String> describirEnlaces() {
+        List<String> lineas = new ArrayList<>();
+        for (EnlacePar enlace : enlaces.values()) {
+            lineas.add(enlace.idRemoto + " [" + enlace.direccionClientes + "] (iniciado por " + enlace.iniciador + ", cola "
+                    + enlace.cola.tamano() + ", descartados " + enlace.cola.getDescartados() + ")");
+        }
+        return lineas;
+    }
+
+    // =============================================
+    // ENLACE CON OTRO NODO
+    // =============================================
+
+    /**
+     * Enlace persistente con un nodo remoto
+     * Las tramas se encolan sin bloquear y un hilo propio las escribe
+     */
+    private static final class EnlacePar {
+        final String idRemoto;
+        final String direccionClientes;
+        final String iniciador;
+        final Socket socket;
+        final DataOutputStream salida;
+        final ColaAnillo<byte[]> cola = new ColaAnillo<>(CAPACIDAD_COLA_ENLACE);
+        volatile boolean activo = true;
+
+        /** Hilo escritor, dormido mientras la cola esta vacia */
+        private volatile Thread escritor;
+        private volatile boolean durmiendo;
+
+        /**
+         * Nodos enlazados con el remoto segun su ultimo anuncio
+         * (null hasta recibirlo: mientras tanto se le reenvia todo)
+         */
+        volatile Set<String> enlacesRemotos;
+
+        EnlacePar(String idRemoto, String direccionClientes, Socket socket, DataOutputStream salida,
+                  String iniciador) {
+            this.idRemoto = idRemoto;
+            this.direccionClientes = direccionClientes;
+            this.socket = socket;
+            this.salida = salida;
+            this.iniciador = iniciador;
+        }
+
+        void iniciarEscritor() {
+            Thread hilo = new Thread(this::escribir, "federacion-escritor-" + idRemoto);
+            hilo.setDaemon(true);
+            escritor = hilo;
+            hilo.start();
+        }
+
+        void encolar(byte[] trama) {
+            if (activo && cola.ofrecer(trama) && durmiendo) {
+                LockSupport.unpark(escritor);
+            }
+        }
+
+        /**
+         * Escribe las tramas pendientes en lotes con un solo flush por lote
+         */
+        private void escribir() {
+            try {
+                while (activo) {
+                    byte[] trama = cola.sondear();
+                    if (trama == null) {
+                        // Publicar que se va a dormir y volver a mirar la cola evita
+                        // perder el aviso de un productor que encolo justo ahora
+                        durmiendo = true;
+                        if (cola.estaVacia() && activo) {
+                            LockSupport.park(this);
+                        }
+                        durmiendo = false;
+                        continue;
+                    }
+                    do {
+                        escribirTrama(salida, trama);
+                    } while ((trama = cola.sondear()) != null);
+                    salida.flush();
+                }
+            } catch (IOException e) {
+                cerrar();
+            }
+        }
+
+        /**
+         * Indica si el remoto necesita que se le reenvie un BROADCAST
+         *
+         * @param origen Nodo que origino el mensaje
+         * @return false si el remoto ya lo recibe directamente del origen
+         */
+        boolean necesitaReenvio(String origen) {
+            Set<String> conocidos = enlacesRemotos;
+            return conocidos == null || !conocidos.contains(origen);
+        }
+
+        boolean estaActivo() {
+            return activo && !socket.isClosed();
+        }
+
+        void cerrar() {
+            activo = false;
+            LockSupport.unpark(escritor);
+            try {
+                socket.close();
+            } catch (IOException ignorada) {
+                // ya cerrado
+            }
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package servidor;
 
 
+import common.Bitacora;
+import common.Protocolo;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * INTERFAZ GRAFICA DEL SERVIDOR - MONITOREO EN TIEMPO REAL
@@ -20,9 +30,18 @@ import java.util.List;
  * - Control de operaciones del servidor
  * 
  * Caracteristicas:
- * - Actualizacion automatica cada 2 segundos
+ * - Las listas de clientes se actualizan con los deltas de CambiosSesiones,
+ *   agrupados una vez por cuadro (FRAME_MS); no se copian listas completas
+ * - Tabla y lista virtualizadas: Swing solo pinta las filas visibles y
+ *   cada cuadro avisa solo las filas que cambiaron, asi el coste del panel
+ *   no depende del numero de clientes
  * - Visualizacion diferenciada por tipo de protocolo
- * - Log de eventos con timestamp
+ * - Log de eventos acotado (ConsolaLog): cualquier hilo publica sin
+ *   bloquear y el log se pinta una vez por cuadro, filtrable por tipo;
+ *   tambien muestra las lineas de la Bitacora con su nivel
+ * - Panel remoto: "GUIservidor --conectar http://host:puerto" sigue a un
+ *   servidor arrancado con --headless por su endpoint de administracion,
+ *   con los mismos deltas que el panel local (MonitorRemoto)
  * - Metricas en tiempo real
  * 
  * @author Alin (Implementado por Angel)
@@ -41,14 +60,17 @@ public class GUIservidor extends JFrame {
     private JPanel panelControl;
     
     // Componentes para lista de clientes
-    private JTextArea areaClientesTCP;
-    private JTextArea areaClientesUDP;
-    private JTextArea areaLogs;
+    private JTable tablaClientesTCP;
+    private JList<String> listaClientesUDP;
+    private ConsolaLog consolaLog;
     
-    // Scroll panes para las areas de texto
+    // Modelos virtualizados de las listas de clientes
+    private final ModeloSesiones modeloTCP = new ModeloSesiones();
+    private final ModeloUDP modeloUDP = new ModeloUDP();
+    
+    // Scroll panes de las listas
     private JScrollPane scrollClientesTCP;
     private JScrollPane scrollClientesUDP;
-    private JScrollPane scrollLogs;
     
     // Componentes de control y metricas
     private JLabel labelEstado;
@@ -58,11 +80,20 @@ public class GUIservidor extends JFrame {
     private JButton botonActualizar;
     private JButton botonLimpiarLogs;
     
-    // Contadores
-    private int totalMensajes = 0;
+    /** Intervalo entre cuadros: los deltas de un cuadro se aplican juntos */
+    private static final int FRAME_MS = 50;
+    
+    /** Deltas maximos por cuadro (el resto se aplica en los siguientes) */
+    private static final int MAXIMO_DELTAS = 10000;
+    
+    // Ultimos valores mostrados (solo se reescriben las etiquetas que cambian)
+    private long mensajesMostrados = -1;
+    private int tcpMostrados = -1;
+    private int udpMostrados = -1;
+    private boolean conexionMostrada = true;
     
-    // Formato para timestamps
-    private SimpleDateFormat formatoFecha;
+    /** Fuente de las sesiones si el servidor corre en otro proceso (null = local) */
+    private final MonitorRemoto remoto;
     
     // =============================================
     // CONSTRUCTOR
@@ -73,14 +104,27 @@ public class GUIservidor extends JFrame {
      * Inicializa todos los componentes y configura la interfaz
      */
     public GUIservidor() {
+        this(null);
+    }
+    
+    /**
+     * Constructor del panel
+     * 
+     * @param urlRemota Endpoint de administracion de un servidor sin interfaz
+     *                  (http://host:puerto), o null para el servidor de este proceso
+     */
+    public GUIservidor(String urlRemota) {
         // Configuracion basica de la ventana
-        super("Servidor de Chat - Monitoreo en Tiempo Real");
+        super(urlRemota == null ? "Servidor de Chat - Monitoreo en Tiempo Real"
+                : "Servidor de Chat - Monitoreo remoto de " + urlRemota);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(900, 700);
         setLocationRelativeTo(null); // Centrar en pantalla
         
         // Inicializar componentes
         inicializarComponentes();
+        remoto = urlRemota == null ? null
+                : new MonitorRemoto(urlRemota, (tipo, mensaje) -> consolaLog.publicar(tipo, mensaje));
         configurarInterfaz();
         
         // Iniciar actualizacion automatica
@@ -90,7 +134,12 @@ public class GUIservidor extends JFrame {
         setVisible(true);
         
         agregarLog("Interfaz del servidor iniciada correctamente");
-        agregarLog("Servidor escuchando en TCP:12345 y UDP:12346");
+        if (remoto == null) {
+            agregarLog("Servidor escuchando en TCP:" + ServidorMixto.getPuertoTCP()
+                    + " y UDP:" + ServidorMixto.getPuertoUDP());
+        } else {
+            agregarLog("Conectando con " + remoto.getBase());
+        }
     }
     
     // =============================================
@@ -101,29 +150,27 @@ public class GUIservidor extends JFrame {
      * Inicializa todos los componentes de la interfaz
      */
     private void inicializarComponentes() {
-        // Inicializar formato de fecha
-        formatoFecha = new SimpleDateFormat("HH:mm:ss");
-        
         // Crear paneles principales
         panelPrincipal = new JPanel(new BorderLayout(10, 10));
         panelClientes = new JPanel(new GridLayout(1, 2, 10, 10));
         panelLogs = new JPanel(new BorderLayout());
         panelControl = new JPanel(new FlowLayout());
         
-        // Crear areas de texto
-        areaClientesTCP = new JTextArea();
-        areaClientesUDP = new JTextArea();
-        areaLogs = new JTextArea();
+        // Crear tabla y lista de clientes sobre sus modelos
+        tablaClientesTCP = new JTable(modeloTCP);
+        tablaClientesTCP.setFont(new Font("Consolas", Font.PLAIN, 12));
+        tablaClientesTCP.setFillsViewportHeight(true);
+        listaClientesUDP = new JList<>(modeloUDP);
+        listaClientesUDP.setFont(new Font("Consolas", Font.PLAIN, 12));
+        // Alto fijo: la lista no mide cada elemento para calcular su tamano
+        listaClientesUDP.setPrototypeCellValue("255.255.255.255:65535:0000000000000");
         
-        // Configurar areas de texto
-        configurarAreaTexto(areaClientesTCP);
-        configurarAreaTexto(areaClientesUDP);
-        configurarAreaTexto(areaLogs);
+        // Crear log acotado
+        consolaLog = new ConsolaLog("Log de Eventos del Servidor");
         
         // Crear scroll panes
-        scrollClientesTCP = crearScrollPane(areaClientesTCP, "Clientes TCP Conectados");
-        scrollClientesUDP = crearScrollPane(areaClientesUDP, "Clientes UDP Registrados");
-        scrollLogs = crearScrollPane(areaLogs, "Log de Eventos del Servidor");
+        scrollClientesTCP = crearScrollPane(tablaClientesTCP, "Clientes TCP Conectados");
+        scrollClientesUDP = crearScrollPane(listaClientesUDP, "Clientes UDP Registrados");
         
         // Configurar etiquetas de estado
         labelEstado = new JLabel("Estado: INICIADO");
@@ -140,26 +187,14 @@ public class GUIservidor extends JFrame {
     }
     
     /**
-     * Configura las propiedades basicas de un JTextArea
+     * Crea un JScrollPane con borde titulado
      * 
-     * @param areaTexto Area de texto a configurar
-     */
-    private void configurarAreaTexto(JTextArea areaTexto) {
-        areaTexto.setEditable(false);
-        areaTexto.setFont(new Font("Consolas", Font.PLAIN, 12));
-        areaTexto.setBackground(new Color(240, 240, 240));
-        areaTexto.setMargin(new Insets(5, 5, 5, 5));
-    }
-    
-    /**
-     * Crea un JScrollPane para un JTextArea con borde titulado
-     * 
-     * @param areaTexto Area de texto a envolver
+     * @param componente Componente a envolver
      * @param titulo Titulo para el borde
      * @return JScrollPane configurado
      */
-    private JScrollPane crearScrollPane(JTextArea areaTexto, String titulo) {
-        JScrollPane scrollPane = new JScrollPane(areaTexto);
+    private JScrollPane crearScrollPane(JComponent componente, String titulo) {
+        JScrollPane scrollPane = new JScrollPane(componente);
         scrollPane.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(Color.GRAY), 
             titulo, 
@@ -177,7 +212,7 @@ public class GUIservidor extends JFrame {
         botonActualizar.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                actualizarInformacion();
+                recargarSesiones();
             }
         });
         
@@ -185,7 +220,7 @@ public class GUIservidor extends JFrame {
         botonLimpiarLogs.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                areaLogs.setText("");
+                consolaLog.limpiar();
                 agregarLog("Logs limpiados manualmente");
             }
         });
@@ -218,7 +253,7 @@ public class GUIservidor extends JFrame {
         panelControl.add(botonLimpiarLogs);
         
         // Configurar panel de logs
-        panelLogs.add(scrollLogs, BorderLayout.CENTER);
+        panelLogs.add(consolaLog, BorderLayout.CENTER);
         
         // Ensamblar interfaz principal
         panelPrincipal.add(panelClientes, BorderLayout.NORTH);
@@ -256,82 +291,106 @@ public class GUIservidor extends JFrame {
     // =============================================
     
     /**
-     * Actualiza toda la informacion en la interfaz
-     * - Lista de clientes TCP/UDP
-     * - Metricas y contadores
-     * - Estado del servidor
+     * Vuelve a cargar las listas completas de clientes
+     * Se usa al iniciar, con el boton Actualizar y si se perdieron deltas
      */
-    public void actualizarInformacion() {
-        try {
-            // Obtener listas actualizadas de clientes
-            List<String> clientesTCP = ServidorMixto.getClientesTCP();
-            List<String> clientesUDP = ServidorMixto.getClientesUDP();
-            
-            // Actualizar area de clientes TCP
-            areaClientesTCP.setText("");
-            if (clientesTCP.isEmpty()) {
-                areaClientesTCP.append("No hay clientes TCP conectados\n");
+    public void recargarSesiones() {
+        List<CambiosSesiones.Sesion> tcp = new ArrayList<>();
+        List<String> udp = new ArrayList<>();
+        for (CambiosSesiones.Sesion sesion : remoto == null ? CambiosSesiones.instantanea() : remoto.instantanea()) {
+            if (sesion.protocolo == Protocolo.UDP) {
+                udp.add(sesion.idCliente);
             } else {
-                areaClientesTCP.append("Total: " + clientesTCP.size() + " clientes\n");
-                areaClientesTCP.append("====================\n");
-                for (int i = 0; i < clientesTCP.size(); i++) {
-                    areaClientesTCP.append((i + 1) + ". " + clientesTCP.get(i) + "\n");
-                }
+                tcp.add(sesion);
             }
-            
-            // Actualizar area de clientes UDP
-            areaClientesUDP.setText("");
-            if (clientesUDP.isEmpty()) {
-                areaClientesUDP.append("No hay clientes UDP registrados\n");
-            } else {
-                areaClientesUDP.append("Total: " + clientesUDP.size() + " clientes\n");
-                areaClientesUDP.append("====================\n");
-                for (int i = 0; i < clientesUDP.size(); i++) {
-                    areaClientesUDP.append((i + 1) + ". " + clientesUDP.get(i) + "\n");
+        }
+        modeloTCP.cargar(tcp);
+        modeloUDP.cargar(udp);
+        actualizarEtiquetas();
+    }
+    
+    /**
+     * Aplica los deltas acumulados desde el cuadro anterior
+     * Varios cambios del mismo cliente en un cuadro se reducen al ultimo
+     */
+    private void aplicarCuadro() {
+        Map<String, CambiosSesiones.Cambio> ultimos = new LinkedHashMap<>();
+        Consumer<CambiosSesiones.Cambio> coalescer = cambio -> ultimos.put(cambio.idCliente, cambio);
+        boolean completo = remoto == null
+                ? CambiosSesiones.drenar(coalescer, MAXIMO_DELTAS)
+                : remoto.drenar(coalescer, MAXIMO_DELTAS);
+        if (!completo) {
+            agregarLog("Se perdieron cambios de sesiones, recargando listas");
+            recargarSesiones();
+            return;
+        }
+        if (!ultimos.isEmpty()) {
+            // Primero las bajas y despues altas y cambios: las altas quedan juntas al final
+            List<CambiosSesiones.Sesion> altas = new ArrayList<>();
+            for (CambiosSesiones.Cambio cambio : ultimos.values()) {
+                CambiosSesiones.Sesion sesion = cambio.tipo == CambiosSesiones.DESCONECTADO
+                        ? null : sesion(cambio.idCliente, cambio.protocolo);
+                if (cambio.protocolo == Protocolo.UDP) {
+                    modeloUDP.agregar(cambio.idCliente);
+                } else if (sesion == null) {
+                    modeloTCP.quitar(cambio.idCliente);
+                } else {
+                    altas.add(sesion);
                 }
             }
-            
-            // Actualizar metricas
-            labelClientesTCP.setText("TCP: " + clientesTCP.size());
-            labelClientesUDP.setText("UDP: " + clientesUDP.size());
-            labelTotalMensajes.setText("Mensajes: " + totalMensajes);
-            labelEstado.setText("Estado: ACTIVO - " + (clientesTCP.size() + clientesUDP.size()) + " clientes");
-            
-        } catch (Exception e) {
-            agregarLog("ERROR al actualizar informacion: " + e.getMessage());
+            modeloTCP.insertarOActualizar(altas);
+        }
+        actualizarEtiquetas();
+    }
+    
+    private CambiosSesiones.Sesion sesion(String idCliente, int protocolo) {
+        return remoto == null
+                ? CambiosSesiones.sesion(idCliente, protocolo)
+                : remoto.sesion(idCliente, protocolo);
+    }
+    
+    /**
+     * Actualiza las metricas de la barra inferior si cambiaron
+     */
+    private void actualizarEtiquetas() {
+        int tcp = modeloTCP.getRowCount();
+        int udp = modeloUDP.getSize();
+        long mensajes = remoto == null ? Metricas.getTotalEntrantes() : remoto.getTotalEntrantes();
+        boolean conexion = remoto == null || remoto.estaConectado();
+        if (tcp != tcpMostrados || udp != udpMostrados || conexion != conexionMostrada) {
+            tcpMostrados = tcp;
+            udpMostrados = udp;
+            conexionMostrada = conexion;
+            labelClientesTCP.setText("TCP: " + tcp);
+            labelClientesUDP.setText("UDP: " + udp);
+            labelEstado.setText(conexion ? "Estado: ACTIVO - " + (tcp + udp) + " clientes"
+                    : "Estado: SIN CONEXION con " + remoto.getBase());
+        }
+        if (mensajes != mensajesMostrados) {
+            mensajesMostrados = mensajes;
+            labelTotalMensajes.setText("Mensajes: " + mensajes);
         }
     }
     
     /**
      * Agrega un mensaje al log con timestamp
+     * Se puede llamar desde cualquier hilo: se pinta en el siguiente cuadro
      * 
      * @param mensaje Mensaje a agregar al log
      */
     public void agregarLog(String mensaje) {
-        String timestamp = formatoFecha.format(new Date());
-        areaLogs.append("[" + timestamp + "] " + mensaje + "\n");
-        
-        // Auto-scroll al final
-        areaLogs.setCaretPosition(areaLogs.getDocument().getLength());
-        
-        // Incrementar contador si es un mensaje de chat
-        if (mensaje.contains("BROADCAST") || mensaje.contains("UNICAST") || 
-            mensaje.contains("ANYCAST") || mensaje.contains("Mensaje de")) {
-            totalMensajes++;
-        }
+        consolaLog.publicar("SERVIDOR", mensaje);
     }
     
     /**
      * Agrega un mensaje de evento especial al log
+     * Se puede llamar desde cualquier hilo: se pinta en el siguiente cuadro
      * 
      * @param mensaje Mensaje del evento
      * @param tipo Tipo de evento (CONEXION, DESCONEXION, ERROR, etc.)
      */
     public void agregarEvento(String mensaje, String tipo) {
-        String timestamp = formatoFecha.format(new Date());
-        String mensajeFormateado = "[" + timestamp + "] [" + tipo + "] " + mensaje;
-        areaLogs.append(mensajeFormateado + "\n");
-        areaLogs.setCaretPosition(areaLogs.getDocument().getLength());
+        consolaLog.publicar(tipo, mensaje);
     }
     
     // =============================================
@@ -339,33 +398,187 @@ public class GUIservidor extends JFrame {
     // =============================================
     
     /**
-     * Inicia la actualizacion automatica cada 2 segundos
+     * Se suscribe a los cambios de sesiones, carga la instantanea inicial
+     * y aplica los deltas una vez por cuadro
      */
     private void iniciarActualizacionAutomatica() {
-        Timer timer = new Timer(2000, new ActionListener() {
+        if (remoto == null) {
+            CambiosSesiones.suscribir();
+            Bitacora.setOyente((nivel, texto) -> consolaLog.publicar(nivel.name(), texto));
+        } else {
+            remoto.iniciar();
+        }
+        recargarSesiones();
+        Timer timer = new Timer(FRAME_MS, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                actualizarInformacion();
+                aplicarCuadro();
+                consolaLog.aplicarCuadro();
             }
         });
         timer.start();
     }
     
+    // =============================================
+    // MODELOS VIRTUALIZADOS
+    // =============================================
+    
+    /**
+     * Filas de la tabla de clientes TCP
+     * Un indice ID -> fila permite cambiar o quitar una fila sin recorrer la lista
+     */
+    private static final class ModeloSesiones extends AbstractTableModel {
+        private static final String[] COLUMNAS = {"Cliente", "Apodo", "Sala", "Conectado"};
+        
+        private final List<CambiosSesiones.Sesion> filas = new ArrayList<>();
+        private final Map<String, Integer> posiciones = new HashMap<>();
+        private final SimpleDateFormat formatoHora = new SimpleDateFormat("HH:mm:ss");
+        
+        @Override
+        public int getRowCount() {
+            return filas.size();
+        }
+        
+        @Override
+        public int getColumnCount() {
+            return COLUMNAS.length;
+        }
+        
+        @Override
+        public String getColumnName(int columna) {
+            return COLUMNAS[columna];
+        }
+        
+        @Override
+        public Object getValueAt(int fila, int columna) {
+            CambiosSesiones.Sesion sesion = filas.get(fila);
+            switch (columna) {
+                case 0: return sesion.idCliente;
+                case 1: return sesion.apodo != null ? sesion.apodo : "";
+                case 2: return sesion.sala != null ? sesion.sala : "";
+                default: return formatoHora.format(new Date(sesion.conectadoDesde));
+            }
+        }
+        
+        void cargar(List<CambiosSesiones.Sesion> sesiones) {
+            filas.clear();
+            posiciones.clear();
+            for (CambiosSesiones.Sesion sesion : sesiones) {
+                posiciones.put(sesion.idCliente, filas.size());
+                filas.add(sesion);
+            }
+            fireTableDataChanged();
+        }
+        
+        /**
+         * Reemplaza las filas existentes y agrega las nuevas al final
+         * avisando un solo rango de insercion
+         */
+        void insertarOActualizar(List<CambiosSesiones.Sesion> sesiones) {
+            int primeraNueva = filas.size();
+            for (CambiosSesiones.Sesion sesion : sesiones) {
+                Integer fila = posiciones.get(sesion.idCliente);
+                if (fila != null) {
+                    filas.set(fila, sesion);
+                    if (fila < primeraNueva) {
+                        fireTableRowsUpdated(fila, fila);
+                    }
+                } else {
+                    posiciones.put(sesion.idCliente, filas.size());
+                    filas.add(sesion);
+                }
+            }
+            if (filas.size() > primeraNueva) {
+                fireTableRowsInserted(primeraNueva, filas.size() - 1);
+            }
+        }
+        
+        /**
+         * Quita una fila moviendo la ultima a su lugar (sin desplazar las demas)
+         */
+        void quitar(String idCliente) {
+            Integer fila = posiciones.remove(idCliente);
+            if (fila == null) {
+                return;
+            }
+            int ultima = filas.size() - 1;
+            CambiosSesiones.Sesion movida = filas.remove(ultima);
+            if (fila != ultima) {
+                filas.set(fila, movida);
+                posiciones.put(movida.idCliente, fila);
+                fireTableRowsUpdated(fila, fila);
+            }
+            fireTableRowsDeleted(ultima, ultima);
+        }
+    }
+    
+    /**
+     * Elementos de la lista de clientes UDP (solo crece: UDP no tiene desconexion)
+     */
+    private static final class ModeloUDP extends AbstractListModel<String> {
+        private final List<String> elementos = new ArrayList<>();
+        private final Set<String> presentes = new HashSet<>();
+        
+        @Override
+        public int getSize() {
+            return elementos.size();
+        }
+        
+        @Override
+        public String getElementAt(int indice) {
+            return elementos.get(indice);
+        }
+        
+        void cargar(List<String> clientes) {
+            int anteriores = elementos.size();
+            elementos.clear();
+            presentes.clear();
+            if (anteriores > 0) {
+                fireIntervalRemoved(this, 0, anteriores - 1);
+            }
+            for (String cliente : clientes) {
+                if (presentes.add(cliente)) {
+                    elementos.add(cliente);
+                }
+            }
+            if (!elementos.isEmpty()) {
+                fireIntervalAdded(this, 0, elementos.size() - 1);
+            }
+        }
+        
+        void agregar(String cliente) {
+            if (presentes.add(cliente)) {
+                elementos.add(cliente);
+                fireIntervalAdded(this, elementos.size() - 1, elementos.size() - 1);
+            }
+        }
+    }
+    
     // =============================================
     // METODO PRINCIPAL
     // =============================================
     
     /**
      * Punto de entrada para la interfaz grafica del servidor
+     * Con "--conectar http://host:puerto" (o chat.panel.url) se conecta a un
+     * servidor sin interfaz por su endpoint de administracion
      * 
-     * @param args Argumentos de linea de comandos (no utilizados)
+     * @param args --conectar URL
      */
     public static void main(String[] args) {
+        String url = System.getProperty("chat.panel.url");
+        for (int i = 0; i + 1 < args.length; i++) {
+            if ("--conectar".equals(args[i])) {
+                url = args[i + 1];
+            }
+        }
+        final String urlRemota = url;
+        
         // Ejecutar en el hilo de eventos de Swing
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new GUIservidor();
+                new GUIservidor(urlRemota);
             }
         });
     }
@@ -0,0 +1,180 @@
+package servidor;
+
+import common.Mensaje;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * HISTORIAL RECIENTE - ANILLO ACOTADO CON LOS ULTIMOS N MENSAJES
+ *
+ * Mantiene en memoria los mensajes mas recientes de un canal para poder
+ * mostrarlos a los clientes que se conectan y atender el comando HISTORY
+ * sin leer el diario en disco.
+ *
+ * Caracteristicas:
+ * - Arreglo circular indexado por una posicion primitiva (long)
+ * - Escrituras concurrentes sin bloqueos (getAndIncrement sobre la posicion)
+ * - Lecturas sin bloqueos: cada celda guarda la posicion que contiene y el
+ *   lector descarta las celdas que fueron sobrescritas mientras leia
+ * - Memoria fija: nunca guarda mas de la capacidad configurada
+ *
+ * @version 1.0
+ */
+public class HistorialReciente {
+
+    // =============================================
+    // ESTRUCTURA INTERNA
+    // =============================================
+
+    private final int capacidad;
+    private final int mascara;
+
+    /**
+     * Mensajes guardados en cada celda
+     */
+    private final AtomicReferenceArray<Mensaje> mensajes;
+
+    /**
+     * Posicion logica almacenada en cada celda (-1 mientras se escribe)
+     */
+    private final AtomicLongArray posiciones;
+
+    /**
+     * Siguiente posicion logica a escribir (total de mensajes agregados)
+     */
+    private final AtomicLong siguientePosicion = new AtomicLong();
+
+    // =============================================
+    // CONSTRUCTOR
+    // =============================================
+
+    /**
+     * Crea un historial con la capacidad indicada redondeada a potencia de 2
+     *
+     * @param capacidadMinima Numero minimo de mensajes a conservar
+     */
+    public HistorialReciente(int capacidadMinima) {
+        if (capacidadMinima < 2) {
+            capacidadMinima = 2;
+        }
+        this.capacidad = Integer.highestOneBit(capacidadMinima - 1) << 1;
+        this.mascara = capacidad - 1;
+        this.mensajes = new AtomicReferenceArray<>(capacidad);
+        this.posiciones = new AtomicLongArray(capacidad);
+        for (int i = 0; i < capacidad; i++) {
+            posiciones.set(i, -1);
+        }
+    }
+
+    // =============================================
+    // ESCRITURA
+    // =============================================
+
+    /**
+     * Agrega un mensaje sobrescribiendo el mas antiguo si esta lleno
+     *
+     * @param mensaje Mensaje a guardar
+     */
+    public void agregar(Mensaje mensaje) {
+        long posicion = siguientePosicion.getAndIncrement();
+        int indice = (int) (posicion & mascara);
+
+        // Marcar la celda como en escritura para que los lectores la ignoren
+        posiciones.set(indice, -1);
+        mensajes.set(indice, mensaje);
+        posiciones.set(indice, posicion);
+    }
+
+    /**
+     * Vacia las celdas de los mensajes que cumplan la condicion (retencion
+     * del diario); una celda sobrescrita mientras tanto no se toca
+     *
+     * @param condicion Mensajes a descartar
+     * @return Mensajes descartados
+     */
+    public int descartar(Predicate<Mensaje> condicion) {
+        int descartados = 0;
+        for (int i = 0; i < capacidad; i++) {
+            Mensaje mensaje = mensajes.get(i);
+            if (mensaje != null && condicion.test(mensaje) && mensajes.compareAndSet(i, mensaje, null)) {
+                descartados++;
+            }
+        }
+        return descartados;
+    }
+
+    // =============================================
+    // LECTURA
+    // =============================================
+
+    /**
+     * Obtiene los ultimos mensajes del historial
+     *
+     * @param cantidad Numero maximo de mensajes a devolver
+     * @return Mensajes del mas antiguo al mas reciente
+     */
+    public List<Mensaje> ultimos(int cantidad) {
+        return pagina(cantidad, 0);
+    }
+
+    /**
+     * Obtiene una pagina del historial contando desde el mensaje mas reciente
+     * Las celdas vaciadas por la retencion se omiten
+     *
+     * @param cantidad Tamano de la pagina
+     * @param saltar Mensajes recientes a omitir antes de la pagina
+     * @return Mensajes de la pagina, del mas antiguo al mas reciente
+     */
+    public List<Mensaje> pagina(int cantidad, int saltar) {
+        List<Mensaje> resultado = new ArrayList<>(Math.max(0, Math.min(cantidad, capacidad)));
+        if (cantidad <= 0 || saltar < 0) {
+            return resultado;
+        }
+
+        long fin = siguientePosicion.get() - saltar;
+        long inicio = Math.max(Math.max(0, fin - cantidad), siguientePosicion.get() - capacidad);
+
+        for (long posicion = inicio; posicion < fin; posicion++) {
+            int indice = (int) (posicion & mascara);
+            long antes = posiciones.get(indice);
+            Mensaje mensaje = mensajes.get(indice);
+            long despues = posiciones.get(indice);
+
+            // Solo se acepta la celda si no cambio durante la lectura
+            if (antes == posicion && despues == posicion && mensaje != null) {
+                resultado.add(mensaje);
+            }
+        }
+        return resultado;
+    }
+
+    // =============================================
+    // METODOS DE CONSULTA
+    // =============================================
+
+    /**
+     * Numero de mensajes disponibles actualmente
+     *
+     * @return Mensajes guardados (como maximo la capacidad)
+     */
+    public int tamano() {
+        return (int) Math.min(siguientePosicion.get(), capacidad);
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    /**
+     * Total de mensajes agregados desde que se creo el historial
+     *
+     * @return Contador de mensajes
+     */
+    public long getTotalAgregados() {
+        return siguientePosicion.get();
+    }
+}
@@ -0,0 +1,753 @@
+package servidor;
+
+import common.Bitacora;
+import common.CodificadorMensaje;
+import common.ColaAnillo;
+import common.Mensaje;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * INDICE INVERTIDO - BUSQUEDA DE TEXTO COMPLETO EN EL HISTORIAL
+ *
+ * Mantiene un indice invertido incremental de los mensajes enrutados para
+ * atender el comando SEARCH de los clientes y el comando buscar de la
+ * consola de administracion.
+ *
+ * Caracteristicas:
+ * - Cada termino tiene una lista de apariciones (postings) guardada en un
+ *   arreglo primitivo de bytes: documento y posiciones codificados como
+ *   diferencias (delta) en formato varint
+ * - Consultas AND de varias palabras y frases exactas entre comillas
+ * - Un unico hilo indexador: los hilos de enrutamiento solo encolan
+ * - Al arrancar reconstruye el indice leyendo el diario en segundo plano
+ * - El almacen de documentos tiene un tope (chat.indice.mb); al llenarse
+ *   se descartan los mensajes mas antiguos, y el compactador del diario
+ *   descarta los que borra su politica de retencion
+ *
+ * @version 1.0
+ */
+public class IndiceInvertido {
+
+    // =============================================
+    // CONFIGURACION
+    // =============================================
+
+    /**
+     * Documentos indexados por bloque de escritura
+     */
+    private static final int LOTE_INDEXADO = 1024;
+
+    private static final long ESPERA_INDEXADOR_NS = 1_000_000L;
+
+    /**
+     * Documentos de la primera ventana de busqueda (crece al doble)
+     */
+    private static final int VENTANA_INICIAL = 1 << 10;
+
+    /**
+     * Cada cuantos documentos se guarda un salto en los postings
+     */
+    private static final int INTERVALO_SALTOS = 64;
+
+    /**
+     * Bytes maximos del almacen de documentos; al superarlos se descartan
+     * los mensajes mas antiguos hasta quedar en tres cuartas partes
+     */
+    private static final int MAX_ALMACEN = (int) Math.min(Integer.MAX_VALUE - 8L,
+            Long.getLong("chat.indice.mb", 256L) * 1024 * 1024);
+
+    // =============================================
+    // ESTRUCTURAS DEL INDICE
+    // =============================================
+
+    /**
+     * Termino -> lista de apariciones comprimida
+     */
+    private final Map<String, Postings> terminos = new HashMap<>();
+
+    /**
+     * Almacen de documentos: mensajes codificados uno tras otro
+     */
+    private byte[] almacen = new byte[1 << 16];
+    private int tamanoAlmacen;
+
+    /**
+     * Desplazamiento de cada documento dentro del almacen (indice = docId)
+     */
+    private int[] desplazamientos = new int[1024];
+    private int totalDocumentos;
+
+    private final ReentrantReadWriteLock candado = new ReentrantReadWriteLock();
+
+    // =============================================
+    // ALIMENTACION DEL INDICE
+    // =============================================
+
+    private final ColaAnillo<Mensaje> pendientes;
+    private volatile boolean activo;
+    private volatile boolean reconstruyendo;
+    private Thread hiloIndexador;
+
+    /**
+     * Crea un indice vacio
+     *
+     * @param capacidadCola Mensajes que pueden esperar a ser indexados
+     */
+    public IndiceInvertido(int capacidadCola) {
+        this.pendientes = new ColaAnillo<>(capacidadCola);
+    }
+
+    /**
+     * Arranca el hilo indexador
+     * Si se indica un diario, primero reindexa su contenido hasta la
+     * secuencia actual y despues los mensajes nuevos encolados
+     *
+     * @param diario Diario a reindexar al arrancar (puede ser null)
+     */
+    public void iniciar(DiarioMensajes diario) {
+        activo = true;
+        reconstruyendo = diario != null;
+        long hastaSecuencia = diario != null ? diario.getUltimaSecuenciaEscrita() : 0;
+
+        hiloIndexador = new Thread(() -> {
+            try {
+                if (diario != null) {
+                    reconstruir(diario, hastaSecuencia);
+                }
+                bucleIndexador();
+            } catch (Error e) {
+                Bitacora.error("Indexador de busqueda detenido tras {} mensajes", totalDocumentos, e);
+                throw e;
+            }
+        }, "indice-busqueda");
+        hiloIndexador.setDaemon(true);
+        hiloIndexador.start();
+    }
+
+    public void detener() {
+        activo = false;
+    }
+
+    /**
+     * Encola un mensaje para indexarlo sin bloquear al llamador
+     *
+     * @param mensaje Mensaje enrutado
+     */
+    public void agregar(Mensaje mensaje) {
+        pendientes.ofrecer(mensaje);
+    }
+
+    /**
+     * Reindexa el contenido del diario hasta la secuencia indicada
+     * Un error de lectura deja el indice con lo reconstruido hasta entonces
+     */
+    private void reconstruir(DiarioMensajes diario, long hastaSecuencia) {
+        long inicio = System.currentTimeMillis();
+        List<Mensaje> lote = new ArrayList<>(LOTE_INDEXADO);
+        try {
+            diario.recorrer(hastaSecuencia, m -> {
+                lote.add(m);
+                if (lote.size() == LOTE_INDEXADO) {
+                    indexarLote(lote);
+                    lote.clear();
+                }
+            });
+            indexarLote(lote);
+            System.out.println("Indice de busqueda reconstruido: " + getTotalDocumentos()
+                    + " mensajes en " + (System.currentTimeMillis() - inicio) + " ms");
+        } catch (RuntimeException e) {
+            Bitacora.error("Reconstruccion del indice interrumpida tras {} mensajes", getTotalDocumentos(), e);
+        } finally {
+            reconstruyendo = false;
+        }
+    }
+
+    private void bucleIndexador() {
+        List<Mensaje> lote = new ArrayList<>(LOTE_INDEXADO);
+        while (activo) {
+            pendientes.drenar(lote::add, LOTE_INDEXADO);
+            if (lote.isEmpty()) {
+                LockSupport.parkNanos(ESPERA_INDEXADOR_NS);
+                continue;
+            }
+            try {
+                indexarLote(lote);
+            } catch (RuntimeException e) {
+                // Se pierde el lote, pero el hilo sigue indexando los siguientes
+                Bitacora.error("Error indexando {} mensajes", lote.size(), e);
+            }
+            lote.clear();
+        }
+    }
+
+    /**
+     * Quita del indice los mensajes que cumplan la condicion
+     * Lo usa el compactador del diario al aplicar la retencion; reconstruye
+     * el almacen y los postings con los mensajes restantes
+     *
+     * @param condicion Mensajes a descartar
+     */
+    public void descartar(Predicate<Mensaje> condicion) {
+        candado.writeLock().lock();
+        try {
+            int antes = totalDocumentos;
+            int docId = 0;
+            while (docId < totalDocumentos && !condicion.test(documento(docId))) {
+                docId++;
+            }
+            if (docId == totalDocumentos) {
+                return;
+            }
+            compactar(0, condicion);
+            if (totalDocumentos != antes) {
+                Bitacora.info("Indice de busqueda: {} mensajes descartados por retencion",
+                        antes - totalDocumentos);
+            }
+        } finally {
+            candado.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexa un lote de mensajes tomando el candado de escritura una sola vez
+     *
+     * @param lote Mensajes a indexar en orden
+     */
+    private void indexarLote(List<Mensaje> lote) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        candado.writeLock().lock();
+        try {
+            for (Mensaje mensaje : lote) {
+                indexar(mensaje);
+            }
+        } finally {
+            candado.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Agrega un documento al almacen y sus terminos a los postings
+     * Debe llamarse con el candado de escritura tomado
+     *
+     * @param mensaje Mensaje a indexar
+     */
+    private void indexar(Mensaje mensaje) {
+        byte[] codificado = CodificadorMensaje.codificar(mensaje);
+        if (codificado.length > MAX_ALMACEN / 4) {
+            return;
+        }
+        asegurarAlmacen(codificado.length);
+
+        int docId = totalDocumentos;
+        if (docId == desplazamientos.length) {
+            desplazamientos = Arrays.copyOf(desplazamientos, docId * 2);
+        }
+        desplazamientos[docId] = tamanoAlmacen;
+        System.arraycopy(codificado, 0, almacen, tamanoAlmacen, codificado.length);
+        tamanoAlmacen += codificado.length;
+        totalDocumentos++;
+
+        // Agrupar las posiciones de cada termino dentro del documento
+        List<String> tokens = tokenizar(mensaje.getContenido());
+        Map<String, int[]> posicionesPorTermino = new HashMap<>();
+        for (int posicion = 0; posicion < tokens.size(); posicion++) {
+            int[] posiciones = posicionesPorTermino.get(tokens.get(posicion));
+            if (posiciones == null) {
+                posicionesPorTermino.put(tokens.get(posicion), new int[] {1, posicion});
+            } else {
+                if (posiciones[0] + 1 == posiciones.length) {
+                    posiciones = Arrays.copyOf(posiciones, posiciones.length * 2);
+                    posicionesPorTermino.put(tokens.get(posicion), posiciones);
+                }
+                posiciones[++posiciones[0]] = posicion;
+            }
+        }
+        for (Map.Entry<String, int[]> entrada : posicionesPorTermino.entrySet()) {
+            terminos.computeIfAbsent(entrada.getKey(), t -> new Postings())
+                    .agregar(docId, entrada.getValue());
+        }
+    }
+
+    /**
+     * Hace sitio en el almacen para un documento; si se alcanzaria el tope
+     * descarta primero los documentos mas antiguos
+     * Debe llamarse con el candado de escritura tomado
+     */
+    private void asegurarAlmacen(int adicional) {
+        if ((long) tamanoAlmacen + adicional > MAX_ALMACEN) {
+            int objetivo = MAX_ALMACEN / 4 * 3 - adicional;
+            int primero = 0;
+            while (primero < totalDocumentos && tamanoAlmacen - desplazamientos[primero] > objetivo) {
+                primero++;
+            }
+            int antes = totalDocumentos;
+            compactar(primero, null);
+            Bitacora.aviso("Almacen del indice lleno: se descartaron los {} mensajes mas antiguos de {}",
+                    antes - totalDocumentos, antes);
+        }
+        if (tamanoAlmacen + adicional > almacen.length) {
+            long nuevo = Math.max((long) almacen.length * 2, (long) tamanoAlmacen + adicional);
+            almacen = Arrays.copyOf(almacen, (int) Math.min(nuevo, MAX_ALMACEN));
+        }
+    }
+
+    /**
+     * Reconstruye el almacen y los postings con los documentos a partir de
+     * 'primero' que no cumplan la condicion; los docIds se renumeran
+     * Debe llamarse con el candado de escritura tomado
+     *
+     * @param primero Primer docId a conservar
+     * @param descartar Documentos a quitar ademas (puede ser null)
+     */
+    private void compactar(int primero, Predicate<Mensaje> descartar) {
+        byte[] almacenAnterior = almacen;
+        int tamanoAnterior = tamanoAlmacen;
+        int[] desplazamientosAnteriores = desplazamientos;
+        int totalAnterior = totalDocumentos;
+
+        int conservados = primero < totalAnterior ? tamanoAnterior - desplazamientosAnteriores[primero] : 0;
+        almacen = new byte[Math.max(1 << 16, conservados)];
+        tamanoAlmacen = 0;
+        desplazamientos = new int[Math.max(1024, totalAnterior - primero)];
+        totalDocumentos = 0;
+        terminos.clear();
+
+        for (int docId = primero; docId < totalAnterior; docId++) {
+            int inicio = desplazamientosAnteriores[docId];
+            Mensaje mensaje = CodificadorMensaje.decodificar(
+                    ByteBuffer.wrap(almacenAnterior, inicio, tamanoAnterior - inicio));
+            if (descartar == null || !descartar.test(mensaje)) {
+                indexar(mensaje);
+            }
+        }
+    }
+
+    // =============================================
+    // CONSULTAS
+    // =============================================
+
+    /**
+     * Busca mensajes que contengan todos los terminos de la consulta
+     * Las partes entre comillas dobles se tratan como frases exactas
+     *
+     * @param consulta Texto de la consulta, por ejemplo: hola "buenos dias"
+     * @param limite Numero maximo de resultados
+     * @param filtro Condicion adicional sobre cada resultado (puede ser null)
+     * @return Mensajes encontrados, del mas reciente al mas antiguo
+     */
+    public List<Mensaje> buscar(String consulta, int limite, Predicate<Mensaje> filtro) {
+        List<List<String>> frases = analizarConsulta(consulta);
+        if (frases.isEmpty() || limite <= 0) {
+            return Collections.emptyList();
+        }
+
+        candado.readLock().lock();
+        try {
+            // Cursores de todos los terminos distintos, el mas raro primero
+            Map<String, Cursor> cursores = new HashMap<>();
+            for (List<String> frase : frases) {
+                for (String termino : frase) {
+                    Postings postings = terminos.get(termino);
+                    if (postings == null) {
+                        return Collections.emptyList();
+                    }
+                    cursores.computeIfAbsent(termino, t -> new Cursor(postings));
+                }
+            }
+            Cursor[] ordenados = cursores.values().toArray(new Cursor[0]);
+            Arrays.sort(ordenados, (x, y) -> Integer.compare(x.postings.documentos, y.postings.documentos));
+
+            // Recorrer ventanas de documentos de la mas reciente a la mas antigua;
+            // los saltos de cada lista permiten empezar cerca del final
+            List<Mensaje> resultado = new ArrayList<>(limite);
+            int fin = totalDocumentos;
+            int ventana = VENTANA_INICIAL;
+            while (fin > 0 && resultado.size() < limite) {
+                int inicio = Math.max(0, fin - ventana);
+                int[] aciertos = buscarEnVentana(ordenados, frases, cursores, inicio, fin,
+                        limite - resultado.size(), filtro);
+                for (int i = 1; i <= aciertos[0]; i++) {
+                    resultado.add(documento(aciertos[i]));
+                }
+                fin = inicio;
+                ventana = Math.min(ventana * 2, 1 << 30);
+            }
+            return resultado;
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    /**
+     * Interseccion de los cursores dentro de un rango de documentos
+     *
+     * @return Arreglo cuyo elemento 0 es la cantidad y los siguientes los
+     *         docIds encontrados, del mas reciente al mas antiguo
+     */
+    private int[] buscarEnVentana(Cursor[] ordenados, List<List<String>> frases,
+                                  Map<String, Cursor> cursores, int inicio, int fin,
+                                  int maximo, Predicate<Mensaje> filtro) {
+        for (Cursor cursor : ordenados) {
+            cursor.saltarA(inicio);
+        }
+
+        // Dentro de la ventana solo se guardan los ultimos 'maximo' aciertos
+        int[] anillo = new int[maximo];
+        int total = 0;
+
+        int candidato = ordenados[0].avanzarHasta(inicio);
+        while (candidato >= 0 && candidato < fin) {
+            int mayor = candidato;
+            for (Cursor cursor : ordenados) {
+                int doc = cursor.avanzarHasta(candidato);
+                if (doc < 0) {
+                    mayor = -1;
+                    break;
+                }
+                mayor = Math.max(mayor, doc);
+            }
+            if (mayor < 0) {
+                break;
+            }
+            if (mayor == candidato) {
+                if (cumpleFrases(frases, cursores)
+                        && (filtro == null || filtro.test(documento(candidato)))) {
+                    anillo[total % maximo] = candidato;
+                    total++;
+                }
+                candidato = ordenados[0].avanzarHasta(candidato + 1);
+            } else {
+                candidato = mayor;
+            }
+        }
+
+        int cantidad = Math.min(total, maximo);
+        int[] aciertos = new int[cantidad + 1];
+        aciertos[0] = cantidad;
+        for (int i = 1; i <= cantidad; i++) {
+            aciertos[i] = anillo[(total - i) % maximo];
+        }
+        return aciertos;
+    }
+
+    /**
+     * Verifica que las frases aparezcan con terminos en posiciones consecutivas
+     * Todos los cursores deben estar posicionados en el mismo documento
+     */
+    private boolean cumpleFrases(List<List<String>> frases, Map<String, Cursor> cursores) {
+        for (List<String> frase : frases) {
+            if (frase.size() < 2) {
+                continue;
+            }
+            int[] primeras = cursores.get(frase.get(0)).posiciones();
+            boolean encontrada = false;
+            for (int i = 1; i <= primeras[0] && !encontrada; i++) {
+                int inicio = primeras[i];
+                encontrada = true;
+                for (int k = 1; k < frase.size() && encontrada; k++) {
+                    encontrada = contiene(cursores.get(frase.get(k)).posiciones(), inicio + k);
+                }
+            }
+            if (!encontrada) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contiene(int[] posiciones, int valor) {
+        for (int i = 1; i <= posiciones[0]; i++) {
+            if (posiciones[i] == valor) {
+                return true;
+            }
+            if (posiciones[i] > valor) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private Mensaje documento(int docId) {
+        ByteBuffer buffer = ByteBuffer.wrap(almacen, desplazamientos[docId], tamanoAlmacen - desplazamientos[docId]);
+        return CodificadorMensaje.decodificar(buffer);
+    }
+
+    // =============================================
+    // ANALISIS DE TEXTO
+    // =============================================
+
+    /**
+     * Separa un texto en terminos normalizados: minusculas, sin acentos,
+     * solo letras y digitos
+     *
+     * @param texto Texto a separar
+     * @return Terminos en orden de aparicion
+     */
+    static List<String> tokenizar(String texto) {
+        List<String> tokens = new ArrayList<>();
+        if (texto == null || texto.isEmpty()) {
+            return tokens;
+        }
+        String normalizado = Normalizer.normalize(texto, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        for (String token : normalizado.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Convierte la consulta en una lista de frases; cada palabra suelta es
+     * una frase de un solo termino
+     *
+     * @param consulta Texto de la consulta
+     * @return Frases con sus terminos normalizados
+     */
+    static List<List<String>> analizarConsulta(String consulta) {
+        List<List<String>> frases = new ArrayList<>();
+        if (consulta == null) {
+            return frases;
+        }
+        String[] partes = consulta.split("\"", -1);
+        for (int i = 0; i < partes.length; i++) {
+            List<String> tokens = tokenizar(partes[i]);
+            if (i % 2 == 1) {
+                // Texto entre comillas: una frase
+                if (!tokens.isEmpty()) {
+                    frases.add(tokens);
+                }
+            } else {
+                for (String token : tokens) {
+                    frases.add(Collections.singletonList(token));
+                }
+            }
+        }
+        return frases;
+    }
+
+    // =============================================
+    // METODOS DE ACCESO (GETTERS)
+    // =============================================
+
+    public int getTotalDocumentos() {
+        candado.readLock().lock();
+        try {
+            return totalDocumentos;
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    public int getTotalTerminos() {
+        candado.readLock().lock();
+        try {
+            return terminos.size();
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    public boolean estaReconstruyendo() {
+        return reconstruyendo;
+    }
+
+    public long getDescartados() {
+        return pendientes.getDescartados();
+    }
+
+    // =============================================
+    // LISTAS DE APARICIONES COMPRIMIDAS
+    // =============================================
+
+    /**
+     * Postings de un termino. Por cada documento guarda:
+     * varint(docId - docAnterior), varint(numPosiciones), varint(delta de cada posicion)
+     * Cada INTERVALO_SALTOS documentos se anota un salto (docAnterior, desplazamiento)
+     * para poder empezar a decodificar a mitad de la lista
+     */
+    private static final class Postings {
+        byte[] datos = new byte[16];
+        int longitud;
+        int ultimoDoc = -1;
+        int documentos;
+
+        int[] saltosDoc = new int[0];
+        int[] saltosDesplazamiento = new int[0];
+        int numSaltos;
+
+        void agregar(int docId, int[] posiciones) {
+            if (documentos % INTERVALO_SALTOS == 0) {
+                if (numSaltos == saltosDoc.length) {
+                    int nuevo = Math.max(4, numSaltos * 2);
+                    saltosDoc = Arrays.copyOf(saltosDoc, nuevo);
+                    saltosDesplazamiento = Arrays.copyOf(saltosDesplazamiento, nuevo);
+                }
+                saltosDoc[numSaltos] = ultimoDoc;
+                saltosDesplazamiento[numSaltos] = longitud;
+                numSaltos++;
+            }
+            escribirVarint(docId - ultimoDoc);
+            escribirVarint(posiciones[0]);
+            int anterior = 0;
+            for (int i = 1; i <= posiciones[0]; i++) {
+                escribirVarint(posiciones[i] - anterior);
+                anterior = posiciones[i];
+            }
+            ultimoDoc = docId;
+            documentos++;
+        }
+
+        private void escribirVarint(int valor) {
+            if (longitud + 5 > datos.length) {
+                datos = Arrays.copyOf(datos, datos.length * 2);
+            }
+            while ((valor & ~0x7F) != 0) {
+                datos[longitud++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            datos[longitud++] = (byte) valor;
+        }
+    }
+
+    /**
+     * Recorre secuencialmente los postings de un termino decodificando
+     * documentos; las posiciones solo se decodifican cuando se piden
+     */
+    private static final class Cursor {
+        final Postings postings;
+        int desplazamiento;
+        int docActual = -1;
+        int inicioPosiciones;
+        int numPosiciones;
+        int[] posiciones = new int[8];
+        boolean posicionesLeidas;
+
+        /**
+         * true si el desplazamiento apunta a las posiciones del documento actual
+         */
+        boolean posicionesPendientes;
+
+        /**
+         * true si ya no quedan documentos
+         */
+        boolean agotado;
+
+        Cursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        /**
+         * Reposiciona el cursor en el ultimo salto anterior al documento indicado
+         *
+         * @param objetivo docId a partir del cual se quiere leer
+         */
+        void saltarA(int objetivo) {
+            int bajo = 0;
+            int alto = postings.numSaltos - 1;
+            int elegido = 0;
+            while (bajo <= alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (postings.saltosDoc[medio] < objetivo) {
+                    elegido = medio;
+                    bajo = medio + 1;
+                } else {
+                    alto = medio - 1;
+                }
+            }
+            desplazamiento = postings.saltosDesplazamiento[elegido];
+            docActual = postings.saltosDoc[elegido];
+            posicionesPendientes = false;
+            agotado = false;
+        }
+
+        /**
+         * Avanza hasta el primer documento mayor o igual al objetivo
+         *
+         * @param objetivo docId buscado
+         * @return docId alcanzado, o -1 si se agotaron los postings
+         */
+        int avanzarHasta(int objetivo) {
+            if (agotado) {
+                return -1;
+            }
+            if (posicionesPendientes && docActual >= objetivo) {
+                return docActual;
+            }
+            while (desplazamiento < postings.longitud) {
+                if (posicionesPendientes) {
+                    saltarPosiciones();
+                }
+                docActual += leerVarint();
+                numPosiciones = leerVarint();
+                inicioPosiciones = desplazamiento;
+                posicionesPendientes = true;
+                posicionesLeidas = false;
+                if (docActual >= objetivo) {
+                    return docActual;
+                }
+            }
+            agotado = true;
+            return -1;
+        }
+
+        /**
+         * Posiciones del documento actual; el elemento 0 es la cantidad
+         */
+        int[] posiciones() {
+            if (!posicionesLeidas) {
+                if (posiciones.length < numPosiciones + 1) {
+                    posiciones = new int[numPosiciones + 1];
+                }
+                int guardado = desplazamiento;
+                desplazamiento = inicioPosiciones;
+                int valor = 0;
+                for (int i = 1; i <= numPosiciones; i++) {
+                    valor += leerVarint();
+                    posiciones[i] = valor;
+                }
+                posiciones[0] = numPosiciones;
+                desplazamiento = guardado;
+                posicionesLeidas = true;
+            }
+            return posiciones;
+        }
+
+        private void saltarPosiciones() {
+            desplazamiento = inicioPosiciones;
+            for (int i = 0; i < numPosiciones; i++) {
+                while ((postings.datos[desplazamiento++] & 0x80) != 0) {
+                    // continuar hasta el ultimo byte del varint
+                }
+            }
+            posicionesPendientes = false;
+        }
+
+        private int leerVarint() {
+            int valor = 0;
+            int corrimiento = 0;
+            byte b;
+            do {
+                b = postings.datos[desplazamiento++];
+                valor |= (b & 0x7F) << corrimiento;
+                corrimiento += 7;
+            } while ((b & 0x80) != 0);
+            return valor;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package servidor;
 
+import common.Bitacora;
+import common.Mensaje;
 import common.Protocolo;
 import java.io.*;
 import java.net.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.regex.Pattern;
 
 /**
  * MANEJADOR DE CLIENTES - GESTION DE CONEXIONES INDIVIDUALES
@@ -18,18 +24,25 @@ import java.util.List;
  * - Enviar respuestas y mensajes al cliente
  * - Gestionar la desconexion y liberacion de recursos
  * - Interpretar y ejecutar diferentes tipos de envio de mensajes
+ * - Negociar version y capacidades con los clientes que lo piden (PROTOCOLO|...)
  * 
  * @author Angel  
  * @version 1.0
  */
 public class ManejadorClientes implements Runnable {
     
+    /**
+     * HISTORY como palabra completa y solo con numeros detras (separados por
+     * espacios o '|'): "history is fun" es texto normal, no el comando
+     */
+    private static final Pattern COMANDO_HISTORY = Pattern.compile("(?i)HISTORY(?:[\\s|]+-?\\d+){0,2}\\s*");
+    
     // =============================================
     // ATRIBUTOS DE LA CONEXION
     // =============================================
     
     /**
-     * Socket de conexion con el cliente (solo para TCP)
+     * Socket de conexion con el cliente (TCP, o el adaptador de ServidorUnix)
      * Para UDP, este valor sera null
      */
     private Socket clienteSocket;
@@ -42,16 +55,84 @@ public class ManejadorClientes implements Runnable {
     
     /**
      * Tipo de protocolo usado por el cliente
-     * Valores: Protocolo.TCP o Protocolo.UDP
+     * Valores: Protocolo.TCP, Protocolo.UNIX o Protocolo.UDP
      */
     private int tipoProtocolo;
     
+    /**
+     * Instante de la conexion (currentTimeMillis), para la duracion de la sesion
+     */
+    private final long conectadoDesde = System.currentTimeMillis();
+    
     /**
      * Bandera que indica si el manejador esta activo
      * false = conexion cerrada, true = conexion activa
      */
     private boolean activo = true;
     
+    /**
+     * Apodo registrado con CONEXION|apodo (null si no se registro)
+     */
+    private volatile String apodo;
+    
+    /**
+     * Sala a la que se unio con CONEXION|apodo|sala (null si ninguna)
+     */
+    private volatile String sala;
+    
+    /**
+     * Credencial presentada con CLAVE|credencial (null si ninguna)
+     */
+    private volatile String credencial;
+    
+    /**
+     * true si el apodo actual es suyo: fue el primero en registrarlo o
+     * presento su credencial. Solo el dueno recibe el buzon del apodo y
+     * sus mensajes privados en SEARCH
+     */
+    private volatile boolean duenoDelApodo;
+    
+    /**
+     * Modo sonda (PROBE on): los mensajes enrutados llegan con sus marcas de tiempo
+     */
+    private volatile boolean sonda;
+    
+    // =============================================
+    // SESION REANUDABLE (ver ReanudacionSesiones)
+    // =============================================
+    
+    /**
+     * Ordena las entregas con secuencia frente al cambio a sesion reanudable,
+     * para que ningun mensaje llegue dos veces ni se pierda en el cambio
+     */
+    private final Object candadoSesion = new Object();
+    
+    /**
+     * Con sesion (SESION on o REANUDAR) los mensajes enrutados llevan "#secuencia "
+     */
+    private boolean conSesion;
+    
+    /**
+     * Instante en que se envio el ultimo token (para renovarlo a tiempo)
+     */
+    private long tokenEmitidoMs;
+    
+    /**
+     * Ultima secuencia cubierta al empezar la sesion: REANUDAR no repite nada anterior
+     */
+    private long inicioSesion;
+    
+    /**
+     * Las entregas en vivo con secuencia menor ya van en la repeticion
+     */
+    private long minimaEnVivo;
+    
+    /**
+     * Secuencias entregadas antes de REANUDAR, que no hay que repetir
+     */
+    private final long[] entregadasSinSesion = new long[64];
+    private int totalSinSesion;
+    
     // =============================================
     // FLUJOS DE COMUNICACION (SOLO TCP)
     // =============================================
@@ -63,22 +144,22 @@ public class ManejadorClientes implements Runnable {
     private BufferedReader entrada;
     
     /**
-     * Escritor para enviar mensajes al cliente
+     * Cola de escritura asincrona hacia el cliente
      * null para conexiones UDP
      */
-    private PrintWriter salida;
+    private ColaSalida salida;
     
     // =============================================
     // CONSTRUCTOR
     // =============================================
     
     /**
-     * Constructor para clientes TCP
+     * Constructor para clientes TCP y UNIX
      * Inicializa los flujos de entrada/salida y configura la conexion
      * 
      * @param socket Socket de conexion con el cliente
      * @param idCliente Identificador unico del cliente
-     * @param tipoProtocolo Tipo de protocolo (debe ser Protocolo.TCP)
+     * @param tipoProtocolo Tipo de protocolo (Protocolo.TCP o Protocolo.UNIX)
      */
     public ManejadorClientes(Socket socket, String idCliente, int tipoProtocolo) {
         this.clienteSocket = socket;
@@ -87,8 +168,8 @@ public class ManejadorClientes implements Runnable {
         
         try {
             // Configurar flujos de entrada/salida solo para TCP
-            this.entrada = new BufferedReader(new InputStreamReader(clienteSocket.getInputStream()));
-            this.salida = new PrintWriter(clienteSocket.getOutputStream(), true);
+            this.entrada = new BufferedReader(new InputStreamReader(new EntradaContada(clienteSocket.getInputStream())));
+            this.salida = new ColaSalida(clienteSocket.getOutputStream(), idCliente);
             
         } catch (IOException e) {
             System.err.println("Error configurando flujos para cliente: " + idCliente);
@@ -103,43 +184,41 @@ public class ManejadorClientes implements Runnable {
     /**
      * Metodo principal que se ejecuta cuando se inicia el hilo
      * Contiene el bucle principal de recepcion de mensajes
-     * Solo funciona para clientes TCP
+     * Solo funciona para clientes con conexion (TCP o UNIX)
      */
     @Override
     public void run() {
-        System.out.println("Iniciando manejador para cliente: " + idCliente + 
-                          " (" + Protocolo.getDescripcionProtocolo(tipoProtocolo) + ")");
+        Bitacora.info("Iniciando manejador para cliente: {} ({})", idCliente,
+                      Protocolo.getDescripcionProtocolo(tipoProtocolo));
         
-        // Enviar mensaje de bienvenida al cliente
-        enviarMensaje("Bienvenido al servidor! Tu ID: " + idCliente);
-        enviarMensaje("Comandos disponibles:");
-        enviarMensaje("  BROADCAST:mensaje  -> Enviar a todos");
-        enviarMensaje("  UNICAST:destino:mensaje -> Mensaje privado");
-        enviarMensaje("  ANYCAST:mensaje    -> Enviar a cualquier cliente");
-        enviarMensaje("  LISTA               -> Ver clientes conectados");
+        // La bienvenida sale sin esperar al cliente; el que negocia manda
+        // PROTOCOLO|... como un comando mas y recibe la respuesta despues
+        enviarBienvenida();
         
-        // Bucle principal de recepcion de mensajes (solo para TCP)
-        while (activo && tipoProtocolo == Protocolo.TCP) {
+        // Reproducir los ultimos mensajes publicos para dar contexto
+        reproducirHistorial();
+        
+        // Bucle principal de recepcion de mensajes (TCP o UNIX)
+        while (activo && tipoProtocolo != Protocolo.UDP) {
             try {
                 // Leer mensaje del cliente
                 String mensaje = entrada.readLine();
+                long recibidoNanos = System.nanoTime();
                 
                 // Si mensaje es null, cliente se desconecto
                 if (mensaje == null) {
-                    System.out.println("Cliente desconectado: " + idCliente);
+                    Bitacora.info("Cliente desconectado: {}", idCliente);
                     activo = false;
                     break;
                 }
                 
-                System.out.println("Mensaje de " + idCliente + ": " + mensaje);
-                
                 // Procesar el mensaje recibido
-                procesarMensaje(mensaje);
+                procesarLinea(mensaje, recibidoNanos);
                 
             } catch (IOException e) {
                 // Manejar errores de lectura
                 if (activo) {
-                    System.err.println("Error leyendo mensaje de " + idCliente + ": " + e.getMessage());
+                    Bitacora.aviso("Error leyendo mensaje de {}: {}", idCliente, e.getMessage());
                 }
                 activo = false;
             }
@@ -149,6 +228,49 @@ public class ManejadorClientes implements Runnable {
         cerrarConexion();
     }
     
+    /**
+     * Procesa una linea leida del socket dentro de su traza
+     * 
+     * @param mensaje Linea recibida
+     * @param recibidoNanos System.nanoTime() al leerla
+     */
+    private void procesarLinea(String mensaje, long recibidoNanos) {
+        Bitacora.depuracion("Mensaje de {}: {}", idCliente, mensaje);
+        RegistroTrazas.iniciar(idCliente, mensaje, recibidoNanos);
+        try {
+            procesarMensaje(mensaje, recibidoNanos);
+        } finally {
+            RegistroTrazas.terminar();
+        }
+        synchronized (candadoSesion) {
+            renovarTokenSiCaduca();
+        }
+    }
+    
+    /**
+     * Envia la bienvenida y la lista de comandos en texto plano
+     */
+    private void enviarBienvenida() {
+        List<String> lineas = new ArrayList<>(16);
+        lineas.add("Bienvenido al servidor! Tu ID: " + idCliente);
+        lineas.add("Comandos disponibles:");
+        lineas.add("  BROADCAST:mensaje  -> Enviar a todos");
+        lineas.add("  CONEXION|apodo[|sala] -> Registrar tu apodo (y entrar a una sala)");
+        lineas.add("  CLAVE|credencial    -> Demostrar que el apodo es tuyo (antes de CONEXION)");
+        lineas.add("  UNICAST:destino:mensaje -> Mensaje privado (ID o apodo)");
+        lineas.add("  ANYCAST:mensaje    -> Enviar a cualquier cliente");
+        lineas.add("  MULTICAST:sala:mensaje -> Enviar a los miembros de una sala");
+        lineas.add("  LISTA               -> Ver clientes conectados");
+        lineas.add("  HISTORY <n> [pagina] -> Ver mensajes recientes");
+        lineas.add("  SEARCH <terminos>   -> Buscar en el historial (\"frase exacta\")");
+        lineas.add("  PROBE on|off        -> Recibir las marcas de tiempo del servidor");
+        lineas.add("  PRESENCIA on|off    -> Recibir la lista de usuarios y sus altas y bajas");
+        lineas.add("  SESION on | REANUDAR|token|n -> Sesion reanudable: recibir lo perdido desde n");
+        lineas.add("  PROTOCOLO|version|capacidades -> Negociar version y capacidades ("
+                + String.join(",", capacidadesServidor()) + ")");
+        enviarLote(lineas);
+    }
+    
     // =============================================
     // PROCESAMIENTO DE MENSAJES
     // =============================================
@@ -159,17 +281,38 @@ public class ManejadorClientes implements Runnable {
      * - BROADCAST:mensaje -> Envia a todos los clientes
      * - UNICAST:destino:mensaje -> Envia a cliente especifico
      * - ANYCAST:mensaje -> Envia a cualquier cliente disponible
+     * - MULTICAST:sala:mensaje -> Envia a los miembros de una sala
+     * - CONEXION|apodo[|sala] o 100|apodo[|sala] -> Registra el apodo y la sala
+     * - CLAVE|credencial -> Presenta la credencial del apodo que se va a registrar
      * - LISTA -> Devuelve lista de clientes conectados
+     * - HISTORY n [pagina] -> Devuelve mensajes recientes desde memoria
+     * - SEARCH terminos -> Busca en el historial con el indice invertido
+     * - PROBE on|off -> Activa o desactiva el modo sonda
+     * - PRESENCIA on|off -> Suscribe a la lista de usuarios (ver PresenciaClientes)
+     * - SESION on -> Sesion reanudable con token (ver ReanudacionSesiones)
+     * - REANUDAR|token|n -> Reanuda una sesion y repite lo posterior a la secuencia n
+     * - PROTOCOLO|version|capacidades -> Acuerda version y capacidades de la sesion
      * - mensaje normal -> Echo simple (comportamiento por defecto)
      * 
+     * Visible en el paquete para los benchmarks de bench/
+     * 
      * @param mensaje Mensaje de texto recibido del cliente
+     * @param recibidoNanos System.nanoTime() al leer la linea del socket
      */
-    private void procesarMensaje(String mensaje) {
+    void procesarMensaje(String mensaje, long recibidoNanos) {
+        int tipoEnvio = tipoEnvioDe(mensaje);
+        if (tipoEnvio < 0) {
+            Metricas.COMANDOS.increment();
+        } else {
+            Metricas.mensajeEntrante(tipoEnvio);
+        }
+        EventosJFR.mensajeRecibido(idCliente, tipoEnvio, mensaje.length());
+        
         // Verificar si es un comando especial
         if (mensaje.toUpperCase().startsWith("BROADCAST:")) {
             // Formato: BROADCAST:mensaje
             String contenido = mensaje.substring(10); // Remover "BROADCAST:"
-            ServidorMixto.broadcastMensaje(contenido, this.idCliente);
+            ServidorMixto.broadcastMensaje(contenido, this.idCliente, recibidoNanos);
             
         } else if (mensaje.toUpperCase().startsWith("UNICAST:")) {
             // Formato: UNICAST:destino:mensaje
@@ -177,7 +320,7 @@ public class ManejadorClientes implements Runnable {
             if (partes.length == 3) {
                 String destino = partes[1];
                 String contenido = partes[2];
-                boolean exito = ServidorMixto.unicastMensaje(contenido, destino, this.idCliente);
+                boolean exito = ServidorMixto.unicastMensaje(contenido, destino, this.idCliente, recibidoNanos);
                 
                 if (!exito) {
                     enviarMensaje("ERROR: Cliente destino no encontrado: " + destino);
@@ -189,7 +332,7 @@ public class ManejadorClientes implements Runnable {
         } else if (mensaje.toUpperCase().startsWith("ANYCAST:")) {
             // Formato: ANYCAST:mensaje
             String contenido = mensaje.substring(8); // Remover "ANYCAST:"
-            String destino = ServidorMixto.anycastMensaje(contenido, this.idCliente);
+            String destino = ServidorMixto.anycastMensaje(contenido, this.idCliente, recibidoNanos);
             
             if (destino != null) {
                 enviarMensaje("ANYCAST enviado a: " + destino);
@@ -197,17 +340,409 @@ public class ManejadorClientes implements Runnable {
                 enviarMensaje("ERROR: No hay clientes disponibles para ANYCAST");
             }
             
+        } else if (mensaje.toUpperCase().startsWith("MULTICAST:")) {
+            // Formato: MULTICAST:sala:mensaje
+            String[] partes = mensaje.split(":", 3);
+            if (partes.length == 3 && !partes[1].isEmpty()) {
+                int entregados = ServidorMixto.multicastMensaje(partes[1], partes[2], this.idCliente, recibidoNanos);
+                enviarMensaje("MULTICAST enviado a " + entregados + " miembros de " + partes[1]);
+            } else {
+                enviarMensaje("ERROR: Formato MULTICAST incorrecto. Use: MULTICAST:sala:mensaje");
+            }
+            
+        } else if (mensaje.toUpperCase().startsWith("CONEXION|")
+                || mensaje.startsWith(Protocolo.CONEXION + "|")) {
+            // Formato: CONEXION|apodo[|sala[|REDIRIGIDO]] (o el codigo numerico 100|...)
+            String[] partes = mensaje.split("\\|", 4);
+            if (partes.length >= 3 && !partes[2].trim().isEmpty()) {
+                conectarEnSala(partes[1].trim(), partes[2].trim(),
+                        partes.length == 4 && Protocolo.MARCA_REDIRIGIDO.equalsIgnoreCase(partes[3].trim()));
+            } else {
+                registrarApodo(partes.length > 1 ? partes[1].trim() : "");
+            }
+            
+        } else if (mensaje.toUpperCase().startsWith("CLAVE|")) {
+            // Formato: CLAVE|credencial (antes de CONEXION o REANUDAR)
+            credencial = mensaje.substring(6).trim();
+            
         } else if (mensaje.equalsIgnoreCase("LISTA")) {
             // Mostrar lista de clientes conectados
             mostrarListaClientes();
             
+        } else if (mensaje.toUpperCase().startsWith("SEARCH ")) {
+            // Formato: SEARCH terminos
+            buscarMensajes(mensaje.substring(7).trim());
+            
+        } else if (COMANDO_HISTORY.matcher(mensaje).matches()) {
+            // Formato: HISTORY n [pagina] (ver COMANDO_HISTORY)
+            mostrarHistorial(mensaje);
+            
+        } else if (mensaje.equalsIgnoreCase("PROBE") || mensaje.toUpperCase().startsWith("PROBE ")) {
+            // Formato: PROBE on|off (solo la palabra completa: "PROBEMOS..." es texto)
+            String valor = mensaje.substring(5).trim();
+            if (valor.equalsIgnoreCase("on") || valor.equalsIgnoreCase("off")) {
+                sonda = valor.equalsIgnoreCase("on");
+                enviarMensaje("PROBE " + (sonda ? "activado: SONDA|recibido|encolado|escritura|mensaje (ns)"
+                                                : "desactivado"));
+            } else {
+                enviarMensaje("ERROR: Use PROBE on o PROBE off");
+            }
+            
+        } else if (mensaje.equalsIgnoreCase("PRESENCIA") || mensaje.toUpperCase().startsWith("PRESENCIA ")) {
+            // Formato: PRESENCIA on|off (solo la palabra completa, no "presenciaste...")
+            String valor = mensaje.substring(9).trim();
+            if (valor.equalsIgnoreCase("on")) {
+                PresenciaClientes.suscribir(this);
+            } else if (valor.equalsIgnoreCase("off")) {
+                PresenciaClientes.desuscribir(this);
+                enviarMensaje("PRESENCIA desactivada");
+            } else {
+                enviarMensaje("ERROR: Use PRESENCIA on o PRESENCIA off");
+            }
+            
+        } else if (mensaje.equalsIgnoreCase("SESION on")) {
+            iniciarSesion();
+            
+        } else if (mensaje.toUpperCase().startsWith("REANUDAR|")) {
+            // Formato: REANUDAR|token|n
+            String[] partes = mensaje.split("\\|", 3);
+            reanudarSesion(partes[1], partes.length > 2 ? partes[2].trim() : "");
+            
+        } else if (mensaje.toUpperCase().startsWith("PROTOCOLO|")) {
+            // Formato: PROTOCOLO|version|cap1,cap2,...
+            String[] partes = mensaje.split("\\|", 3);
+            negociarProtocolo(partes[1].trim(), partes.length > 2 ? partes[2] : "");
+            
         } else {
             // Mensaje normal - comportamiento de echo
             enviarMensaje("Echo: " + mensaje);
-            System.out.println("Mensaje procesado de " + idCliente);
+            Bitacora.depuracion("Mensaje procesado de {}", idCliente);
+        }
+    }
+    
+    /**
+     * Tipo de envio de un comando del cliente, para las metricas
+     * 
+     * @param mensaje Linea recibida
+     * @return Tipo de envio, o -1 si es otro comando
+     */
+    private static int tipoEnvioDe(String mensaje) {
+        String prefijo = mensaje.length() > 10 ? mensaje.substring(0, 10).toUpperCase() : mensaje.toUpperCase();
+        if (prefijo.startsWith("BROADCAST:")) return Protocolo.BROADCAST;
+        if (prefijo.startsWith("UNICAST:")) return Protocolo.UNICAST;
+        if (prefijo.startsWith("MULTICAST:")) return Protocolo.MULTICAST;
+        if (prefijo.startsWith("ANYCAST:")) return Protocolo.ANYCAST;
+        return -1;
+    }
+    
+    /**
+     * Atiende CONEXION con sala: si la sala pertenece a otro nodo de la
+     * federacion, redirige al cliente; si no, registra el apodo y lo une a la sala
+     * Una conexion que ya llego redirigida no se vuelve a redirigir: durante
+     * una particion los nodos pueden ver anillos distintos y el cliente
+     * rebotaria entre ellos
+     * 
+     * @param solicitado Apodo solicitado
+     * @param nombreSala Sala a la que quiere entrar
+     * @param redirigido true si el cliente viene de seguir un REDIRECT
+     */
+    private void conectarEnSala(String solicitado, String nombreSala, boolean redirigido) {
+        if (!nombreSala.matches("[A-Za-z0-9_.-]{1,32}")) {
+            enviarMensaje("ERROR: Nombre de sala invalido (use letras, numeros, '_', '.', '-'; maximo 32)");
+            return;
+        }
+        String direccion = ServidorMixto.direccionDuenoSala(nombreSala);
+        if (direccion != null && redirigido) {
+            Bitacora.aviso("Sala {} asignada a {} por el anillo, pero el cliente ya llego redirigido: se queda aqui",
+                    nombreSala, direccion);
+            direccion = null;
+        }
+        if (direccion != null) {
+            redirigir(direccion, nombreSala);
+            return;
+        }
+        if (!registrarApodo(solicitado)) {
+            return;
+        }
+        if (sala != null && !sala.equals(nombreSala)) {
+            enviarMensaje("ERROR: Ya estas en la sala " + sala);
+            return;
+        }
+        sala = nombreSala;
+        ServidorMixto.unirseASala(nombreSala, idCliente);
+        CambiosSesiones.actualizado(idCliente);
+        enviarMensaje("Sala: " + nombreSala);
+        reemitirToken();
+    }
+    
+    /**
+     * Indica al cliente que se conecte a otro nodo y cierra la conexion
+     * Formato: REDIRECT|host:puerto|sala
+     * 
+     * @param direccion host:puerto del nodo dueno de la sala
+     * @param nombreSala Sala que motivo la redireccion
+     */
+    public void redirigir(String direccion, String nombreSala) {
+        Bitacora.info("Redirigiendo {} a {} (sala {})", idCliente, direccion, nombreSala);
+        despedir("REDIRECT|" + direccion + "|" + nombreSala);
+    }
+    
+    /**
+     * Desconecta al cliente por orden del administrador
+     * Formato: EXPULSADO|motivo
+     * 
+     * @param motivo Motivo que se le muestra al cliente
+     */
+    public void expulsar(String motivo) {
+        Bitacora.info("Expulsando a {}: {}", idCliente, motivo);
+        despedir("EXPULSADO|" + motivo);
+    }
+    
+    /**
+     * Envia una ultima linea, espera a que salga y cierra el socket
+     * 
+     * @param ultimaLinea Linea de despedida
+     */
+    private void despedir(String ultimaLinea) {
+        enviarMensaje(ultimaLinea);
+        salida.cerrar(500);
+        try {
+            // El hilo lector detecta el cierre y libera el manejador
+            clienteSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando conexion de " + idCliente + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra el apodo del cliente y le entrega en un solo lote los
+     * mensajes privados que recibio mientras estaba desconectado
+     * 
+     * @param solicitado Apodo solicitado por el cliente
+     * @return true si el apodo quedo registrado
+     */
+    private boolean registrarApodo(String solicitado) {
+        return registrarApodo(solicitado, false, secuencia -> false);
+    }
+    
+    /**
+     * Registra el apodo omitiendo del buzon los mensajes que ya se van a repetir
+     * 
+     * @param solicitado Apodo solicitado por el cliente
+     * @param duenoPorToken true si un token de sesion firmado ya demuestra que es su dueno
+     * @param repetido Secuencias que llegaran en la repeticion de la sesion
+     * @return true si el apodo quedo registrado
+     */
+    private boolean registrarApodo(String solicitado, boolean duenoPorToken, LongPredicate repetido) {
+        if (!solicitado.matches("[A-Za-z0-9_.-]{1,32}")) {
+            enviarMensaje("ERROR: Apodo invalido (use letras, numeros, '_', '.', '-'; maximo 32)");
+            return false;
+        }
+        if (solicitado.equals(apodo)) {
+            return true;
+        }
+        // Un apodo nuevo es de quien lo registra primero; uno conocido, de quien
+        // presenta su credencial
+        boolean presentoCredencial = duenoPorToken
+                || ReanudacionSesiones.verificarCredencial(solicitado, credencial);
+        boolean dueno = presentoCredencial || !ServidorMixto.esApodoConocido(solicitado);
+        if (!ServidorMixto.registrarApodo(solicitado, idCliente, presentoCredencial)) {
+            enviarMensaje("ERROR: El apodo ya esta en uso: " + solicitado);
+            return false;
+        }
+        String anterior = getNombrePresencia();
+        this.apodo = solicitado;
+        this.duenoDelApodo = dueno;
+        CambiosSesiones.actualizado(idCliente);
+        PresenciaClientes.renombrado(anterior, solicitado);
+        enviarMensaje("Apodo registrado: " + solicitado);
+        if (!dueno) {
+            enviarMensaje("AVISO: Sin la credencial de " + solicitado
+                    + " no se entregan sus mensajes guardados ni sus privados en SEARCH (use CLAVE|credencial)");
+            reemitirToken();
+            return true;
+        }
+        if (!presentoCredencial) {
+            enviarMensaje("CLAVE|" + solicitado + "|" + ReanudacionSesiones.emitirCredencial(solicitado));
+        }
+        reemitirToken();
+        
+        List<Mensaje> pendientes = ServidorMixto.retirarBuzon(solicitado);
+        pendientes.removeIf(m -> repetido.test(m.getSecuencia()));
+        if (!pendientes.isEmpty()) {
+            List<String> lineas = new ArrayList<>(pendientes.size() + 1);
+            lineas.add("=== " + pendientes.size() + " MENSAJES RECIBIDOS MIENTRAS ESTABAS DESCONECTADO ===");
+            for (Mensaje m : pendientes) {
+                lineas.add("[PRIVADO de " + m.getRemitente() + " - "
+                        + new SimpleDateFormat("dd/MM HH:mm").format(m.getTimestamp()) + "] " + m.getContenido());
+            }
+            enviarLote(lineas);
+        }
+        return true;
+    }
+    
+    /**
+     * Atiende PROTOCOLO|version|capacidades: acuerda la menor de las dos
+     * versiones y las capacidades que ambos soportan, y las activa igual
+     * que sus comandos (PRESENCIA on, SESION on)
+     * 
+     * @param version Version que habla el cliente
+     * @param ofrecidas Capacidades del cliente separadas por comas
+     */
+    private void negociarProtocolo(String version, String ofrecidas) {
+        int pedida;
+        try {
+            pedida = Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            pedida = 0;
+        }
+        if (pedida < 1) {
+            enviarMensaje("ERROR: Use PROTOCOLO|version|capacidades");
+            return;
+        }
+        
+        int acordada = Math.min(pedida, Protocolo.VERSION_PROTOCOLO);
+        List<String> comunes = acordada >= 2
+                ? Protocolo.capacidadesComunes(ofrecidas, capacidadesServidor())
+                : new ArrayList<>();
+        enviarMensaje("PROTOCOLO|" + acordada + "|" + String.join(",", comunes) + "|" + idCliente);
+        Bitacora.info("Protocolo v{} acordado con {}: {}", acordada, idCliente, comunes);
+        
+        if (comunes.contains(Protocolo.CAPACIDAD_PRESENCIA)) {
+            PresenciaClientes.suscribir(this);
+        }
+        if (comunes.contains(Protocolo.CAPACIDAD_SESION)) {
+            iniciarSesion();
         }
     }
     
+    /**
+     * Capacidades que ofrece este servidor, en orden de preferencia
+     * SESION solo si hay diario de mensajes para repetir lo perdido
+     */
+    private static List<String> capacidadesServidor() {
+        List<String> capacidades = new ArrayList<>(2);
+        if (ReanudacionSesiones.estaDisponible()) {
+            capacidades.add(Protocolo.CAPACIDAD_SESION);
+        }
+        capacidades.add(Protocolo.CAPACIDAD_PRESENCIA);
+        return capacidades;
+    }
+    
+    /**
+     * Atiende SESION on: desde aqui los mensajes enrutados llevan su
+     * secuencia y el cliente recibe un token para reanudar
+     */
+    private void iniciarSesion() {
+        if (!ReanudacionSesiones.estaDisponible()) {
+            enviarMensaje("ERROR: Reanudacion de sesiones no disponible (sin diario de mensajes)");
+            return;
+        }
+        synchronized (candadoSesion) {
+            long contigua = ReanudacionSesiones.getContigua();
+            if (!conSesion) {
+                inicioSesion = contigua;
+            }
+            conSesion = true;
+            enviarMensaje(lineaToken() + "|" + contigua);
+        }
+    }
+    
+    /**
+     * Atiende REANUDAR|token|n: recupera apodo y sala de la sesion anterior
+     * y repite en un solo lote los mensajes posteriores a n que le tocaban
+     * 
+     * @param token Token recibido en la linea SESION
+     * @param ultima Ultima secuencia que recibio el cliente
+     */
+    private void reanudarSesion(String token, String ultima) {
+        ReanudacionSesiones.Sesion sesion = ReanudacionSesiones.verificar(token);
+        long desde;
+        try {
+            desde = Long.parseLong(ultima);
+        } catch (NumberFormatException e) {
+            desde = -1;
+        }
+        if (sesion == null || desde < 0) {
+            enviarMensaje("REANUDADO|0|RECHAZADO");
+            iniciarSesion();
+            return;
+        }
+        
+        // Nada anterior al inicio de la sesion, aunque el cliente pida desde 0
+        desde = Math.max(desde, sesion.inicio);
+        final long ultimaRecibida = desde;
+        long primeraRetenida = ReanudacionSesiones.getPrimeraRetenida();
+        if (sesion.apodo != null) {
+            // Si el apodo ya es de esta conexion (o el token es suyo) no hay a quien expulsar
+            if (!idCliente.equals(sesion.idCliente) && !sesion.apodo.equals(apodo)) {
+                ServidorMixto.liberarApodo(sesion.apodo, sesion.idCliente);
+            }
+            if (registrarApodo(sesion.apodo, sesion.dueno, s -> s > ultimaRecibida && s >= primeraRetenida)
+                    && sesion.sala != null) {
+                conectarEnSala(sesion.apodo, sesion.sala, false);
+            }
+            if (!activo || clienteSocket.isClosed()) {
+                // Redirigido a otro nodo
+                return;
+            }
+        }
+        
+        synchronized (candadoSesion) {
+            long hasta = ReanudacionSesiones.getContigua();
+            boolean completo = ReanudacionSesiones.cubre(desde);
+            List<String> lineas = ReanudacionSesiones.repetir(desde, hasta,
+                    m -> sesion.esDestinatario(m, idCliente) && !entregadaSinSesion(m.getSecuencia()));
+            conSesion = true;
+            inicioSesion = sesion.inicio;
+            minimaEnVivo = hasta + 1;
+            enviarMensaje("REANUDADO|" + lineas.size() + "|" + (completo ? "COMPLETO" : "INCOMPLETO"));
+            enviarLote(lineas);
+            enviarMensaje(lineaToken() + "|" + hasta);
+        }
+        Bitacora.info("Sesion de {} reanudada en {} desde la secuencia {}", sesion.idCliente, idCliente, desde);
+    }
+    
+    private boolean entregadaSinSesion(long secuencia) {
+        for (int i = 0; i < totalSinSesion; i++) {
+            if (entregadasSinSesion[i] == secuencia) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Envia un token nuevo tras cambiar de apodo o de sala
+     */
+    private void reemitirToken() {
+        synchronized (candadoSesion) {
+            if (conSesion) {
+                enviarMensaje(lineaToken());
+            }
+        }
+    }
+    
+    /**
+     * Envia un token nuevo si el actual ya paso la mitad de su vigencia
+     * (chat.reanudar.ttl), para que una sesion activa nunca tenga que
+     * reanudar con uno caducado. Debe llamarse con candadoSesion tomado
+     */
+    private void renovarTokenSiCaduca() {
+        if (conSesion && System.currentTimeMillis() - tokenEmitidoMs > ReanudacionSesiones.TTL_MS / 2) {
+            enviarMensaje(lineaToken());
+        }
+    }
+    
+    /**
+     * Linea SESION|token con un token recien firmado
+     * Debe llamarse con candadoSesion tomado
+     */
+    private String lineaToken() {
+        tokenEmitidoMs = System.currentTimeMillis();
+        return "SESION|" + ReanudacionSesiones.emitir(idCliente, apodo, sala, duenoDelApodo, inicioSesion);
+    }
+    
     /**
      * Envia al cliente la lista de clientes TCP conectados actualmente
      */
@@ -224,6 +759,87 @@ public class ManejadorClientes implements Runnable {
         enviarMensaje("=== FIN DE LISTA ===");
     }
     
+    /**
+     * Atiende el comando HISTORY sirviendo paginas desde el historial en memoria
+     * La pagina 1 contiene los n mensajes mas recientes, la 2 los anteriores, etc.
+     * 
+     * @param comando Comando completo recibido del cliente
+     */
+    private void mostrarHistorial(String comando) {
+        String[] partes = comando.trim().split("[\\s|]+");
+        int cantidad;
+        int pagina = 1;
+        try {
+            cantidad = partes.length > 1 ? Integer.parseInt(partes[1]) : 10;
+            if (partes.length > 2) {
+                pagina = Integer.parseInt(partes[2]);
+            }
+        } catch (NumberFormatException e) {
+            enviarMensaje("ERROR: Formato HISTORY incorrecto. Use: HISTORY <n> [pagina]");
+            return;
+        }
+        if (cantidad <= 0 || pagina <= 0) {
+            enviarMensaje("ERROR: n y pagina deben ser mayores que 0");
+            return;
+        }
+        
+        HistorialReciente historial = ServidorMixto.getHistorial(ServidorMixto.CANAL_GLOBAL);
+        List<Mensaje> mensajes = historial.pagina(cantidad, cantidad * (pagina - 1));
+        
+        List<String> lineas = new ArrayList<>(mensajes.size() + 2);
+        lineas.add("=== HISTORIAL (pagina " + pagina + ", " + mensajes.size() + " mensajes) ===");
+        for (Mensaje m : mensajes) {
+            lineas.add(ServidorMixto.formatearHistorial(m));
+        }
+        lineas.add("=== FIN DE HISTORIAL ===");
+        enviarLote(lineas);
+    }
+    
+    /**
+     * Atiende el comando SEARCH: busca en el historial y envia los
+     * resultados en un solo lote
+     * 
+     * @param consulta Terminos a buscar
+     */
+    private void buscarMensajes(String consulta) {
+        if (consulta.isEmpty()) {
+            enviarMensaje("ERROR: Formato SEARCH incorrecto. Use: SEARCH <terminos>");
+            return;
+        }
+        // Los privados dirigidos al apodo solo los ve su dueno
+        List<Mensaje> resultados = ServidorMixto.buscarMensajes(consulta, idCliente, duenoDelApodo ? apodo : null);
+        
+        List<String> lineas = new ArrayList<>(resultados.size() + 2);
+        lineas.add("=== RESULTADOS DE BUSQUEDA (" + resultados.size() + ") ===");
+        for (Mensaje m : resultados) {
+            lineas.add(ServidorMixto.formatearResultado(m));
+        }
+        lineas.add("=== FIN DE RESULTADOS ===");
+        enviarLote(lineas);
+    }
+    
+    /**
+     * Envia al cliente recien conectado los ultimos mensajes publicos
+     * en una sola escritura
+     */
+    private void reproducirHistorial() {
+        int cantidad = ServidorMixto.getMensajesReproduccion();
+        if (cantidad <= 0) {
+            return;
+        }
+        
+        List<Mensaje> mensajes = ServidorMixto.getHistorial(ServidorMixto.CANAL_GLOBAL).ultimos(cantidad);
+        if (mensajes.isEmpty()) {
+            return;
+        }
+        
+        List<String> lineas = new ArrayList<>(mensajes.size());
+        for (Mensaje m : mensajes) {
+            lineas.add(ServidorMixto.formatearHistorial(m));
+        }
+        enviarLote(lineas);
+    }
+    
     // =============================================
     // METODOS DE ENVIO DE MENSAJES
     // =============================================
@@ -231,15 +847,97 @@ public class ManejadorClientes implements Runnable {
     /**
      * Envia un mensaje al cliente conectado
      * Solo funciona para clientes TCP
+     * El mensaje se encola y lo escribe el hilo de salida del cliente
      * 
      * @param mensaje Mensaje a enviar al cliente
      */
     public void enviarMensaje(String mensaje) {
         if (salida != null && activo) {
-            salida.println(mensaje);
+            salida.encolar(mensaje + System.lineSeparator());
+        }
+    }
+    
+    /**
+     * Envia un mensaje enrutado midiendo su latencia por etapas
+     * 
+     * @param mensaje Mensaje a enviar al cliente
+     * @param recibidoNanos System.nanoTime() al recibir el mensaje original
+     */
+    public void enviarMensaje(String mensaje, long recibidoNanos) {
+        enviarMensaje(mensaje, recibidoNanos, null);
+    }
+    
+    /**
+     * Envia un mensaje enrutado anotando sus saltos si el mensaje se traza
+     * 
+     * @param mensaje Mensaje a enviar al cliente
+     * @param recibidoNanos System.nanoTime() al recibir el mensaje original
+     * @param traza Traza del mensaje, o null si no se muestreo
+     */
+    public void enviarMensaje(String mensaje, long recibidoNanos, RegistroTrazas.Traza traza) {
+        if (salida != null && activo) {
+            salida.encolar(mensaje + System.lineSeparator(), recibidoNanos, sonda, traza);
+        } else if (traza != null) {
+            traza.anotar("DESCARTADO", idCliente + " (conexion cerrada)");
+        }
+    }
+    
+    /**
+     * Envia un mensaje enrutado que tiene secuencia en el diario
+     * Con sesion reanudable la linea lleva "#secuencia " delante; sin ella
+     * se anotan las primeras secuencias para no repetirlas al reanudar
+     * 
+     * @param mensaje Mensaje a enviar al cliente
+     * @param secuencia Secuencia del mensaje (0 si no tiene)
+     * @param recibidoNanos System.nanoTime() al recibir el mensaje original
+     * @param traza Traza del mensaje, o null si no se muestreo
+     */
+    public void enviarMensaje(String mensaje, long secuencia, long recibidoNanos, RegistroTrazas.Traza traza) {
+        if (secuencia <= 0) {
+            enviarMensaje(mensaje, recibidoNanos, traza);
+            return;
+        }
+        synchronized (candadoSesion) {
+            if (!conSesion) {
+                if (totalSinSesion < entregadasSinSesion.length) {
+                    entregadasSinSesion[totalSinSesion++] = secuencia;
+                }
+                enviarMensaje(mensaje, recibidoNanos, traza);
+            } else if (secuencia >= minimaEnVivo) {
+                enviarMensaje("#" + secuencia + " " + mensaje, recibidoNanos, traza);
+                renovarTokenSiCaduca();
+            } else if (traza != null) {
+                traza.anotar("REPETIDO", idCliente + " (incluido en la reanudacion)");
+            }
         }
     }
     
+    /**
+     * Envia varias lineas al cliente como una sola escritura encolada
+     * Evita una escritura al socket por cada linea
+     * 
+     * @param lineas Lineas a enviar en orden
+     */
+    public void enviarLote(List<String> lineas) {
+        if (salida == null || !activo || lineas.isEmpty()) {
+            return;
+        }
+        StringBuilder lote = new StringBuilder();
+        for (String linea : lineas) {
+            lote.append(linea).append(System.lineSeparator());
+        }
+        salida.encolar(lote.toString());
+    }
+    
+    /**
+     * Escrituras pendientes en la cola de salida del cliente
+     * 
+     * @return Numero de escrituras sin enviar
+     */
+    public int getPendientesSalida() {
+        return salida != null ? salida.getPendientes() : 0;
+    }
+    
     // =============================================
     // METODOS DE LIMPIEZA Y CIERRE
     // =============================================
@@ -254,14 +952,14 @@ public class ManejadorClientes implements Runnable {
         
         try {
             // Cerrar flujos en orden inverso al de creacion
+            if (salida != null) salida.cerrar(1000);
             if (entrada != null) entrada.close();
-            if (salida != null) salida.close();
             if (clienteSocket != null) clienteSocket.close();
             
             // Notificar al servidor que este manejador ya no esta activo
             ServidorMixto.removerManejador(this.idCliente);
             
-            System.out.println("Conexion cerrada para: " + idCliente);
+            Bitacora.info("Conexion cerrada para: {}", idCliente);
             
         } catch (IOException e) {
             System.err.println("Error cerrando conexion de " + idCliente);
@@ -281,10 +979,45 @@ public class ManejadorClientes implements Runnable {
         return idCliente;
     }
     
+    /**
+     * Obtiene el apodo registrado por el cliente
+     * 
+     * @return Apodo del cliente, o null si no registro ninguno
+     */
+    public String getApodo() {
+        return apodo;
+    }
+    
+    /**
+     * Indica si el apodo actual es de este cliente (ver duenoDelApodo)
+     * 
+     * @return true si lo registro primero o presento su credencial
+     */
+    boolean esDuenoDelApodo() {
+        return duenoDelApodo;
+    }
+    
+    /**
+     * Nombre con el que aparece en la lista de presencia: el apodo, o el ID
+     * mientras no registre uno
+     */
+    public String getNombrePresencia() {
+        String actual = apodo;
+        return actual != null ? actual : idCliente;
+    }
+    
+    public String getSala() {
+        return sala;
+    }
+    
+    public long getConectadoDesde() {
+        return conectadoDesde;
+    }
+    
     /**
      * Obtiene el tipo de protocolo usado por el cliente
      * 
-     * @return Protocolo.TCP o Protocolo.UDP
+     * @return Protocolo.TCP, Protocolo.UNIX o Protocolo.UDP
      */
     public int getTipoProtocolo() {
         return tipoProtocolo;
@@ -298,4 +1031,35 @@ public class ManejadorClientes implements Runnable {
     public boolean estaActivo() {
         return activo;
     }
-}
\ No newline at end of file
+    
+    // =============================================
+    // CONTEO DE BYTES RECIBIDOS
+    // =============================================
+    
+    /**
+     * Flujo que cuenta los bytes recibidos del cliente
+     */
+    private static final class EntradaContada extends FilterInputStream {
+        EntradaContada(InputStream origen) {
+            super(origen);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                Metricas.BYTES_ENTRANTES.increment();
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int inicio, int longitud) throws IOException {
+            int leidos = in.read(b, inicio, longitud);
+            if (leidos > 0) {
+                Metricas.BYTES_ENTRANTES.add(leidos);
+            }
+            return leidos;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package servidor;
+
+import common.HistogramaLatencia;
+import common.Protocolo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * METRICAS DEL SERVIDOR - CONTADORES E HISTOGRAMAS DE BAJO COSTE
+ *
+ * Registro central de las metricas del servidor. Todos los valores son
+ * campos estaticos finales para que registrar una muestra en la ruta
+ * caliente sea un simple incremento, sin busquedas por nombre.
+ *
+ * Caracteristicas:
+ * - Contadores con LongAdder: cada hilo incrementa su propia celda y la
+ *   suma solo se calcula al leer
+ * - Histogramas log-lineales de memoria fija para las duraciones
+ * - Mensajes entrantes y salientes separados por tipo de envio
+ * - Bytes leidos y escritos en los sockets de los clientes
+ * - Duracion del reparto (fan-out) de cada tipo de envio
+ * - Conexiones, desconexiones y profundidad de las colas de salida
+ * - Latencia por etapa de cada mensaje enrutado (recepcion -> encolado ->
+ *   inicio de escritura -> escritura completa) y de extremo a extremo, para
+ *   saber de que etapa viene la cola de la distribucion
+ *
+ * @version 1.0
+ */
+public final class Metricas {
+
+    // =============================================
+    // TIPOS DE ENVIO
+    // =============================================
+
+    /**
+     * Tipos de envio con metricas propias, en el orden de los arreglos
+     */
+    static final int[] TIPOS_ENVIO = {
+        Protocolo.UNICAST, Protocolo.BROADCAST, Protocolo.MULTICAST, Protocolo.ANYCAST
+    };
+
+    // =============================================
+    // CONTADORES
+    // =============================================
+
+    /** Mensajes recibidos de los clientes por tipo de envio */
+    private static final LongAdder[] MENSAJES_ENTRANTES = nuevosContadores();
+
+    /** Mensajes entregados a clientes por tipo de envio */
+    private static final LongAdder[] MENSAJES_SALIENTES = nuevosContadores();
+
+    /** Otros comandos recibidos (LISTA, HISTORY, SEARCH, echo...) */
+    public static final LongAdder COMANDOS = new LongAdder();
+
+    public static final LongAdder BYTES_ENTRANTES = new LongAdder();
+    public static final LongAdder BYTES_SALIENTES = new LongAdder();
+
+    public static final LongAdder CONEXIONES = new LongAdder();
+    public static final LongAdder DESCONEXIONES = new LongAdder();
+
+    /** Mensajes descartados porque la cola de salida de un cliente estaba llena */
+    public static final LongAdder SALIENTES_DESCARTADOS = new LongAdder();
+
+    // =============================================
+    // HISTOGRAMAS
+    // =============================================
+
+    /** Duracion del reparto de un mensaje a sus destinatarios, por tipo de envio */
+    private static final HistogramaLatencia[] DURACION_REPARTO = new HistogramaLatencia[TIPOS_ENVIO.length];
+
+    /** Etapa de enrutado: lectura del socket -> encolado para el destinatario */
+    public static final HistogramaLatencia LATENCIA_ENRUTADO = new HistogramaLatencia();
+
+    /** Etapa de cola: encolado -> el hilo de salida empieza a escribirlo */
+    public static final HistogramaLatencia ESPERA_COLA_SALIDA = new HistogramaLatencia();
+
+    /** Etapa de escritura: inicio de escritura -> flush completado */
+    public static final HistogramaLatencia LATENCIA_ESCRITURA = new HistogramaLatencia();
+
+    /** De extremo a extremo: lectura del socket -> flush hacia el destinatario */
+    public static final HistogramaLatencia LATENCIA_TOTAL = new HistogramaLatencia();
+
+    static {
+        for (int i = 0; i < DURACION_REPARTO.length; i++) {
+            DURACION_REPARTO[i] = new HistogramaLatencia();
+        }
+    }
+
+    private Metricas() {
+    }
+
+    private static LongAdder[] nuevosContadores() {
+        LongAdder[] contadores = new LongAdder[TIPOS_ENVIO.length];
+        for (int i = 0; i < contadores.length; i++) {
+            contadores[i] = new LongAdder();
+        }
+        return contadores;
+    }
+
+    /**
+     * Posicion de un tipo de envio en los arreglos de metricas
+     */
+    private static int posicion(int tipoEnvio) {
+        switch (tipoEnvio) {
+            case Protocolo.UNICAST: return 0;
+            case Protocolo.BROADCAST: return 1;
+            case Protocolo.MULTICAST: return 2;
+            case Protocolo.ANYCAST: return 3;
+            default: return -1;
+        }
+    }
+
+    // =============================================
+    // REGISTRO (RUTA CALIENTE)
+    // =============================================
+
+    /**
+     * Cuenta un mensaje recibido de un cliente
+     *
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     */
+    public static void mensajeEntrante(int tipoEnvio) {
+        int i = posicion(tipoEnvio);
+        if (i >= 0) {
+            MENSAJES_ENTRANTES[i].increment();
+        }
+    }
+
+    /**
+     * Cuenta los mensajes entregados al repartir un envio
+     *
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param entregados Numero de destinatarios
+     */
+    public static void mensajesSalientes(int tipoEnvio, int entregados) {
+        int i = posicion(tipoEnvio);
+        if (i >= 0 && entregados > 0) {
+            MENSAJES_SALIENTES[i].add(entregados);
+        }
+    }
+
+    /**
+     * Registra la duracion de un reparto iniciado en inicioNanos
+     *
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param inicioNanos Instante de System.nanoTime() al empezar el reparto
+     */
+    public static void duracionReparto(int tipoEnvio, long inicioNanos) {
+        int i = posicion(tipoEnvio);
+        if (i >= 0) {
+            DURACION_REPARTO[i].registrarDesde(inicioNanos);
+        }
+    }
+
+    // =============================================
+    // LECTURA
+    // =============================================
+
+    public static long getMensajesEntrantes(int tipoEnvio) {
+        int i = posicion(tipoEnvio);
+        return i >= 0 ? MENSAJES_ENTRANTES[i].sum() : 0;
+    }
+
+    public static long getMensajesSalientes(int tipoEnvio) {
+        int i = posicion(tipoEnvio);
+        return i >= 0 ? MENSAJES_SALIENTES[i].sum() : 0;
+    }
+
+    /**
+     * Total de mensajes de chat recibidos de los clientes (todos los tipos)
+     */
+    public static long getTotalEntrantes() {
+        long total = 0;
+        for (LongAdder contador : MENSAJES_ENTRANTES) {
+            total += contador.sum();
+        }
+        return total;
+    }
+
+    public static HistogramaLatencia getDuracionReparto(int tipoEnvio) {
+        int i = posicion(tipoEnvio);
+        return i >= 0 ? DURACION_REPARTO[i] : null;
+    }
+
+    /**
+     * Mensajes pendientes en todas las colas de salida (se calcula al leer)
+     */
+    public static long getProfundidadColasSalida() {
+        long total = 0;
+        for (ManejadorClientes manejador : ServidorMixto.getManejadoresActivos().values()) {
+            total += manejador.getPendientesSalida();
+        }
+        return total;
+    }
+
+    /**
+     * Mayor cola de salida de un cliente en este momento
+     */
+    public static long getMaximaColaSalida() {
+        long maximo = 0;
+        for (ManejadorClientes manejador : ServidorMixto.getManejadoresActivos().values()) {
+            maximo = Math.max(maximo, manejador.getPendientesSalida());
+        }
+        return maximo;
+    }
+
+    /**
+     * Resumen legible para la consola de administracion
+     *
+     * @return Una linea por metrica
+     */
+    public static List<String> resumen() {
+        List<String> lineas = new ArrayList<>();
+        for (int tipo : TIPOS_ENVIO) {
+            lineas.add(String.format("%-10s entrantes=%d salientes=%d reparto: %s",
+                    Protocolo.getDescripcionTipoEnvio(tipo), getMensajesEntrantes(tipo),
+                    getMensajesSalientes(tipo), getDuracionReparto(tipo).instantanea().resumen()));
+        }
+        lineas.add("Comandos: " + COMANDOS.sum());
+        lineas.add("Bytes: entrantes=" + BYTES_ENTRANTES.sum() + " salientes=" + BYTES_SALIENTES.sum());
+        lineas.add("Conexiones=" + CONEXIONES.sum() + " desconexiones=" + DESCONEXIONES.sum());
+        lineas.add("Colas de salida: pendientes=" + getProfundidadColasSalida()
+                + " maxima=" + getMaximaColaSalida()
+                + " descartados=" + SALIENTES_DESCARTADOS.sum());
+        lineas.add("Latencia por etapa (mensajes enrutados):");
+        lineas.add("  enrutado   " + LATENCIA_ENRUTADO.instantanea().resumen());
+        lineas.add("  cola       " + ESPERA_COLA_SALIDA.instantanea().resumen());
+        lineas.add("  escritura  " + LATENCIA_ESCRITURA.instantanea().resumen());
+        lineas.add("  total      " + LATENCIA_TOTAL.instantanea().resumen());
+        return lineas;
+    }
+}
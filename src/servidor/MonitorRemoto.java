@@ -0,0 +1,423 @@
+package servidor;
+
+import common.ColaAnillo;
+import common.Protocolo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * MONITOR REMOTO - SESIONES DE UN SERVIDOR SIN INTERFAZ, POR HTTP
+ *
+ * Fuente del panel (GUIservidor --conectar) cuando el servidor corre en
+ * otro proceso con --headless. Sigue los deltas de /cambios del endpoint
+ * de administracion y los entrega con el mismo contrato que
+ * CambiosSesiones, asi el panel aplica igual los cambios locales y remotos.
+ *
+ * Caracteristicas:
+ * - Un hilo "panel-remoto" consulta /cambios cada chat.panel.intervalo ms
+ *   (250); si hay mas deltas pendientes vuelve a consultar sin esperar
+ * - Con "recargar" (primer pedido, cursor viejo o deltas perdidos) copia
+ *   /sesiones completo, TCP y UDP, pagina por pagina
+ * - Si se pierde la conexion reintenta cada segundo y recarga al volver
+ * - Solo usa HttpURLConnection: el panel no necesita otras librerias
+ *
+ * @version 1.0
+ */
+final class MonitorRemoto {
+
+    private static final int INTERVALO_MS = Math.max(20, Integer.getInteger("chat.panel.intervalo", 250));
+    private static final int REINTENTO_MS = 1000;
+    private static final int TIEMPO_ESPERA_MS = 5000;
+    private static final int LIMITE_PAGINA = 500;
+
+    private final String base;
+    private final BiConsumer<String, String> registro;
+
+    private final ColaAnillo<CambiosSesiones.Cambio> cola =
+            new ColaAnillo<>(Integer.getInteger("chat.sesiones.cola", 16384));
+    private long descartadosVistos;
+    private volatile boolean recargar = true;
+
+    // Ultimos datos conocidos de cada sesion
+    private final Map<String, CambiosSesiones.Sesion> sesionesTCP = new ConcurrentHashMap<>();
+    private final Set<String> clientesUDP = ConcurrentHashMap.newKeySet();
+    private volatile long mensajes;
+    private volatile boolean conectado;
+
+    /**
+     * @param base URL del endpoint de administracion (http://host:puerto)
+     * @param registro Recibe (tipo, mensaje) de los eventos de la conexion
+     */
+    MonitorRemoto(String base, BiConsumer<String, String> registro) {
+        this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        this.registro = registro;
+    }
+
+    void iniciar() {
+        Thread hilo = new Thread(this::sondear, "panel-remoto");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // =============================================
+    // CONTRATO DE CambiosSesiones (HILO DEL PANEL)
+    // =============================================
+
+    /**
+     * Entrega los deltas pendientes
+     *
+     * @return false si el panel debe recargar la instantanea
+     */
+    boolean drenar(Consumer<CambiosSesiones.Cambio> consumidor, int maximo) {
+        long descartados = cola.getDescartados();
+        boolean completo = descartados == descartadosVistos && !recargar;
+        descartadosVistos = descartados;
+        recargar = false;
+        cola.drenar(consumidor, maximo);
+        return completo;
+    }
+
+    CambiosSesiones.Sesion sesion(String idCliente, int protocolo) {
+        if (protocolo == Protocolo.UDP) {
+            return new CambiosSesiones.Sesion(idCliente, Protocolo.UDP, null, null, 0);
+        }
+        return sesionesTCP.get(idCliente);
+    }
+
+    List<CambiosSesiones.Sesion> instantanea() {
+        List<CambiosSesiones.Sesion> sesiones = new ArrayList<>(sesionesTCP.values());
+        for (String idCliente : clientesUDP) {
+            sesiones.add(new CambiosSesiones.Sesion(idCliente, Protocolo.UDP, null, null, 0));
+        }
+        return sesiones;
+    }
+
+    long getTotalEntrantes() {
+        return mensajes;
+    }
+
+    boolean estaConectado() {
+        return conectado;
+    }
+
+    String getBase() {
+        return base;
+    }
+
+    // =============================================
+    // CONSULTAS HTTP (HILO panel-remoto)
+    // =============================================
+
+    private void sondear() {
+        long cursor = -1;
+        boolean avisarFalla = true;
+        while (true) {
+            try {
+                Map<String, Object> respuesta = objeto(LectorJson.leer(consultar("/cambios?desde=" + cursor)));
+                if (!conectado) {
+                    conectado = true;
+                    avisarFalla = true;
+                    registro.accept("REMOTO", "Conectado a " + base);
+                }
+                mensajes = numero(respuesta.get("mensajes"));
+                List<Object> cambios = lista(respuesta.get("cambios"));
+                if (Boolean.TRUE.equals(respuesta.get("recargar"))) {
+                    cargarInstantanea();
+                    recargar = true;
+                }
+                for (Object cambio : cambios) {
+                    aplicar(objeto(cambio));
+                }
+                long nuevo = numero(respuesta.get("cursor"));
+                boolean alDia = cursor < 0 || nuevo - cursor < 100;
+                cursor = nuevo;
+                if (alDia) {
+                    Thread.sleep(INTERVALO_MS);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (avisarFalla) {
+                    // Una vez por caida, no una por reintento
+                    registro.accept("ERROR", "Sin conexion con " + base + ": " + e.getMessage());
+                    avisarFalla = false;
+                }
+                conectado = false;
+                cursor = -1;
+                try {
+                    Thread.sleep(REINTENTO_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copia todas las sesiones TCP y UDP del servidor
+     */
+    private void cargarInstantanea() throws IOException {
+        Map<String, CambiosSesiones.Sesion> tcp = new HashMap<>();
+        for (Map<String, Object> sesion : paginas("")) {
+            String idCliente = (String) sesion.get("id");
+            tcp.put(idCliente, sesionTCP(idCliente, sesion));
+        }
+        List<String> udp = new ArrayList<>();
+        for (Map<String, Object> sesion : paginas("&protocolo=udp")) {
+            udp.add((String) sesion.get("id"));
+        }
+        sesionesTCP.keySet().retainAll(tcp.keySet());
+        sesionesTCP.putAll(tcp);
+        clientesUDP.retainAll(udp);
+        clientesUDP.addAll(udp);
+    }
+
+    private List<Map<String, Object>> paginas(String filtro) throws IOException {
+        List<Map<String, Object>> sesiones = new ArrayList<>();
+        Object offset = 0L;
+        while (offset != null) {
+            Map<String, Object> pagina = objeto(LectorJson.leer(
+                    consultar("/sesiones?limite=" + LIMITE_PAGINA + "&offset=" + offset + filtro)));
+            for (Object sesion : lista(pagina.get("sesiones"))) {
+                sesiones.add(objeto(sesion));
+            }
+            offset = pagina.get("siguiente");
+        }
+        return sesiones;
+    }
+
+    private void aplicar(Map<String, Object> cambio) {
+        String tipo = (String) cambio.get("tipo");
+        String idCliente = (String) cambio.get("id");
+        if ("UDP".equals(cambio.get("protocolo"))) {
+            clientesUDP.add(idCliente);
+            cola.ofrecer(new CambiosSesiones.Cambio(CambiosSesiones.CONECTADO, idCliente, Protocolo.UDP));
+        } else if ("DESCONECTADO".equals(tipo)) {
+            sesionesTCP.remove(idCliente);
+            cola.ofrecer(new CambiosSesiones.Cambio(CambiosSesiones.DESCONECTADO, idCliente, Protocolo.TCP));
+        } else {
+            sesionesTCP.put(idCliente, sesionTCP(idCliente, cambio));
+            int codigo = "CONECTADO".equals(tipo) ? CambiosSesiones.CONECTADO : CambiosSesiones.ACTUALIZADO;
+            cola.ofrecer(new CambiosSesiones.Cambio(codigo, idCliente, Protocolo.TCP));
+        }
+    }
+
+    private static CambiosSesiones.Sesion sesionTCP(String idCliente, Map<String, Object> datos) {
+        return new CambiosSesiones.Sesion(idCliente, Protocolo.TCP, (String) datos.get("apodo"),
+                (String) datos.get("sala"), numero(datos.get("conectadoDesde")));
+    }
+
+    private String consultar(String ruta) throws IOException {
+        HttpURLConnection conexion;
+        try {
+            conexion = (HttpURLConnection) URI.create(base + ruta).toURL().openConnection();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Direccion invalida: " + base + ruta, e);
+        }
+        conexion.setConnectTimeout(TIEMPO_ESPERA_MS);
+        conexion.setReadTimeout(TIEMPO_ESPERA_MS);
+        int estado = conexion.getResponseCode();
+        InputStream cuerpo = estado < 400 ? conexion.getInputStream() : conexion.getErrorStream();
+        String texto = "";
+        if (cuerpo != null) {
+            try (InputStream entrada = cuerpo) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                entrada.transferTo(bytes);
+                texto = bytes.toString(StandardCharsets.UTF_8);
+            }
+        }
+        if (estado != 200) {
+            throw new IOException("HTTP " + estado + " " + texto.trim());
+        }
+        return texto;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> objeto(Object valor) {
+        return (Map<String, Object>) valor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> lista(Object valor) {
+        return valor != null ? (List<Object>) valor : new ArrayList<>();
+    }
+
+    private static long numero(Object valor) {
+        return valor instanceof Number ? ((Number) valor).longValue() : 0;
+    }
+
+    // =============================================
+    // LECTOR JSON
+    // =============================================
+
+    /**
+     * Lector JSON minimo para las respuestas del endpoint de administracion
+     * Objetos -> Map, arreglos -> List, numeros -> Long o Double
+     */
+    static final class LectorJson {
+        private final String texto;
+        private int posicion;
+
+        private LectorJson(String texto) {
+            this.texto = texto;
+        }
+
+        static Object leer(String texto) {
+            LectorJson lector = new LectorJson(texto);
+            Object valor = lector.valor();
+            lector.saltarEspacios();
+            if (lector.posicion != texto.length()) {
+                throw lector.error("texto sobrante");
+            }
+            return valor;
+        }
+
+        private Object valor() {
+            saltarEspacios();
+            if (posicion >= texto.length()) {
+                throw error("fin inesperado");
+            }
+            char c = texto.charAt(posicion);
+            switch (c) {
+                case '{': return objeto();
+                case '[': return arreglo();
+                case '"': return cadena();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return numero();
+            }
+        }
+
+        private Map<String, Object> objeto() {
+            Map<String, Object> objeto = new LinkedHashMap<>();
+            posicion++;
+            saltarEspacios();
+            if (consumir('}')) {
+                return objeto;
+            }
+            do {
+                saltarEspacios();
+                String clave = cadena();
+                saltarEspacios();
+                esperar(':');
+                objeto.put(clave, valor());
+                saltarEspacios();
+            } while (consumir(','));
+            esperar('}');
+            return objeto;
+        }
+
+        private List<Object> arreglo() {
+            List<Object> arreglo = new ArrayList<>();
+            posicion++;
+            saltarEspacios();
+            if (consumir(']')) {
+                return arreglo;
+            }
+            do {
+                arreglo.add(valor());
+                saltarEspacios();
+            } while (consumir(','));
+            esperar(']');
+            return arreglo;
+        }
+
+        private String cadena() {
+            esperar('"');
+            StringBuilder cadena = new StringBuilder();
+            while (posicion < texto.length()) {
+                char c = texto.charAt(posicion++);
+                if (c == '"') {
+                    return cadena.toString();
+                }
+                if (c != '\\') {
+                    cadena.append(c);
+                    continue;
+                }
+                if (posicion >= texto.length()) {
+                    break;
+                }
+                char escape = texto.charAt(posicion++);
+                switch (escape) {
+                    case 'n': cadena.append('\n'); break;
+                    case 'r': cadena.append('\r'); break;
+                    case 't': cadena.append('\t'); break;
+                    case 'b': cadena.append('\b'); break;
+                    case 'f': cadena.append('\f'); break;
+                    case 'u':
+                        if (posicion + 4 > texto.length()) {
+                            throw error("escape incompleto");
+                        }
+                        cadena.append((char) Integer.parseInt(texto.substring(posicion, posicion + 4), 16));
+                        posicion += 4;
+                        break;
+                    default: cadena.append(escape);
+                }
+            }
+            throw error("cadena sin cerrar");
+        }
+
+        private Object numero() {
+            int inicio = posicion;
+            while (posicion < texto.length() && "+-0123456789.eE".indexOf(texto.charAt(posicion)) >= 0) {
+                posicion++;
+            }
+            String numero = texto.substring(inicio, posicion);
+            if (numero.isEmpty()) {
+                throw error("valor invalido");
+            }
+            try {
+                return numero.indexOf('.') >= 0 || numero.indexOf('e') >= 0 || numero.indexOf('E') >= 0
+                        ? (Object) Double.parseDouble(numero) : (Object) Long.parseLong(numero);
+            } catch (NumberFormatException e) {
+                throw error("numero invalido");
+            }
+        }
+
+        private Object literal(String palabra, Object valor) {
+            if (!texto.startsWith(palabra, posicion)) {
+                throw error("valor invalido");
+            }
+            posicion += palabra.length();
+            return valor;
+        }
+
+        private void saltarEspacios() {
+            while (posicion < texto.length() && Character.isWhitespace(texto.charAt(posicion))) {
+                posicion++;
+            }
+        }
+
+        private boolean consumir(char esperado) {
+            if (posicion < texto.length() && texto.charAt(posicion) == esperado) {
+                posicion++;
+                return true;
+            }
+            return false;
+        }
+
+        private void esperar(char esperado) {
+            if (!consumir(esperado)) {
+                throw error("se esperaba '" + esperado + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String motivo) {
+            return new IllegalArgumentException("JSON invalido en " + posicion + ": " + motivo);
+        }
+    }
+}
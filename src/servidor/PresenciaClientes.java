@@ -0,0 +1,184 @@
+package servidor;
+
+import common.Bitacora;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PRESENCIA DE CLIENTES - LISTA DE USUARIOS EMPUJADA A LOS CLIENTES
+ *
+ * Reemplaza el sondeo con LISTA (una linea por cliente en cada consulta)
+ * por una instantanea al suscribirse seguida de altas y bajas agrupadas.
+ *
+ * Protocolo (el cliente se suscribe con "PRESENCIA on"):
+ * - PRESENCIA|LISTA|total      -> vaciar la lista; siguen las altas de la instantanea
+ * - PRESENCIA|ALTA|n1,n2,...   -> agregar nombres
+ * - PRESENCIA|BAJA|n1,n2,...   -> quitar nombres
+ * El nombre es el apodo del cliente, o su ID mientras no registre uno.
+ * Aplicar una alta o baja repetida no cambia nada, por eso una alta
+ * que llega despues de una instantanea que ya la incluia es inofensiva.
+ *
+ * Caracteristicas:
+ * - Los cambios de una ventana de chat.presencia.ventana ms (250) se
+ *   agrupan: por cada nombre solo cuenta el estado final, y una alta y
+ *   baja dentro de la misma ventana no se envian
+ * - Cada ventana arma sus lineas una sola vez y la misma cadena se encola
+ *   a todos los suscriptores; como mucho CHUNK nombres por linea
+ * - Solo clientes TCP de este nodo
+ *
+ * @version 1.0
+ */
+public final class PresenciaClientes {
+
+    private static final int VENTANA_MS = Math.max(10, Integer.getInteger("chat.presencia.ventana", 250));
+
+    /** Nombres maximos por linea de ALTA o BAJA */
+    private static final int CHUNK = 256;
+
+    private static final Set<ManejadorClientes> suscriptores = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Cambios de la ventana en curso: nombre -> {estado al empezar la ventana, estado actual}
+     * Protegido por su propio candado, que tambien ordena instantaneas y envios
+     */
+    private static final Map<String, boolean[]> pendientes = new LinkedHashMap<>();
+
+    private static Thread repartidor;
+
+    private PresenciaClientes() {
+    }
+
+    // =============================================
+    // CAMBIOS (HILOS DE CLIENTES)
+    // =============================================
+
+    static void conectado(String nombre) {
+        registrar(nombre, true);
+    }
+
+    static void desconectado(String nombre) {
+        registrar(nombre, false);
+    }
+
+    /**
+     * El cliente paso a mostrarse con otro nombre (registro o cambio de apodo)
+     */
+    static void renombrado(String anterior, String nuevo) {
+        synchronized (pendientes) {
+            registrar(anterior, false);
+            registrar(nuevo, true);
+        }
+    }
+
+    private static void registrar(String nombre, boolean presente) {
+        if (suscriptores.isEmpty()) {
+            return;
+        }
+        synchronized (pendientes) {
+            boolean[] estado = pendientes.get(nombre);
+            if (estado == null) {
+                pendientes.put(nombre, new boolean[] {!presente, presente});
+            } else {
+                estado[1] = presente;
+            }
+            if (repartidor == null) {
+                iniciarRepartidor();
+            }
+        }
+    }
+
+    // =============================================
+    // SUSCRIPCION
+    // =============================================
+
+    /**
+     * Suscribe al cliente y le envia la instantanea de la lista
+     *
+     * @param manejador Cliente que pidio PRESENCIA on
+     */
+    static void suscribir(ManejadorClientes manejador) {
+        List<String> nombres = new ArrayList<>();
+        Map<String, ManejadorClientes> activos = ServidorMixto.getManejadoresActivos();
+        synchronized (pendientes) {
+            // Dentro del candado: ningun delta posterior puede adelantarse a la instantanea
+            suscriptores.add(manejador);
+            synchronized (activos) {
+                for (ManejadorClientes activo : activos.values()) {
+                    nombres.add(activo.getNombrePresencia());
+                }
+            }
+            List<String> lineas = new ArrayList<>(2 + nombres.size() / CHUNK);
+            lineas.add("PRESENCIA|LISTA|" + nombres.size());
+            agregarLineas(lineas, "PRESENCIA|ALTA|", nombres);
+            manejador.enviarLote(lineas);
+        }
+    }
+
+    static void desuscribir(ManejadorClientes manejador) {
+        suscriptores.remove(manejador);
+    }
+
+    public static int getSuscriptores() {
+        return suscriptores.size();
+    }
+
+    // =============================================
+    // REPARTO POR VENTANA
+    // =============================================
+
+    private static void iniciarRepartidor() {
+        repartidor = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(VENTANA_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                repartir();
+            }
+        }, "presencia");
+        repartidor.setDaemon(true);
+        repartidor.start();
+    }
+
+    /**
+     * Envia a todos los suscriptores los cambios netos de la ventana
+     */
+    static void repartir() {
+        synchronized (pendientes) {
+            if (pendientes.isEmpty()) {
+                return;
+            }
+            List<String> altas = new ArrayList<>();
+            List<String> bajas = new ArrayList<>();
+            for (Map.Entry<String, boolean[]> cambio : pendientes.entrySet()) {
+                boolean[] estado = cambio.getValue();
+                if (estado[0] != estado[1]) {
+                    (estado[1] ? altas : bajas).add(cambio.getKey());
+                }
+            }
+            pendientes.clear();
+            if (altas.isEmpty() && bajas.isEmpty()) {
+                return;
+            }
+            List<String> lineas = new ArrayList<>();
+            agregarLineas(lineas, "PRESENCIA|BAJA|", bajas);
+            agregarLineas(lineas, "PRESENCIA|ALTA|", altas);
+            for (ManejadorClientes suscriptor : suscriptores) {
+                suscriptor.enviarLote(lineas);
+            }
+            Bitacora.depuracion("Presencia: {} altas y {} bajas a {} suscriptores",
+                    altas.size(), bajas.size(), suscriptores.size());
+        }
+    }
+
+    private static void agregarLineas(List<String> lineas, String prefijo, List<String> nombres) {
+        for (int i = 0; i < nombres.size(); i += CHUNK) {
+            lineas.add(prefijo + String.join(",", nombres.subList(i, Math.min(nombres.size(), i + CHUNK))));
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package servidor;
+
+import common.Bitacora;
+import common.Mensaje;
+import common.Protocolo;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * REANUDACION DE SESIONES - TOKEN DE SESION Y REPETICION POR SECUENCIA
+ *
+ * Permite que un cliente que perdio la conexion (corte de red o reinicio
+ * del servidor) vuelva sin registrarse de nuevo y reciba solo los mensajes
+ * que se perdio, en lugar de recargar todo.
+ *
+ * Protocolo:
+ * - SESION on                -> SESION|token|n : los mensajes enrutados llegan
+ *                               como "#secuencia linea"; n es la ultima secuencia
+ *                               ya cubierta
+ * - REANUDAR|token|n         -> REANUDADO|repetidos|COMPLETO o INCOMPLETO, los
+ *                               mensajes perdidos (secuencia mayor que n) y un
+ *                               SESION|token|n nuevo; con un token invalido
+ *                               REANUDADO|0|RECHAZADO y una sesion nueva
+ * - SESION|token             -> token reemitido al cambiar de apodo o de sala
+ * - CLAVE|apodo|credencial   -> credencial del apodo para su primer dueno;
+ *                               CLAVE|credencial antes de CONEXION la presenta
+ *
+ * Caracteristicas:
+ * - El token no se guarda en el servidor: lleva el ID de la conexion, el
+ *   apodo, si la conexion era su dueno, la sala, la secuencia en que empezo
+ *   la sesion y el instante de emision firmados con HMAC-SHA256, y sigue
+ *   siendo valido despues de un reinicio porque la clave se guarda junto
+ *   al diario
+ * - REANUDAR nunca repite lo anterior al inicio de la sesion, y los privados
+ *   dirigidos al apodo solo si el token es de su dueno (ver CLAVE)
+ * - Un token caduca a los chat.reanudar.ttl segundos de emitirse; la
+ *   conexion renueva el suyo al pasar la mitad (ver ManejadorClientes)
+ * - Anillo de chat.reanudar.capacidad mensajes (4096) indexado por
+ *   secuencia; al arrancar se llena con la cola del diario usando su indice
+ *   disperso, sin leer el diario completo
+ * - Registrar un mensaje no toma candados: los hilos de enrutamiento solo
+ *   hacen compareAndSet sobre su celda y sobre la secuencia contigua
+ * - Las secuencias son las del diario: sin diario no hay reanudacion
+ * - Solo se repiten BROADCAST, UNICAST y MULTICAST (ANYCAST no tiene destino fijo)
+ * - La credencial de un apodo es el HMAC del apodo con la misma clave: quien
+ *   la presenta es su dueno y recibe su buzon y sus privados en SEARCH
+ *   (sin diario la clave es temporal y las credenciales no sobreviven a un reinicio)
+ *
+ * Configuracion:
+ * - chat.reanudar.capacidad  Mensajes retenidos para repetir (4096)
+ * - chat.reanudar.ttl        Segundos de vigencia de un token (3600)
+ * - chat.reanudar.clave      Clave del HMAC; si falta se usa (o se crea)
+ *                            el archivo sesiones.clave del diario
+ *
+ * @version 1.0
+ */
+final class ReanudacionSesiones {
+
+    private static final int CAPACIDAD = Math.max(64, Integer.getInteger("chat.reanudar.capacidad", 4096));
+
+    /** Vigencia de un token desde que se emite */
+    static final long TTL_MS = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("chat.reanudar.ttl", 3600L)));
+
+    private static final String ARCHIVO_CLAVE = "sesiones.clave";
+
+    /** Bytes de la firma HMAC que viajan en el token */
+    private static final int BYTES_FIRMA = 16;
+
+    /**
+     * Ultimos mensajes registrados, en la posicion secuencia % CAPACIDAD
+     */
+    private static final AtomicReferenceArray<Mensaje> anillo = new AtomicReferenceArray<>(CAPACIDAD);
+
+    /** Mayor secuencia tal que todas las anteriores ya estan en el anillo */
+    private static final AtomicLong contigua = new AtomicLong();
+
+    /** Mayor secuencia guardada en el anillo */
+    private static final AtomicLong ultimaGuardada = new AtomicLong();
+
+    /** Primera secuencia que el anillo llego a conocer (las anteriores no se pueden repetir) */
+    private static volatile long primeraConocida = Long.MAX_VALUE;
+
+    private static volatile boolean disponible;
+    private static SecretKeySpec clave;
+
+    private ReanudacionSesiones() {
+    }
+
+    // =============================================
+    // ARRANQUE
+    // =============================================
+
+    /**
+     * Carga la clave y llena el anillo con la cola del diario
+     *
+     * @param diario Diario ya abierto, o null si el servidor no tiene diario
+     */
+    static void iniciar(DiarioMensajes diario) {
+        if (diario == null) {
+            // Las credenciales de apodo siguen necesitando una clave
+            clave = claveTemporal();
+            Bitacora.info("Reanudacion de sesiones desactivada: no hay diario de mensajes");
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            clave = new SecretKeySpec(cargarClave(diario.getDirectorio()), "HmacSHA256");
+        } catch (IOException e) {
+            clave = claveTemporal();
+            Bitacora.aviso("Clave de sesiones temporal ({}): los tokens no sobreviven a un reinicio",
+                    e.getMessage());
+        }
+
+        long ultima = diario.getUltimaSecuenciaEscrita();
+        long desde = Math.max(1, ultima - CAPACIDAD + 1);
+        contigua.set(ultima);
+        ultimaGuardada.set(ultima);
+        primeraConocida = desde;
+        long cargados = diario.recorrerDesde(desde, ReanudacionSesiones::registrar);
+        disponible = true;
+        Bitacora.info("Reanudacion de sesiones: {} mensajes desde la secuencia {} ({} ms)",
+                cargados, desde, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    private static SecretKeySpec claveTemporal() {
+        byte[] temporal = new byte[32];
+        new SecureRandom().nextBytes(temporal);
+        return new SecretKeySpec(temporal, "HmacSHA256");
+    }
+
+    private static byte[] cargarClave(File directorio) throws IOException {
+        String configurada = System.getProperty("chat.reanudar.clave");
+        if (configurada != null && !configurada.isEmpty()) {
+            return configurada.getBytes(StandardCharsets.UTF_8);
+        }
+        File archivo = new File(directorio, ARCHIVO_CLAVE);
+        if (archivo.isFile()) {
+            return Files.readAllBytes(archivo.toPath());
+        }
+        byte[] nueva = new byte[32];
+        new SecureRandom().nextBytes(nueva);
+        Files.write(archivo.toPath(), nueva);
+        return nueva;
+    }
+
+    static boolean estaDisponible() {
+        return disponible;
+    }
+
+    // =============================================
+    // ANILLO DE MENSAJES (HILOS DE ENRUTAMIENTO)
+    // =============================================
+
+    /**
+     * Guarda un mensaje recien registrado en el diario
+     *
+     * @param mensaje Mensaje con su secuencia asignada
+     */
+    static void registrar(Mensaje mensaje) {
+        long secuencia = mensaje.getSecuencia();
+        if (secuencia <= 0 || secuencia <= ultimaGuardada.get() - CAPACIDAD) {
+            return;
+        }
+        int celda = (int) (secuencia % CAPACIDAD);
+        Mensaje anterior;
+        do {
+            anterior = anillo.get(celda);
+            if (anterior != null && anterior.getSecuencia() >= secuencia) {
+                return; // un hilo mas rapido ya dio la vuelta al anillo
+            }
+        } while (!anillo.compareAndSet(celda, anterior, mensaje));
+        ultimaGuardada.accumulateAndGet(secuencia, Math::max);
+        // Los hilos asignan secuencias en orden pero pueden llegar aqui
+        // desordenados: cualquiera avanza la contigua sobre lo ya guardado,
+        // y quien guarda la siguiente la ve porque la escribe antes de mirar.
+        // Un hilo que tarda mas de una vuelta del anillo deja un hueco que ya
+        // no se puede repetir (cubre() lo indica): se salta
+        while (true) {
+            long actual = contigua.get();
+            long fueraDelAnillo = ultimaGuardada.get() - CAPACIDAD;
+            if (actual < fueraDelAnillo) {
+                contigua.compareAndSet(actual, fueraDelAnillo);
+            } else if (estaGuardada(actual + 1)) {
+                contigua.compareAndSet(actual, actual + 1);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Quita del anillo los mensajes que cumplan la condicion (retencion del
+     * diario) para que REANUDAR no los repita. Solo hasta la secuencia
+     * contigua: un hueco posterior detendria su avance
+     *
+     * @param condicion Mensajes a descartar
+     * @return Mensajes descartados
+     */
+    static int descartar(Predicate<Mensaje> condicion) {
+        long hasta = contigua.get();
+        int descartados = 0;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            Mensaje mensaje = anillo.get(i);
+            if (mensaje != null && mensaje.getSecuencia() <= hasta && condicion.test(mensaje)
+                    && anillo.compareAndSet(i, mensaje, null)) {
+                descartados++;
+            }
+        }
+        return descartados;
+    }
+
+    private static boolean estaGuardada(long secuencia) {
+        Mensaje guardado = anillo.get((int) (secuencia % CAPACIDAD));
+        return guardado != null && guardado.getSecuencia() == secuencia;
+    }
+
+    /**
+     * Ultima secuencia sin huecos: todo lo anterior ya se puede repetir
+     */
+    static long getContigua() {
+        return contigua.get();
+    }
+
+    /**
+     * Indica si el anillo todavia tiene todo lo posterior a una secuencia
+     *
+     * @param desde Ultima secuencia que recibio el cliente
+     * @return true si no se perdio nada por antiguedad
+     */
+    static boolean cubre(long desde) {
+        return desde + 1 >= getPrimeraRetenida() && desde <= contigua.get();
+    }
+
+    /**
+     * Primera secuencia que todavia se puede repetir
+     */
+    static long getPrimeraRetenida() {
+        return Math.max(primeraConocida, ultimaGuardada.get() - CAPACIDAD + 1);
+    }
+
+    /**
+     * Lineas a repetir a un cliente, ya con su "#secuencia "
+     *
+     * @param desde Ultima secuencia recibida por el cliente (exclusive)
+     * @param hasta Ultima secuencia a repetir (inclusive)
+     * @param incluir Filtro de los mensajes dirigidos al cliente
+     * @return Lineas en orden de secuencia
+     */
+    static List<String> repetir(long desde, long hasta, Predicate<Mensaje> incluir) {
+        List<String> lineas = new ArrayList<>();
+        for (long s = Math.max(desde + 1, getPrimeraRetenida()); s <= hasta; s++) {
+            Mensaje mensaje = anillo.get((int) (s % CAPACIDAD));
+            if (mensaje != null && mensaje.getSecuencia() == s && incluir.test(mensaje)) {
+                lineas.add("#" + mensaje.getSecuencia() + " " + formatear(mensaje));
+            }
+        }
+        return lineas;
+    }
+
+    /**
+     * Mismo formato que la entrega en vivo (ver ServidorMixto)
+     */
+    private static String formatear(Mensaje mensaje) {
+        switch (mensaje.getTipoEnvio()) {
+            case Protocolo.UNICAST:
+                return "[PRIVADO de " + mensaje.getRemitente() + "] " + mensaje.getContenido();
+            case Protocolo.MULTICAST:
+                return "[MULTICAST " + mensaje.getDestino() + " de " + mensaje.getRemitente() + "] "
+                        + mensaje.getContenido();
+            default:
+                return "[BROADCAST de " + mensaje.getRemitente() + "] " + mensaje.getContenido();
+        }
+    }
+
+    // =============================================
+    // TOKENS
+    // =============================================
+
+    /**
+     * Identidad contenida en un token valido
+     */
+    static final class Sesion {
+        final String idCliente;
+        final String apodo;
+        final String sala;
+
+        /** La conexion habia demostrado ser duena del apodo */
+        final boolean dueno;
+
+        /** Ultima secuencia cubierta cuando empezo la sesion (SESION on) */
+        final long inicio;
+
+        Sesion(String idCliente, String apodo, String sala, boolean dueno, long inicio) {
+            this.idCliente = idCliente;
+            this.apodo = apodo;
+            this.sala = sala;
+            this.dueno = dueno;
+            this.inicio = inicio;
+        }
+
+        /**
+         * Indica si un mensaje le llego (o le habria llegado) a esta sesion
+         *
+         * @param mensaje Mensaje del anillo
+         * @param idActual ID de la conexion nueva
+         */
+        boolean esDestinatario(Mensaje mensaje, String idActual) {
+            String remitente = mensaje.getRemitente();
+            String destino = mensaje.getDestino();
+            boolean propio = idCliente.equals(remitente) || idActual.equals(remitente);
+            switch (mensaje.getTipoEnvio()) {
+                case Protocolo.BROADCAST:
+                    return !propio;
+                case Protocolo.UNICAST:
+                    // Los privados al apodo solo le tocan a su dueno
+                    return destino != null && (destino.equals(idCliente) || destino.equals(idActual)
+                            || (dueno && destino.equals(apodo)));
+                case Protocolo.MULTICAST:
+                    return !propio && sala != null && sala.equals(destino);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Emite el token de una conexion
+     *
+     * @param idCliente ID de la conexion
+     * @param apodo Apodo registrado (puede ser null)
+     * @param sala Sala actual (puede ser null)
+     * @param dueno true si la conexion es duena del apodo
+     * @param inicio Ultima secuencia cubierta al empezar la sesion
+     * @return Token opaco (base64 url, sin '|')
+     */
+    static String emitir(String idCliente, String apodo, String sala, boolean dueno, long inicio) {
+        String contenido = idCliente + "\n" + (apodo != null ? apodo : "") + "\n" + (sala != null ? sala : "")
+                + "\n" + (dueno ? "1" : "0") + "\n" + inicio + "\n" + System.currentTimeMillis();
+        byte[] datos = contenido.getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        return base64.encodeToString(datos) + "." + base64.encodeToString(firmar(datos));
+    }
+
+    /**
+     * Comprueba la firma y la vigencia de un token
+     *
+     * @param token Token recibido en REANUDAR
+     * @return Sesion del token, o null si no es valido o ya caduco
+     */
+    static Sesion verificar(String token) {
+        if (!disponible) {
+            return null;
+        }
+        int punto = token.indexOf('.');
+        if (punto <= 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getUrlDecoder();
+            byte[] datos = base64.decode(token.substring(0, punto));
+            byte[] firma = base64.decode(token.substring(punto + 1));
+            if (!MessageDigest.isEqual(firma, firmar(datos))) {
+                return null;
+            }
+            String[] partes = new String(datos, StandardCharsets.UTF_8).split("\n", -1);
+            if (partes.length != 6) {
+                return null;
+            }
+            long emitido = Long.parseLong(partes[5]);
+            if (System.currentTimeMillis() - emitido > TTL_MS) {
+                return null;
+            }
+            return new Sesion(partes[0], partes[1].isEmpty() ? null : partes[1],
+                    partes[2].isEmpty() ? null : partes[2], "1".equals(partes[3]), Long.parseLong(partes[4]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Emite la credencial de un apodo para su dueno
+     *
+     * @param apodo Apodo registrado
+     * @return Credencial opaca (base64 url, sin '|')
+     */
+    static String emitirCredencial(String apodo) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(firmar(datosCredencial(apodo)));
+    }
+
+    /**
+     * Comprueba la credencial presentada para un apodo
+     *
+     * @param apodo Apodo solicitado
+     * @param credencial Credencial recibida en CLAVE|credencial (puede ser null)
+     * @return true si la credencial es la de ese apodo
+     */
+    static boolean verificarCredencial(String apodo, String credencial) {
+        if (credencial == null || clave == null) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(Base64.getUrlDecoder().decode(credencial), firmar(datosCredencial(apodo)));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Prefijo distinto del de los tokens de sesion para que no se confundan
+    private static byte[] datosCredencial(String apodo) {
+        return ("apodo\n" + apodo).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] firmar(byte[] datos) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(clave);
+            byte[] completa = mac.doFinal(datos);
+            byte[] firma = new byte[BYTES_FIRMA];
+            System.arraycopy(completa, 0, firma, 0, BYTES_FIRMA);
+            return firma;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 no disponible", e);
+        }
+    }
+}
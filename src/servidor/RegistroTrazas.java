@@ -0,0 +1,241 @@
+package servidor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * REGISTRO DE TRAZAS - ID POR MENSAJE Y TRAZAS MUESTREADAS DEL ENRUTADO
+ *
+ * Cada linea que llega de un cliente recibe un ID de 64 bits. Una de cada
+ * chat.traza.cada lineas (1000 por defecto, 0 desactiva) se traza: se
+ * anota cada salto que da el mensaje hasta llegar a los sockets de sus
+ * destinatarios, para poder seguir un mensaje "perdido".
+ *
+ * Caracteristicas:
+ * - ID = 20 bits aleatorios del proceso + 44 bits de contador: compacto
+ *   (16 digitos hex) y sin repetirse entre reinicios ni entre nodos
+ * - Saltos anotados: RECIBIDO, ENRUTADO, ENCOLADO y ESCRITO por destinatario,
+ *   DESCARTADO (cola llena, cliente cerrado, sin destino), REENVIADO a otro
+ *   nodo y BUZON
+ * - Un mensaje sin muestrear solo paga el incremento del contador y
+ *   limpiar el contexto del hilo al terminar; nada se reserva ni se anota
+ * - Las trazas se guardan en un anillo acotado (chat.traza.capacidad, 1024):
+ *   la mas nueva reemplaza a la mas vieja
+ * - El enrutado es sincrono en el hilo lector del remitente, asi que la traza
+ *   activa viaja en un contexto por hilo sin cambiar las firmas de reparto
+ *
+ * @version 1.0
+ */
+public final class RegistroTrazas {
+
+    private static final long BITS_CONTADOR = 44;
+    private static final long MASCARA_CONTADOR = (1L << BITS_CONTADOR) - 1;
+    private static final long PREFIJO = (long) ThreadLocalRandom.current().nextInt(1 << 20) << BITS_CONTADOR;
+
+    private static final AtomicLong contador = new AtomicLong();
+
+    private static volatile int cada = Integer.getInteger("chat.traza.cada", 1000);
+
+    private static final int CAPACIDAD = Math.max(16, Integer.getInteger("chat.traza.capacidad", 1024));
+    private static final AtomicReferenceArray<Traza> almacen = new AtomicReferenceArray<>(CAPACIDAD);
+    private static final AtomicLong guardadas = new AtomicLong();
+
+    /**
+     * Contexto del mensaje que esta enrutando cada hilo (un objeto por hilo)
+     */
+    private static final class Contexto {
+        Traza traza;
+    }
+
+    private static final ThreadLocal<Contexto> CONTEXTO = ThreadLocal.withInitial(Contexto::new);
+
+    private RegistroTrazas() {
+    }
+
+    // =============================================
+    // TRAZA
+    // =============================================
+
+    /**
+     * Saltos de un mensaje muestreado
+     */
+    public static final class Traza {
+        private final long id;
+        private final String cliente;
+        private final String linea;
+        private final long inicioMs = System.currentTimeMillis();
+        private final long inicioNanos;
+        private final List<String> saltos = new ArrayList<>();
+
+        Traza(long id, String cliente, String linea, long inicioNanos) {
+            this.id = id;
+            this.cliente = cliente;
+            this.linea = linea;
+            this.inicioNanos = inicioNanos;
+        }
+
+        /**
+         * Anota un salto con el tiempo transcurrido desde la recepcion
+         *
+         * @param etapa Nombre del salto
+         * @param detalle Destinatario, nodo o motivo
+         */
+        public void anotar(String etapa, String detalle) {
+            long micros = (System.nanoTime() - inicioNanos) / 1000;
+            String salto = String.format("+%8dus %-11s %s", micros, etapa, detalle);
+            synchronized (saltos) {
+                saltos.add(salto);
+            }
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getCliente() {
+            return cliente;
+        }
+
+        /**
+         * Linea de resumen para los listados
+         */
+        public String resumen() {
+            int total;
+            synchronized (saltos) {
+                total = saltos.size();
+            }
+            return String.format("%s %tT %s saltos=%d %s", formatearId(id), inicioMs, cliente, total,
+                    linea.length() > 60 ? linea.substring(0, 60) + "..." : linea);
+        }
+
+        /**
+         * Traza completa: cabecera y un salto por linea
+         */
+        public List<String> detalle() {
+            List<String> lineas = new ArrayList<>();
+            lineas.add("Traza " + formatearId(id) + " de " + cliente + ": " + linea);
+            synchronized (saltos) {
+                for (String salto : saltos) {
+                    lineas.add("  " + salto);
+                }
+            }
+            return lineas;
+        }
+    }
+
+    // =============================================
+    // RUTA CALIENTE
+    // =============================================
+
+    /**
+     * Asigna un ID a una linea recibida y decide si se traza
+     * El contexto queda activo en el hilo hasta terminar()
+     *
+     * @param cliente ID del cliente que la envio
+     * @param linea Linea recibida
+     * @param recibidoNanos System.nanoTime() al leerla
+     * @return ID asignado
+     */
+    static long iniciar(String cliente, String linea, long recibidoNanos) {
+        long contadorActual = contador.getAndIncrement();
+        long id = PREFIJO | (contadorActual & MASCARA_CONTADOR);
+        int muestreo = cada;
+        if (muestreo > 0 && contadorActual % muestreo == 0) {
+            Traza traza = new Traza(id, cliente, linea, recibidoNanos);
+            traza.anotar("RECIBIDO", cliente);
+            almacen.set((int) (guardadas.getAndIncrement() % CAPACIDAD), traza);
+            CONTEXTO.get().traza = traza;
+        }
+        return id;
+    }
+
+    /**
+     * Cierra el contexto del hilo al terminar de procesar la linea
+     */
+    static void terminar() {
+        CONTEXTO.get().traza = null;
+    }
+
+    /**
+     * Traza del mensaje que enruta este hilo, o null si no se muestreo
+     */
+    static Traza trazaActual() {
+        return CONTEXTO.get().traza;
+    }
+
+    // =============================================
+    // CONSULTAS
+    // =============================================
+
+    /**
+     * Busca una traza guardada por su ID
+     *
+     * @param id ID del mensaje
+     * @return Traza, o null si no se muestreo o ya se reemplazo
+     */
+    public static Traza buscar(long id) {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            Traza traza = almacen.get(i);
+            if (traza != null && traza.id == id) {
+                return traza;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Trazas mas recientes, de la mas nueva a la mas vieja
+     *
+     * @param filtro Texto que debe aparecer en el cliente o en la linea (null = todas)
+     * @param maximo Numero maximo de trazas
+     * @return Trazas encontradas
+     */
+    public static List<Traza> recientes(String filtro, int maximo) {
+        List<Traza> encontradas = new ArrayList<>();
+        long ultima = guardadas.get();
+        for (long i = ultima - 1; i >= Math.max(0, ultima - CAPACIDAD) && encontradas.size() < maximo; i--) {
+            Traza traza = almacen.get((int) (i % CAPACIDAD));
+            if (traza != null && (filtro == null || traza.cliente.contains(filtro) || traza.linea.contains(filtro))) {
+                encontradas.add(traza);
+            }
+        }
+        return encontradas;
+    }
+
+    public static int getMuestreo() {
+        return cada;
+    }
+
+    /**
+     * Cambia el muestreo en caliente
+     *
+     * @param nuevo Trazar una de cada N lineas (0 desactiva, 1 traza todas)
+     */
+    public static void setMuestreo(int nuevo) {
+        cada = Math.max(0, nuevo);
+    }
+
+    public static long getTrazasGuardadas() {
+        return guardadas.get();
+    }
+
+    public static String formatearId(long id) {
+        return String.format("%016x", id);
+    }
+
+    /**
+     * Interpreta un ID en hexadecimal
+     *
+     * @return ID, o -1 si el texto no es un ID valido
+     */
+    public static long leerId(String texto) {
+        try {
+            return Long.parseUnsignedLong(texto.trim(), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package servidor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * SEGMENTO DEL DIARIO - METADATOS E INDICE DISPERSO DE DESPLAZAMIENTOS
+ *
+ * Cada archivo de segmento del diario tiene un archivo de indice disperso
+ * con una entrada cada INTERVALO_INDICE registros. Gracias a este indice
+ * el arranque del servidor solo lee los archivos de indice (pequenos) y,
+ * en el ultimo segmento, como mucho INTERVALO_INDICE registros.
+ *
+ * Formato de cada entrada del indice (20 bytes):
+ * - long secuencia del registro
+ * - int  desplazamiento del registro dentro del segmento
+ * - long timestamp del registro en milisegundos
+ *
+ * Al sellar un segmento se agrega una entrada final con la secuencia
+ * siguiente a la ultima en negativo (marca de sellado), el desplazamiento
+ * del fin de datos validos y el timestamp del ultimo registro.
+ *
+ * @version 1.0
+ */
+class SegmentoDiario {
+
+    // =============================================
+    // CONSTANTES
+    // =============================================
+
+    static final String EXTENSION_INDICE = ".indice";
+
+    /**
+     * Registros entre dos entradas del indice disperso
+     */
+    static final int INTERVALO_INDICE = 128;
+
+    static final int TAMANO_ENTRADA = 8 + 4 + 8;
+
+    // =============================================
+    // METADATOS DEL SEGMENTO
+    // =============================================
+
+    final File archivo;
+    final File archivoIndice;
+
+    volatile long primeraSecuencia;
+    volatile long ultimaSecuencia;
+    volatile long primerTimestamp;
+    volatile long ultimoTimestamp;
+
+    /**
+     * Bytes ocupados por registros validos
+     */
+    volatile int bytesValidos;
+
+    volatile boolean sellado;
+
+    /**
+     * Instante a partir del cual algun registro vence por la retencion de
+     * su canal (lo calcula el compactador para no revisar el segmento antes)
+     */
+    volatile long proximaRevision;
+
+    // =============================================
+    // ESTADO DE ESCRITURA (SOLO SEGMENTO ACTIVO)
+    // =============================================
+
+    private FileChannel canalIndice;
+    private int registrosDesdeEntrada;
+
+    /**
+     * true mientras el segmento no tiene ningun registro
+     */
+    private boolean vacio = true;
+    private final ByteBuffer entrada = ByteBuffer.allocate(TAMANO_ENTRADA);
+
+    SegmentoDiario(File archivo) {
+        this.archivo = archivo;
+        String nombre = archivo.getName();
+        String base = nombre.substring(0, nombre.length() - DiarioMensajes.EXTENSION_SEGMENTO.length());
+        this.archivoIndice = new File(archivo.getParentFile(), base + EXTENSION_INDICE);
+        this.primeraSecuencia = DiarioMensajes.primeraSecuenciaDe(archivo);
+        this.ultimaSecuencia = primeraSecuencia - 1;
+    }
+
+    // =============================================
+    // ESCRITURA DEL INDICE (HILO ESCRITOR DEL DIARIO)
+    // =============================================
+
+    /**
+     * Abre el indice para agregar entradas (segmento activo)
+     *
+     * @param conservarBytes Bytes validos del indice existente a conservar
+     * @throws IOException Si no se puede abrir
+     */
+    void abrirIndiceEscritura(long conservarBytes) throws IOException {
+        canalIndice = FileChannel.open(archivoIndice.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        canalIndice.truncate(conservarBytes);
+        canalIndice.position(conservarBytes);
+    }
+
+    /**
+     * Anota un registro recien escrito en el segmento
+     *
+     * @param secuencia Secuencia del registro
+     * @param desplazamiento Posicion del registro en el segmento
+     * @param timestamp Timestamp del registro
+     * @param fin Posicion del fin de datos validos tras el registro
+     * @throws IOException Si falla la escritura del indice
+     */
+    void registrar(long secuencia, int desplazamiento, long timestamp, int fin) throws IOException {
+        if (vacio) {
+            primeraSecuencia = secuencia;
+            primerTimestamp = timestamp;
+            vacio = false;
+        }
+        if (registrosDesdeEntrada == 0) {
+            escribirEntrada(secuencia, desplazamiento, timestamp);
+        }
+        registrosDesdeEntrada = (registrosDesdeEntrada + 1) % INTERVALO_INDICE;
+        ultimaSecuencia = Math.max(ultimaSecuencia, secuencia);
+        ultimoTimestamp = timestamp;
+        bytesValidos = fin;
+    }
+
+    /**
+     * Fuerza el indice a disco (se llama junto con el fsync del segmento)
+     */
+    void sincronizarIndice() {
+        try {
+            if (canalIndice != null) {
+                canalIndice.force(false);
+            }
+        } catch (IOException e) {
+            System.err.println("Error sincronizando indice " + archivoIndice.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe la entrada final y cierra el indice; el segmento ya no cambia
+     */
+    void sellar() {
+        try {
+            if (canalIndice != null) {
+                escribirEntrada(-(ultimaSecuencia + 1), bytesValidos, ultimoTimestamp);
+                canalIndice.force(false);
+                canalIndice.close();
+                canalIndice = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error sellando indice " + archivoIndice.getName() + ": " + e.getMessage());
+        }
+        sellado = true;
+    }
+
+    private void escribirEntrada(long secuencia, int desplazamiento, long timestamp) throws IOException {
+        entrada.clear();
+        entrada.putLong(secuencia).putInt(desplazamiento).putLong(timestamp).flip();
+        while (entrada.hasRemaining()) {
+            canalIndice.write(entrada);
+        }
+    }
+
+    // =============================================
+    // CARGA DESDE DISCO
+    // =============================================
+
+    /**
+     * Carga los metadatos de un segmento sellado leyendo solo su indice
+     * Si el indice no existe o esta incompleto, lo regenera recorriendo
+     * el segmento (solo pasa con segmentos antiguos o tras un fallo)
+     *
+     * @param archivo Archivo del segmento
+     * @return Segmento con sus metadatos cargados
+     * @throws IOException Si falla la lectura
+     */
+    static SegmentoDiario cargarSellado(File archivo) throws IOException {
+        SegmentoDiario segmento = new SegmentoDiario(archivo);
+        long[][] entradas = segmento.leerEntradas();
+        int n = entradas.length;
+
+        // Un indice sellado termina con una entrada de secuencia negativa
+        if (n >= 1 && entradas[n - 1][0] < 0) {
+            if (n >= 2) {
+                segmento.primeraSecuencia = entradas[0][0];
+                segmento.primerTimestamp = entradas[0][2];
+            }
+            segmento.vacio = n < 2;
+            segmento.ultimaSecuencia = -entradas[n - 1][0] - 1;
+            segmento.bytesValidos = (int) entradas[n - 1][1];
+            segmento.ultimoTimestamp = entradas[n - 1][2];
+            segmento.sellado = true;
+            return segmento;
+        }
+
+        segmento.reconstruirIndice(0);
+        segmento.sellar();
+        return segmento;
+    }
+
+    /**
+     * Carga el ultimo segmento (el que sigue recibiendo escrituras)
+     * Parte de la ultima entrada del indice cuyo registro es valido y recorre
+     * como mucho INTERVALO_INDICE registros hasta el fin de datos
+     *
+     * @param archivo Archivo del segmento
+     * @param datos Contenido mapeado del segmento
+     * @return Segmento listo para seguir escribiendo
+     * @throws IOException Si falla la lectura o escritura del indice
+     */
+    static SegmentoDiario cargarActivo(File archivo, ByteBuffer datos) throws IOException {
+        SegmentoDiario segmento = new SegmentoDiario(archivo);
+        long[][] entradas = segmento.leerEntradas();
+        CRC32 crc = new CRC32();
+
+        // Buscar desde el final la ultima entrada que apunte a un registro valido
+        int entradaValida = -1;
+        for (int i = entradas.length - 1; i >= 0 && entradaValida < 0; i--) {
+            if (entradas[i][0] < 0) {
+                continue;
+            }
+            ByteBuffer lectura = datos.duplicate();
+            lectura.position((int) Math.min(entradas[i][1], lectura.limit()));
+            byte[] cuerpo = leerRegistro(lectura, crc);
+            if (cuerpo != null && ByteBuffer.wrap(cuerpo).getLong() == entradas[i][0]) {
+                entradaValida = i;
+            }
+        }
+
+        if (entradaValida < 0) {
+            segmento.reconstruirIndice(0, datos);
+            return segmento;
+        }
+
+        segmento.primeraSecuencia = entradas[0][0];
+        segmento.primerTimestamp = entradas[0][2];
+        segmento.vacio = false;
+        segmento.abrirIndiceEscritura((long) entradaValida * TAMANO_ENTRADA);
+        segmento.recorrerDesde(datos, (int) entradas[entradaValida][1]);
+        return segmento;
+    }
+
+    /**
+     * Regenera el indice completo recorriendo el segmento desde el inicio
+     */
+    private void reconstruirIndice(int desde) throws IOException {
+        try (FileChannel lectura = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            reconstruirIndice(desde, lectura.map(FileChannel.MapMode.READ_ONLY, 0, lectura.size()));
+        }
+    }
+
+    private void reconstruirIndice(int desde, ByteBuffer datos) throws IOException {
+        abrirIndiceEscritura(0);
+        bytesValidos = 0;
+        vacio = true;
+        recorrerDesde(datos, desde);
+    }
+
+    /**
+     * Recorre registros validos desde una posicion anotandolos en el indice
+     */
+    private void recorrerDesde(ByteBuffer datos, int desde) throws IOException {
+        ByteBuffer lectura = datos.duplicate();
+        lectura.position(desde);
+        CRC32 crc = new CRC32();
+        registrosDesdeEntrada = 0;
+        int inicio = desde;
+        byte[] cuerpo;
+        while ((cuerpo = leerRegistro(lectura, crc)) != null) {
+            ByteBuffer cabecera = ByteBuffer.wrap(cuerpo);
+            long secuencia = cabecera.getLong();
+            long timestamp = cabecera.getLong();
+            registrar(secuencia, inicio, timestamp, lectura.position());
+            inicio = lectura.position();
+        }
+        bytesValidos = inicio;
+    }
+
+    /**
+     * Lee todas las entradas del indice
+     *
+     * @return Entradas como {secuencia, desplazamiento, timestamp}
+     */
+    private long[][] leerEntradas() throws IOException {
+        if (!archivoIndice.isFile()) {
+            return new long[0][];
+        }
+        try (FileChannel lectura = FileChannel.open(archivoIndice.toPath(), StandardOpenOption.READ)) {
+            int n = (int) (lectura.size() / TAMANO_ENTRADA);
+            ByteBuffer datos = ByteBuffer.allocate(n * TAMANO_ENTRADA);
+            while (datos.hasRemaining() && lectura.read(datos) >= 0) {
+                // leer hasta llenar el buffer
+            }
+            datos.flip();
+            long[][] entradas = new long[n][];
+            for (int i = 0; i < n; i++) {
+                entradas[i] = new long[] {datos.getLong(), datos.getInt(), datos.getLong()};
+            }
+            return entradas;
+        }
+    }
+
+    /**
+     * Posicion desde la que hay que leer para llegar a una secuencia: la de
+     * la ultima entrada del indice que no la supera
+     *
+     * @param secuencia Secuencia buscada
+     * @return Desplazamiento dentro del segmento (0 si ninguna entrada sirve)
+     * @throws IOException Si falla la lectura del indice
+     */
+    int desplazamientoHasta(long secuencia) throws IOException {
+        int desplazamiento = 0;
+        for (long[] entrada : leerEntradas()) {
+            if (entrada[0] < 0 || entrada[0] > secuencia) {
+                break;
+            }
+            desplazamiento = (int) entrada[1];
+        }
+        return desplazamiento;
+    }
+
+    // =============================================
+    // UTILIDADES
+    // =============================================
+
+    /**
+     * Lee un registro [longitud][crc][cuerpo] en la posicion actual
+     *
+     * @param datos Buffer posicionado al inicio de un registro
+     * @param crc Calculadora de CRC reutilizable
+     * @return Cuerpo del registro, o null si no hay un registro valido
+     */
+    static byte[] leerRegistro(ByteBuffer datos, CRC32 crc) {
+        if (datos.remaining() < DiarioMensajes.TAMANO_CABECERA) {
+            return null;
+        }
+        int longitud = datos.getInt();
+        int crcEsperado = datos.getInt();
+        if (longitud <= 0 || longitud > datos.remaining()) {
+            return null;
+        }
+        byte[] cuerpo = new byte[longitud];
+        datos.get(cuerpo);
+        crc.reset();
+        crc.update(cuerpo, 0, longitud);
+        return (int) crc.getValue() == crcEsperado ? cuerpo : null;
+    }
+
+    /**
+     * Numero de registros del segmento
+     *
+     * @return Registros entre la primera y la ultima secuencia (aproximado
+     *         si el segmento fue compactado)
+     */
+    long getRegistros() {
+        return Math.max(0, ultimaSecuencia - primeraSecuencia + 1);
+    }
+
+    /**
+     * Borra el segmento y su indice del disco
+     *
+     * @return true si ambos archivos se eliminaron
+     */
+    boolean borrar() {
+        boolean segmentoBorrado = !archivo.exists() || archivo.delete();
+        boolean indiceBorrado = !archivoIndice.exists() || archivoIndice.delete();
+        return segmentoBorrado && indiceBorrado;
+    }
+}
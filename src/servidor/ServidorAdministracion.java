@@ -0,0 +1,536 @@
+package servidor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import common.Bitacora;
+import common.HistogramaLatencia;
+import common.Protocolo;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SERVIDOR DE ADMINISTRACION - METRICAS Y ACCIONES POR HTTP
+ *
+ * Endpoint HTTP embebido (com.sun.net.httpserver) para supervisar y
+ * administrar un servidor sin consola ni interfaz grafica.
+ *
+ * Rutas:
+ * - GET  /metrics                      -> Metricas en formato de texto Prometheus
+ * - GET  /sesiones?offset=0&limite=50  -> Sesiones TCP en JSON, ordenadas por ID
+ *                                         (protocolo=udp para los clientes UDP)
+ * - GET  /cambios?desde=CURSOR         -> Deltas de sesiones desde el cursor, para
+ *                                         un panel remoto (servidor sin interfaz)
+ * - POST /admin/expulsar?id=ID         -> Desconecta a un cliente (ID o apodo)
+ * - POST /admin/drenar[?activo=false]  -> Deja de aceptar clientes nuevos (o vuelve a aceptar)
+ * - POST /admin/apagar                 -> Cierra el servidor de forma ordenada
+ *
+ * Caracteristicas:
+ * - Puerto chat.admin.puerto (0 = desactivado, por defecto) escuchando en
+ *   chat.admin.host (127.0.0.1 por defecto)
+ * - Pool propio de chat.admin.hilos hilos (2 por defecto): una consulta
+ *   lenta nunca ocupa los hilos que enrutan mensajes
+ * - Si se define chat.admin.token, las acciones exigen la cabecera
+ *   "Authorization: Bearer <token>"
+ * - /cambios retiene los ultimos chat.admin.cambios deltas (4096): un panel
+ *   con un cursor mas viejo, o que llega despues de perderse deltas, recibe
+ *   "recargar" y vuelve a pedir /sesiones
+ *
+ * @version 1.0
+ */
+public class ServidorAdministracion {
+
+    /** Limites de las cubetas de los histogramas exportados, en segundos */
+    private static final double[] CUBETAS_SEGUNDOS = {
+        0.00001, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+        0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0
+    };
+
+    private static final int LIMITE_MAXIMO = 500;
+
+    private static final int CAMBIOS_RETENIDOS = Math.max(64, Integer.getInteger("chat.admin.cambios", 4096));
+
+    /** Deltas maximos por respuesta de /cambios */
+    private static final int CAMBIOS_POR_RESPUESTA = 2000;
+
+    private final String host;
+    private final int puerto;
+    private final int hilos;
+    private final String token;
+
+    private HttpServer servidor;
+    private ExecutorService ejecutor;
+
+    // Deltas de sesiones retenidos para los paneles remotos (secuencia n en n % CAMBIOS_RETENIDOS)
+    private final CambiosSesiones.Cambio[] cambios = new CambiosSesiones.Cambio[CAMBIOS_RETENIDOS];
+    private long siguienteCambio;
+    private long primerCambioValido;
+
+    /**
+     * Crea el servidor de administracion (no escucha hasta iniciar())
+     *
+     * @param host Interfaz donde escuchar
+     * @param puerto Puerto HTTP
+     * @param hilos Hilos del pool de atencion
+     * @param token Token de las acciones, o null para no exigirlo
+     */
+    public ServidorAdministracion(String host, int puerto, int hilos, String token) {
+        this.host = host;
+        this.puerto = puerto;
+        this.hilos = Math.max(1, hilos);
+        this.token = token;
+    }
+
+    /**
+     * Crea el servidor a partir de las propiedades chat.admin.*
+     *
+     * @return Servidor configurado, o null si chat.admin.puerto es 0
+     */
+    public static ServidorAdministracion desdePropiedades() {
+        int puerto = Integer.getInteger("chat.admin.puerto", 0);
+        if (puerto <= 0) {
+            return null;
+        }
+        String token = System.getProperty("chat.admin.token");
+        return new ServidorAdministracion(
+                System.getProperty("chat.admin.host", "127.0.0.1"),
+                puerto,
+                Integer.getInteger("chat.admin.hilos", 2),
+                token == null || token.isEmpty() ? null : token);
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    public void iniciar() throws IOException {
+        AtomicInteger contador = new AtomicInteger();
+        ejecutor = Executors.newFixedThreadPool(hilos, tarea -> {
+            Thread hilo = new Thread(tarea, "admin-http-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        servidor = HttpServer.create(new InetSocketAddress(host, puerto), 16);
+        servidor.setExecutor(ejecutor);
+        servidor.createContext("/metrics", protegido(false, this::metricas));
+        servidor.createContext("/sesiones", protegido(false, this::sesiones));
+        servidor.createContext("/cambios", protegido(false, this::cambios));
+        servidor.createContext("/admin/expulsar", protegido(true, this::expulsar));
+        servidor.createContext("/admin/drenar", protegido(true, this::drenar));
+        servidor.createContext("/admin/apagar", protegido(true, this::apagar));
+        servidor.start();
+        System.out.println("Administracion HTTP en http://" + host + ":" + getPuerto() + "/metrics");
+    }
+
+    public void detener() {
+        if (servidor != null) {
+            servidor.stop(0);
+        }
+        if (ejecutor != null) {
+            ejecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Puerto en el que escucha (el real si se pidio el 0 al crear el socket)
+     */
+    public int getPuerto() {
+        return servidor != null ? servidor.getAddress().getPort() : puerto;
+    }
+
+    /**
+     * Envuelve una ruta con la comprobacion de metodo, token y errores
+     *
+     * @param accion true si la ruta modifica el servidor (POST y token)
+     * @param manejador Atencion de la ruta
+     */
+    private HttpHandler protegido(boolean accion, HttpHandler manejador) {
+        return intercambio -> {
+            try {
+                String metodo = intercambio.getRequestMethod();
+                if (accion && !"POST".equals(metodo)) {
+                    responder(intercambio, 405, "text/plain", "Use POST\n");
+                } else if (!accion && !"GET".equals(metodo) && !"HEAD".equals(metodo)) {
+                    responder(intercambio, 405, "text/plain", "Use GET\n");
+                } else if (accion && token != null
+                        && !("Bearer " + token).equals(intercambio.getRequestHeaders().getFirst("Authorization"))) {
+                    responder(intercambio, 401, "text/plain", "Token invalido\n");
+                } else {
+                    manejador.handle(intercambio);
+                }
+            } catch (RuntimeException e) {
+                Bitacora.aviso("Error atendiendo {}: {}", intercambio.getRequestURI(), e.toString());
+                responder(intercambio, 500, "text/plain", "Error interno\n");
+            } finally {
+                intercambio.close();
+            }
+        };
+    }
+
+    // =============================================
+    // METRICAS (FORMATO PROMETHEUS)
+    // =============================================
+
+    private void metricas(HttpExchange intercambio) throws IOException {
+        StringBuilder texto = new StringBuilder(16 * 1024);
+
+        encabezado(texto, "chat_mensajes_entrantes_total", "counter", "Mensajes recibidos de los clientes");
+        for (int tipo : Metricas.TIPOS_ENVIO) {
+            muestra(texto, "chat_mensajes_entrantes_total", etiquetaTipo(tipo), Metricas.getMensajesEntrantes(tipo));
+        }
+        encabezado(texto, "chat_mensajes_salientes_total", "counter", "Mensajes entregados a clientes");
+        for (int tipo : Metricas.TIPOS_ENVIO) {
+            muestra(texto, "chat_mensajes_salientes_total", etiquetaTipo(tipo), Metricas.getMensajesSalientes(tipo));
+        }
+        contador(texto, "chat_comandos_total", "Otros comandos de clientes", Metricas.COMANDOS.sum());
+        contador(texto, "chat_bytes_entrantes_total", "Bytes leidos de los clientes", Metricas.BYTES_ENTRANTES.sum());
+        contador(texto, "chat_bytes_salientes_total", "Bytes escritos a los clientes", Metricas.BYTES_SALIENTES.sum());
+        contador(texto, "chat_conexiones_total", "Conexiones TCP aceptadas", Metricas.CONEXIONES.sum());
+        contador(texto, "chat_desconexiones_total", "Conexiones TCP cerradas", Metricas.DESCONEXIONES.sum());
+        contador(texto, "chat_salientes_descartados_total", "Mensajes descartados por cola de salida llena",
+                Metricas.SALIENTES_DESCARTADOS.sum());
+        contador(texto, "chat_bitacora_descartados_total", "Registros de bitacora descartados",
+                Bitacora.getDescartados());
+
+        medidor(texto, "chat_clientes_conectados", "Clientes TCP conectados",
+                ServidorMixto.getManejadoresActivos().size());
+        medidor(texto, "chat_colas_salida_pendientes", "Mensajes pendientes en todas las colas de salida",
+                Metricas.getProfundidadColasSalida());
+        medidor(texto, "chat_cola_salida_maxima", "Mayor cola de salida de un cliente",
+                Metricas.getMaximaColaSalida());
+        medidor(texto, "chat_drenando", "1 si el servidor no acepta clientes nuevos",
+                ServidorMixto.estaDrenando() ? 1 : 0);
+
+        encabezado(texto, "chat_reparto_segundos", "histogram", "Duracion del reparto de un mensaje");
+        for (int tipo : Metricas.TIPOS_ENVIO) {
+            histograma(texto, "chat_reparto_segundos", etiquetaTipo(tipo),
+                    Metricas.getDuracionReparto(tipo).instantanea());
+        }
+        encabezado(texto, "chat_latencia_etapa_segundos", "histogram", "Latencia por etapa de los mensajes enrutados");
+        histograma(texto, "chat_latencia_etapa_segundos", "etapa=\"enrutado\"", Metricas.LATENCIA_ENRUTADO.instantanea());
+        histograma(texto, "chat_latencia_etapa_segundos", "etapa=\"cola\"", Metricas.ESPERA_COLA_SALIDA.instantanea());
+        histograma(texto, "chat_latencia_etapa_segundos", "etapa=\"escritura\"", Metricas.LATENCIA_ESCRITURA.instantanea());
+        histograma(texto, "chat_latencia_etapa_segundos", "etapa=\"total\"", Metricas.LATENCIA_TOTAL.instantanea());
+
+        responder(intercambio, 200, "text/plain; version=0.0.4; charset=utf-8", texto.toString());
+    }
+
+    private static String etiquetaTipo(int tipo) {
+        return "tipo=\"" + Protocolo.getDescripcionTipoEnvio(tipo).toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static void encabezado(StringBuilder texto, String nombre, String tipo, String ayuda) {
+        texto.append("# HELP ").append(nombre).append(' ').append(ayuda).append('\n');
+        texto.append("# TYPE ").append(nombre).append(' ').append(tipo).append('\n');
+    }
+
+    private static void muestra(StringBuilder texto, String nombre, String etiquetas, long valor) {
+        texto.append(nombre);
+        if (etiquetas != null) {
+            texto.append('{').append(etiquetas).append('}');
+        }
+        texto.append(' ').append(valor).append('\n');
+    }
+
+    private static void contador(StringBuilder texto, String nombre, String ayuda, long valor) {
+        encabezado(texto, nombre, "counter", ayuda);
+        muestra(texto, nombre, null, valor);
+    }
+
+    private static void medidor(StringBuilder texto, String nombre, String ayuda, long valor) {
+        encabezado(texto, nombre, "gauge", ayuda);
+        muestra(texto, nombre, null, valor);
+    }
+
+    /**
+     * Exporta un histograma con cubetas acumulativas en segundos
+     */
+    private static void histograma(StringBuilder texto, String nombre, String etiquetas,
+                                   HistogramaLatencia.Instantanea datos) {
+        for (double limite : CUBETAS_SEGUNDOS) {
+            texto.append(nombre).append("_bucket{").append(etiquetas).append(",le=\"").append(limite).append("\"} ")
+                 .append(datos.contarHasta((long) (limite * 1e9))).append('\n');
+        }
+        texto.append(nombre).append("_bucket{").append(etiquetas).append(",le=\"+Inf\"} ")
+             .append(datos.getTotal()).append('\n');
+        texto.append(nombre).append("_sum{").append(etiquetas).append("} ")
+             .append(datos.getSuma() / 1e9).append('\n');
+        texto.append(nombre).append("_count{").append(etiquetas).append("} ")
+             .append(datos.getTotal()).append('\n');
+    }
+
+    // =============================================
+    // SESIONES (JSON PAGINADO)
+    // =============================================
+
+    private void sesiones(HttpExchange intercambio) throws IOException {
+        Map<String, String> parametros = parametros(intercambio);
+        int offset = Math.max(0, entero(parametros.get("offset"), 0));
+        int limite = Math.min(LIMITE_MAXIMO, Math.max(1, entero(parametros.get("limite"), 50)));
+        if ("udp".equalsIgnoreCase(parametros.get("protocolo"))) {
+            sesionesUDP(intercambio, offset, limite);
+            return;
+        }
+
+        // Copia ordenada por ID: paginas estables entre consultas
+        TreeMap<String, ManejadorClientes> ordenados;
+        Map<String, ManejadorClientes> activos = ServidorMixto.getManejadoresActivos();
+        synchronized (activos) {
+            ordenados = new TreeMap<>(activos);
+        }
+
+        List<ManejadorClientes> pagina = new ArrayList<>(limite);
+        int posicion = 0;
+        for (ManejadorClientes manejador : ordenados.values()) {
+            if (posicion++ >= offset) {
+                pagina.add(manejador);
+                if (pagina.size() == limite) {
+                    break;
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder(256 + pagina.size() * 160);
+        json.append("{\"total\":").append(ordenados.size())
+            .append(",\"offset\":").append(offset)
+            .append(",\"limite\":").append(limite)
+            .append(",\"siguiente\":");
+        if (offset + pagina.size() < ordenados.size()) {
+            json.append(offset + pagina.size());
+        } else {
+            json.append("null");
+        }
+        json.append(",\"sesiones\":[");
+        for (int i = 0; i < pagina.size(); i++) {
+            ManejadorClientes manejador = pagina.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(cadenaJson(manejador.getIdCliente()))
+                .append(",\"apodo\":").append(cadenaJson(manejador.getApodo()))
+                .append(",\"sala\":").append(cadenaJson(manejador.getSala()))
+                .append(",\"protocolo\":")
+                .append(cadenaJson(Protocolo.getDescripcionProtocolo(manejador.getTipoProtocolo())))
+                .append(",\"conectadoDesde\":").append(manejador.getConectadoDesde())
+                .append(",\"pendientesSalida\":").append(manejador.getPendientesSalida())
+                .append('}');
+        }
+        json.append("]}");
+        responder(intercambio, 200, "application/json; charset=utf-8", json.toString());
+    }
+
+    /**
+     * Clientes UDP registrados, paginados igual que las sesiones TCP
+     */
+    private void sesionesUDP(HttpExchange intercambio, int offset, int limite) throws IOException {
+        List<String> ordenados = new ArrayList<>(ServidorMixto.getClientesUDP());
+        ordenados.sort(null);
+        int fin = Math.min(ordenados.size(), offset + limite);
+
+        StringBuilder json = new StringBuilder(256 + Math.max(0, fin - offset) * 48);
+        json.append("{\"total\":").append(ordenados.size())
+            .append(",\"offset\":").append(offset)
+            .append(",\"limite\":").append(limite)
+            .append(",\"siguiente\":").append(fin < ordenados.size() ? String.valueOf(fin) : "null")
+            .append(",\"sesiones\":[");
+        for (int i = offset; i < fin; i++) {
+            if (i > offset) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(cadenaJson(ordenados.get(i)))
+                .append(",\"protocolo\":\"UDP\"}");
+        }
+        json.append("]}");
+        responder(intercambio, 200, "application/json; charset=utf-8", json.toString());
+    }
+
+    // =============================================
+    // CAMBIOS DE SESIONES (PANEL REMOTO)
+    // =============================================
+
+    /**
+     * Deltas desde el cursor del panel, con los datos actuales de cada sesion
+     * El primer pedido (desde=-1) solo devuelve el cursor y "recargar":
+     * el panel pide /sesiones despues y aplica desde ese cursor (un delta
+     * repetido es inofensivo, uno perdido no)
+     */
+    private void cambios(HttpExchange intercambio) throws IOException {
+        if (ServidorMixto.tieneInterfazLocal()) {
+            responder(intercambio, 409, "application/json",
+                    "{\"error\":\"El panel local consume los cambios; arranque el servidor con --headless\"}");
+            return;
+        }
+        long desde = largo(parametros(intercambio).get("desde"), -1);
+
+        List<CambiosSesiones.Cambio> pendientes = new ArrayList<>();
+        long cursor;
+        boolean recargar;
+        synchronized (cambios) {
+            recogerCambios();
+            recargar = desde < primerCambioValido || desde > siguienteCambio;
+            cursor = recargar ? siguienteCambio : Math.min(siguienteCambio, desde + CAMBIOS_POR_RESPUESTA);
+            for (long s = recargar ? cursor : desde; s < cursor; s++) {
+                pendientes.add(cambios[(int) (s % CAMBIOS_RETENIDOS)]);
+            }
+        }
+
+        StringBuilder json = new StringBuilder(128 + pendientes.size() * 128);
+        json.append("{\"cursor\":").append(cursor)
+            .append(",\"recargar\":").append(recargar)
+            .append(",\"mensajes\":").append(Metricas.getTotalEntrantes())
+            .append(",\"cambios\":[");
+        for (int i = 0; i < pendientes.size(); i++) {
+            CambiosSesiones.Cambio cambio = pendientes.get(i);
+            CambiosSesiones.Sesion sesion = cambio.tipo == CambiosSesiones.DESCONECTADO
+                    ? null : CambiosSesiones.sesion(cambio.idCliente, cambio.protocolo);
+            if (i > 0) {
+                json.append(',');
+            }
+            String tipo = sesion == null ? "DESCONECTADO"
+                    : cambio.tipo == CambiosSesiones.CONECTADO ? "CONECTADO" : "ACTUALIZADO";
+            json.append("{\"tipo\":\"").append(tipo)
+                .append("\",\"id\":").append(cadenaJson(cambio.idCliente))
+                .append(",\"protocolo\":")
+                .append(cadenaJson(Protocolo.getDescripcionProtocolo(cambio.protocolo)));
+            if (sesion != null && sesion.protocolo == Protocolo.TCP) {
+                json.append(",\"apodo\":").append(cadenaJson(sesion.apodo))
+                    .append(",\"sala\":").append(cadenaJson(sesion.sala))
+                    .append(",\"conectadoDesde\":").append(sesion.conectadoDesde);
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        responder(intercambio, 200, "application/json; charset=utf-8", json.toString());
+    }
+
+    /**
+     * Pasa los deltas de CambiosSesiones al anillo retenido
+     * Este servidor es el unico consumidor cuando no hay panel local
+     */
+    private void recogerCambios() {
+        CambiosSesiones.suscribir();
+        boolean completo = CambiosSesiones.drenar(cambio ->
+                cambios[(int) (siguienteCambio++ % CAMBIOS_RETENIDOS)] = cambio, Integer.MAX_VALUE);
+        // Ningun cursor anterior sirve si se perdieron deltas o el anillo dio la vuelta
+        primerCambioValido = completo
+                ? Math.max(primerCambioValido, siguienteCambio - CAMBIOS_RETENIDOS)
+                : siguienteCambio;
+    }
+
+    // =============================================
+    // ACCIONES
+    // =============================================
+
+    private void expulsar(HttpExchange intercambio) throws IOException {
+        String id = parametros(intercambio).get("id");
+        if (id == null || id.isEmpty()) {
+            responder(intercambio, 400, "application/json", "{\"error\":\"Falta el parametro id\"}");
+            return;
+        }
+        boolean expulsado = ServidorMixto.expulsarCliente(id, "Expulsado por el administrador");
+        responder(intercambio, expulsado ? 200 : 404, "application/json; charset=utf-8",
+                "{\"id\":" + cadenaJson(id) + ",\"expulsado\":" + expulsado + "}");
+    }
+
+    private void drenar(HttpExchange intercambio) throws IOException {
+        boolean activo = !"false".equalsIgnoreCase(parametros(intercambio).get("activo"));
+        ServidorMixto.setDrenando(activo);
+        responder(intercambio, 200, "application/json; charset=utf-8",
+                "{\"drenando\":" + activo + ",\"clientes\":" + ServidorMixto.getManejadoresActivos().size() + "}");
+    }
+
+    private void apagar(HttpExchange intercambio) throws IOException {
+        responder(intercambio, 202, "application/json; charset=utf-8", "{\"apagando\":true}");
+        // Fuera del pool: el cierre detiene este mismo servidor HTTP
+        Thread cierre = new Thread(ServidorMixto::cerrarServidor, "apagado-admin");
+        cierre.start();
+    }
+
+    // =============================================
+    // UTILIDADES HTTP Y JSON
+    // =============================================
+
+    private static void responder(HttpExchange intercambio, int estado, String tipo, String cuerpo)
+            throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo);
+        boolean sinCuerpo = "HEAD".equals(intercambio.getRequestMethod());
+        intercambio.sendResponseHeaders(estado, sinCuerpo ? -1 : bytes.length);
+        if (!sinCuerpo) {
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(bytes);
+            }
+        }
+    }
+
+    private static Map<String, String> parametros(HttpExchange intercambio) {
+        Map<String, String> parametros = new HashMap<>();
+        String consulta = intercambio.getRequestURI().getRawQuery();
+        if (consulta == null) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            String clave = igual >= 0 ? par.substring(0, igual) : par;
+            String valor = igual >= 0 ? par.substring(igual + 1) : "";
+            parametros.put(URLDecoder.decode(clave, StandardCharsets.UTF_8),
+                    URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return parametros;
+    }
+
+    private static int entero(String valor, int porDefecto) {
+        try {
+            return valor != null ? Integer.parseInt(valor) : porDefecto;
+        } catch (NumberFormatException e) {
+            return porDefecto;
+        }
+    }
+
+    private static long largo(String valor, long porDefecto) {
+        try {
+            return valor != null ? Long.parseLong(valor) : porDefecto;
+        } catch (NumberFormatException e) {
+            return porDefecto;
+        }
+    }
+
+    /**
+     * Cadena JSON entre comillas con los caracteres especiales escapados
+     */
+    static String cadenaJson(String valor) {
+        if (valor == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(valor.length() + 2).append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
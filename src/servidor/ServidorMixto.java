@@ -1,9 +1,14 @@
 package servidor;
 
+import common.Bitacora;
+import common.Mensaje;
 import common.Protocolo;
 import java.io.*;
 import java.net.*;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 import javax.swing.SwingUtilities;
 
 /**
@@ -30,14 +35,16 @@ public class ServidorMixto {
     /**
      * Puerto para conexiones TCP (orientadas a conexion)
      * Los clientes TCP establecen una conexion persistente
+     * Configurable con chat.puerto.tcp para ejecutar varios nodos en un equipo
      */
-    private static final int PUERTO_TCP = 12345;
+    private static final int PUERTO_TCP = Integer.getInteger("chat.puerto.tcp", 12345);
     
     /**
      * Puerto para conexiones UDP (no orientadas a conexion)
      * Los clientes UDP envian datagramas independientes
+     * Configurable con chat.puerto.udp
      */
-    private static final int PUERTO_UDP = 12346;
+    private static final int PUERTO_UDP = Integer.getInteger("chat.puerto.udp", 12346);
     
     // =============================================
     // ESTRUCTURAS DE DATOS PARA GESTION DE CLIENTES
@@ -65,7 +72,125 @@ public class ServidorMixto {
      * Bandera que controla el estado del servidor
      * false = servidor detenido, true = servidor activo
      */
-    private static boolean servidorActivo = true;
+    private static volatile boolean servidorActivo = true;
+    
+    /**
+     * En drenado el servidor rechaza clientes nuevos y atiende a los conectados
+     */
+    private static volatile boolean drenando;
+    
+    /**
+     * Endpoint HTTP de metricas y administracion (null si esta desactivado)
+     */
+    private static ServidorAdministracion administracion;
+    
+    /**
+     * Escucha en un socket de dominio UNIX (null si chat.unix.ruta no esta definida)
+     */
+    private static ServidorUnix servidorUnix;
+    
+    /**
+     * Sin interfaz no se carga ninguna clase de AWT/Swing; el panel se puede
+     * conectar despues desde otro proceso con GUIservidor --conectar
+     * Se activa con chat.headless=true o el argumento --headless
+     */
+    private static boolean sinInterfaz = Boolean.getBoolean("chat.headless");
+    
+    // =============================================
+    // PERSISTENCIA
+    // =============================================
+    
+    /**
+     * Diario persistente donde se registra cada mensaje enrutado
+     * null si no se pudo abrir (el servidor sigue funcionando sin historial)
+     */
+    private static DiarioMensajes diario;
+    
+    /**
+     * Aplica las politicas de retencion y compacta el diario en segundo plano
+     */
+    private static CompactadorDiario compactador;
+    
+    // =============================================
+    // HISTORIAL RECIENTE EN MEMORIA
+    // =============================================
+    
+    /**
+     * Canal al que pertenecen los mensajes publicos (BROADCAST)
+     */
+    public static final String CANAL_GLOBAL = Protocolo.CANAL_GLOBAL;
+    
+    /**
+     * Mensajes que guarda en memoria el historial de cada canal
+     */
+    private static final int CAPACIDAD_HISTORIAL = Integer.getInteger("chat.historial.capacidad", 1000);
+    
+    /**
+     * Mensajes del historial que se reenvian a un cliente al conectarse
+     * 0 desactiva la reproduccion al conectar
+     */
+    private static final int MENSAJES_REPRODUCCION = Integer.getInteger("chat.historial.replay", 10);
+    
+    /**
+     * Historial reciente de cada canal (por ahora solo el canal global)
+     */
+    private static final Map<String, HistorialReciente> historiales = new ConcurrentHashMap<>();
+    
+    // =============================================
+    // APODOS Y BUZONES OFFLINE
+    // =============================================
+    
+    /**
+     * Apodo registrado -> ID del cliente TCP que lo usa actualmente
+     */
+    private static final Map<String, String> apodos = new ConcurrentHashMap<>();
+    
+    /**
+     * Apodos que se han registrado alguna vez y pueden recibir mensajes offline
+     * Al arrancar se llena con los apodos de los buzones recuperados de disco
+     */
+    private static final Set<String> apodosConocidos = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Buzones de mensajes UNICAST para apodos desconectados
+     * null si no se pudieron abrir
+     */
+    private static BuzonesOffline buzones;
+    
+    // =============================================
+    // BUSQUEDA DE TEXTO COMPLETO
+    // =============================================
+    
+    /**
+     * Indice invertido de todos los mensajes enrutados
+     */
+    private static final IndiceInvertido indice =
+            new IndiceInvertido(Integer.getInteger("chat.indice.cola", 65536));
+    
+    /**
+     * Resultados maximos que devuelve una busqueda
+     */
+    private static final int MAX_RESULTADOS_BUSQUEDA = 20;
+    
+    // =============================================
+    // FEDERACION CON OTROS NODOS
+    // =============================================
+    
+    /**
+     * Enlaces con otras instancias del servidor
+     * null si la federacion esta desactivada (chat.federacion.puerto)
+     */
+    private static FederacionServidores federacion;
+    
+    // =============================================
+    // SALAS (MULTICAST)
+    // =============================================
+    
+    /**
+     * Sala -> IDs de los clientes de este nodo que pertenecen a ella
+     * Con federacion, cada sala vive en el nodo que indica el anillo consistente
+     */
+    private static final Map<String, Set<String>> salas = new ConcurrentHashMap<>();
 
     // =============================================
     // METODO PRINCIPAL
@@ -76,16 +201,41 @@ public class ServidorMixto {
      * Inicia los servidores TCP y UDP en hilos separados
      * y lanza la consola de administracion
      * 
-     * @param args Argumentos de linea de comandos (no utilizados)
+     * @param args --headless para arrancar sin interfaz grafica
      */
     public static void main(String[] args) {
+        for (String argumento : args) {
+            if ("--headless".equals(argumento)) {
+                sinInterfaz = true;
+            }
+        }
         System.out.println("INICIANDO SERVIDOR MIXTO (TCP/UDP)");
         System.out.println("Puerto TCP: " + PUERTO_TCP);
         System.out.println("Puerto UDP: " + PUERTO_UDP);
         System.out.println("Equipo: Alin, Abril, Mario, Angel");
         
-        // Iniciar interfaz grafica del servidor
-        SwingUtilities.invokeLater(() -> new GUIservidor());
+        // Abrir el diario de mensajes antes de aceptar clientes
+        iniciarDiario();
+        ReanudacionSesiones.iniciar(diario);
+        iniciarBuzones();
+        indice.iniciar(diario);
+        
+        // Conectar con los demas nodos de la federacion, si esta configurada
+        federacion = FederacionServidores.desdePropiedades(PUERTO_TCP);
+        if (federacion != null) {
+            federacion.setAlCambiarMiembros(ServidorMixto::rebalancearSalas);
+            federacion.iniciar();
+        }
+        
+        // Metricas y acciones por HTTP, si se configuro chat.admin.puerto
+        iniciarAdministracion();
+        
+        // Iniciar interfaz grafica del servidor (Swing solo se carga aqui)
+        if (sinInterfaz) {
+            System.out.println("Modo sin interfaz: el panel se conecta con GUIservidor --conectar");
+        } else {
+            SwingUtilities.invokeLater(() -> new GUIservidor());
+        }
         
         // Iniciar servidor TCP en un hilo separado
         Thread hiloTCP = new Thread(() -> iniciarServidorTCP());
@@ -95,12 +245,83 @@ public class ServidorMixto {
         Thread hiloUDP = new Thread(() -> iniciarServidorUDP());
         hiloUDP.start();
         
+        // Socket UNIX para clientes del mismo equipo, si esta configurado
+        iniciarServidorUnix();
+        
         // Iniciar consola de administracion en el hilo principal
         iniciarConsolaAdministracion();
     }
     
     
     
+    /**
+     * Abre el diario persistente de mensajes
+     * Si falla, el servidor continua sin persistencia
+     */
+    private static void iniciarDiario() {
+        DiarioMensajes nuevoDiario = DiarioMensajes.desdePropiedades();
+        try {
+            nuevoDiario.iniciar();
+            diario = nuevoDiario;
+            System.out.println("Diario de mensajes en: " + nuevoDiario.getDirectorio()
+                    + " (fsync " + nuevoDiario.getPolitica() + ")");
+            
+            compactador = CompactadorDiario.desdePropiedades(nuevoDiario);
+            compactador.setAlDescartar(ServidorMixto::descartarRetenidos);
+            compactador.iniciar();
+        } catch (IOException e) {
+            System.err.println("Error abriendo el diario de mensajes: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Inicia el endpoint HTTP de administracion
+     * Si falla, el servidor continua solo con la consola
+     */
+    private static void iniciarAdministracion() {
+        ServidorAdministracion nuevo = ServidorAdministracion.desdePropiedades();
+        if (nuevo == null) {
+            return;
+        }
+        try {
+            nuevo.iniciar();
+            administracion = nuevo;
+        } catch (IOException e) {
+            System.err.println("Error iniciando la administracion HTTP: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Inicia el socket de dominio UNIX
+     * Si falla, el servidor continua solo con TCP y UDP
+     */
+    private static void iniciarServidorUnix() {
+        ServidorUnix nuevo = ServidorUnix.desdePropiedades();
+        if (nuevo == null) {
+            return;
+        }
+        try {
+            nuevo.iniciar();
+            servidorUnix = nuevo;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Error iniciando el socket UNIX " + nuevo.getRuta() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Abre los buzones offline y recupera los derramados a disco
+     */
+    private static void iniciarBuzones() {
+        BuzonesOffline nuevosBuzones = BuzonesOffline.desdePropiedades();
+        try {
+            nuevosBuzones.iniciar();
+            apodosConocidos.addAll(nuevosBuzones.getApodos());
+            buzones = nuevosBuzones;
+        } catch (IOException e) {
+            System.err.println("Error abriendo los buzones offline: " + e.getMessage());
+        }
+    }
+    
     // =============================================
     // SERVIDOR TCP - ORIENTADO A CONEXION
     // =============================================
@@ -127,24 +348,12 @@ public class ServidorMixto {
                     int puertoCliente = clienteSocket.getPort();
                     String idCliente = Protocolo.generarIdCliente(ipCliente, puertoCliente);
                     
-                    System.out.println("Nuevo cliente TCP conectado: " + idCliente);
-                    
-                    // Registrar cliente en la lista de TCP
-                    clientesTCP.add(idCliente);
-                    
-                    // Crear y ejecutar manejador para este cliente
-                    ManejadorClientes manejador = new ManejadorClientes(clienteSocket, idCliente, Protocolo.TCP);
-                    
-                    // Registrar manejador en el mapa de activos
-                    manejadoresActivos.put(idCliente, manejador);
-                    
-                    Thread hiloCliente = new Thread(manejador);
-                    hiloCliente.start();
+                    atenderConexion(clienteSocket, idCliente, Protocolo.TCP);
                     
                 } catch (IOException e) {
                     // Manejar errores de aceptacion de conexiones
                     if (servidorActivo) {
-                        System.err.println("Error aceptando conexion TCP: " + e.getMessage());
+                        Bitacora.aviso("Error aceptando conexion TCP: {}", e.getMessage());
                     }
                 }
             }
@@ -153,6 +362,64 @@ public class ServidorMixto {
         }
     }
     
+    /**
+     * Registra una conexion recien aceptada y arranca su manejador
+     * Comun a los clientes TCP y a los del socket UNIX (ver ServidorUnix)
+     * 
+     * @param clienteSocket Socket aceptado
+     * @param idCliente ID generado para el cliente
+     * @param protocolo Protocolo.TCP o Protocolo.UNIX
+     */
+    static void atenderConexion(Socket clienteSocket, String idCliente, int protocolo) {
+        if (drenando) {
+            rechazarEnDrenado(clienteSocket, idCliente);
+            return;
+        }
+        
+        Bitacora.info("Nuevo cliente {} conectado: {}", Protocolo.getDescripcionProtocolo(protocolo), idCliente);
+        
+        // El escritor ya junta las lineas por flush: Nagle solo agregaria espera
+        if (protocolo == Protocolo.TCP) {
+            try {
+                clienteSocket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                Bitacora.aviso("No se pudo desactivar Nagle para {}: {}", idCliente, e.getMessage());
+            }
+        }
+        
+        // Registrar cliente en la lista de clientes con conexion
+        clientesTCP.add(idCliente);
+        Metricas.CONEXIONES.increment();
+        EventosJFR.clienteConectado(idCliente, protocolo);
+        
+        // Crear y ejecutar manejador para este cliente
+        ManejadorClientes manejador = new ManejadorClientes(clienteSocket, idCliente, protocolo);
+        
+        // Registrar manejador en el mapa de activos
+        agregarManejador(idCliente, manejador);
+        CambiosSesiones.conectado(idCliente, protocolo);
+        PresenciaClientes.conectado(idCliente);
+        
+        Thread hiloCliente = new Thread(manejador);
+        hiloCliente.start();
+    }
+    
+    /**
+     * Avisa a un cliente nuevo de que el servidor esta en drenado y lo cierra
+     * 
+     * @param clienteSocket Socket recien aceptado
+     * @param idCliente ID generado para el cliente
+     */
+    private static void rechazarEnDrenado(Socket clienteSocket, String idCliente) {
+        Bitacora.info("Conexion rechazada en drenado: {}", idCliente);
+        try (Socket socket = clienteSocket) {
+            socket.getOutputStream().write(("ERROR: Servidor en mantenimiento, conectese a otro nodo"
+                    + System.lineSeparator()).getBytes());
+        } catch (IOException e) {
+            // El cliente ya cerro: no hay nada que avisar
+        }
+    }
+    
     // =============================================
     // SERVIDOR UDP - NO ORIENTADO A CONEXION
     // =============================================
@@ -185,7 +452,7 @@ public class ServidorMixto {
                 } catch (IOException e) {
                     // Manejar errores de recepcion UDP
                     if (servidorActivo) {
-                        System.err.println("Error recibiendo paquete UDP: " + e.getMessage());
+                        Bitacora.aviso("Error recibiendo paquete UDP: {}", e.getMessage());
                     }
                 }
             }
@@ -212,12 +479,15 @@ public class ServidorMixto {
         // Registrar cliente UDP si es nuevo
         if (!clientesUDP.contains(idCliente)) {
             clientesUDP.add(idCliente);
-            System.out.println("Nuevo cliente UDP registrado: " + idCliente);
+            Bitacora.info("Nuevo cliente UDP registrado: {}", idCliente);
+            EventosJFR.clienteConectado(idCliente, Protocolo.UDP);
+            CambiosSesiones.conectado(idCliente, Protocolo.UDP);
         }
         
         // Convertir datos del paquete a String
         String mensaje = new String(paquete.getData(), 0, paquete.getLength());
-        System.out.println("Mensaje UDP de " + idCliente + ": " + mensaje);
+        Metricas.BYTES_ENTRANTES.add(paquete.getLength());
+        Bitacora.depuracion("Mensaje UDP de {}: {}", idCliente, mensaje);
         
    
         // Esto se expandira cuando se implemente el manejo completo de mensajes
@@ -234,7 +504,95 @@ public class ServidorMixto {
      * @param remitente ID del cliente que envia el mensaje (para exclusion opcional)
      */
     public static void broadcastMensaje(String mensaje, String remitente) {
-        System.out.println("BROADCAST de " + remitente + ": " + mensaje);
+        broadcastMensaje(mensaje, remitente, System.nanoTime());
+    }
+    
+    /**
+     * Envia un mensaje a todos los clientes TCP conectados (BROADCAST)
+     * 
+     * @param mensaje Mensaje a enviar a todos los clientes
+     * @param remitente ID del cliente que envia el mensaje
+     * @param recibidoNanos System.nanoTime() al leer el mensaje del socket
+     */
+    public static void broadcastMensaje(String mensaje, String remitente, long recibidoNanos) {
+        Bitacora.depuracion("BROADCAST de {}: {}", remitente, mensaje);
+        Mensaje registro = registrarMensaje(mensaje, remitente, null, Protocolo.BROADCAST);
+        
+        // Una sola copia por nodo federado: cada nodo la reparte a sus clientes
+        if (federacion != null) {
+            federacion.difundir(Protocolo.BROADCAST, remitente, null, mensaje);
+        }
+        entregarBroadcastLocal(mensaje, remitente, registro.getSecuencia(), recibidoNanos);
+    }
+    
+    /**
+     * Entrega un mensaje recibido de otro nodo de la federacion
+     * Se registra localmente para que historial y busqueda lo incluyan
+     * 
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @param remitente ID del cliente remitente en el nodo de origen
+     * @param destino Destino del mensaje (null si no aplica)
+     * @param mensaje Texto del mensaje
+     * @param nodoOrigen ID del nodo donde se origino
+     * @param recibidoNanos System.nanoTime() al leer la trama del enlace
+     */
+    static void recibirMensajeRemoto(int tipoEnvio, String remitente, String destino,
+                                     String mensaje, String nodoOrigen, long recibidoNanos) {
+        if (tipoEnvio == Protocolo.UNICAST) {
+            entregarUnicastRemoto(mensaje, destino, remitente + "@" + nodoOrigen, recibidoNanos);
+            return;
+        }
+        if (tipoEnvio == Protocolo.MULTICAST) {
+            Mensaje registro = registrarMensaje(mensaje, remitente, destino, tipoEnvio);
+            entregarEnSala(destino, mensaje, remitente + "@" + nodoOrigen, registro.getSecuencia(), recibidoNanos);
+            return;
+        }
+        if (tipoEnvio != Protocolo.BROADCAST) {
+            return;
+        }
+        Mensaje registro = registrarMensaje(mensaje, remitente, destino, tipoEnvio);
+        entregarBroadcastLocal(mensaje, remitente + "@" + nodoOrigen, registro.getSecuencia(), recibidoNanos);
+    }
+    
+    /**
+     * Entrega un UNICAST reenviado por otro nodo a un cliente de este nodo
+     * Si el cliente acaba de desconectarse, el mensaje va a su buzon
+     * 
+     * @param mensaje Texto del mensaje
+     * @param destino Apodo del cliente destino
+     * @param remitente Remitente que se muestra
+     * @param recibidoNanos System.nanoTime() al leer la trama del enlace
+     */
+    private static void entregarUnicastRemoto(String mensaje, String destino, String remitente,
+                                              long recibidoNanos) {
+        Mensaje registro = registrarMensaje(mensaje, remitente, destino, Protocolo.UNICAST);
+        ManejadorClientes manejadorDestino = buscarManejador(destino);
+        if (manejadorDestino != null && manejadorDestino.estaActivo()) {
+            manejadorDestino.enviarMensaje("[PRIVADO de " + remitente + "] " + mensaje, registro.getSecuencia(),
+                    recibidoNanos, null);
+        } else if (buzones != null && apodosConocidos.contains(destino)) {
+            buzones.guardar(destino, registro);
+        } else {
+            Bitacora.depuracion("UNICAST remoto descartado, destino no encontrado: {}", destino);
+        }
+    }
+    
+    /**
+     * Envia un BROADCAST a los clientes TCP conectados a este nodo
+     * 
+     * @param mensaje Mensaje a enviar
+     * @param remitente Remitente que se muestra (excluido del envio)
+     * @param secuencia Secuencia del mensaje en el diario (0 si no tiene)
+     * @param recibidoNanos System.nanoTime() al recibir el mensaje
+     */
+    private static void entregarBroadcastLocal(String mensaje, String remitente, long secuencia,
+                                               long recibidoNanos) {
+        long inicio = System.nanoTime();
+        EventosJFR.RepartoCompletado evento = new EventosJFR.RepartoCompletado();
+        evento.begin();
+        String linea = "[BROADCAST de " + remitente + "] " + mensaje;
+        RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
+        int entregados = 0;
         
         // Enviar mensaje a todos los clientes TCP conectados
         synchronized (manejadoresActivos) {
@@ -244,34 +602,193 @@ public class ServidorMixto {
                 
                 // Opcional: excluir al remitente del broadcast
                 if (!idCliente.equals(remitente) && manejador.estaActivo()) {
-                    manejador.enviarMensaje("[BROADCAST de " + remitente + "] " + mensaje);
+                    manejador.enviarMensaje(linea, secuencia, recibidoNanos, traza);
+                    entregados++;
                 }
             }
         }
+        Metricas.mensajesSalientes(Protocolo.BROADCAST, entregados);
+        Metricas.duracionReparto(Protocolo.BROADCAST, inicio);
+        evento.terminar(Protocolo.BROADCAST, entregados);
+        if (traza != null) {
+            traza.anotar("ENRUTADO", "BROADCAST a " + entregados + " clientes locales");
+        }
+        EventosJFR.decisionRuta(Protocolo.BROADCAST, remitente, federacion != null ? "cluster" : "local", entregados);
     }
     
     /**
      * Envia un mensaje a un cliente TCP especifico (UNICAST)
+     * El destino puede ser un ID de cliente o un apodo registrado.
+     * Si el apodo esta conectado en otro nodo de la federacion, el mensaje se
+     * envia directamente a ese nodo (la consulta del directorio es local).
+     * Si el destino es un apodo conocido que no esta conectado, el mensaje
+     * se guarda en su buzon offline y se entrega cuando vuelva a conectarse.
      * 
      * @param mensaje Mensaje a enviar
-     * @param destino ID del cliente destino
+     * @param destino ID o apodo del cliente destino
      * @param remitente ID del cliente remitente
-     * @return true si el mensaje se envio exitosamente, false si el destino no existe
+     * @return true si el mensaje se envio o quedo guardado, false si el destino no existe
      */
     public static boolean unicastMensaje(String mensaje, String destino, String remitente) {
-        System.out.println("UNICAST de " + remitente + " a " + destino + ": " + mensaje);
+        return unicastMensaje(mensaje, destino, remitente, System.nanoTime());
+    }
+    
+    /**
+     * Envia un mensaje a un cliente especifico (UNICAST) midiendo su latencia
+     * 
+     * @param mensaje Mensaje a enviar
+     * @param destino ID o apodo del cliente destino
+     * @param remitente ID del cliente remitente
+     * @param recibidoNanos System.nanoTime() al leer el mensaje del socket
+     * @return true si el mensaje se envio o quedo guardado, false si el destino no existe
+     */
+    public static boolean unicastMensaje(String mensaje, String destino, String remitente, long recibidoNanos) {
+        Bitacora.depuracion("UNICAST de {} a {}: {}", remitente, destino, mensaje);
+        Mensaje registro = registrarMensaje(mensaje, remitente, destino, Protocolo.UNICAST);
         
-        ManejadorClientes manejadorDestino = manejadoresActivos.get(destino);
+        long inicio = System.nanoTime();
+        ManejadorClientes manejadorDestino = buscarManejador(destino);
+        String nodoRemoto = nodoRemotoDe(destino);
+        
+        RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
         
         if (manejadorDestino != null && manejadorDestino.estaActivo()) {
-            manejadorDestino.enviarMensaje("[PRIVADO de " + remitente + "] " + mensaje);
+            if (traza != null) {
+                traza.anotar("ENRUTADO", "UNICAST a " + manejadorDestino.getIdCliente());
+            }
+            manejadorDestino.enviarMensaje("[PRIVADO de " + remitente + "] " + mensaje, registro.getSecuencia(),
+                    recibidoNanos, traza);
+            Metricas.mensajesSalientes(Protocolo.UNICAST, 1);
+            Metricas.duracionReparto(Protocolo.UNICAST, inicio);
+            EventosJFR.decisionRuta(Protocolo.UNICAST, remitente, destino, 1);
+            return true;
+        } else if (nodoRemoto != null
+                && federacion.enviarA(nodoRemoto, Protocolo.UNICAST, remitente, destino, mensaje)) {
+            Bitacora.depuracion("Destino en el nodo {}, mensaje reenviado", nodoRemoto);
+            if (traza != null) {
+                traza.anotar("REENVIADO", destino + " en el nodo " + nodoRemoto);
+            }
+            EventosJFR.decisionRuta(Protocolo.UNICAST, remitente, destino + "@" + nodoRemoto, 1);
+            return true;
+        } else if (buzones != null && apodosConocidos.contains(destino)
+                && buzones.guardar(destino, registro)) {
+            Bitacora.depuracion("Destino desconectado, mensaje guardado en buzon de: {}", destino);
+            if (traza != null) {
+                traza.anotar("BUZON", destino);
+            }
+            EventosJFR.decisionRuta(Protocolo.UNICAST, remitente, destino + " (buzon)", 0);
             return true;
         } else {
-            System.out.println("Cliente destino no encontrado o inactivo: " + destino);
+            Bitacora.depuracion("Cliente destino no encontrado o inactivo: {}", destino);
+            if (traza != null) {
+                traza.anotar("DESCARTADO", destino + " no encontrado");
+            }
+            EventosJFR.decisionRuta(Protocolo.UNICAST, remitente, destino + " (no encontrado)", 0);
             return false;
         }
     }
     
+    /**
+     * Consulta en el directorio de presencia si un apodo esta en otro nodo
+     * 
+     * @param apodo Apodo buscado
+     * @return ID del nodo remoto, o null si esta en este nodo o en ninguno
+     */
+    private static String nodoRemotoDe(String apodo) {
+        if (federacion == null) {
+            return null;
+        }
+        String nodo = federacion.getDirectorio().nodoDe(apodo);
+        return nodo == null || nodo.equals(federacion.getIdNodo()) ? null : nodo;
+    }
+    
+    /**
+     * Busca el manejador de un cliente por su ID o por su apodo
+     * 
+     * @param destino ID de cliente o apodo
+     * @return Manejador encontrado, o null si no esta conectado
+     */
+    static ManejadorClientes buscarManejador(String destino) {
+        ManejadorClientes manejador = manejadoresActivos.get(destino);
+        if (manejador == null) {
+            String idCliente = apodos.get(destino);
+            if (idCliente != null) {
+                manejador = manejadoresActivos.get(idCliente);
+            }
+        }
+        return manejador;
+    }
+    
+    /**
+     * Registra el apodo de un cliente TCP
+     * 
+     * @param apodo Apodo solicitado
+     * @param idCliente ID del cliente que lo solicita
+     * @param dueno true si el cliente presento la credencial del apodo: puede
+     *              quitarselo a un cliente conectado que no la presento
+     * @return true si se registro, false si otro cliente conectado ya lo usa
+     */
+    public static boolean registrarApodo(String apodo, String idCliente, boolean dueno) {
+        String anterior = apodos.putIfAbsent(apodo, idCliente);
+        if (anterior != null && !anterior.equals(idCliente)) {
+            ManejadorClientes manejadorAnterior = manejadoresActivos.get(anterior);
+            if (manejadorAnterior != null && manejadorAnterior.estaActivo()) {
+                if (!dueno || manejadorAnterior.esDuenoDelApodo()) {
+                    return false;
+                }
+                manejadorAnterior.expulsar("El apodo " + apodo + " fue reclamado por su dueno");
+            }
+            // El dueno anterior ya no esta activo: reasignar el apodo
+            // (su limpieza puede haberlo liberado ya)
+            if (!apodos.replace(apodo, anterior, idCliente) && apodos.putIfAbsent(apodo, idCliente) != null) {
+                return false;
+            }
+        }
+        apodosConocidos.add(apodo);
+        if (federacion != null) {
+            federacion.getDirectorio().conectar(apodo);
+        }
+        Bitacora.info("Apodo registrado: {} -> {}", apodo, idCliente);
+        return true;
+    }
+    
+    /**
+     * Indica si un apodo ya tuvo dueno (registrado antes o con buzon recuperado)
+     * 
+     * @param apodo Apodo a consultar
+     * @return true si registrarlo como dueno requiere su credencial
+     */
+    static boolean esApodoConocido(String apodo) {
+        return apodosConocidos.contains(apodo);
+    }
+    
+    /**
+     * Libera el apodo de una conexion anterior del mismo cliente que todavia
+     * no se detecto como cerrada (corte de red sin FIN); la expulsa
+     * 
+     * @param apodo Apodo de la sesion que se reanuda
+     * @param idAnterior ID de la conexion anterior, tomado del token de sesion
+     */
+    static void liberarApodo(String apodo, String idAnterior) {
+        ManejadorClientes anterior = manejadoresActivos.get(idAnterior);
+        if (apodos.remove(apodo, idAnterior) && anterior != null && anterior.estaActivo()) {
+            anterior.expulsar("Sesion reanudada en otra conexion");
+        }
+    }
+    
+    /**
+     * Retira los mensajes guardados para un apodo mientras estaba desconectado
+     * 
+     * @param apodo Apodo del cliente que se acaba de registrar
+     * @return Mensajes pendientes en orden de llegada
+     */
+    public static List<Mensaje> retirarBuzon(String apodo) {
+        if (buzones == null) {
+            return new ArrayList<>();
+        }
+        return buzones.retirar(apodo);
+    }
+    
     /**
      * Envia un mensaje a cualquier cliente TCP disponible (ANYCAST)
      * 
@@ -280,7 +797,21 @@ public class ServidorMixto {
      * @return ID del cliente que recibio el mensaje, o null si no hay clientes disponibles
      */
     public static String anycastMensaje(String mensaje, String remitente) {
-        System.out.println("ANYCAST de " + remitente + ": " + mensaje);
+        return anycastMensaje(mensaje, remitente, System.nanoTime());
+    }
+    
+    /**
+     * Envia un mensaje a cualquier cliente TCP disponible (ANYCAST) midiendo su latencia
+     * 
+     * @param mensaje Mensaje a enviar
+     * @param remitente ID del cliente remitente
+     * @param recibidoNanos System.nanoTime() al leer el mensaje del socket
+     * @return ID del cliente que recibio el mensaje, o null si no hay clientes disponibles
+     */
+    public static String anycastMensaje(String mensaje, String remitente, long recibidoNanos) {
+        Bitacora.depuracion("ANYCAST de {}: {}", remitente, mensaje);
+        registrarMensaje(mensaje, remitente, null, Protocolo.ANYCAST);
+        long inicio = System.nanoTime();
         
         synchronized (manejadoresActivos) {
             for (Map.Entry<String, ManejadorClientes> entry : manejadoresActivos.entrySet()) {
@@ -289,16 +820,273 @@ public class ServidorMixto {
                 
                 // Enviar al primer cliente disponible (excluyendo al remitente)
                 if (!idCliente.equals(remitente) && manejador.estaActivo()) {
-                    manejador.enviarMensaje("[ANYCAST de " + remitente + "] " + mensaje);
+                    RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
+                    if (traza != null) {
+                        traza.anotar("ENRUTADO", "ANYCAST a " + idCliente);
+                    }
+                    manejador.enviarMensaje("[ANYCAST de " + remitente + "] " + mensaje, recibidoNanos, traza);
+                    Metricas.mensajesSalientes(Protocolo.ANYCAST, 1);
+                    Metricas.duracionReparto(Protocolo.ANYCAST, inicio);
+                    EventosJFR.decisionRuta(Protocolo.ANYCAST, remitente, idCliente, 1);
                     return idCliente;
                 }
             }
         }
         
-        System.out.println("No hay clientes disponibles para ANYCAST");
+        Bitacora.depuracion("No hay clientes disponibles para ANYCAST");
+        RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
+        if (traza != null) {
+            traza.anotar("DESCARTADO", "ANYCAST sin clientes disponibles");
+        }
+        EventosJFR.decisionRuta(Protocolo.ANYCAST, remitente, null, 0);
         return null;
     }
     
+    // =============================================
+    // SALAS Y MULTICAST
+    // =============================================
+    
+    /**
+     * Direccion del nodo al que debe conectarse un cliente para entrar a una sala
+     * 
+     * @param sala Nombre de la sala
+     * @return host:puerto del nodo dueno, o null si la sala es de este nodo
+     */
+    public static String direccionDuenoSala(String sala) {
+        if (federacion == null) {
+            return null;
+        }
+        String dueno = federacion.nodoDueno(sala);
+        if (dueno == null || dueno.equals(federacion.getIdNodo())) {
+            return null;
+        }
+        return federacion.getDireccionClientes(dueno);
+    }
+    
+    /**
+     * Agrega un cliente de este nodo a una sala
+     * 
+     * @param sala Nombre de la sala
+     * @param idCliente ID del cliente
+     */
+    public static void unirseASala(String sala, String idCliente) {
+        salas.computeIfAbsent(sala, s -> ConcurrentHashMap.newKeySet()).add(idCliente);
+        Bitacora.info("Cliente {} en sala: {}", idCliente, sala);
+    }
+    
+    /**
+     * Quita a un cliente de una sala, borrandola si queda vacia
+     */
+    private static void salirDeSala(String sala, String idCliente) {
+        salas.computeIfPresent(sala, (s, miembros) -> {
+            miembros.remove(idCliente);
+            return miembros.isEmpty() ? null : miembros;
+        });
+    }
+    
+    /**
+     * Envia un mensaje a los miembros de una sala (MULTICAST)
+     * Si la sala pertenece a otro nodo (clientes que no siguieron la
+     * redireccion), el mensaje tambien se reenvia a ese nodo
+     * 
+     * @param sala Nombre de la sala
+     * @param mensaje Mensaje a enviar
+     * @param remitente ID del cliente remitente
+     * @param recibidoNanos System.nanoTime() al leer el mensaje del socket
+     * @return Miembros de este nodo que recibieron el mensaje
+     */
+    public static int multicastMensaje(String sala, String mensaje, String remitente, long recibidoNanos) {
+        Bitacora.depuracion("MULTICAST de {} a sala {}: {}", remitente, sala, mensaje);
+        Mensaje registro = registrarMensaje(mensaje, remitente, sala, Protocolo.MULTICAST);
+        
+        if (federacion != null) {
+            String dueno = federacion.nodoDueno(sala);
+            if (dueno != null && !dueno.equals(federacion.getIdNodo())) {
+                federacion.enviarA(dueno, Protocolo.MULTICAST, remitente, sala, mensaje);
+                RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
+                if (traza != null) {
+                    traza.anotar("REENVIADO", "sala " + sala + " al nodo " + dueno);
+                }
+            }
+        }
+        return entregarEnSala(sala, mensaje, remitente, registro.getSecuencia(), recibidoNanos);
+    }
+    
+    /**
+     * Entrega un mensaje a los miembros de una sala conectados a este nodo
+     * 
+     * @return Miembros que recibieron el mensaje
+     */
+    private static int entregarEnSala(String sala, String mensaje, String remitente, long secuencia,
+                                      long recibidoNanos) {
+        Set<String> miembros = salas.get(sala);
+        if (miembros == null) {
+            return 0;
+        }
+        long inicio = System.nanoTime();
+        EventosJFR.RepartoCompletado evento = new EventosJFR.RepartoCompletado();
+        evento.begin();
+        String linea = "[MULTICAST " + sala + " de " + remitente + "] " + mensaje;
+        RegistroTrazas.Traza traza = RegistroTrazas.trazaActual();
+        int entregados = 0;
+        for (String idCliente : miembros) {
+            ManejadorClientes manejador = manejadoresActivos.get(idCliente);
+            if (!idCliente.equals(remitente) && manejador != null && manejador.estaActivo()) {
+                manejador.enviarMensaje(linea, secuencia, recibidoNanos, traza);
+                entregados++;
+            }
+        }
+        Metricas.mensajesSalientes(Protocolo.MULTICAST, entregados);
+        Metricas.duracionReparto(Protocolo.MULTICAST, inicio);
+        evento.terminar(Protocolo.MULTICAST, entregados);
+        if (traza != null) {
+            traza.anotar("ENRUTADO", "MULTICAST sala " + sala + " a " + entregados + " miembros locales");
+        }
+        EventosJFR.decisionRuta(Protocolo.MULTICAST, remitente, sala, entregados);
+        return entregados;
+    }
+    
+    /**
+     * Redirige a los miembros de las salas que cambiaron de dueno tras la
+     * entrada o salida de un nodo; el resto de salas no se mueve
+     */
+    private static void rebalancearSalas() {
+        int movidas = 0;
+        for (String sala : new ArrayList<>(salas.keySet())) {
+            String direccion = direccionDuenoSala(sala);
+            if (direccion == null) {
+                continue;
+            }
+            movidas++;
+            Set<String> miembros = salas.remove(sala);
+            for (String idCliente : miembros != null ? miembros : Collections.<String>emptySet()) {
+                ManejadorClientes manejador = manejadoresActivos.get(idCliente);
+                if (manejador != null) {
+                    manejador.redirigir(direccion, sala);
+                }
+            }
+        }
+        Bitacora.info("Anillo de salas actualizado: {} nodos remotos, {} salas movidas",
+                federacion.getNodosConectados().size(), movidas);
+    }
+    
+    /**
+     * Registra un mensaje enrutado en el diario persistente
+     * No bloquea al hilo que enruta: solo encola el registro
+     * 
+     * @param contenido Texto del mensaje
+     * @param remitente ID del cliente remitente
+     * @param destino ID del cliente destino (null si no aplica)
+     * @param tipoEnvio Tipo de envio (de Protocolo.java)
+     * @return Mensaje registrado con su secuencia asignada
+     */
+    private static Mensaje registrarMensaje(String contenido, String remitente, String destino, int tipoEnvio) {
+        Mensaje registro = new Mensaje(contenido, remitente, destino, Protocolo.MENSAJE_TEXTO, tipoEnvio);
+        if (diario != null) {
+            diario.agregar(registro);
+            ReanudacionSesiones.registrar(registro);
+        }
+        indice.agregar(registro);
+        
+        // Solo los mensajes publicos forman parte del historial compartido
+        if (tipoEnvio == Protocolo.BROADCAST) {
+            getHistorial(CANAL_GLOBAL).agregar(registro);
+        }
+        return registro;
+    }
+    
+    /**
+     * Busca en el historial los mensajes que cumplen la consulta
+     * Un cliente solo ve mensajes publicos o aquellos en los que participa
+     * 
+     * @param consulta Terminos a buscar (frases exactas entre comillas)
+     * @param idCliente ID del cliente que busca (null para el administrador)
+     * @param apodo Apodo del cliente que busca (puede ser null)
+     * @return Mensajes encontrados, del mas reciente al mas antiguo
+     */
+    public static List<Mensaje> buscarMensajes(String consulta, String idCliente, String apodo) {
+        if (idCliente == null) {
+            return indice.buscar(consulta, MAX_RESULTADOS_BUSQUEDA, null);
+        }
+        return indice.buscar(consulta, MAX_RESULTADOS_BUSQUEDA, m ->
+                m.getTipoEnvio() == Protocolo.BROADCAST
+                || idCliente.equals(m.getRemitente())
+                || idCliente.equals(m.getDestino())
+                || (apodo != null && apodo.equals(m.getDestino())));
+    }
+    
+    /**
+     * Da formato de linea de texto a un resultado de busqueda
+     * 
+     * @param mensaje Mensaje encontrado
+     * @return Linea lista para mostrar
+     */
+    public static String formatearResultado(Mensaje mensaje) {
+        String fecha = new SimpleDateFormat("dd/MM HH:mm:ss").format(mensaje.getTimestamp());
+        String destino = mensaje.getDestino() != null ? " -> " + mensaje.getDestino() : "";
+        return "[#" + mensaje.getSecuencia() + " " + fecha + " " + mensaje.getDescripcionEnvio() + "] "
+                + mensaje.getRemitente() + destino + ": " + mensaje.getContenido();
+    }
+    
+    /**
+     * Quita de los almacenes derivados del diario los mensajes que borro
+     * o vencio la retencion (la llama el compactador)
+     * 
+     * @param condicion Mensajes a descartar
+     */
+    private static void descartarRetenidos(Predicate<Mensaje> condicion) {
+        indice.descartar(condicion);
+        int historial = 0;
+        for (HistorialReciente reciente : historiales.values()) {
+            historial += reciente.descartar(condicion);
+        }
+        int anillo = ReanudacionSesiones.descartar(condicion);
+        Bitacora.info("Retencion: {} mensajes fuera del historial y {} del anillo de reanudacion",
+                historial, anillo);
+    }
+    
+    /**
+     * Obtiene (o crea) el historial reciente de un canal
+     * 
+     * @param canal Nombre del canal
+     * @return Historial en memoria del canal
+     */
+    public static HistorialReciente getHistorial(String canal) {
+        return historiales.computeIfAbsent(canal, c -> new HistorialReciente(CAPACIDAD_HISTORIAL));
+    }
+    
+    /**
+     * Numero de mensajes a reproducir a un cliente recien conectado
+     * 
+     * @return Cantidad configurada (0 si esta desactivado)
+     */
+    public static int getMensajesReproduccion() {
+        return MENSAJES_REPRODUCCION;
+    }
+    
+    /**
+     * Da formato de linea de texto a un mensaje del historial
+     * 
+     * @param mensaje Mensaje guardado en el historial
+     * @return Linea lista para enviar al cliente
+     */
+    public static String formatearHistorial(Mensaje mensaje) {
+        String hora = new SimpleDateFormat("HH:mm:ss").format(mensaje.getTimestamp());
+        return "[HISTORIAL #" + mensaje.getSecuencia() + " " + hora + "] "
+                + mensaje.getRemitente() + ": " + mensaje.getContenido();
+    }
+    
+    /**
+     * Agrega un manejador a la lista de activos (lo que recibe BROADCAST,
+     * UNICAST y LISTA); tambien lo usan los benchmarks de bench/
+     * 
+     * @param idCliente ID del cliente
+     * @param manejador Manejador ya construido
+     */
+    static void agregarManejador(String idCliente, ManejadorClientes manejador) {
+        manejadoresActivos.put(idCliente, manejador);
+    }
+    
     /**
      * Remueve un manejador de cliente de la lista de activos
      * Se llama cuando un cliente se desconecta
@@ -306,9 +1094,66 @@ public class ServidorMixto {
      * @param idCliente ID del cliente a remover
      */
     public static void removerManejador(String idCliente) {
-        manejadoresActivos.remove(idCliente);
+        ManejadorClientes manejador = manejadoresActivos.remove(idCliente);
         clientesTCP.remove(idCliente);
-        System.out.println("Manejador removido para cliente: " + idCliente);
+        if (manejador != null) {
+            CambiosSesiones.desconectado(idCliente);
+            PresenciaClientes.desuscribir(manejador);
+            // Si otra conexion reanudo su sesion, el apodo sigue presente
+            String apodo = manejador.getApodo();
+            if (apodo == null || apodos.getOrDefault(apodo, idCliente).equals(idCliente)) {
+                PresenciaClientes.desconectado(manejador.getNombrePresencia());
+            }
+            Metricas.DESCONEXIONES.increment();
+            EventosJFR.clienteDesconectado(idCliente, manejador.getApodo(), manejador.getConectadoDesde());
+        }
+        if (manejador != null && manejador.getSala() != null) {
+            salirDeSala(manejador.getSala(), idCliente);
+        }
+        if (manejador != null && manejador.getApodo() != null
+                && apodos.remove(manejador.getApodo(), idCliente) && federacion != null) {
+            federacion.getDirectorio().desconectar(manejador.getApodo());
+        }
+        Bitacora.info("Manejador removido para cliente: {}", idCliente);
+    }
+    
+    /**
+     * Desconecta a un cliente por orden del administrador
+     * 
+     * @param destino ID o apodo del cliente
+     * @param motivo Motivo que recibe el cliente
+     * @return true si el cliente estaba conectado
+     */
+    public static boolean expulsarCliente(String destino, String motivo) {
+        ManejadorClientes manejador = buscarManejador(destino);
+        if (manejador == null || !manejador.estaActivo()) {
+            return false;
+        }
+        manejador.expulsar(motivo);
+        return true;
+    }
+    
+    /**
+     * Activa o desactiva el drenado: con el drenado activo se rechazan los
+     * clientes nuevos y los conectados siguen atendidos hasta que se vayan
+     * 
+     * @param activo true para drenar
+     */
+    public static void setDrenando(boolean activo) {
+        drenando = activo;
+        Bitacora.info("Drenado {}", activo ? "activado" : "desactivado");
+    }
+    
+    public static boolean estaDrenando() {
+        return drenando;
+    }
+    
+    /**
+     * true si el panel corre en este proceso (entonces es el que consume
+     * CambiosSesiones y los paneles remotos no pueden seguir los deltas)
+     */
+    public static boolean tieneInterfazLocal() {
+        return !sinInterfaz;
     }
     
     // =============================================
@@ -342,6 +1187,14 @@ public class ServidorMixto {
         return new HashMap<>(manejadoresActivos);
     }
     
+    public static int getPuertoTCP() {
+        return PUERTO_TCP;
+    }
+    
+    public static int getPuertoUDP() {
+        return PUERTO_UDP;
+    }
+    
     // =============================================
     // CONSOLA DE ADMINISTRACION
     // =============================================
@@ -354,12 +1207,21 @@ public class ServidorMixto {
     private static void iniciarConsolaAdministracion() {
         Scanner scanner = new Scanner(System.in);
         
-        System.out.println("\nConsola de administracion - Comandos: 'clientes', 'estado', 'salir'");
+        System.out.println("\nConsola de administracion - Comandos: 'clientes', 'estado', 'buscar <terminos>', 'nodos', 'metricas', 'trazas [id|filtro|muestreo N]', 'log <nivel>', 'compactar', 'salir'");
         
         // Bucle de lectura de comandos
         while (servidorActivo) {
             System.out.print("\nComando > ");
-            String comando = scanner.nextLine().trim().toLowerCase();
+            if (!scanner.hasNextLine()) {
+                // Sin entrada estandar (servicio, nohup): el servidor sigue y se
+                // administra por HTTP
+                Bitacora.info("Consola cerrada, el servidor sigue activo");
+                return;
+            }
+            String linea = scanner.nextLine().trim();
+            String[] partes = linea.split("\\s+", 2);
+            String comando = partes[0].toLowerCase();
+            String argumentos = partes.length > 1 ? partes[1] : "";
             
             // Procesar comando ingresado
             switch (comando) {
@@ -369,20 +1231,174 @@ public class ServidorMixto {
                 case "estado":
                     mostrarEstadoServidor();
                     break;
+                case "buscar":
+                    buscarDesdeConsola(argumentos);
+                    break;
+                case "nodos":
+                    mostrarNodos();
+                    break;
+                case "metricas":
+                    mostrarMetricas();
+                    break;
+                case "trazas":
+                    consultarTrazas(argumentos.trim());
+                    break;
+                case "log":
+                    cambiarNivelBitacora(argumentos);
+                    break;
+                case "compactar":
+                    if (compactador != null) {
+                        compactador.ejecutarAhora();
+                        System.out.println("Compactacion del diario solicitada");
+                    } else {
+                        System.out.println("El diario no esta disponible");
+                    }
+                    break;
                 case "salir":
-                    System.out.println("Cerrando servidor...");
                     servidorActivo = false;
                     break;
                 default:
-                    System.out.println("Comando no reconocido. Use: clientes, estado, salir");
+                    System.out.println("Comando no reconocido. Use: clientes, estado, buscar <terminos>, nodos, metricas, trazas, log <nivel>, compactar, salir");
             }
         }
         
-        // Liberar recursos al salir
         scanner.close();
+        cerrarServidor();
+    }
+    
+    /**
+     * Cierra el servidor de forma ordenada y termina el proceso
+     * Lo usan el comando 'salir' y la accion HTTP /admin/apagar
+     */
+    static synchronized void cerrarServidor() {
+        System.out.println("Cerrando servidor...");
+        servidorActivo = false;
+        
+        // Liberar recursos
+        if (administracion != null) {
+            administracion.detener();
+        }
+        if (servidorUnix != null) {
+            servidorUnix.detener();
+        }
+        if (federacion != null) {
+            federacion.detener();
+        }
+        if (compactador != null) {
+            compactador.detener();
+        }
+        if (diario != null) {
+            diario.cerrar();
+        }
+        if (buzones != null) {
+            buzones.detener();
+        }
+        indice.detener();
+        Bitacora.vaciar(1000);
         System.exit(0);
     }
     
+    /**
+     * Ejecuta una busqueda de texto completo sobre todos los mensajes
+     * 
+     * @param consulta Terminos a buscar (frases exactas entre comillas)
+     */
+    private static void buscarDesdeConsola(String consulta) {
+        if (consulta.isEmpty()) {
+            System.out.println("Uso: buscar <terminos> (frases exactas entre comillas)");
+            return;
+        }
+        long inicio = System.nanoTime();
+        List<Mensaje> resultados = buscarMensajes(consulta, null, null);
+        long microsegundos = (System.nanoTime() - inicio) / 1000;
+        
+        System.out.println("\nRESULTADOS (" + resultados.size() + ", " + microsegundos + " us"
+                + (indice.estaReconstruyendo() ? ", indice reconstruyendose" : "") + "):");
+        for (Mensaje m : resultados) {
+            System.out.println(formatearResultado(m));
+        }
+    }
+    
+    /**
+     * Muestra contadores e histogramas de latencia del servidor
+     */
+    private static void mostrarMetricas() {
+        System.out.println("\nMETRICAS:");
+        for (String linea : Metricas.resumen()) {
+            System.out.println(linea);
+        }
+        System.out.println("Bitacora: nivel " + Bitacora.getNivel() + ", pendientes=" + Bitacora.getPendientes()
+                + " descartados=" + Bitacora.getDescartados());
+    }
+    
+    /**
+     * Consulta las trazas muestreadas desde la consola
+     * - trazas             -> ultimas 20 trazas
+     * - trazas <id>        -> saltos de una traza (ID hexadecimal)
+     * - trazas <filtro>    -> ultimas trazas de un cliente o con ese texto
+     * - trazas muestreo N  -> trazar una de cada N lineas (0 desactiva)
+     * 
+     * @param argumentos Texto despues del comando
+     */
+    private static void consultarTrazas(String argumentos) {
+        if (argumentos.toLowerCase().startsWith("muestreo")) {
+            try {
+                RegistroTrazas.setMuestreo(Integer.parseInt(argumentos.substring(8).trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Uso: trazas muestreo N (0 desactiva, 1 traza todos los mensajes)");
+            }
+            System.out.println("Muestreo de trazas: 1 de cada " + RegistroTrazas.getMuestreo());
+            return;
+        }
+        if (argumentos.matches("[0-9a-fA-F]{16}")) {
+            RegistroTrazas.Traza traza = RegistroTrazas.buscar(RegistroTrazas.leerId(argumentos));
+            if (traza == null) {
+                System.out.println("No hay traza con ID " + argumentos + " (no se muestreo o ya se reemplazo)");
+                return;
+            }
+            for (String linea : traza.detalle()) {
+                System.out.println(linea);
+            }
+            return;
+        }
+        List<RegistroTrazas.Traza> trazas = RegistroTrazas.recientes(argumentos.isEmpty() ? null : argumentos, 20);
+        System.out.println("\nTRAZAS (" + trazas.size() + " de " + RegistroTrazas.getTrazasGuardadas()
+                + " guardadas, muestreo 1 de cada " + RegistroTrazas.getMuestreo() + "):");
+        for (RegistroTrazas.Traza traza : trazas) {
+            System.out.println("  " + traza.resumen());
+        }
+    }
+    
+    /**
+     * Cambia el nivel de la bitacora en caliente (log depuracion muestra cada mensaje)
+     * 
+     * @param nivel Nombre del nivel: TRAZA, DEPURACION, INFO, AVISO o ERROR
+     */
+    private static void cambiarNivelBitacora(String nivel) {
+        try {
+            Bitacora.setNivel(Bitacora.Nivel.valueOf(nivel.trim().toUpperCase()));
+            System.out.println("Nivel de bitacora: " + Bitacora.getNivel());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Uso: log <nivel> (" + Arrays.toString(Bitacora.Nivel.values())
+                    + "), actual: " + Bitacora.getNivel());
+        }
+    }
+    
+    /**
+     * Muestra los nodos de la federacion con enlace activo
+     */
+    private static void mostrarNodos() {
+        if (federacion == null) {
+            System.out.println("Federacion desactivada (use -Dchat.federacion.puerto=N)");
+            return;
+        }
+        System.out.println("\nNODO " + federacion.getIdNodo() + " - ENLACES ACTIVOS:");
+        for (String linea : federacion.describirEnlaces()) {
+            System.out.println("  " + linea);
+        }
+        System.out.println("Presencia en el cluster: " + federacion.getDirectorio().getConectados());
+    }
+    
     /**
      * Muestra la lista de clientes conectados al servidor
      * Separa clientes TCP y UDP con sus respectivos contadores
@@ -392,6 +1408,7 @@ public class ServidorMixto {
         System.out.println("Clientes TCP (" + clientesTCP.size() + "): " + clientesTCP);
         System.out.println("Clientes UDP (" + clientesUDP.size() + "): " + clientesUDP);
         System.out.println("Manejadores activos: " + manejadoresActivos.size());
+        System.out.println("Suscritos a presencia: " + PresenciaClientes.getSuscriptores());
     }
     
     /**
@@ -401,10 +1418,36 @@ public class ServidorMixto {
     private static void mostrarEstadoServidor() {
         System.out.println("\nESTADO DEL SERVIDOR:");
         System.out.println("Servidor activo: " + servidorActivo);
+        System.out.println("Drenando: " + (drenando ? "si" : "no"));
+        System.out.println("Interfaz grafica: " + (sinInterfaz ? "no (headless)" : "local"));
+        if (administracion != null) {
+            System.out.println("Administracion HTTP: puerto " + administracion.getPuerto());
+        }
         System.out.println("Puerto TCP: " + PUERTO_TCP);
         System.out.println("Puerto UDP: " + PUERTO_UDP);
         System.out.println("Total clientes: " + (clientesTCP.size() + clientesUDP.size()));
         System.out.println("Manejadores activos: " + manejadoresActivos.size());
+        System.out.println("Salas en este nodo: " + salas.size());
+        if (diario != null) {
+            System.out.println("Diario: ultima secuencia " + diario.getUltimaSecuenciaEscrita()
+                    + ", sincronizada " + diario.getUltimaSecuenciaSincronizada()
+                    + ", pendientes " + diario.getPendientes()
+                    + ", descartados " + diario.getDescartados()
+                    + ", segmentos " + diario.getTotalSegmentos()
+                    + ", bytes " + diario.getTamanoTotal());
+        }
+        if (buzones != null) {
+            System.out.println("Buzones offline: " + buzones.getTotalBuzones()
+                    + ", bytes en memoria " + buzones.getBytesEnMemoria()
+                    + ", expirados " + buzones.getExpirados());
+        }
+        System.out.println("Indice de busqueda: " + indice.getTotalDocumentos() + " mensajes, "
+                + indice.getTotalTerminos() + " terminos, descartados " + indice.getDescartados());
+        if (federacion != null) {
+            System.out.println("Federacion: nodo " + federacion.getIdNodo() + ", enlaces "
+                    + federacion.getNodosConectados() + ", duplicados descartados "
+                    + federacion.getDuplicadosDescartados());
+        }
     }
     
 }
\ No newline at end of file
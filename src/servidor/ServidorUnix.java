@@ -0,0 +1,189 @@
+package servidor;
+
+import common.Bitacora;
+import common.FlujosCanal;
+import common.Protocolo;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SERVIDOR UNIX - CONEXIONES POR SOCKET DE DOMINIO UNIX
+ *
+ * Escucha en un archivo de socket (UnixDomainSocketAddress) para los bots y
+ * procesos auxiliares del mismo equipo, que asi no pasan por la pila TCP de
+ * loopback. Cada conexion aceptada recibe un ManejadorClientes igual que una
+ * TCP: mismos comandos, mismo enrutado.
+ *
+ * Caracteristicas:
+ * - Desactivado por defecto; se activa con chat.unix.ruta
+ * - Si el archivo ya existe y nadie escucha en el (servidor anterior que no
+ *   cerro bien) se borra; si otro servidor lo usa, no arranca
+ * - IDs de cliente unix:N:timestamp (mismo formato IP:PUERTO:TIMESTAMP)
+ * - El archivo se borra al detener el servidor
+ *
+ * Configuracion:
+ * - chat.unix.ruta  Ruta del archivo de socket (sin valor = desactivado)
+ *
+ * @version 1.0
+ */
+final class ServidorUnix {
+
+    private final Path ruta;
+    private final AtomicInteger conexiones = new AtomicInteger();
+    private volatile ServerSocketChannel canal;
+
+    ServidorUnix(Path ruta) {
+        this.ruta = ruta;
+    }
+
+    /**
+     * Crea el servidor con la configuracion de las propiedades del sistema
+     *
+     * @return Servidor sin iniciar, o null si chat.unix.ruta no esta definida
+     */
+    static ServidorUnix desdePropiedades() {
+        String ruta = System.getProperty("chat.unix.ruta");
+        if (ruta == null || ruta.trim().isEmpty()) {
+            return null;
+        }
+        return new ServidorUnix(Paths.get(ruta.trim()));
+    }
+
+    // =============================================
+    // CICLO DE VIDA
+    // =============================================
+
+    /**
+     * Abre el socket y acepta conexiones en un hilo propio
+     *
+     * @throws IOException Si no se puede crear el archivo de socket
+     */
+    void iniciar() throws IOException {
+        UnixDomainSocketAddress direccion = UnixDomainSocketAddress.of(ruta);
+        if (Files.exists(ruta)) {
+            liberarArchivoHuerfano(direccion);
+        }
+        ServerSocketChannel nuevo = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            nuevo.bind(direccion);
+        } catch (IOException e) {
+            nuevo.close();
+            throw e;
+        }
+        canal = nuevo;
+        Thread hilo = new Thread(this::aceptar, "servidor-unix");
+        hilo.setDaemon(true);
+        hilo.start();
+        System.out.println("Servidor UNIX escuchando en " + ruta);
+    }
+
+    /**
+     * Borra un archivo de socket que quedo de un servidor que ya no corre
+     */
+    private void liberarArchivoHuerfano(UnixDomainSocketAddress direccion) throws IOException {
+        boolean enUso;
+        try (SocketChannel prueba = SocketChannel.open(direccion)) {
+            enUso = prueba.isConnected();
+        } catch (IOException e) {
+            enUso = false;
+        }
+        if (enUso) {
+            throw new IOException("Otro servidor ya escucha en " + ruta);
+        }
+        Files.deleteIfExists(ruta);
+    }
+
+    void detener() {
+        ServerSocketChannel actual = canal;
+        canal = null;
+        if (actual == null) {
+            return;
+        }
+        try {
+            actual.close();
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            Bitacora.aviso("Error cerrando el socket UNIX {}: {}", ruta, e.getMessage());
+        }
+    }
+
+    Path getRuta() {
+        return ruta;
+    }
+
+    // =============================================
+    // ACEPTACION DE CONEXIONES
+    // =============================================
+
+    /**
+     * Acepta conexiones hasta que se cierra el canal, ya sea por detener()
+     * o por cualquier otra causa (sin esto el hilo giraria para siempre)
+     */
+    private void aceptar() {
+        ServerSocketChannel escucha;
+        while ((escucha = canal) != null) {
+            try {
+                SocketChannel cliente = escucha.accept();
+                String idCliente = Protocolo.generarIdCliente("unix", conexiones.incrementAndGet());
+                ServidorMixto.atenderConexion(new ConexionUnix(cliente), idCliente, Protocolo.UNIX);
+            } catch (ClosedChannelException e) {
+                if (canal != null) {
+                    Bitacora.aviso("Socket UNIX {} cerrado sin detener el servidor: {}", ruta, e.toString());
+                }
+                return;
+            } catch (IOException e) {
+                if (canal != null) {
+                    Bitacora.aviso("Error aceptando conexion UNIX: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Presenta un SocketChannel UNIX como Socket para ManejadorClientes,
+     * que solo usa los flujos y el cierre
+     * (SocketChannel.socket() no existe para sockets UNIX)
+     */
+    static final class ConexionUnix extends Socket {
+        private final SocketChannel cliente;
+        private final InputStream entrada;
+        private final OutputStream salida;
+
+        ConexionUnix(SocketChannel cliente) {
+            this.cliente = cliente;
+            this.entrada = FlujosCanal.entrada(cliente);
+            this.salida = FlujosCanal.salida(cliente);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return entrada;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return salida;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !cliente.isOpen();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            cliente.close();
+        }
+    }
+}